@@ -0,0 +1,446 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+import com.microsoft.applicationinsights.internal.shutdown.SDKShutdownActivity;
+import com.microsoft.applicationinsights.internal.shutdown.Stoppable;
+import com.microsoft.applicationinsights.internal.util.ThreadPoolUtils;
+import com.microsoft.applicationinsights.telemetry.MetricTelemetry;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+
+/**
+ * Aggregates metric values locally and sends one aggregated {@link MetricTelemetry} per series and interval,
+ * instead of a telemetry per value as {@link TelemetryClient#trackMetric(String, double)} does.
+ *
+ * A series is identified by the name of the metric and its dimensions, the dimensions are sent as the properties
+ * of the metric. The sent metric holds the sum of the values as its value, and their count, min, max and standard deviation.
+ *
+ * Tracking a value does not take locks: every series spreads its values over striped cells, picked by the calling thread,
+ * which are updated by compare and swap and are summed when the interval ends. To save the lookup of the series
+ * on every value, keep the {@link Series} returned by {@link #getSeries(String, Map)} and track the values on it.
+ *
+ * The number of series is capped, values of new series are dropped once the cap is reached.
+ * Series that had no values during an interval are removed so their place can be taken by other series.
+ */
+public final class MetricAggregator implements Stoppable {
+    public final static int DEFAULT_AGGREGATION_INTERVAL_IN_SECONDS = 60;
+    public final static int DEFAULT_MAX_SERIES = 1000;
+
+    private final static int MAX_STRIPES = 64;
+
+    /**
+     * A single cell of a series, the values of the series are spread over a few cells to reduce contention.
+     * Doubles are kept as their raw long bits so they can be updated by compare and swap.
+     */
+    private final static class Cell {
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong sum = new AtomicLong(Double.doubleToRawLongBits(0.0));
+        private final AtomicLong sumOfSquares = new AtomicLong(Double.doubleToRawLongBits(0.0));
+        private final AtomicLong min = new AtomicLong(Double.doubleToRawLongBits(Double.POSITIVE_INFINITY));
+        private final AtomicLong max = new AtomicLong(Double.doubleToRawLongBits(Double.NEGATIVE_INFINITY));
+
+        private void add(double value) {
+            addTo(sum, value);
+            addTo(sumOfSquares, value * value);
+            lowerTo(min, value);
+            raiseTo(max, value);
+            count.incrementAndGet();
+        }
+
+        private static void addTo(AtomicLong target, double value) {
+            while (true) {
+                long current = target.get();
+                long updated = Double.doubleToRawLongBits(Double.longBitsToDouble(current) + value);
+                if (target.compareAndSet(current, updated)) {
+                    return;
+                }
+            }
+        }
+
+        private static void lowerTo(AtomicLong target, double value) {
+            long current;
+            while (value < Double.longBitsToDouble(current = target.get())) {
+                if (target.compareAndSet(current, Double.doubleToRawLongBits(value))) {
+                    return;
+                }
+            }
+        }
+
+        private static void raiseTo(AtomicLong target, double value) {
+            long current;
+            while (value > Double.longBitsToDouble(current = target.get())) {
+                if (target.compareAndSet(current, Double.doubleToRawLongBits(value))) {
+                    return;
+                }
+            }
+        }
+
+        private static double getAndSet(AtomicLong target, double value) {
+            return Double.longBitsToDouble(target.getAndSet(Double.doubleToRawLongBits(value)));
+        }
+    }
+
+    /**
+     * The values of one series during the current interval.
+     */
+    public final static class Series {
+        private final MetricAggregator aggregator;
+        private final String name;
+        private final SortedMap<String, String> dimensions;
+        private final AtomicReferenceArray<Cell> cells;
+
+        // Set when the series was removed from the aggregator, values are then tracked on the series that replaced it
+        private volatile boolean retired;
+
+        private Series(MetricAggregator aggregator, String name, SortedMap<String, String> dimensions, int numberOfStripes) {
+            this.aggregator = aggregator;
+            this.name = name;
+            this.dimensions = dimensions;
+            this.cells = new AtomicReferenceArray<Cell>(numberOfStripes);
+        }
+
+        /**
+         * Adds a value to the series.
+         * @param value The value to add.
+         */
+        public void trackValue(double value) {
+            if (retired) {
+                aggregator.trackValue(name, value, dimensions);
+                return;
+            }
+
+            int index = (int) Thread.currentThread().getId() & (cells.length() - 1);
+            Cell cell = cells.get(index);
+            if (cell == null) {
+                cells.compareAndSet(index, null, new Cell());
+                cell = cells.get(index);
+            }
+
+            cell.add(value);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Map<String, String> getDimensions() {
+            return Collections.unmodifiableMap(dimensions);
+        }
+
+        /**
+         * Sums the cells and resets them for the next interval.
+         * @return The aggregated metric, or null if no values were tracked since the last call.
+         */
+        private MetricTelemetry getAndReset() {
+            long count = 0;
+            double sum = 0.0;
+            double sumOfSquares = 0.0;
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < cells.length(); ++i) {
+                Cell cell = cells.get(i);
+                if (cell == null) {
+                    continue;
+                }
+
+                // The fields are not reset together, so a value tracked meanwhile may be split between two intervals
+                long cellCount = cell.count.getAndSet(0);
+                if (cellCount == 0) {
+                    continue;
+                }
+                count += cellCount;
+                sum += Cell.getAndSet(cell.sum, 0.0);
+                sumOfSquares += Cell.getAndSet(cell.sumOfSquares, 0.0);
+                min = Math.min(min, Cell.getAndSet(cell.min, Double.POSITIVE_INFINITY));
+                max = Math.max(max, Cell.getAndSet(cell.max, Double.NEGATIVE_INFINITY));
+            }
+
+            if (count == 0) {
+                return null;
+            }
+
+            double mean = sum / count;
+            double variance = Math.max(0.0, sumOfSquares / count - mean * mean);
+
+            MetricTelemetry telemetry = new MetricTelemetry(name, sum);
+            telemetry.setCount((int) Math.min(count, Integer.MAX_VALUE));
+            telemetry.setMin(min);
+            telemetry.setMax(max);
+            telemetry.setStandardDeviation(Math.sqrt(variance));
+            telemetry.getContext().getProperties().putAll(dimensions);
+
+            return telemetry;
+        }
+    }
+
+    /**
+     * The key of a series, the dimensions are sorted so the order they were given in does not matter.
+     */
+    private final static class SeriesKey {
+        private final String name;
+        private final SortedMap<String, String> dimensions;
+
+        private SeriesKey(String name, SortedMap<String, String> dimensions) {
+            this.name = name;
+            this.dimensions = dimensions;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof SeriesKey)) {
+                return false;
+            }
+
+            SeriesKey that = (SeriesKey) other;
+            return name.equals(that.name) && dimensions.equals(that.dimensions);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * name.hashCode() + dimensions.hashCode();
+        }
+    }
+
+    private final TelemetryClient telemetryClient;
+    private final int maxSeries;
+    private final int numberOfStripes;
+
+    private final ConcurrentMap<SeriesKey, Series> series = new ConcurrentHashMap<SeriesKey, Series>();
+    private final AtomicInteger numberOfSeries = new AtomicInteger();
+
+    /// Series removed on the last flush, flushed once more in case a value was tracked on them while they were removed
+    private List<Series> retiredSeries = new ArrayList<Series>();
+
+    private final AtomicLong droppedValues = new AtomicLong();
+    private volatile boolean maxSeriesReached;
+
+    private ScheduledThreadPoolExecutor threads;
+
+    /**
+     * Creates an aggregator that sends the aggregated metrics every {@link #DEFAULT_AGGREGATION_INTERVAL_IN_SECONDS} seconds,
+     * for up to {@link #DEFAULT_MAX_SERIES} series.
+     * @param telemetryClient The client that sends the aggregated metrics.
+     */
+    public MetricAggregator(TelemetryClient telemetryClient) {
+        this(telemetryClient, DEFAULT_AGGREGATION_INTERVAL_IN_SECONDS, DEFAULT_MAX_SERIES);
+    }
+
+    /**
+     * @param telemetryClient The client that sends the aggregated metrics.
+     * @param aggregationIntervalInSeconds The interval to send the aggregated metrics in.
+     * @param maxSeries The maximum number of series, values of new series are dropped once it is reached.
+     */
+    public MetricAggregator(TelemetryClient telemetryClient, int aggregationIntervalInSeconds, int maxSeries) {
+        this(telemetryClient, aggregationIntervalInSeconds, maxSeries, Runtime.getRuntime().availableProcessors());
+
+        Preconditions.checkArgument(aggregationIntervalInSeconds > 0, "aggregationIntervalInSeconds must be a positive number");
+    }
+
+    /**
+     * @param aggregationIntervalInSeconds The interval to send the aggregated metrics in, zero to send them only when {@link #flush()} is called.
+     * @param numberOfCpus The number of cells of every series is the closest power of two to that number.
+     */
+    @VisibleForTesting
+    MetricAggregator(TelemetryClient telemetryClient, int aggregationIntervalInSeconds, int maxSeries, int numberOfCpus) {
+        Preconditions.checkNotNull(telemetryClient, "telemetryClient must be non-null value");
+        Preconditions.checkArgument(maxSeries > 0, "maxSeries must be a positive number");
+
+        this.telemetryClient = telemetryClient;
+        this.maxSeries = maxSeries;
+
+        int stripes = 1;
+        while (stripes < numberOfCpus && stripes < MAX_STRIPES) {
+            stripes <<= 1;
+        }
+        this.numberOfStripes = stripes;
+
+        if (aggregationIntervalInSeconds > 0) {
+            startTimer(aggregationIntervalInSeconds);
+            SDKShutdownActivity.INSTANCE.registerProducer(this);
+        }
+    }
+
+    /**
+     * Adds a value to the series of the metric without dimensions.
+     * @param name The name of the metric.
+     * @param value The value to add.
+     * @return False if the value was dropped since the maximum number of series was reached.
+     */
+    public boolean trackValue(String name, double value) {
+        return trackValue(name, value, null);
+    }
+
+    /**
+     * Adds a value to the series of the metric with the dimensions.
+     * @param name The name of the metric.
+     * @param value The value to add.
+     * @param dimensions The dimensions of the series, sent as the properties of the aggregated metric, might be null.
+     * @return False if the value was dropped since the maximum number of series was reached.
+     */
+    public boolean trackValue(String name, double value, Map<String, String> dimensions) {
+        Series found = getSeries(name, dimensions);
+        if (found == null) {
+            droppedValues.incrementAndGet();
+            return false;
+        }
+
+        found.trackValue(value);
+        return true;
+    }
+
+    /**
+     * Returns the series of the metric with the dimensions, creating it if needed.
+     * @param name The name of the metric.
+     * @param dimensions The dimensions of the series, might be null.
+     * @return The series, or null if it does not exist and the maximum number of series was reached.
+     */
+    public Series getSeries(String name, Map<String, String> dimensions) {
+        Preconditions.checkArgument(!Strings.isNullOrEmpty(name), "name must be a non empty string");
+
+        SortedMap<String, String> sortedDimensions = dimensions == null ?
+                new TreeMap<String, String>() :
+                new TreeMap<String, String>(dimensions);
+        SeriesKey key = new SeriesKey(name, sortedDimensions);
+
+        Series found = series.get(key);
+        if (found != null) {
+            return found;
+        }
+
+        if (numberOfSeries.incrementAndGet() > maxSeries) {
+            numberOfSeries.decrementAndGet();
+            if (!maxSeriesReached) {
+                maxSeriesReached = true;
+                InternalLogger.INSTANCE.warn("Metric aggregator reached the maximum of %s series, values of new series are dropped", maxSeries);
+            }
+            return null;
+        }
+
+        Series created = new Series(this, name, sortedDimensions, numberOfStripes);
+        found = series.putIfAbsent(key, created);
+        if (found != null) {
+            numberOfSeries.decrementAndGet();
+            return found;
+        }
+
+        return created;
+    }
+
+    /**
+     * @return The number of values that were dropped since the maximum number of series was reached.
+     */
+    public long getDroppedValues() {
+        return droppedValues.get();
+    }
+
+    /**
+     * @return The number of series that currently aggregate values.
+     */
+    public int getNumberOfSeries() {
+        return numberOfSeries.get();
+    }
+
+    /**
+     * Sends the values aggregated since the last call, one {@link MetricTelemetry} per series.
+     * Series without values are removed.
+     */
+    public synchronized void flush() {
+        for (Series retired : retiredSeries) {
+            track(retired.getAndReset());
+        }
+        retiredSeries = new ArrayList<Series>();
+
+        for (Map.Entry<SeriesKey, Series> entry : series.entrySet()) {
+            Series current = entry.getValue();
+            MetricTelemetry telemetry = current.getAndReset();
+            if (telemetry != null) {
+                track(telemetry);
+                continue;
+            }
+
+            if (series.remove(entry.getKey(), current)) {
+                current.retired = true;
+                numberOfSeries.decrementAndGet();
+                retiredSeries.add(current);
+            }
+        }
+    }
+
+    /**
+     * Sends what was aggregated and stops the timer.
+     */
+    @Override
+    public void stop(long timeout, TimeUnit timeUnit) {
+        ThreadPoolUtils.stop(threads, timeout, timeUnit);
+        flush();
+    }
+
+    private void startTimer(int aggregationIntervalInSeconds) {
+        threads = new ScheduledThreadPoolExecutor(1);
+        threads.setThreadFactory(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "ApplicationInsights-MetricAggregator");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        threads.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    flush();
+                } catch (Throwable t) {
+                    InternalLogger.INSTANCE.error("Failed to send aggregated metrics, exception: %s", t.getMessage());
+                }
+            }
+        }, aggregationIntervalInSeconds, aggregationIntervalInSeconds, TimeUnit.SECONDS);
+    }
+
+    private void track(MetricTelemetry telemetry) {
+        if (telemetry != null) {
+            telemetryClient.trackMetric(telemetry);
+        }
+    }
+}
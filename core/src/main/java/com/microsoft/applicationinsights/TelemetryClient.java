@@ -30,6 +30,7 @@ import com.microsoft.applicationinsights.extensibility.TelemetryInitializer;
 import com.microsoft.applicationinsights.extensibility.TelemetryProcessor;
 import com.microsoft.applicationinsights.extensibility.context.InternalContext;
 import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+import com.microsoft.applicationinsights.internal.processor.StandardMetricsProcessor;
 import com.microsoft.applicationinsights.internal.quickpulse.QuickPulseDataCollector;
 import com.microsoft.applicationinsights.internal.util.ChannelFetcher;
 import com.microsoft.applicationinsights.internal.shutdown.SDKShutdownActivity;
@@ -261,6 +262,30 @@ public class TelemetryClient {
         track(telemetry);
     }
 
+    /**
+     * Sends the values of a histogram as a metric, with its percentiles and buckets.
+     * Use {@link Histogram#getAndReset()} to send the values of an interval and keep recording into the histogram.
+     * @param name The name of the metric. Max length 150.
+     * @param histogram The histogram.
+     * @param properties Named string values you can use to search and classify trace messages.
+     */
+    public void trackHistogram(String name, Histogram histogram, Map<String, String> properties) {
+        if (isDisabled()) {
+            return;
+        }
+
+        if (histogram == null || histogram.getCount() == 0) {
+            return;
+        }
+
+        MetricTelemetry mt = new MetricTelemetry(name, histogram);
+        if (properties != null && properties.size() > 0) {
+            MapUtil.copy(properties, mt.getContext().getProperties());
+        }
+
+        this.track(mt);
+    }
+
     /**
      * Sends an exception record to Application Insights. Appears in "exceptions" in Analytics and Search.
      * @param exception The exception to log information about.
@@ -391,6 +416,7 @@ public class TelemetryClient {
         }
 
         if (isDisabled()) {
+            TelemetryPool.release(telemetry);
             return;
         }
 
@@ -420,7 +446,10 @@ public class TelemetryClient {
             InternalLogger.INSTANCE.error("Exception while sanitizing telemetry: '%s'",t.getMessage());
         }
 
+        rollUpStandardMetrics(telemetry);
+
         if (!activateProcessors(telemetry)) {
+            TelemetryPool.release(telemetry);
             return;
         }
 
@@ -446,6 +475,19 @@ public class TelemetryClient {
         }
     }
 
+    private void rollUpStandardMetrics(Telemetry telemetry) {
+        StandardMetricsProcessor processor = configuration.getStandardMetricsProcessor();
+        if (processor == null) {
+            return;
+        }
+
+        try {
+            processor.rollUp(telemetry);
+        } catch (Throwable t) {
+            InternalLogger.INSTANCE.error("Exception while rolling up standard metrics: '%s'", t.getMessage());
+        }
+    }
+
     private boolean activateProcessors(Telemetry telemetry) {
         for (TelemetryProcessor processor : configuration.getTelemetryProcessors()) {
             try {
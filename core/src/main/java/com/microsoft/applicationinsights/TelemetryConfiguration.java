@@ -32,6 +32,7 @@ import com.microsoft.applicationinsights.extensibility.TelemetryModule;
 import com.microsoft.applicationinsights.extensibility.TelemetryProcessor;
 import com.microsoft.applicationinsights.internal.config.TelemetryConfigurationFactory;
 import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+import com.microsoft.applicationinsights.internal.processor.StandardMetricsProcessor;
 import com.microsoft.applicationinsights.internal.util.Sanitizer;
 
 import com.google.common.base.Strings;
@@ -58,8 +59,12 @@ public final class TelemetryConfiguration {
 
     private TelemetryChannel channel;
 
+    private StandardMetricsProcessor standardMetricsProcessor;
+
     private boolean trackingIsDisabled = false;
 
+    private boolean telemetryPoolingEnabled = false;
+
     /**
      * Gets the active {@link com.microsoft.applicationinsights.TelemetryConfiguration} instance loaded from the
      * ApplicationInsights.xml file. If the configuration file does not exist, the active configuration instance is
@@ -131,6 +136,28 @@ public final class TelemetryConfiguration {
         trackingIsDisabled = disable;
     }
 
+    /**
+     * Gets value indicating whether the telemetries taken from the {@link com.microsoft.applicationinsights.telemetry.TelemetryPool}
+     * with this configuration are reused once they are sent.
+     * @return True if the telemetries are pooled.
+     */
+    public boolean isTelemetryPoolingEnabled() {
+        return telemetryPoolingEnabled;
+    }
+
+    /**
+     * Sets value indicating whether the telemetries taken from the {@link com.microsoft.applicationinsights.telemetry.TelemetryPool}
+     * with this configuration are reused once they are sent.
+     *
+     * The channel of the configuration must return the telemetries to their pools, as the
+     * {@link com.microsoft.applicationinsights.channel.concrete.inprocess.InProcessTelemetryChannel} does,
+     * it is set from the 'TelemetryPooling' setting of that channel when the configuration is loaded.
+     * @param enabled True to reuse the telemetries.
+     */
+    public void setTelemetryPoolingEnabled(boolean enabled) {
+        telemetryPoolingEnabled = enabled;
+    }
+
     /**
      * Gets the list of {@link ContextInitializer} objects that supply additional information about application.
      *
@@ -164,6 +191,25 @@ public final class TelemetryConfiguration {
         return telemetryProcessors;
     }
 
+    /**
+     * Gets the processor that rolls up the tracked requests and dependencies into standard metrics, might be null.
+     * @return The standard metrics processor.
+     */
+    public StandardMetricsProcessor getStandardMetricsProcessor() {
+        return standardMetricsProcessor;
+    }
+
+    /**
+     * Sets the processor that rolls up the tracked requests and dependencies into standard metrics.
+     *
+     * The processor rolls up every telemetry that is tracked with this configuration before the telemetry processors run,
+     * so the metrics count the items that the processors filter out or sample out.
+     * @param standardMetricsProcessor The standard metrics processor, null to not roll up the telemetries.
+     */
+    public void setStandardMetricsProcessor(StandardMetricsProcessor standardMetricsProcessor) {
+        this.standardMetricsProcessor = standardMetricsProcessor;
+    }
+
     /**
      * Gets or sets the default instrumentation key for the application.
      *
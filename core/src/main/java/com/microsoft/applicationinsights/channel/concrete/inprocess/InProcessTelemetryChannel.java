@@ -22,22 +22,43 @@
 package com.microsoft.applicationinsights.channel.concrete.inprocess;
 
 import java.io.IOException;
-import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
 import java.net.URI;
+import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
 
+import javax.management.ObjectName;
+
+import com.microsoft.applicationinsights.internal.channel.ChannelSettings;
+import com.microsoft.applicationinsights.internal.channel.PrioritizedTelemetriesTransmitter;
+import com.microsoft.applicationinsights.internal.channel.TelemetriesBuffer;
 import com.microsoft.applicationinsights.internal.channel.TelemetriesTransmitter;
 import com.microsoft.applicationinsights.channel.TelemetrySampler;
 import com.microsoft.applicationinsights.internal.channel.TransmitterFactory;
+import com.microsoft.applicationinsights.internal.channel.common.AdaptiveCompressionController;
+import com.microsoft.applicationinsights.internal.channel.common.AsyncTransmissionNetworkOutput;
+import com.microsoft.applicationinsights.internal.channel.common.BackpressurePolicy;
+import com.microsoft.applicationinsights.internal.channel.common.ChannelStatistics;
+import com.microsoft.applicationinsights.internal.channel.common.DeflaterPool;
+import com.microsoft.applicationinsights.internal.channel.common.LockFreeTelemetryBuffer;
+import com.microsoft.applicationinsights.internal.channel.common.PriorityLaneTelemetryBuffer;
 import com.microsoft.applicationinsights.internal.channel.common.TelemetryBuffer;
+import com.microsoft.applicationinsights.internal.channel.common.TelemetryDropCounters;
+import com.microsoft.applicationinsights.internal.channel.common.TelemetryPriority;
+import com.microsoft.applicationinsights.internal.channel.common.TransmitterImpl;
 import com.microsoft.applicationinsights.internal.logger.InternalLogger;
 import com.microsoft.applicationinsights.internal.util.LimitsEnforcer;
 import com.microsoft.applicationinsights.internal.util.LocalStringsUtils;
 import com.microsoft.applicationinsights.internal.util.Sanitizer;
+import com.microsoft.applicationinsights.internal.util.Utf8BytesWriter;
 import com.microsoft.applicationinsights.telemetry.JsonTelemetryDataSerializer;
 import com.microsoft.applicationinsights.telemetry.SupportSampling;
 import com.microsoft.applicationinsights.telemetry.Telemetry;
+import com.microsoft.applicationinsights.telemetry.TelemetryPool;
 import com.microsoft.applicationinsights.channel.TelemetryChannel;
 
 import com.google.common.base.Strings;
@@ -74,21 +95,71 @@ public final class InProcessTelemetryChannel implements TelemetryChannel {
     private final static int MAX_FLUSH_BUFFER_TIMEOUT_IN_SECONDS = 300;
     private final static String FLUSH_BUFFER_TIMEOUT_IN_SECONDS_NAME = "FlushIntervalInSeconds";
 
+    private final static int MIN_COMPRESSION_LEVEL = Deflater.DEFAULT_COMPRESSION;
+    private final static int MAX_COMPRESSION_LEVEL = Deflater.BEST_COMPRESSION;
+    private final static String COMPRESSION_LEVEL_NAME = "CompressionLevel";
+
+    private final static int MIN_MAX_BATCH_SIZE_IN_BYTES = 1024;
+    private final static int MAX_MAX_BATCH_SIZE_IN_BYTES = 64 * 1024 * 1024;
+    private final static String MAX_BATCH_SIZE_IN_BYTES_NAME = "MaxBatchSizeInBytes";
+
+    private final static int MIN_MAX_IN_FLIGHT_REQUESTS = 1;
+    private final static int MAX_MAX_IN_FLIGHT_REQUESTS = 1000;
+    private final static String MAX_IN_FLIGHT_REQUESTS_NAME = "MaxInFlightRequests";
+
+    private final static int MIN_BACKPRESSURE_TIMEOUT_IN_MILLIS = 1;
+    private final static int MAX_BACKPRESSURE_TIMEOUT_IN_MILLIS = 60000;
+    private final static String BACKPRESSURE_TIMEOUT_IN_MILLIS_NAME = "BackpressureTimeoutInMillis";
+
+    private final static int MIN_MAX_CPU_PERCENT = 1;
+    private final static int MAX_MAX_CPU_PERCENT = 100;
+    private final static String MAX_CPU_PERCENT_NAME = "MaxCpuPercent";
+
     private final static String DEVELOPER_MODE_SYSTEM_PROPRETY_NAME = "APPLICATION_INSIGHTS_DEVELOPER_MODE";
 
     private final static String DEVELOPER_MODE_NAME = "DeveloperMode";
     private final static String ENDPOINT_ADDRESS_NAME = "EndpointAddress";
     private final static String MAX_TRANSMISSION_STORAGE_CAPACITY_NAME = "MaxTransmissionStorageFilesCapacityInMB";
+    private final static String LOCK_FREE_BUFFER_NAME = "LockFreeBuffer";
+    private final static String STREAMING_COMPRESSION_NAME = "StreamingCompression";
+    private final static String ASYNC_NETWORK_OUTPUT_NAME = "AsyncNetworkOutput";
+    private final static String SEGMENTED_TRANSMISSION_STORAGE_NAME = "SegmentedTransmissionStorage";
+    private final static String BACKPRESSURE_POLICY_NAME = "BackpressurePolicy";
+    private final static String HIGH_PRIORITY_TELEMETRY_TYPES_NAME = "HighPriorityTelemetryTypes";
+    private final static String LOW_PRIORITY_TELEMETRY_TYPES_NAME = "LowPriorityTelemetryTypes";
+    private final static String ADAPTIVE_COMPRESSION_NAME = "AdaptiveCompression";
+    private final static String TELEMETRY_POOLING_NAME = "TelemetryPooling";
+
+    private final static String STATISTICS_JMX_NAME_PREFIX = "com.microsoft.applicationinsights.java.sdk:type=InProcessTelemetryChannel,id=";
+    private final static AtomicInteger s_nextStatisticsId = new AtomicInteger();
+
+    // Buffers that grew beyond that size while serializing a big telemetry are not kept for reuse
+    private final static int MAX_POOLED_SERIALIZATION_BUFFER_SIZE = 64 * 1024;
+
+    // Each application thread serializes into its own reusable UTF-8 buffer
+    private final static ThreadLocal<Utf8BytesWriter> serializationBuffers = new ThreadLocal<Utf8BytesWriter>() {
+        @Override
+        protected Utf8BytesWriter initialValue() {
+            return new Utf8BytesWriter();
+        }
+    };
 
     private boolean developerMode = false;
+    private boolean telemetryPooling = false;
     private static TransmitterFactory s_transmitterFactory;
 
     private boolean stopped = false;
 
     private TelemetriesTransmitter telemetriesTransmitter;
 
-    private TelemetryBuffer telemetryBuffer;
+    private TelemetriesBuffer telemetryBuffer;
     private TelemetrySampler telemetrySampler;
+    private volatile AdaptiveCompressionController compressionController;
+
+    // The statistics of the channel, exposed over JMX
+    private final ChannelStatistics statistics = new ChannelStatistics();
+
+    private ObjectName statisticsObjectName;
 
     public InProcessTelemetryChannel() {
         boolean developerMode = false;
@@ -100,12 +171,9 @@ public final class InProcessTelemetryChannel implements TelemetryChannel {
         } catch (Throwable t) {
             developerMode = false;
         }
-        initialize(null,
-                null,
-                developerMode,
+        initialize(new ChannelSettings().withDeveloperMode(developerMode),
                 createDefaultMaxTelemetryBufferCapacityEnforcer(null),
-                createDefaultSendIntervalInSecondsEnforcer(null),
-                true);
+                createDefaultSendIntervalInSecondsEnforcer(null));
     }
 
     /**
@@ -118,12 +186,9 @@ public final class InProcessTelemetryChannel implements TelemetryChannel {
      *                          Note, value should be between MIN_MAX_TELEMETRY_BUFFER_CAPACITY and MAX_MAX_TELEMETRY_BUFFER_CAPACITY inclusive
      */
     public InProcessTelemetryChannel(String endpointAddress, boolean developerMode, int maxTelemetryBufferCapacity, int sendIntervalInMillis) {
-        initialize(endpointAddress,
-                   null,
-                   developerMode,
+        initialize(new ChannelSettings().withEndpointAddress(endpointAddress).withDeveloperMode(developerMode),
                    createDefaultMaxTelemetryBufferCapacityEnforcer(maxTelemetryBufferCapacity),
-                   createDefaultSendIntervalInSecondsEnforcer(sendIntervalInMillis),
-                   true);
+                   createDefaultSendIntervalInSecondsEnforcer(sendIntervalInMillis));
     }
 
     /**
@@ -132,28 +197,71 @@ public final class InProcessTelemetryChannel implements TelemetryChannel {
      * @param namesAndValues - The data passed as name and value pairs
      */
     public InProcessTelemetryChannel(Map<String, String> namesAndValues) {
-        boolean developerMode = false;
-        String endpointAddress = null;
+        ChannelSettings settings = new ChannelSettings();
 
         LimitsEnforcer maxTelemetryBufferCapacityEnforcer = createDefaultMaxTelemetryBufferCapacityEnforcer(null);
 
         LimitsEnforcer sendIntervalInSecondsEnforcer = createDefaultSendIntervalInSecondsEnforcer(null);
 
-        boolean throttling = true;
         if (namesAndValues != null) {
-            throttling = Boolean.valueOf(namesAndValues.get("Throttling"));
-            developerMode = Boolean.valueOf(namesAndValues.get(DEVELOPER_MODE_NAME));
+            Map<String, TelemetryPriority> telemetryPriorities = new HashMap<String, TelemetryPriority>();
+            TelemetryPriority.addTelemetryTypes(namesAndValues.get(HIGH_PRIORITY_TELEMETRY_TYPES_NAME), TelemetryPriority.HIGH, telemetryPriorities);
+            TelemetryPriority.addTelemetryTypes(namesAndValues.get(LOW_PRIORITY_TELEMETRY_TYPES_NAME), TelemetryPriority.LOW, telemetryPriorities);
+
+            settings.withThrottling(Boolean.valueOf(namesAndValues.get("Throttling")))
+                    .withLockFreeBuffer(Boolean.valueOf(namesAndValues.get(LOCK_FREE_BUFFER_NAME)))
+                    .withStreamingCompression(Boolean.valueOf(namesAndValues.get(STREAMING_COMPRESSION_NAME)))
+                    .withSegmentedStorage(Boolean.valueOf(namesAndValues.get(SEGMENTED_TRANSMISSION_STORAGE_NAME)))
+                    .withTelemetryPriorities(telemetryPriorities)
+                    .withBackpressurePolicy(BackpressurePolicy.parse(namesAndValues.get(BACKPRESSURE_POLICY_NAME), BackpressurePolicy.DROP_NEWEST))
+                    .withBackpressureTimeoutInMillis(LimitsEnforcer.createWithClosestLimitOnError(
+                            MIN_BACKPRESSURE_TIMEOUT_IN_MILLIS,
+                            MAX_BACKPRESSURE_TIMEOUT_IN_MILLIS,
+                            (int) TransmitterImpl.DEFAULT_BLOCK_TIMEOUT_IN_MILLIS,
+                            BACKPRESSURE_TIMEOUT_IN_MILLIS_NAME,
+                            namesAndValues.get(BACKPRESSURE_TIMEOUT_IN_MILLIS_NAME)).getCurrentValue())
+                    .withCompressionLevel(LimitsEnforcer.createWithClosestLimitOnError(
+                            MIN_COMPRESSION_LEVEL,
+                            MAX_COMPRESSION_LEVEL,
+                            Deflater.DEFAULT_COMPRESSION,
+                            COMPRESSION_LEVEL_NAME,
+                            namesAndValues.get(COMPRESSION_LEVEL_NAME)).getCurrentValue())
+                    .withMaxBatchSizeInBytes(LimitsEnforcer.createWithClosestLimitOnError(
+                            MIN_MAX_BATCH_SIZE_IN_BYTES,
+                            MAX_MAX_BATCH_SIZE_IN_BYTES,
+                            ChannelSettings.DEFAULT_MAX_BATCH_SIZE_IN_BYTES,
+                            MAX_BATCH_SIZE_IN_BYTES_NAME,
+                            namesAndValues.get(MAX_BATCH_SIZE_IN_BYTES_NAME)).getCurrentValue());
+            if (Boolean.valueOf(namesAndValues.get(ASYNC_NETWORK_OUTPUT_NAME))) {
+                settings.withMaxInFlightRequests(LimitsEnforcer.createWithClosestLimitOnError(
+                        MIN_MAX_IN_FLIGHT_REQUESTS,
+                        MAX_MAX_IN_FLIGHT_REQUESTS,
+                        AsyncTransmissionNetworkOutput.DEFAULT_MAX_IN_FLIGHT_REQUESTS,
+                        MAX_IN_FLIGHT_REQUESTS_NAME,
+                        namesAndValues.get(MAX_IN_FLIGHT_REQUESTS_NAME)).getCurrentValue());
+            }
+            if (Boolean.valueOf(namesAndValues.get(ADAPTIVE_COMPRESSION_NAME))) {
+                settings.withMaxCpuPercent(LimitsEnforcer.createWithClosestLimitOnError(
+                        MIN_MAX_CPU_PERCENT,
+                        MAX_MAX_CPU_PERCENT,
+                        AdaptiveCompressionController.DEFAULT_MAX_CPU_PERCENT,
+                        MAX_CPU_PERCENT_NAME,
+                        namesAndValues.get(MAX_CPU_PERCENT_NAME)).getCurrentValue());
+            }
+            boolean developerMode = Boolean.valueOf(namesAndValues.get(DEVELOPER_MODE_NAME));
             if (!developerMode) {
                 developerMode = Boolean.valueOf(System.getProperty(DEVELOPER_MODE_SYSTEM_PROPRETY_NAME));
             }
-            endpointAddress = namesAndValues.get(ENDPOINT_ADDRESS_NAME);
+            settings.withDeveloperMode(developerMode)
+                    .withTelemetryPooling(Boolean.valueOf(namesAndValues.get(TELEMETRY_POOLING_NAME)))
+                    .withEndpointAddress(namesAndValues.get(ENDPOINT_ADDRESS_NAME))
+                    .withMaxTransmissionStorageCapacity(namesAndValues.get(MAX_TRANSMISSION_STORAGE_CAPACITY_NAME));
 
             maxTelemetryBufferCapacityEnforcer.normalizeStringValue(namesAndValues.get(MAX_MAX_TELEMETRY_BUFFER_CAPACITY_NAME));
             sendIntervalInSecondsEnforcer.normalizeStringValue(namesAndValues.get(FLUSH_BUFFER_TIMEOUT_IN_SECONDS_NAME));
         }
 
-        String maxTransmissionStorageCapacity = namesAndValues.get(MAX_TRANSMISSION_STORAGE_CAPACITY_NAME);
-        initialize(endpointAddress, maxTransmissionStorageCapacity, developerMode, maxTelemetryBufferCapacityEnforcer, sendIntervalInSecondsEnforcer, throttling);
+        initialize(settings, maxTelemetryBufferCapacityEnforcer, sendIntervalInSecondsEnforcer);
     }
 
     /**
@@ -175,9 +283,21 @@ public final class InProcessTelemetryChannel implements TelemetryChannel {
             int maxTelemetriesInBatch = this.developerMode ? 1 : DEFAULT_MAX_TELEMETRY_BUFFER_CAPACITY;
 
             setMaxTelemetriesInBatch(maxTelemetriesInBatch);
+            if (compressionController != null) {
+                compressionController.setSuspended(developerMode);
+            }
         }
     }
 
+    /**
+     * Gets value indicating whether the configuration of this channel should reuse the pooled telemetries.
+     * The channel returns the telemetries that were taken from a pool once they are sent, whatever this value is.
+     * @return True if the 'TelemetryPooling' setting is set.
+     */
+    public boolean isTelemetryPooling() {
+        return telemetryPooling;
+    }
+
     /**
      *  Sends a Telemetry instance through the channel.
      */
@@ -191,31 +311,49 @@ public final class InProcessTelemetryChannel implements TelemetryChannel {
 
         if (telemetrySampler != null) {
             if (!telemetrySampler.isSampledIn(telemetry)) {
+                statistics.onTelemetrySampledOut();
+                TelemetryPool.release(telemetry);
                 return;
             }
         }
 
-        StringWriter writer = new StringWriter();
+        Utf8BytesWriter writer = serializationBuffers.get();
         JsonTelemetryDataSerializer jsonWriter = null;
         try {
+            long start = System.nanoTime();
+            writer.reset();
             jsonWriter = new JsonTelemetryDataSerializer(writer);
             telemetry.serialize(jsonWriter);
             jsonWriter.close();
-            String asJson = writer.toString();
-            telemetryBuffer.add(asJson);
-            telemetry.reset();
+            byte[] asJson = writer.toByteArray();
+            statistics.onTelemetrySerialized(System.nanoTime() - start);
+            if (telemetryBuffer instanceof PriorityLaneTelemetryBuffer) {
+                ((PriorityLaneTelemetryBuffer) telemetryBuffer).add(telemetry.getClass(), asJson);
+            } else {
+                telemetryBuffer.add(asJson);
+            }
+            statistics.onTelemetryAccepted();
         } catch (IOException e) {
             InternalLogger.INSTANCE.error("Failed to serialize Telemetry");
+            TelemetryPool.release(telemetry);
             return;
+        } finally {
+            if (writer.capacity() > MAX_POOLED_SERIALIZATION_BUFFER_SIZE) {
+                serializationBuffers.remove();
+            }
         }
 
         if (isDeveloperMode()) {
             writeTelemetryToDebugOutput(telemetry);
         }
+
+        // The telemetry is serialized, it can be reused if it was taken from a pool
+        TelemetryPool.release(telemetry);
     }
 
     /**
-     * Stops on going work
+     * Flushes the buffered telemetries and stops on going work.
+     * The telemetries that are not sent before the timeout expires are persisted, and sent when the process starts again.
      */
     @Override
     public synchronized void stop(long timeout, TimeUnit timeUnit) {
@@ -224,7 +362,12 @@ public final class InProcessTelemetryChannel implements TelemetryChannel {
                 return;
             }
 
+            if (compressionController != null) {
+                compressionController.stop(timeout, timeUnit);
+            }
+            telemetryBuffer.flush();
             telemetriesTransmitter.stop(timeout, timeUnit);
+            unregisterStatistics();
             stopped = true;
         } catch (Throwable t) {
         }
@@ -259,6 +402,11 @@ public final class InProcessTelemetryChannel implements TelemetryChannel {
      */
     public void setMaxTelemetriesInBatch(int maxTelemetriesInBatch) {
         telemetryBuffer.setMaxTelemetriesInBatch(maxTelemetriesInBatch);
+
+        // The adaptive compression does not shrink the batches below the size that was set
+        if (compressionController != null) {
+            compressionController.setMinTelemetriesInBatch(telemetryBuffer.getMaxTelemetriesInBatch());
+        }
     }
 
     /**
@@ -272,26 +420,105 @@ public final class InProcessTelemetryChannel implements TelemetryChannel {
         telemetryBuffer.setTransmitBufferTimeoutInSeconds(transmitBufferTimeoutInSeconds);
     }
 
+    /**
+     * Gets the counters of the telemetries that were dropped, or spilled to disk, since the
+     * channel could not keep up with the rate of the telemetries.
+     * @return The drop counters of the channel.
+     */
+    public TelemetryDropCounters getDropCounters() {
+        return statistics.getDropCounters();
+    }
+
+    /**
+     * Gets the statistics of the channel, which are also registered as an MBean
+     * named 'com.microsoft.applicationinsights.java.sdk:type=InProcessTelemetryChannel,id=N'.
+     * @return The statistics of the channel.
+     */
+    public ChannelStatistics getStatistics() {
+        return statistics;
+    }
+
     private void writeTelemetryToDebugOutput(Telemetry telemetry) {
         InternalLogger.INSTANCE.trace("InProcessTelemetryChannel sending telemetry");
     }
 
-    private synchronized void initialize(String endpointAddress,
-                                         String maxTransmissionStorageCapacity,
-                                         boolean developerMode,
+    private synchronized void initialize(ChannelSettings settings,
                                          LimitsEnforcer maxTelemetryBufferCapacityEnforcer,
-                                         LimitsEnforcer sendIntervalInSeconds,
-                                         boolean throttling) {
-        makeSureEndpointAddressIsValid(endpointAddress);
+                                         LimitsEnforcer sendIntervalInSeconds) {
+        makeSureEndpointAddressIsValid(settings.getEndpointAddress());
 
         if (s_transmitterFactory == null) {
             s_transmitterFactory = new InProcessTelemetryChannelFactory();
         }
 
-        telemetriesTransmitter = s_transmitterFactory.create(endpointAddress, maxTransmissionStorageCapacity, throttling);
-        telemetryBuffer = new TelemetryBuffer(telemetriesTransmitter, maxTelemetryBufferCapacityEnforcer, sendIntervalInSeconds);
+        // The deflaters are shared by the transmitter and, when compressing while adding, by the buffer
+        DeflaterPool deflaterPool = new DeflaterPool(settings.getCompressionLevel(), DeflaterPool.DEFAULT_MAX_POOLED_DEFLATERS);
+
+        telemetriesTransmitter = s_transmitterFactory.create(settings, deflaterPool, statistics);
+        if (settings.isLockFreeBuffer() && settings.isStreamingCompression()) {
+            // Compressing while adding needs the batch to be owned by one thread at a time, which the lock free buffer avoids
+            InternalLogger.INSTANCE.warn("Streaming compression is not supported with the lock free buffer, batches will be compressed when sent");
+        }
+
+        if (settings.hasPriorityLanes() && telemetriesTransmitter instanceof PrioritizedTelemetriesTransmitter) {
+            // Every lane has its own buffer that sends through the lane of the transmitter
+            PrioritizedTelemetriesTransmitter prioritizedTransmitter = (PrioritizedTelemetriesTransmitter) telemetriesTransmitter;
+            Map<TelemetryPriority, TelemetriesBuffer> laneBuffers = new EnumMap<TelemetryPriority, TelemetriesBuffer>(TelemetryPriority.class);
+            for (TelemetryPriority priority : TelemetryPriority.values()) {
+                laneBuffers.put(priority, createTelemetryBuffer(prioritizedTransmitter.getLane(priority), maxTelemetryBufferCapacityEnforcer, sendIntervalInSeconds, settings, deflaterPool));
+            }
+            telemetryBuffer = new PriorityLaneTelemetryBuffer(settings.getTelemetryPriorities(), laneBuffers);
+        } else {
+            telemetryBuffer = createTelemetryBuffer(telemetriesTransmitter, maxTelemetryBufferCapacityEnforcer, sendIntervalInSeconds, settings, deflaterPool);
+        }
+        telemetryBuffer.setMaxBatchSizeInBytes(settings.getMaxBatchSizeInBytes());
+
+        setDeveloperMode(settings.isDeveloperMode());
+
+        // Created once the batch size is final, which it takes as the size the batches do not shrink below
+        if (settings.getMaxCpuPercent() > 0) {
+            compressionController = new AdaptiveCompressionController(deflaterPool, telemetryBuffer, statistics, settings.getMaxCpuPercent(), MAX_MAX_TELEMETRY_BUFFER_CAPACITY);
+            compressionController.setSuspended(developerMode);
+            compressionController.start(AdaptiveCompressionController.DEFAULT_EVALUATION_INTERVAL_IN_SECONDS);
+        }
+        telemetryPooling = settings.isTelemetryPooling();
+
+        registerStatistics();
+    }
+
+    private static TelemetriesBuffer createTelemetryBuffer(TelemetriesTransmitter transmitter,
+                                                           LimitsEnforcer maxTelemetryBufferCapacityEnforcer,
+                                                           LimitsEnforcer sendIntervalInSeconds,
+                                                           ChannelSettings settings,
+                                                           DeflaterPool deflaterPool) {
+        if (settings.isLockFreeBuffer()) {
+            return new LockFreeTelemetryBuffer(transmitter, maxTelemetryBufferCapacityEnforcer, sendIntervalInSeconds);
+        }
+
+        return new TelemetryBuffer(transmitter, maxTelemetryBufferCapacityEnforcer, sendIntervalInSeconds, settings.isStreamingCompression(), deflaterPool);
+    }
+
+    private void registerStatistics() {
+        try {
+            ObjectName name = new ObjectName(STATISTICS_JMX_NAME_PREFIX + s_nextStatisticsId.incrementAndGet());
+            ManagementFactory.getPlatformMBeanServer().registerMBean(statistics, name);
+            statisticsObjectName = name;
+        } catch (Throwable t) {
+            InternalLogger.INSTANCE.error("Failed to register the channel statistics MBean, exception: %s", t.getMessage());
+        }
+    }
+
+    private void unregisterStatistics() {
+        if (statisticsObjectName == null) {
+            return;
+        }
 
-        setDeveloperMode(developerMode);
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(statisticsObjectName);
+        } catch (Throwable t) {
+            InternalLogger.INSTANCE.error("Failed to unregister the channel statistics MBean, exception: %s", t.getMessage());
+        }
+        statisticsObjectName = null;
     }
 
     /**
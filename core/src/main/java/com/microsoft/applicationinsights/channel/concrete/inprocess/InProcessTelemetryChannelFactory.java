@@ -21,11 +21,13 @@
 
 package com.microsoft.applicationinsights.channel.concrete.inprocess;
 
+import com.microsoft.applicationinsights.internal.channel.ChannelSettings;
+import com.microsoft.applicationinsights.internal.channel.LoadAwareTransmissionOutput;
 import com.microsoft.applicationinsights.internal.channel.TelemetriesTransmitter;
 import com.microsoft.applicationinsights.internal.channel.TransmissionOutput;
+import com.microsoft.applicationinsights.internal.channel.TransmissionStorage;
 import com.microsoft.applicationinsights.internal.channel.TransmitterFactory;
 import com.microsoft.applicationinsights.internal.channel.TransmissionDispatcher;
-import com.microsoft.applicationinsights.internal.channel.TransmissionsLoader;
 
 import com.microsoft.applicationinsights.internal.channel.common.*;
 
@@ -34,29 +36,64 @@ import com.microsoft.applicationinsights.internal.channel.common.*;
  */
 final class InProcessTelemetryChannelFactory implements TransmitterFactory {
     @Override
-    public TelemetriesTransmitter create(String endpoint, String maxTransmissionStorageCapacity, boolean throttlingIsEnabled) {
-        final TransmissionPolicyManager transmissionPolicyManager = new TransmissionPolicyManager(throttlingIsEnabled);
+    public TelemetriesTransmitter create(ChannelSettings settings, DeflaterPool deflaterPool, ChannelStatistics statistics) {
+        String endpoint = settings.getEndpointAddress();
+        String maxTransmissionStorageCapacity = settings.getMaxTransmissionStorageCapacity();
+        int maxInFlightRequests = settings.getMaxInFlightRequests();
 
-        // An active object with the network sender
-        TransmissionNetworkOutput actualNetworkSender = TransmissionNetworkOutput.create(endpoint, transmissionPolicyManager);
+        final TransmissionPolicyManager transmissionPolicyManager = new TransmissionPolicyManager(settings.isThrottling());
 
         TransmissionPolicyStateFetcher stateFetcher = transmissionPolicyManager.getTransmissionPolicyState();
 
-        TransmissionOutput networkSender = new ActiveTransmissionNetworkOutput(actualNetworkSender, stateFetcher);
+        LoadAwareTransmissionOutput networkSender;
+        TransmissionNetworkOutput actualNetworkSender = null;
+        AsyncTransmissionNetworkOutput asyncNetworkSender = null;
+        if (maxInFlightRequests > 0) {
+            // A non blocking sender that keeps up to 'maxInFlightRequests' requests in flight
+            asyncNetworkSender = AsyncTransmissionNetworkOutput.create(endpoint, transmissionPolicyManager, maxInFlightRequests);
+            networkSender = asyncNetworkSender;
+        } else {
+            // An active object with the network sender
+            actualNetworkSender = TransmissionNetworkOutput.create(endpoint, transmissionPolicyManager);
+            networkSender = new ActiveTransmissionNetworkOutput(actualNetworkSender, stateFetcher);
+        }
 
         // An active object with the file system sender
-        TransmissionFileSystemOutput fileSystemSender = new TransmissionFileSystemOutput(null, maxTransmissionStorageCapacity);
-        TransmissionOutput activeFileSystemOutput = new ActiveTransmissionFileSystemOutput(fileSystemSender, stateFetcher);
+        TransmissionStorage fileSystemSender;
+        if (settings.isSegmentedStorage()) {
+            fileSystemSender = new TransmissionSegmentLogOutput(null, maxTransmissionStorageCapacity);
+        } else {
+            fileSystemSender = new TransmissionFileSystemOutput(null, maxTransmissionStorageCapacity);
+        }
+        ActiveTransmissionFileSystemOutput activeFileSystemOutput = new ActiveTransmissionFileSystemOutput(fileSystemSender, stateFetcher);
+
+        // The telemetries rejected by the server are serialized again as the channel serializes them
+        GzipTelemetrySerializer serializer = new GzipTelemetrySerializer(deflaterPool, statistics);
 
         // The dispatcher works with the two active senders
         TransmissionDispatcher dispatcher = new NonBlockingDispatcher(new TransmissionOutput[] {networkSender, activeFileSystemOutput});
-        actualNetworkSender.setTransmissionDispatcher(dispatcher);
+        if (asyncNetworkSender != null) {
+            asyncNetworkSender.setTransmissionDispatcher(dispatcher);
+            asyncNetworkSender.setTelemetrySerializer(serializer);
+            asyncNetworkSender.setStatistics(statistics);
+        } else {
+            actualNetworkSender.setTransmissionDispatcher(dispatcher);
+            actualNetworkSender.setTelemetrySerializer(serializer);
+            actualNetworkSender.setStatistics(statistics);
+        }
 
-        // The loader works with the file system loader as the active one does
-        TransmissionsLoader transmissionsLoader = new ActiveTransmissionLoader(fileSystemSender, stateFetcher, dispatcher);
+        // The loader works with the file system loader as the active one does,
+        // it is woken up when transmissions are persisted and loads them as long as the network sender has room
+        ActiveTransmissionLoader transmissionsLoader = new ActiveTransmissionLoader(fileSystemSender, stateFetcher, dispatcher, networkSender);
+        activeFileSystemOutput.setTransmissionsLoader(transmissionsLoader);
 
         // The Transmitter manage all
-        TelemetriesTransmitter telemetriesTransmitter = new TransmitterImpl(dispatcher, new GzipTelemetrySerializer(), transmissionsLoader);
+        TransmitterImpl telemetriesTransmitter = new TransmitterImpl(dispatcher, serializer, transmissionsLoader, settings, activeFileSystemOutput, statistics.getDropCounters());
+
+        // The statistics read the state of the components when asked
+        statistics.setTransmitter(telemetriesTransmitter);
+        statistics.setTransmissionStorage(fileSystemSender);
+        statistics.setTransmissionPolicyState(stateFetcher);
 
         return telemetriesTransmitter;
     }
@@ -33,6 +33,7 @@ import com.microsoft.applicationinsights.agent.internal.coresync.AgentNotificati
 import com.microsoft.applicationinsights.agent.internal.coresync.InstrumentedClassType;
 
 import com.microsoft.applicationinsights.TelemetryClient;
+import com.microsoft.applicationinsights.TelemetryConfiguration;
 import com.microsoft.applicationinsights.agent.internal.coresync.impl.ImplementationsCoordinator;
 import com.microsoft.applicationinsights.internal.logger.InternalLogger;
 import com.microsoft.applicationinsights.internal.schemav2.DependencyKind;
@@ -41,6 +42,7 @@ import com.microsoft.applicationinsights.internal.util.ThreadLocalCleaner;
 import com.microsoft.applicationinsights.telemetry.Duration;
 import com.microsoft.applicationinsights.telemetry.ExceptionTelemetry;
 import com.microsoft.applicationinsights.telemetry.RemoteDependencyTelemetry;
+import com.microsoft.applicationinsights.telemetry.TelemetryPool;
 
 /**
  * The Core's implementation: the methods are called for instrumented methods.
@@ -144,7 +146,7 @@ final class CoreAgentNotificationsHandler implements AgentNotificationsHandler {
             return;
         }
         long deltaInMS = nanoToMilliseconds(deltaInNS);
-        RemoteDependencyTelemetry telemetry = new RemoteDependencyTelemetry(identifier, null, new Duration(deltaInMS), true);
+        RemoteDependencyTelemetry telemetry = createDependencyTelemetry(identifier, null, new Duration(deltaInMS), true);
         telemetry.setResultCode(Integer.toString(result));
         telemetry.setType("HTTP");
         telemetry.getContext().getProperties().put("URI", uri);
@@ -193,7 +195,7 @@ final class CoreAgentNotificationsHandler implements AgentNotificationsHandler {
     public void methodFinished(String classAndMethodNames, long deltaInNS, Object[] args, Throwable throwable) {
         long durationInMS = nanoToMilliseconds(deltaInNS);
         Duration duration = new Duration(durationInMS);
-        RemoteDependencyTelemetry telemetry = new RemoteDependencyTelemetry(classAndMethodNames, null, duration, throwable == null);
+        RemoteDependencyTelemetry telemetry = createDependencyTelemetry(classAndMethodNames, null, duration, throwable == null);
         telemetry.setDependencyKind(DependencyKind.Other);
 
         if (args != null) {
@@ -342,7 +344,7 @@ final class CoreAgentNotificationsHandler implements AgentNotificationsHandler {
 
     private void sendInstrumentationTelemetry(MethodData methodData, Throwable throwable) {
         Duration duration = new Duration(nanoToMilliseconds(methodData.interval));
-        RemoteDependencyTelemetry telemetry = new RemoteDependencyTelemetry(methodData.name, null, duration, throwable == null);
+        RemoteDependencyTelemetry telemetry = createDependencyTelemetry(methodData.name, null, duration, throwable == null);
         telemetry.setType(methodData.type);
 
         InternalLogger.INSTANCE.trace("Sending RDD event for '%s'", methodData.name);
@@ -362,7 +364,7 @@ final class CoreAgentNotificationsHandler implements AgentNotificationsHandler {
 
             InternalLogger.INSTANCE.trace("Sending HTTP RDD event, URL: '%s', duration=%s ms", url, durationInMilliSeconds);
 
-            RemoteDependencyTelemetry telemetry = new RemoteDependencyTelemetry(url, null, duration, throwable == null);
+            RemoteDependencyTelemetry telemetry = createDependencyTelemetry(url, null, duration, throwable == null);
             telemetry.setDependencyKind(DependencyKind.Http);
             telemetryClient.trackDependency(telemetry);
             if (throwable != null) {
@@ -388,7 +390,7 @@ final class CoreAgentNotificationsHandler implements AgentNotificationsHandler {
                 long durationInMilliSeconds = nanoToMilliseconds(methodData.interval);
                 Duration duration = new Duration(durationInMilliSeconds);
 
-                RemoteDependencyTelemetry telemetry = new RemoteDependencyTelemetry(
+                RemoteDependencyTelemetry telemetry = createDependencyTelemetry(
                         dependencyName,
                         commandName,
                         duration,
@@ -501,4 +503,22 @@ final class CoreAgentNotificationsHandler implements AgentNotificationsHandler {
 
         return explainSB;
     }
+
+    /**
+     * Takes the telemetry from its pool, it is returned to the pool once it is sent, see {@link TelemetryPool}.
+     */
+    private static RemoteDependencyTelemetry createDependencyTelemetry(String dependencyName, String commandName, Duration duration, boolean success) {
+        RemoteDependencyTelemetry telemetry = TelemetryPool.DEPENDENCIES.acquire(TelemetryConfiguration.getActive());
+        try {
+            telemetry.setName(dependencyName);
+        } catch (IllegalArgumentException e) {
+            TelemetryPool.release(telemetry);
+            throw e;
+        }
+
+        telemetry.setCommandName(commandName);
+        telemetry.setDuration(duration);
+        telemetry.setSuccess(success);
+        return telemetry;
+    }
 }
@@ -0,0 +1,226 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+import com.microsoft.applicationinsights.internal.channel.common.BackpressurePolicy;
+import com.microsoft.applicationinsights.internal.channel.common.TelemetryPriority;
+import com.microsoft.applicationinsights.internal.channel.common.TransmitterImpl;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * The settings of a telemetry channel and of its transmitter, built once from the configuration of the channel.
+ *
+ * Every setting starts with its default value, and is changed by name, i.e.
+ * {@code new ChannelSettings().withThrottling(false).withMaxInFlightRequests(10)},
+ * so that new settings do not change the signatures of the channel and of the {@link TransmitterFactory}.
+ */
+public final class ChannelSettings {
+    public final static int DEFAULT_MAX_BATCH_SIZE_IN_BYTES = 3 * 1024 * 1024;
+
+    private String endpointAddress;
+    private String maxTransmissionStorageCapacity;
+    private boolean developerMode = false;
+    private boolean throttling = true;
+    private boolean lockFreeBuffer = false;
+    private boolean streamingCompression = false;
+    private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+    private int maxBatchSizeInBytes = DEFAULT_MAX_BATCH_SIZE_IN_BYTES;
+    private int maxInFlightRequests = 0;
+    private boolean segmentedStorage = false;
+    private BackpressurePolicy backpressurePolicy = BackpressurePolicy.DROP_NEWEST;
+    private long backpressureTimeoutInMillis = TransmitterImpl.DEFAULT_BLOCK_TIMEOUT_IN_MILLIS;
+    private Map<String, TelemetryPriority> telemetryPriorities = new HashMap<String, TelemetryPriority>();
+    private int maxCpuPercent = 0;
+    private boolean telemetryPooling = false;
+
+    /**
+     * @param endpointAddress The address of the endpoint, null or empty for the default endpoint.
+     * @return The settings.
+     */
+    public ChannelSettings withEndpointAddress(String endpointAddress) {
+        this.endpointAddress = endpointAddress;
+        return this;
+    }
+
+    /**
+     * @param maxTransmissionStorageCapacity The capacity of the storage of the transmissions that could not be sent, in MB, null for the default.
+     * @return The settings.
+     */
+    public ChannelSettings withMaxTransmissionStorageCapacity(String maxTransmissionStorageCapacity) {
+        this.maxTransmissionStorageCapacity = maxTransmissionStorageCapacity;
+        return this;
+    }
+
+    public ChannelSettings withDeveloperMode(boolean developerMode) {
+        this.developerMode = developerMode;
+        return this;
+    }
+
+    public ChannelSettings withThrottling(boolean throttling) {
+        this.throttling = throttling;
+        return this;
+    }
+
+    public ChannelSettings withLockFreeBuffer(boolean lockFreeBuffer) {
+        this.lockFreeBuffer = lockFreeBuffer;
+        return this;
+    }
+
+    public ChannelSettings withStreamingCompression(boolean streamingCompression) {
+        this.streamingCompression = streamingCompression;
+        return this;
+    }
+
+    public ChannelSettings withCompressionLevel(int compressionLevel) {
+        this.compressionLevel = compressionLevel;
+        return this;
+    }
+
+    public ChannelSettings withMaxBatchSizeInBytes(int maxBatchSizeInBytes) {
+        this.maxBatchSizeInBytes = maxBatchSizeInBytes;
+        return this;
+    }
+
+    /**
+     * @param maxInFlightRequests The number of requests the non blocking network output keeps in flight,
+     *                            0 to send with the blocking network output.
+     * @return The settings.
+     */
+    public ChannelSettings withMaxInFlightRequests(int maxInFlightRequests) {
+        this.maxInFlightRequests = maxInFlightRequests;
+        return this;
+    }
+
+    public ChannelSettings withSegmentedStorage(boolean segmentedStorage) {
+        this.segmentedStorage = segmentedStorage;
+        return this;
+    }
+
+    public ChannelSettings withBackpressurePolicy(BackpressurePolicy backpressurePolicy) {
+        Preconditions.checkNotNull(backpressurePolicy, "backpressurePolicy must be a non-null value");
+        this.backpressurePolicy = backpressurePolicy;
+        return this;
+    }
+
+    public ChannelSettings withBackpressureTimeoutInMillis(long backpressureTimeoutInMillis) {
+        this.backpressureTimeoutInMillis = backpressureTimeoutInMillis;
+        return this;
+    }
+
+    /**
+     * @param telemetryPriorities The priorities per telemetry type, the channel has priority lanes when it is not empty.
+     * @return The settings.
+     */
+    public ChannelSettings withTelemetryPriorities(Map<String, TelemetryPriority> telemetryPriorities) {
+        Preconditions.checkNotNull(telemetryPriorities, "telemetryPriorities must be a non-null value");
+        this.telemetryPriorities = new HashMap<String, TelemetryPriority>(telemetryPriorities);
+        return this;
+    }
+
+    /**
+     * @param maxCpuPercent The share of a CPU the channel may use to compress, 0 to keep the compression level and the batch size fixed.
+     * @return The settings.
+     */
+    public ChannelSettings withMaxCpuPercent(int maxCpuPercent) {
+        this.maxCpuPercent = maxCpuPercent;
+        return this;
+    }
+
+    /**
+     * @param telemetryPooling True to reuse the pooled telemetries once they are sent, see {@link com.microsoft.applicationinsights.telemetry.TelemetryPool}.
+     * @return The settings.
+     */
+    public ChannelSettings withTelemetryPooling(boolean telemetryPooling) {
+        this.telemetryPooling = telemetryPooling;
+        return this;
+    }
+
+    public String getEndpointAddress() {
+        return endpointAddress;
+    }
+
+    public String getMaxTransmissionStorageCapacity() {
+        return maxTransmissionStorageCapacity;
+    }
+
+    public boolean isDeveloperMode() {
+        return developerMode;
+    }
+
+    public boolean isThrottling() {
+        return throttling;
+    }
+
+    public boolean isLockFreeBuffer() {
+        return lockFreeBuffer;
+    }
+
+    public boolean isStreamingCompression() {
+        return streamingCompression;
+    }
+
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    public int getMaxBatchSizeInBytes() {
+        return maxBatchSizeInBytes;
+    }
+
+    public int getMaxInFlightRequests() {
+        return maxInFlightRequests;
+    }
+
+    public boolean isSegmentedStorage() {
+        return segmentedStorage;
+    }
+
+    public BackpressurePolicy getBackpressurePolicy() {
+        return backpressurePolicy;
+    }
+
+    public long getBackpressureTimeoutInMillis() {
+        return backpressureTimeoutInMillis;
+    }
+
+    public Map<String, TelemetryPriority> getTelemetryPriorities() {
+        return Collections.unmodifiableMap(telemetryPriorities);
+    }
+
+    public boolean hasPriorityLanes() {
+        return !telemetryPriorities.isEmpty();
+    }
+
+    public int getMaxCpuPercent() {
+        return maxCpuPercent;
+    }
+
+    public boolean isTelemetryPooling() {
+        return telemetryPooling;
+    }
+}
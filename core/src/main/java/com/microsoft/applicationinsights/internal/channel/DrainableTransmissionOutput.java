@@ -0,0 +1,42 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import com.microsoft.applicationinsights.internal.channel.common.Transmission;
+
+/**
+ * Defines a {@link TransmissionOutput} that accepts transmissions before they are actually sent,
+ * and that can hand back the transmissions it did not get to send when it is stopped, so they
+ * can be given to another output instead of being lost.
+ */
+public interface DrainableTransmissionOutput extends TransmissionOutput {
+    /**
+     * Stops the output, the transmissions it already accepted are sent until the timeout expires.
+     * @param timeout Time to try and send the accepted transmissions
+     * @param timeUnit The units of the 'timeout' parameter
+     * @return The transmissions that were accepted but were not sent when the timeout expired.
+     */
+    Collection<Transmission> stopAndDrain(long timeout, TimeUnit timeUnit);
+}
@@ -42,12 +42,12 @@ import java.util.concurrent.TimeUnit;
  */
 public interface TelemetriesTransmitter {
     public interface TelemetriesFetcher {
-        Collection<String> fetch();
+        Collection<byte[]> fetch();
     }
 
     boolean scheduleSend(TelemetriesFetcher telemetriesFetcher, long value, TimeUnit timeUnit);
 
-    boolean sendNow(Collection<String> telemetries);
+    boolean sendNow(Collection<byte[]> telemetries);
 
     void stop(long timeout, TimeUnit timeUnit);
 }
@@ -36,8 +36,8 @@ import com.microsoft.applicationinsights.internal.channel.common.Transmission;
 public interface TelemetrySerializer {
     /**
      *
-     * @param telemetries A collection of Telemetry instances
+     * @param telemetries A collection of Telemetry instances, each serialized as UTF-8 Json
      * @return byte array that is a compressed version of the input
      */
-    Optional<Transmission> serialize(Collection<String> telemetries);
+    Optional<Transmission> serialize(Collection<byte[]> telemetries);
 }
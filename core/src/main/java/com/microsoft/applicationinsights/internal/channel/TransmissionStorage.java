@@ -0,0 +1,46 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel;
+
+import com.microsoft.applicationinsights.internal.channel.common.Transmission;
+
+/**
+ * Defines the interface of {@link TransmissionOutput} classes that persist the transmissions,
+ * so they can be loaded back and sent once the server can be reached.
+ */
+public interface TransmissionStorage extends TransmissionOutput {
+    /**
+     * Removes the oldest persisted transmission from the storage.
+     * @return The oldest transmission, or null if there is none.
+     */
+    Transmission fetchOldestFile();
+
+    /**
+     * @return The size of the persisted transmissions on the disk.
+     */
+    long getSizeInBytes();
+
+    /**
+     * @return The number of files that hold the persisted transmissions.
+     */
+    int getNumberOfFiles();
+}
@@ -21,9 +21,19 @@
 
 package com.microsoft.applicationinsights.internal.channel;
 
+import com.microsoft.applicationinsights.internal.channel.common.ChannelStatistics;
+import com.microsoft.applicationinsights.internal.channel.common.DeflaterPool;
+
 /**
  * Created by gupele on 12/21/2014.
  */
 public interface TransmitterFactory {
-    TelemetriesTransmitter create(String endpoint, String maxTransmissionStorageCapacity, boolean throttlingIsEnabled);
+    /**
+     * Creates the transmitter of a channel.
+     * @param settings The settings of the channel.
+     * @param deflaterPool The deflaters of the channel, shared with its buffers.
+     * @param statistics The statistics of the channel.
+     * @return The transmitter.
+     */
+    TelemetriesTransmitter create(ChannelSettings settings, DeflaterPool deflaterPool, ChannelStatistics statistics);
 }
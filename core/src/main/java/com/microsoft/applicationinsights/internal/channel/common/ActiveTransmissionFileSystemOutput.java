@@ -21,29 +21,38 @@
 
 package com.microsoft.applicationinsights.internal.channel.common;
 
+import java.util.Collection;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.microsoft.applicationinsights.internal.channel.SerializingTransmissionOutput;
+import com.microsoft.applicationinsights.internal.channel.TelemetrySerializer;
 import com.microsoft.applicationinsights.internal.channel.TransmissionOutput;
+import com.microsoft.applicationinsights.internal.logger.InternalLogger;
 import com.microsoft.applicationinsights.internal.util.ThreadPoolUtils;
 
 /**
  * The class is responsible for de-coupling the file persist activity.
  *
- * When this class is called it will use a thread pool's thread to do the persistence
+ * When this class is called it will use a thread pool's thread to do the persistence,
+ * and to serialize the telemetries that are handed to it before they were serialized.
  *
  * Created by gupele on 12/22/2014.
  */
-public final class ActiveTransmissionFileSystemOutput implements TransmissionOutput {
+public final class ActiveTransmissionFileSystemOutput implements SerializingTransmissionOutput {
     private final ThreadPoolExecutor threadPool;
 
     private final TransmissionOutput actualOutput;
 
     private final TransmissionPolicyStateFetcher transmissionPolicy;
 
+    // Woken up when a transmission is persisted, so it can be loaded and sent as soon as possible
+    private volatile ActiveTransmissionLoader transmissionsLoader;
+
     public ActiveTransmissionFileSystemOutput(TransmissionOutput actualOutput, TransmissionPolicyStateFetcher transmissionPolicy) {
         Preconditions.checkNotNull(transmissionPolicy, "transmissionPolicy must be a non-null value");
 
@@ -64,22 +73,57 @@ public final class ActiveTransmissionFileSystemOutput implements TransmissionOut
 
     @Override
     public boolean send(final Transmission transmission) {
+        return execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    persist(transmission);
+                } catch (Throwable throwable) {
+                    // Avoid un-expected exit of thread
+                }
+            }
+        });
+    }
+
+    /**
+     * Serializes the telemetries by a thread of the pool, and persists the transmission.
+     */
+    @Override
+    public boolean send(final Collection<byte[]> telemetries, final TelemetrySerializer serializer) {
+        Preconditions.checkNotNull(serializer, "serializer must be a non-null value");
+
+        return execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Optional<Transmission> transmission = serializer.serialize(telemetries);
+                    if (transmission.isPresent()) {
+                        persist(transmission.get());
+                    }
+                } catch (Throwable throwable) {
+                    InternalLogger.INSTANCE.error("Failed to persist telemetries, exception: %s", throwable.getMessage());
+                }
+            }
+        });
+    }
+
+    private void persist(Transmission transmission) {
+        if (actualOutput.send(transmission)) {
+            ActiveTransmissionLoader loader = transmissionsLoader;
+            if (loader != null) {
+                loader.onTransmissionPersisted();
+            }
+        }
+    }
+
+    private boolean execute(Runnable persist) {
         // TODO: check the possibility of refactoring the 'send' and possible log on errors
         try {
             if (transmissionPolicy.getCurrentState() == TransmissionPolicy.BLOCKED_AND_CANNOT_BE_PERSISTED) {
                 return false;
             }
 
-            threadPool.execute(new Runnable() {
-                @Override
-                public void run() {
-                    try {
-                        actualOutput.send(transmission);
-                    } catch (Throwable throwable) {
-                        // Avoid un-expected exit of thread
-                    }
-                }
-            });
+            threadPool.execute(persist);
             return true;
 
         } catch (RejectedExecutionException e) {
@@ -93,9 +137,19 @@ public final class ActiveTransmissionFileSystemOutput implements TransmissionOut
         return false;
     }
 
+    public void setTransmissionsLoader(ActiveTransmissionLoader transmissionsLoader) {
+        this.transmissionsLoader = transmissionsLoader;
+    }
+
+    /**
+     * Stops the output. The transmissions that were not persisted when the timeout expires are persisted
+     * by the calling thread, since this output is the last resort of the transmissions that were not sent.
+     */
     @Override
     public void stop(long timeout, TimeUnit timeUnit) {
+        for (Runnable persist : ThreadPoolUtils.stopAndDrain(threadPool, timeout, timeUnit)) {
+            persist.run();
+        }
         actualOutput.stop(timeout, timeUnit);
-        ThreadPoolUtils.stop(threadPool, timeout, timeUnit);
     }
 }
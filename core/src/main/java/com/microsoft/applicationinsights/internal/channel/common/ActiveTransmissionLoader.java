@@ -26,7 +26,9 @@ import java.util.concurrent.CyclicBarrier;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import com.microsoft.applicationinsights.internal.channel.LoadAwareTransmissionOutput;
 import com.microsoft.applicationinsights.internal.channel.TransmissionDispatcher;
+import com.microsoft.applicationinsights.internal.channel.TransmissionStorage;
 import com.microsoft.applicationinsights.internal.channel.TransmissionsLoader;
 import com.microsoft.applicationinsights.internal.logger.InternalLogger;
 
@@ -38,6 +40,9 @@ import com.microsoft.applicationinsights.internal.shutdown.Stoppable;
  *
  * The class will ask for the oldest transmission file and will hand it to the dispatcher
  *
+ * The threads drain the files as fast as the network output accepts them, while leaving room for the live
+ * transmissions, and wait when there are no files until they are notified that a transmission was persisted.
+ *
  * Created by gupele on 12/22/2014.
  */
 public final class ActiveTransmissionLoader implements TransmissionsLoader {
@@ -46,10 +51,11 @@ public final class ActiveTransmissionLoader implements TransmissionsLoader {
     private final static int DEFAULT_NUMBER_OF_THREADS = 1;
 
     private final static long DEFAULT_SLEEP_INTERVAL_WHEN_NO_TRANSMISSIONS_FOUND_IN_MILLS = 2000;
-    private final static long DEFAULT_SLEEP_INTERVAL_AFTER_DISPATCHING_IN_MILLS = 100;
+    private final static long DEFAULT_SLEEP_INTERVAL_WHEN_BLOCKED_IN_MILLS = 100;
+    private final static long DEFAULT_SLEEP_INTERVAL_WHEN_OUTPUT_IS_BUSY_IN_MILLS = 20;
 
     // The helper class that encapsulates the file system access
-    private final TransmissionFileSystemOutput fileSystem;
+    private final TransmissionStorage fileSystem;
 
     // A synchronized flag to let us know when to stop
     private final AtomicBoolean done = new AtomicBoolean(false);
@@ -57,6 +63,13 @@ public final class ActiveTransmissionLoader implements TransmissionsLoader {
     // The dispatcher is needed to process the fetched Transmissions
     private final TransmissionDispatcher dispatcher;
 
+    // The network output, when known, is asked whether there is room for the loaded transmissions
+    private final LoadAwareTransmissionOutput networkOutput;
+
+    // Guards the flag that tells the threads that a transmission was persisted since they last looked
+    private final Object persistedTransmissionsLock = new Object();
+    private boolean transmissionsPersisted;
+
     private CyclicBarrier barrier;
 
     private final TransmissionPolicyStateFetcher transmissionPolicyFetcher;
@@ -66,14 +79,26 @@ public final class ActiveTransmissionLoader implements TransmissionsLoader {
 
     private final long sleepIntervalWhenNoTransmissionsFoundInMills;
 
-    public ActiveTransmissionLoader(TransmissionFileSystemOutput fileSystem, TransmissionPolicyStateFetcher transmissionPolicy, TransmissionDispatcher dispatcher) {
+    public ActiveTransmissionLoader(TransmissionStorage fileSystem, TransmissionPolicyStateFetcher transmissionPolicy, TransmissionDispatcher dispatcher) {
         this(fileSystem, dispatcher, transmissionPolicy, DEFAULT_NUMBER_OF_THREADS);
     }
 
-    public ActiveTransmissionLoader(final TransmissionFileSystemOutput fileSystem,
+    public ActiveTransmissionLoader(TransmissionStorage fileSystem, TransmissionPolicyStateFetcher transmissionPolicy, TransmissionDispatcher dispatcher, LoadAwareTransmissionOutput networkOutput) {
+        this(fileSystem, dispatcher, transmissionPolicy, DEFAULT_NUMBER_OF_THREADS, networkOutput);
+    }
+
+    public ActiveTransmissionLoader(TransmissionStorage fileSystem,
+                                    TransmissionDispatcher dispatcher,
+                                    TransmissionPolicyStateFetcher transmissionPolicy,
+                                    int numberOfThreads) {
+        this(fileSystem, dispatcher, transmissionPolicy, numberOfThreads, null);
+    }
+
+    public ActiveTransmissionLoader(final TransmissionStorage fileSystem,
                                     final TransmissionDispatcher dispatcher,
                                     final TransmissionPolicyStateFetcher transmissionPolicy,
-                                    int numberOfThreads) {
+                                    int numberOfThreads,
+                                    final LoadAwareTransmissionOutput networkOutput) {
         Preconditions.checkNotNull(fileSystem, "fileSystem must be a non-null value");
         Preconditions.checkNotNull(dispatcher, "dispatcher must be a non-null value");
         Preconditions.checkNotNull(transmissionPolicy, "transmissionPolicy must be a non-null value");
@@ -87,6 +112,7 @@ public final class ActiveTransmissionLoader implements TransmissionsLoader {
 
         this.fileSystem = fileSystem;
         this.dispatcher = dispatcher;
+        this.networkOutput = networkOutput;
         threads = new Thread[numberOfThreads];
         for (int i = 0; i < numberOfThreads; ++i) {
             threads[i] = new Thread(new Runnable() {
@@ -106,11 +132,16 @@ public final class ActiveTransmissionLoader implements TransmissionsLoader {
                             TransmissionPolicy currentTransmissionState = transmissionPolicyFetcher.getCurrentState();
                             switch (currentTransmissionState) {
                                 case UNBLOCKED:
-                                    fetchNext(true);
+                                    if (networkOutput != null && !networkOutput.hasCapacityForLoadedTransmissions()) {
+                                        // The live transmissions come first
+                                        Thread.sleep(DEFAULT_SLEEP_INTERVAL_WHEN_OUTPUT_IS_BUSY_IN_MILLS);
+                                    } else {
+                                        fetchNext(true);
+                                    }
                                     break;
 
                                 case BLOCKED_BUT_CAN_BE_PERSISTED:
-                                    Thread.sleep(DEFAULT_SLEEP_INTERVAL_AFTER_DISPATCHING_IN_MILLS);
+                                    Thread.sleep(DEFAULT_SLEEP_INTERVAL_WHEN_BLOCKED_IN_MILLS);
                                     break;
 
                                 case BLOCKED_AND_CANNOT_BE_PERSISTED:
@@ -121,7 +152,7 @@ public final class ActiveTransmissionLoader implements TransmissionsLoader {
 
                                 default:
                                     InternalLogger.INSTANCE.error("Could not find transmission policy '%s'", currentTransmissionState);
-                                    Thread.sleep(DEFAULT_SLEEP_INTERVAL_AFTER_DISPATCHING_IN_MILLS);
+                                    Thread.sleep(DEFAULT_SLEEP_INTERVAL_WHEN_BLOCKED_IN_MILLS);
                                     break;
                             }
                         } catch (Exception e) {
@@ -160,28 +191,44 @@ public final class ActiveTransmissionLoader implements TransmissionsLoader {
 
     @Override
     public void stop(long timeout, TimeUnit timeUnit) {
+        long deadline = System.nanoTime() + timeUnit.toNanos(timeout);
         done.set(true);
         for (Thread thread : threads) {
             try {
                 thread.interrupt();
-                thread.join();
+                TimeUnit.NANOSECONDS.timedJoin(thread, Math.max(0L, deadline - System.nanoTime()));
             } catch (InterruptedException e) {
                 InternalLogger.INSTANCE.error("Interrupted during join of active transmission loader, exception: %s", e.getMessage());
             }
         }
     }
 
+    /**
+     * Wakes up the threads that wait for transmissions to load.
+     */
+    public void onTransmissionPersisted() {
+        synchronized (persistedTransmissionsLock) {
+            transmissionsPersisted = true;
+            persistedTransmissionsLock.notifyAll();
+        }
+    }
+
     private void fetchNext(boolean shouldDispatch) throws InterruptedException {
         Transmission transmission = fileSystem.fetchOldestFile();
         if (transmission == null) {
-            Thread.sleep(sleepIntervalWhenNoTransmissionsFoundInMills);
-        } else {
-            if (shouldDispatch) {
-                dispatcher.dispatch(transmission);
-            }
+            waitForPersistedTransmissions();
+        } else if (shouldDispatch) {
+            dispatcher.dispatch(transmission);
+        }
+    }
 
-            // TODO: check if we need this as configuration value
-            Thread.sleep(DEFAULT_SLEEP_INTERVAL_AFTER_DISPATCHING_IN_MILLS);
+    private void waitForPersistedTransmissions() throws InterruptedException {
+        synchronized (persistedTransmissionsLock) {
+            // The wait is bounded, so the threads still look for files now and then without being notified
+            if (!transmissionsPersisted) {
+                persistedTransmissionsLock.wait(sleepIntervalWhenNoTransmissionsFoundInMills);
+            }
+            transmissionsPersisted = false;
         }
     }
 }
@@ -21,19 +21,40 @@
 
 package com.microsoft.applicationinsights.internal.channel.common;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 import com.google.common.base.Preconditions;
+import com.microsoft.applicationinsights.internal.channel.DrainableTransmissionOutput;
+import com.microsoft.applicationinsights.internal.channel.LoadAwareTransmissionOutput;
 import com.microsoft.applicationinsights.internal.channel.TransmissionOutput;
 import com.microsoft.applicationinsights.internal.util.ThreadPoolUtils;
 
 /**
  * Created by gupele on 12/18/2014.
  */
-public final class ActiveTransmissionNetworkOutput implements TransmissionOutput {
+public final class ActiveTransmissionNetworkOutput implements LoadAwareTransmissionOutput, DrainableTransmissionOutput {
+    private final class SendTask implements Runnable {
+        private final Transmission transmission;
+
+        private SendTask(Transmission transmission) {
+            this.transmission = transmission;
+        }
+
+        @Override
+        public void run() {
+            try {
+                actualOutput.send(transmission);
+            } catch (Throwable throwable) {
+                // Avoid un-expected exit of thread
+            }
+        }
+    }
+
     private final static int DEFAULT_MAX_MESSAGES_IN_BUFFER = 128;
     private final static int DEFAULT_MIN_NUMBER_OF_THREADS = 7;
     private final static int DEFAULT_MAX_NUMBER_OF_THREADS = 7;
@@ -41,6 +62,9 @@ public final class ActiveTransmissionNetworkOutput implements TransmissionOutput
 
     private final int maxThreads;
 
+    /// Transmissions loaded from the disk are sent only while that much room is left in the buffer for the live ones
+    private final int reservedCapacityForLiveTransmissions;
+
     private final ThreadPoolExecutor outputThreads;
 
     private final TransmissionOutput actualOutput;
@@ -58,6 +82,7 @@ public final class ActiveTransmissionNetworkOutput implements TransmissionOutput
         this.transmissionPolicy = transmissionPolicy;
 
         maxThreads = DEFAULT_MAX_NUMBER_OF_THREADS;
+        reservedCapacityForLiveTransmissions = maxMessagesInBuffer / 2;
         outputThreads = ThreadPoolUtils.newLimitedThreadPool(
                 DEFAULT_MIN_NUMBER_OF_THREADS,
                 maxThreads,
@@ -74,22 +99,13 @@ public final class ActiveTransmissionNetworkOutput implements TransmissionOutput
     }
 
     @Override
-    public boolean send(final Transmission transmission) {
+    public boolean send(Transmission transmission) {
         try {
             if (transmissionPolicy.getCurrentState() != TransmissionPolicy.UNBLOCKED) {
                 return false;
             }
 
-            outputThreads.execute(new Runnable() {
-                @Override
-                public void run() {
-                    try {
-                        actualOutput.send(transmission);
-                    } catch (Throwable throwable) {
-                        // Avoid un-expected exit of thread
-                    }
-                }
-            });
+            outputThreads.execute(new SendTask(transmission));
             return true;
 
         } catch (RejectedExecutionException e) {
@@ -100,12 +116,36 @@ public final class ActiveTransmissionNetworkOutput implements TransmissionOutput
         return false;
     }
 
+    @Override
+    public boolean hasCapacityForLoadedTransmissions() {
+        return transmissionPolicy.getCurrentState() == TransmissionPolicy.UNBLOCKED &&
+               outputThreads.getQueue().remainingCapacity() > reservedCapacityForLiveTransmissions;
+    }
+
     @Override
     public void stop(long timeout, TimeUnit timeUnit) {
         actualOutput.stop(timeout, timeUnit);
         ThreadPoolUtils.stop(outputThreads, timeout, timeUnit);
     }
 
+    /**
+     * The queued transmissions are sent until the timeout expires, then the actual output is stopped.
+     * @return The transmissions that were still queued when the timeout expired.
+     */
+    @Override
+    public Collection<Transmission> stopAndDrain(long timeout, TimeUnit timeUnit) {
+        Collection<Transmission> notSent = new ArrayList<Transmission>();
+        for (Runnable task : ThreadPoolUtils.stopAndDrain(outputThreads, timeout, timeUnit)) {
+            if (task instanceof SendTask) {
+                notSent.add(((SendTask) task).transmission);
+            }
+        }
+
+        actualOutput.stop(timeout, timeUnit);
+
+        return notSent;
+    }
+
     public int getNumberOfMaxThreads() {
         return this.maxThreads;
     }
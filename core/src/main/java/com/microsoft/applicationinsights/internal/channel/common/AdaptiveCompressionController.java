@@ -0,0 +1,283 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+import com.microsoft.applicationinsights.internal.channel.TelemetriesBuffer;
+import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+import com.microsoft.applicationinsights.internal.perfcounter.CpuPerformanceCounterCalculator;
+import com.microsoft.applicationinsights.internal.util.ThreadPoolUtils;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+
+/**
+ * Adjusts the compression level and the batch size of a channel to keep the CPU the channel consumes under a ceiling.
+ *
+ * Every evaluation interval the controller compares the time the channel spent serializing and compressing
+ * telemetries to the CPU capacity of the machine, and reads the CPU usage of the process and the backlog of the network:
+ * 1. When the channel consumes more than the ceiling, or the process saturates the CPU, the compression level
+ *    is lowered and the batches grow, so the fixed cost of every batch is spread over more telemetries.
+ * 2. When there is backlog, i.e. batches wait to be sent or the transmission storage grows, and the channel
+ *    consumes less than half of the ceiling, the compression level is raised to send less bytes.
+ * 3. When the channel consumes less than half of the ceiling for a few evaluations in a row, the batches shrink
+ *    back towards the configured size and the compression level is raised back towards the configured level.
+ * 4. Otherwise, between half of the ceiling and the ceiling, nothing changes.
+ *
+ * With streaming compression, the time the compression thread spends on a batch is counted once the batch is sealed.
+ *
+ * The level and the batch size are changed by one step per evaluation, in the spirit of the adaptive sampler.
+ * The gap between half of the ceiling and the ceiling, and the evaluations it takes to recover, keep a steady load
+ * close to the ceiling from growing and shrinking the batches on every evaluation.
+ */
+public final class AdaptiveCompressionController implements Runnable {
+    public final static int DEFAULT_MAX_CPU_PERCENT = 5;
+    public final static int DEFAULT_EVALUATION_INTERVAL_IN_SECONDS = 10;
+
+    private final static int MIN_COMPRESSION_LEVEL = Deflater.BEST_SPEED;
+    private final static int MAX_COMPRESSION_LEVEL = Deflater.BEST_COMPRESSION;
+
+    // The level zlib uses for Deflater.DEFAULT_COMPRESSION
+    private final static int ZLIB_DEFAULT_COMPRESSION_LEVEL = 6;
+
+    // The process is considered to saturate the CPU above that usage, whatever the share of the channel is
+    private final static double SATURATED_PROCESS_CPU_PERCENT = 90.0;
+
+    // The transmitter is considered to be behind the network when that many batches wait to be sent
+    private final static int BACKLOG_PENDING_BATCHES = 2;
+
+    // The number of evaluations in a row under half of the ceiling before the level and the batch size are recovered by a step
+    @VisibleForTesting
+    final static int CALM_EVALUATIONS_BEFORE_RECOVERY = 3;
+
+    private final DeflaterPool deflaterPool;
+
+    private final TelemetriesBuffer telemetryBuffer;
+
+    private final ChannelStatistics statistics;
+
+    private final double maxCpuPercent;
+
+    private final int numberOfCpus;
+
+    /// The configured batch size, the batches do not shrink below it
+    private volatile int minTelemetriesInBatch;
+
+    private final int maxTelemetriesInBatch;
+
+    /// The configured compression level, the level is raised back to it once the CPU is calm
+    private final int configuredCompressionLevel;
+
+    private final CpuPerformanceCounterCalculator cpuCalculator;
+
+    private ScheduledThreadPoolExecutor threads;
+
+    private long lastEvaluationTimeInNanos;
+    private long lastProcessingTimeInMicros;
+    private long lastSpoolSizeInBytes;
+
+    private int calmEvaluations;
+
+    /// Set while the channel is in developer mode, which sends every telemetry on its own
+    private volatile boolean suspended;
+
+    /**
+     * @param deflaterPool The pool whose compression level is adjusted.
+     * @param telemetryBuffer The buffer whose batch size is adjusted, its current size is the minimum.
+     * @param statistics The statistics of the channel, which tell the time spent on telemetries and the backlog.
+     * @param maxCpuPercent The ceiling of the CPU the channel may consume, in percents of all the processors.
+     * @param maxTelemetriesInBatch The maximum the batch size may grow to.
+     */
+    public AdaptiveCompressionController(DeflaterPool deflaterPool,
+                                         TelemetriesBuffer telemetryBuffer,
+                                         ChannelStatistics statistics,
+                                         int maxCpuPercent,
+                                         int maxTelemetriesInBatch) {
+        this(deflaterPool, telemetryBuffer, statistics, maxCpuPercent, maxTelemetriesInBatch, Runtime.getRuntime().availableProcessors(), new CpuPerformanceCounterCalculator());
+    }
+
+    @VisibleForTesting
+    AdaptiveCompressionController(DeflaterPool deflaterPool,
+                                  TelemetriesBuffer telemetryBuffer,
+                                  ChannelStatistics statistics,
+                                  int maxCpuPercent,
+                                  int maxTelemetriesInBatch,
+                                  int numberOfCpus,
+                                  CpuPerformanceCounterCalculator cpuCalculator) {
+        Preconditions.checkNotNull(deflaterPool, "deflaterPool must be non-null value");
+        Preconditions.checkNotNull(telemetryBuffer, "telemetryBuffer must be non-null value");
+        Preconditions.checkNotNull(statistics, "statistics must be non-null value");
+        Preconditions.checkArgument(maxCpuPercent > 0 && maxCpuPercent <= 100, "maxCpuPercent must be between 1 and 100");
+        Preconditions.checkArgument(numberOfCpus > 0, "numberOfCpus must be a positive number");
+
+        this.deflaterPool = deflaterPool;
+        this.telemetryBuffer = telemetryBuffer;
+        this.statistics = statistics;
+        this.maxCpuPercent = maxCpuPercent;
+        this.numberOfCpus = numberOfCpus;
+        this.minTelemetriesInBatch = telemetryBuffer.getMaxTelemetriesInBatch();
+        this.maxTelemetriesInBatch = Math.max(minTelemetriesInBatch, maxTelemetriesInBatch);
+        this.cpuCalculator = cpuCalculator;
+
+        if (deflaterPool.getCompressionLevel() == Deflater.DEFAULT_COMPRESSION) {
+            deflaterPool.setCompressionLevel(ZLIB_DEFAULT_COMPRESSION_LEVEL);
+        }
+        this.configuredCompressionLevel = deflaterPool.getCompressionLevel();
+
+        lastEvaluationTimeInNanos = System.nanoTime();
+        lastProcessingTimeInMicros = statistics.getProcessingTimeInMicros();
+        lastSpoolSizeInBytes = statistics.getSpoolSizeInBytes();
+    }
+
+    /**
+     * Starts evaluating periodically on a daemon thread.
+     * @param evaluationIntervalInSeconds The time between evaluations.
+     */
+    public synchronized void start(int evaluationIntervalInSeconds) {
+        Preconditions.checkArgument(evaluationIntervalInSeconds > 0, "evaluationIntervalInSeconds must be a positive number");
+        Preconditions.checkState(threads == null, "The controller was already started");
+
+        threads = new ScheduledThreadPoolExecutor(1);
+        threads.setThreadFactory(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        // The first reading of the process CPU only sets the base for the next ones
+        cpuCalculator.getProcessCpuUsage();
+        threads.scheduleAtFixedRate(this, evaluationIntervalInSeconds, evaluationIntervalInSeconds, TimeUnit.SECONDS);
+    }
+
+    public synchronized void stop(long timeout, TimeUnit timeUnit) {
+        ThreadPoolUtils.stop(threads, timeout, timeUnit);
+    }
+
+    /**
+     * Sets the batch size the batches do not shrink below, called when the batch size of the channel is set explicitly.
+     * @param minTelemetriesInBatch The batch size that was set.
+     */
+    public void setMinTelemetriesInBatch(int minTelemetriesInBatch) {
+        this.minTelemetriesInBatch = minTelemetriesInBatch;
+    }
+
+    /**
+     * Suspends the evaluations, the compression level and the batch size are left as they are while suspended.
+     * @param suspended True to suspend, false to resume.
+     */
+    public void setSuspended(boolean suspended) {
+        this.suspended = suspended;
+    }
+
+    @Override
+    public void run() {
+        try {
+            long now = System.nanoTime();
+            long processingTimeInMicros = statistics.getProcessingTimeInMicros();
+            long spoolSizeInBytes = statistics.getSpoolSizeInBytes();
+
+            evaluate(cpuCalculator.getProcessCpuUsage(),
+                     processingTimeInMicros - lastProcessingTimeInMicros,
+                     TimeUnit.NANOSECONDS.toMicros(now - lastEvaluationTimeInNanos),
+                     statistics.getPendingBatches(),
+                     spoolSizeInBytes > lastSpoolSizeInBytes);
+
+            lastEvaluationTimeInNanos = now;
+            lastProcessingTimeInMicros = processingTimeInMicros;
+            lastSpoolSizeInBytes = spoolSizeInBytes;
+        } catch (Throwable t) {
+            InternalLogger.INSTANCE.error("Failed to evaluate the compression level, exception: %s", t.getMessage());
+        }
+    }
+
+    /**
+     * @param processCpuPercent The CPU usage of the process in percents of all the processors, negative if unknown.
+     * @param processingTimeInMicros The time the channel spent on telemetries since the last evaluation.
+     * @param elapsedTimeInMicros The time since the last evaluation.
+     * @param pendingBatches The number of batches that wait to be sent.
+     * @param storageGrew True if the transmission storage grew since the last evaluation.
+     */
+    @VisibleForTesting
+    void evaluate(double processCpuPercent, long processingTimeInMicros, long elapsedTimeInMicros, int pendingBatches, boolean storageGrew) {
+        if (suspended) {
+            calmEvaluations = 0;
+            return;
+        }
+
+        if (elapsedTimeInMicros <= 0) {
+            return;
+        }
+
+        double channelCpuPercent = processingTimeInMicros * 100.0 / ((double) elapsedTimeInMicros * numberOfCpus);
+        InternalLogger.INSTANCE.trace("The channel consumed %s%% of the CPU, the process consumed %s%%", channelCpuPercent, processCpuPercent);
+
+        int level = deflaterPool.getCompressionLevel();
+        int telemetriesInBatch = telemetryBuffer.getMaxTelemetriesInBatch();
+        if (channelCpuPercent > maxCpuPercent || processCpuPercent >= SATURATED_PROCESS_CPU_PERCENT) {
+            calmEvaluations = 0;
+            setCompressionLevel(level, Math.max(MIN_COMPRESSION_LEVEL, level - 1));
+            setMaxTelemetriesInBatch(telemetriesInBatch, Math.min(maxTelemetriesInBatch, telemetriesInBatch * 2));
+            return;
+        }
+
+        if (channelCpuPercent >= maxCpuPercent / 2) {
+            calmEvaluations = 0;
+            return;
+        }
+
+        if (pendingBatches >= BACKLOG_PENDING_BATCHES || storageGrew) {
+            setCompressionLevel(level, Math.min(MAX_COMPRESSION_LEVEL, level + 1));
+        }
+
+        if (++calmEvaluations < CALM_EVALUATIONS_BEFORE_RECOVERY) {
+            return;
+        }
+
+        calmEvaluations = 0;
+        level = deflaterPool.getCompressionLevel();
+        if (level < configuredCompressionLevel) {
+            setCompressionLevel(level, level + 1);
+        }
+        setMaxTelemetriesInBatch(telemetriesInBatch, Math.max(minTelemetriesInBatch, telemetriesInBatch / 2));
+    }
+
+    private void setCompressionLevel(int current, int suggested) {
+        if (suggested != current) {
+            InternalLogger.INSTANCE.trace("Updating compression level from %s to %s", current, suggested);
+            deflaterPool.setCompressionLevel(suggested);
+        }
+    }
+
+    private void setMaxTelemetriesInBatch(int current, int suggested) {
+        if (suggested != current) {
+            InternalLogger.INSTANCE.trace("Updating max telemetries in batch from %s to %s", current, suggested);
+            telemetryBuffer.setMaxTelemetriesInBatch(suggested);
+        }
+    }
+}
@@ -0,0 +1,371 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.microsoft.applicationinsights.internal.channel.DrainableTransmissionOutput;
+import com.microsoft.applicationinsights.internal.channel.TransmissionDispatcher;
+import com.microsoft.applicationinsights.internal.channel.LoadAwareTransmissionOutput;
+import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+
+/**
+ * An asynchronous alternative to the {@link ActiveTransmissionNetworkOutput} over {@link TransmissionNetworkOutput}.
+ *
+ * The transmissions are posted by a non blocking (NIO) http client, so a couple of I/O threads keep
+ * many requests in flight, instead of a thread blocking for each request for the whole round-trip.
+ * The number of requests in flight is bounded, when the bound is reached the output does not accept
+ * the transmission and the dispatcher hands it to the next output, i.e. the file system.
+ *
+ * The responses are handled in completion callbacks by the same {@link TransmissionResponseHandler} the
+ * blocking output uses. Transmissions that should be sent again, because the server throttled, failed or
+ * could not be reached, go back to the dispatcher, which persists them while the transmissions are suspended.
+ * When the server did not ask for a suspension, the transmissions are suspended for a back off that doubles
+ * with every consecutive failure, so the transmissions to send again are persisted instead of being posted at once.
+ *
+ * When the output is stopped it waits for the requests in flight until the timeout expires,
+ * and hands back the transmissions whose requests did not complete by then, together with the transmissions
+ * whose requests failed or should be sent again while it waited.
+ * A request that did not complete by then may already have been received by the server, so its transmission
+ * may be sent twice once it is persisted and loaded again, i.e. the transmissions are sent at least once.
+ */
+public final class AsyncTransmissionNetworkOutput implements LoadAwareTransmissionOutput, DrainableTransmissionOutput {
+    public final static int DEFAULT_MAX_IN_FLIGHT_REQUESTS = 64;
+
+    /// The number of times a transmission that failed is handed back to the dispatcher before it is dropped
+    public final static int MAX_NUMBER_OF_SENDS = 5;
+
+    private final static int DEFAULT_NUMBER_OF_IO_THREADS = 2;
+
+    // The back off after a failure starts with that many seconds and doubles with every consecutive failure
+    private final static int MIN_BACKOFF_IN_SECONDS = 5;
+    private final static int MAX_BACKOFF_IN_SECONDS = 300;
+
+    private final String serverUri;
+
+    private final CloseableHttpAsyncClient httpClient;
+
+    private final int maxInFlightRequests;
+
+    private final Semaphore inFlightRequests;
+
+    /// The transmissions whose requests did not complete yet
+    private final Set<Transmission> inFlightTransmissions = Collections.newSetFromMap(new ConcurrentHashMap<Transmission, Boolean>());
+
+    /// Transmissions loaded from the disk are sent only while that many requests are left for the live ones
+    private final int reservedRequestsForLiveTransmissions;
+
+    private final TransmissionPolicyManager transmissionPolicyManager;
+
+    private final TransmissionPolicyStateFetcher transmissionPolicy;
+
+    /// The number of failures since a transmission was last accepted, used for the back off
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+
+    private final TransmissionResponseHandler responseHandler;
+
+    private volatile ChannelStatistics statistics = new ChannelStatistics();
+
+    /// The transmissions that should be sent again but were not, since the output was draining
+    private final ConcurrentLinkedQueue<Transmission> notSentWhileDraining = new ConcurrentLinkedQueue<Transmission>();
+
+    private volatile boolean stopped;
+
+    private volatile boolean draining;
+
+    public static AsyncTransmissionNetworkOutput create(String endpoint, TransmissionPolicyManager transmissionPolicyManager, int maxInFlightRequests) {
+        String realEndpoint = Strings.isNullOrEmpty(endpoint) ? TransmissionNetworkOutput.DEFAULT_SERVER_URI : endpoint;
+        return new AsyncTransmissionNetworkOutput(realEndpoint, transmissionPolicyManager, createHttpClient(maxInFlightRequests), maxInFlightRequests);
+    }
+
+    @VisibleForTesting
+    AsyncTransmissionNetworkOutput(String serverUri, TransmissionPolicyManager transmissionPolicyManager, CloseableHttpAsyncClient httpClient, int maxInFlightRequests) {
+        Preconditions.checkArgument(!Strings.isNullOrEmpty(serverUri), "serverUri should be a valid non-null value");
+        Preconditions.checkNotNull(transmissionPolicyManager, "transmissionPolicyManager should be a valid non-null value");
+        Preconditions.checkNotNull(httpClient, "httpClient should be a valid non-null value");
+        Preconditions.checkArgument(maxInFlightRequests > 0, "maxInFlightRequests must be a positive number");
+
+        this.serverUri = serverUri;
+        this.transmissionPolicyManager = transmissionPolicyManager;
+        this.transmissionPolicy = transmissionPolicyManager.getTransmissionPolicyState();
+        this.responseHandler = new TransmissionResponseHandler(transmissionPolicyManager);
+        this.maxInFlightRequests = maxInFlightRequests;
+        this.inFlightRequests = new Semaphore(maxInFlightRequests);
+        this.reservedRequestsForLiveTransmissions = maxInFlightRequests / 2;
+
+        this.httpClient = httpClient;
+        this.httpClient.start();
+    }
+
+    public void setTransmissionDispatcher(TransmissionDispatcher transmissionDispatcher) {
+        responseHandler.setTransmissionDispatcher(transmissionDispatcher);
+    }
+
+    public void setTelemetrySerializer(GzipTelemetrySerializer serializer) {
+        responseHandler.setTelemetrySerializer(serializer);
+    }
+
+    public void setStatistics(ChannelStatistics statistics) {
+        Preconditions.checkNotNull(statistics, "statistics must be non-null value");
+
+        this.statistics = statistics;
+    }
+
+    /**
+     * Starts posting the transmission without waiting for the response.
+     * @param transmission The data to send
+     * @return False if transmissions are suspended or too many requests are in flight, true otherwise.
+     */
+    @Override
+    public boolean send(final Transmission transmission) {
+        if (stopped || transmissionPolicy.getCurrentState() != TransmissionPolicy.UNBLOCKED) {
+            return false;
+        }
+
+        if (!inFlightRequests.tryAcquire()) {
+            return false;
+        }
+
+        try {
+            HttpPost request = TransmissionResponseHandler.createTransmissionPostRequest(serverUri, transmission);
+            final long start = System.nanoTime();
+            inFlightTransmissions.add(transmission);
+            httpClient.execute(request, new FutureCallback<HttpResponse>() {
+                @Override
+                public void completed(HttpResponse response) {
+                    // The slot is released once the response was handled, so a drain that waits for all the slots
+                    // finds the transmission either in flight or among the ones to send again
+                    try {
+                        boolean accepted = TransmissionResponseHandler.isAccepted(response);
+                        statistics.onTransmissionPosted(System.nanoTime() - start, accepted);
+                        if (accepted) {
+                            consecutiveFailures.set(0);
+                        }
+                        if (!responseHandler.onResponse(transmission, response) || isRetriable(response)) {
+                            resend(transmission);
+                        }
+                    } catch (Throwable t) {
+                        InternalLogger.INSTANCE.error("Failed to handle the response, exception: %s", t.getMessage());
+                    } finally {
+                        inFlightTransmissions.remove(transmission);
+                        inFlightRequests.release();
+                    }
+                }
+
+                @Override
+                public void failed(Exception e) {
+                    try {
+                        statistics.onPostFailed();
+                        responseHandler.onFailure(e);
+                        resend(transmission);
+                    } catch (Throwable t) {
+                        InternalLogger.INSTANCE.error("Failed to handle the failure, exception: %s", t.getMessage());
+                    } finally {
+                        inFlightTransmissions.remove(transmission);
+                        inFlightRequests.release();
+                    }
+                }
+
+                @Override
+                public void cancelled() {
+                    inFlightTransmissions.remove(transmission);
+                    inFlightRequests.release();
+                }
+            });
+
+            return true;
+        } catch (Throwable t) {
+            inFlightTransmissions.remove(transmission);
+            inFlightRequests.release();
+            InternalLogger.INSTANCE.error("Failed to send, unexpected exception: %s", t.getMessage());
+        }
+
+        return false;
+    }
+
+    @Override
+    public boolean hasCapacityForLoadedTransmissions() {
+        return !stopped &&
+               transmissionPolicy.getCurrentState() == TransmissionPolicy.UNBLOCKED &&
+               inFlightRequests.availablePermits() > reservedRequestsForLiveTransmissions;
+    }
+
+    @Override
+    public synchronized void stop(long timeout, TimeUnit timeUnit) {
+        if (stopped) {
+            return;
+        }
+
+        stopped = true;
+        closeHttpClient();
+    }
+
+    /**
+     * Waits for the requests in flight until the timeout expires, then closes the http client.
+     * The requests that did not complete by then may have been received by the server, so their transmissions may be sent twice.
+     * @return The transmissions whose requests did not complete when the timeout expired,
+     *         and the transmissions whose requests failed or should be sent again while waiting.
+     */
+    @Override
+    public synchronized Collection<Transmission> stopAndDrain(long timeout, TimeUnit timeUnit) {
+        if (stopped) {
+            return new ArrayList<Transmission>();
+        }
+
+        draining = true;
+        stopped = true;
+        try {
+            if (inFlightRequests.tryAcquire(maxInFlightRequests, timeout, timeUnit)) {
+                inFlightRequests.release(maxInFlightRequests);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // The transmissions in flight are taken first, one that completes meanwhile is queued before it leaves the in flight set
+        Set<Transmission> notSent = new LinkedHashSet<Transmission>(inFlightTransmissions);
+        inFlightTransmissions.clear();
+        Transmission transmission;
+        while ((transmission = notSentWhileDraining.poll()) != null) {
+            notSent.add(transmission);
+        }
+        draining = false;
+        closeHttpClient();
+
+        return notSent;
+    }
+
+    private void closeHttpClient() {
+        try {
+            httpClient.close();
+        } catch (IOException e) {
+            InternalLogger.INSTANCE.error("Failed to close http client, exception: %s", e.getMessage());
+        }
+    }
+
+    @VisibleForTesting
+    int getNumberOfAvailableRequests() {
+        return inFlightRequests.availablePermits();
+    }
+
+    private void resend(Transmission transmission) {
+        if (stopped) {
+            // The dispatcher hands what the output could not send to the next outputs once it is drained
+            if (draining) {
+                notSentWhileDraining.offer(transmission);
+            }
+            return;
+        }
+
+        TransmissionDispatcher transmissionDispatcher = responseHandler.getTransmissionDispatcher();
+        if (transmissionDispatcher == null) {
+            InternalLogger.INSTANCE.error("Failed to send, no dispatcher to send the transmission again");
+            return;
+        }
+
+        if (transmission.getNumberOfSends() >= MAX_NUMBER_OF_SENDS) {
+            InternalLogger.INSTANCE.error("Failed to send, the transmission failed %d times and is dropped", transmission.getNumberOfSends() + 1);
+            return;
+        }
+
+        // Send it again after the back off, the dispatcher persists it while the transmissions are suspended
+        backOff();
+        transmission.incrementNumberOfSends();
+        transmissionDispatcher.dispatch(transmission);
+    }
+
+    /**
+     * Suspends the transmissions, unless the server already asked for a suspension.
+     */
+    private void backOff() {
+        int failures = consecutiveFailures.incrementAndGet();
+        if (transmissionPolicy.getCurrentState() != TransmissionPolicy.UNBLOCKED) {
+            return;
+        }
+
+        long backOffInSeconds = MIN_BACKOFF_IN_SECONDS;
+        for (int i = 1; i < failures && backOffInSeconds < MAX_BACKOFF_IN_SECONDS; ++i) {
+            backOffInSeconds <<= 1;
+        }
+        transmissionPolicyManager.suspendInSeconds(TransmissionPolicy.BLOCKED_BUT_CAN_BE_PERSISTED, Math.min(backOffInSeconds, MAX_BACKOFF_IN_SECONDS));
+    }
+
+    /**
+     * @return True if the server could not handle the transmission for now, so it should be sent again later.
+     */
+    private static boolean isRetriable(HttpResponse response) {
+        int code = response.getStatusLine().getStatusCode();
+        return code == HttpStatus.SC_REQUEST_TIMEOUT || code == HttpStatus.SC_INTERNAL_SERVER_ERROR || code == HttpStatus.SC_SERVICE_UNAVAILABLE;
+    }
+
+    private static CloseableHttpAsyncClient createHttpClient(int maxInFlightRequests) {
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectionRequestTimeout(ApacheSender.REQUEST_TIMEOUT_IN_MILLIS)
+                .setSocketTimeout(ApacheSender.REQUEST_TIMEOUT_IN_MILLIS)
+                .setConnectTimeout(ApacheSender.REQUEST_TIMEOUT_IN_MILLIS)
+                .build();
+
+        IOReactorConfig ioReactorConfig = IOReactorConfig.custom()
+                .setIoThreadCount(DEFAULT_NUMBER_OF_IO_THREADS)
+                .build();
+
+        return HttpAsyncClients.custom()
+                .setDefaultRequestConfig(requestConfig)
+                .setDefaultIOReactorConfig(ioReactorConfig)
+                .setMaxConnTotal(maxInFlightRequests)
+                .setMaxConnPerRoute(maxInFlightRequests)
+                .setThreadFactory(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "ApplicationInsights-AsyncNetworkOutput");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                })
+                .useSystemProperties()
+                .build();
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.common;
+
+/**
+ * Defines what the transmitter does with a container of telemetries when it already has the maximum
+ * number of pending send requests.
+ */
+public enum BackpressurePolicy {
+    /// The incoming container is dropped
+    DROP_NEWEST,
+
+    /// The oldest pending container is dropped to make room for the incoming one
+    DROP_OLDEST,
+
+    /// The incoming container is persisted to the disk, to be sent later, it is serialized by the thread of the file output
+    SPILL_TO_DISK,
+
+    /// The caller waits for room up to a bounded time, the container is dropped if the time is up.
+    /// Only the thread that sends the full container waits, the other threads keep adding to the next one
+    BLOCK;
+
+    /**
+     * Parses the value case insensitively, with or without the underscores, i.e. 'DropOldest' or 'DROP_OLDEST'.
+     * @param value The value to parse.
+     * @param defaultPolicy The policy to return if the value is empty or unknown.
+     * @return The policy.
+     */
+    public static BackpressurePolicy parse(String value, BackpressurePolicy defaultPolicy) {
+        if (value == null) {
+            return defaultPolicy;
+        }
+
+        String normalized = value.trim().replace("_", "");
+        for (BackpressurePolicy policy : values()) {
+            if (policy.name().replace("_", "").equalsIgnoreCase(normalized)) {
+                return policy;
+            }
+        }
+
+        return defaultPolicy;
+    }
+}
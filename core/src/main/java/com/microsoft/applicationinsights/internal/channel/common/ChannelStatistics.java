@@ -0,0 +1,216 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.microsoft.applicationinsights.internal.channel.TransmissionStorage;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Collects the statistics of the channel pipeline: the telemetries that go through it,
+ * the bytes that are sent, the latencies of the stages and the state of the components.
+ *
+ * The counters are updated by the components as they work, the state of the storage,
+ * the transmitter and the transmission policy is read from them when asked.
+ *
+ * The class is thread safe.
+ */
+public final class ChannelStatistics implements ChannelStatisticsMXBean {
+    private final TelemetryDropCounters dropCounters;
+
+    private final AtomicLong acceptedTelemetries = new AtomicLong();
+    private final AtomicLong sampledOutTelemetries = new AtomicLong();
+    private final AtomicLong sentBatches = new AtomicLong();
+    private final AtomicLong failedPosts = new AtomicLong();
+    private final AtomicLong rawBytes = new AtomicLong();
+    private final AtomicLong compressedBytes = new AtomicLong();
+
+    private final LatencyHistogram serializeLatency = new LatencyHistogram();
+    private final LatencyHistogram compressLatency = new LatencyHistogram();
+    private final LatencyHistogram postLatency = new LatencyHistogram();
+
+    private volatile TransmissionStorage transmissionStorage;
+    private volatile TransmissionPolicyStateFetcher transmissionPolicyState;
+    private volatile TransmitterImpl transmitter;
+
+    public ChannelStatistics() {
+        this(new TelemetryDropCounters());
+    }
+
+    public ChannelStatistics(TelemetryDropCounters dropCounters) {
+        Preconditions.checkNotNull(dropCounters, "dropCounters must be non-null value");
+
+        this.dropCounters = dropCounters;
+    }
+
+    public TelemetryDropCounters getDropCounters() {
+        return dropCounters;
+    }
+
+    public void setTransmissionStorage(TransmissionStorage transmissionStorage) {
+        this.transmissionStorage = transmissionStorage;
+    }
+
+    public void setTransmissionPolicyState(TransmissionPolicyStateFetcher transmissionPolicyState) {
+        this.transmissionPolicyState = transmissionPolicyState;
+    }
+
+    public void setTransmitter(TransmitterImpl transmitter) {
+        this.transmitter = transmitter;
+    }
+
+    public void onTelemetryAccepted() {
+        acceptedTelemetries.incrementAndGet();
+    }
+
+    public void onTelemetrySampledOut() {
+        sampledOutTelemetries.incrementAndGet();
+    }
+
+    /**
+     * @param durationInNanos The time it took to serialize a telemetry to Json.
+     */
+    public void onTelemetrySerialized(long durationInNanos) {
+        serializeLatency.record(durationInNanos);
+    }
+
+    /**
+     * @param rawSize The size of the serialized telemetries.
+     * @param compressedSize The size of the compressed transmission.
+     * @param durationInNanos The time it took to compress the telemetries.
+     */
+    public void onTransmissionCompressed(long rawSize, long compressedSize, long durationInNanos) {
+        rawBytes.addAndGet(rawSize);
+        compressedBytes.addAndGet(compressedSize);
+        compressLatency.record(durationInNanos);
+    }
+
+    /**
+     * @param durationInNanos The time from posting the transmission until the response arrived.
+     * @param accepted True if the server accepted the transmission, even if partially.
+     */
+    public void onTransmissionPosted(long durationInNanos, boolean accepted) {
+        postLatency.record(durationInNanos);
+        if (accepted) {
+            sentBatches.incrementAndGet();
+        }
+    }
+
+    public void onPostFailed() {
+        failedPosts.incrementAndGet();
+    }
+
+    @Override
+    public long getAcceptedTelemetries() {
+        return acceptedTelemetries.get();
+    }
+
+    @Override
+    public long getSampledOutTelemetries() {
+        return sampledOutTelemetries.get();
+    }
+
+    @Override
+    public long getDroppedTelemetries() {
+        return dropCounters.getNumberOfDroppedTelemetries();
+    }
+
+    @Override
+    public Map<String, Long> getDroppedTelemetriesByType() {
+        return dropCounters.getDroppedTelemetriesByType();
+    }
+
+    @Override
+    public long getSpilledTelemetries() {
+        return dropCounters.getNumberOfSpilledTelemetries();
+    }
+
+    @Override
+    public int getPendingBatches() {
+        TransmitterImpl current = transmitter;
+        return current == null ? 0 : current.getNumberOfPendingBatches();
+    }
+
+    @Override
+    public long getSentBatches() {
+        return sentBatches.get();
+    }
+
+    @Override
+    public long getFailedPosts() {
+        return failedPosts.get();
+    }
+
+    @Override
+    public long getRawBytes() {
+        return rawBytes.get();
+    }
+
+    @Override
+    public long getCompressedBytes() {
+        return compressedBytes.get();
+    }
+
+    @Override
+    public long getSpoolSizeInBytes() {
+        TransmissionStorage current = transmissionStorage;
+        return current == null ? 0 : current.getSizeInBytes();
+    }
+
+    @Override
+    public int getSpoolFiles() {
+        TransmissionStorage current = transmissionStorage;
+        return current == null ? 0 : current.getNumberOfFiles();
+    }
+
+    @Override
+    public String getTransmissionPolicy() {
+        TransmissionPolicyStateFetcher current = transmissionPolicyState;
+        return current == null ? TransmissionPolicy.UNBLOCKED.name() : current.getCurrentState().name();
+    }
+
+    /**
+     * The method is not part of the MBean, it is used to evaluate the CPU the channel consumes.
+     * @return The time spent serializing and compressing telemetries so far, in microseconds.
+     */
+    public long getProcessingTimeInMicros() {
+        return serializeLatency.getTotalInMicros() + compressLatency.getTotalInMicros();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getSerializeLatency() {
+        return serializeLatency.getSnapshot();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getCompressLatency() {
+        return compressLatency.getSnapshot();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getPostLatency() {
+        return postLatency.getSnapshot();
+    }
+}
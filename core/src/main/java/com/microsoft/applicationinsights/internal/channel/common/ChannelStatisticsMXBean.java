@@ -0,0 +1,101 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import java.util.Map;
+
+/**
+ * The statistics of a telemetry channel as exposed over JMX, registered by the
+ * {@link com.microsoft.applicationinsights.channel.concrete.inprocess.InProcessTelemetryChannel}.
+ */
+public interface ChannelStatisticsMXBean {
+    /**
+     * @return The number of telemetries that were added to the buffer of the channel.
+     */
+    long getAcceptedTelemetries();
+
+    /**
+     * @return The number of telemetries that the sampler did not let into the channel.
+     */
+    long getSampledOutTelemetries();
+
+    /**
+     * @return The number of telemetries that were dropped since the channel was overloaded.
+     */
+    long getDroppedTelemetries();
+
+    /**
+     * @return The number of dropped telemetries per telemetry type.
+     */
+    Map<String, Long> getDroppedTelemetriesByType();
+
+    /**
+     * @return The number of telemetries that were persisted to the disk since the channel was overloaded.
+     */
+    long getSpilledTelemetries();
+
+    /**
+     * @return The number of batches that wait to be serialized and dispatched.
+     */
+    int getPendingBatches();
+
+    /**
+     * @return The number of transmissions that the server accepted.
+     */
+    long getSentBatches();
+
+    /**
+     * @return The number of posts that failed without a response, like connection failures.
+     */
+    long getFailedPosts();
+
+    /**
+     * @return The number of serialized telemetry bytes before compression.
+     */
+    long getRawBytes();
+
+    /**
+     * @return The number of bytes after compression.
+     */
+    long getCompressedBytes();
+
+    /**
+     * @return The size of the transmissions that are persisted to the disk.
+     */
+    long getSpoolSizeInBytes();
+
+    /**
+     * @return The number of files that hold the persisted transmissions.
+     */
+    int getSpoolFiles();
+
+    /**
+     * @return The current transmission policy, i.e. whether the transmissions are suspended.
+     */
+    String getTransmissionPolicy();
+
+    LatencyHistogram.Snapshot getSerializeLatency();
+
+    LatencyHistogram.Snapshot getCompressLatency();
+
+    LatencyHistogram.Snapshot getPostLatency();
+}
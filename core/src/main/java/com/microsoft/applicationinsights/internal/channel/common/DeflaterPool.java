@@ -0,0 +1,119 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A bounded pool of 'raw' {@link Deflater} instances, all of them working with the same compression level.
+ *
+ * A {@link Deflater} holds native memory that is only released when calling {@link Deflater#end()}
+ * or when the instance is finalized, therefore creating one per batch makes the native memory grow under load.
+ * The pool resets released instances and hands them out again, instances released while the pool is full are ended.
+ *
+ * The class is thread safe.
+ */
+public final class DeflaterPool {
+    public final static int DEFAULT_MAX_POOLED_DEFLATERS = 4;
+
+    private final ConcurrentLinkedQueue<Deflater> deflaters = new ConcurrentLinkedQueue<Deflater>();
+    private final AtomicInteger numberOfPooledDeflaters = new AtomicInteger(0);
+    private final int maxPooledDeflaters;
+
+    private volatile int compressionLevel;
+
+    public DeflaterPool() {
+        this(Deflater.DEFAULT_COMPRESSION, DEFAULT_MAX_POOLED_DEFLATERS);
+    }
+
+    public DeflaterPool(int compressionLevel, int maxPooledDeflaters) {
+        Preconditions.checkArgument(maxPooledDeflaters >= 0, "maxPooledDeflaters must be a non-negative number");
+
+        setCompressionLevel(compressionLevel);
+        this.maxPooledDeflaters = maxPooledDeflaters;
+    }
+
+    /**
+     * Gets a 'raw' {@link Deflater}, without the zlib header and checksum, set with the current compression level.
+     * The instance should be returned by calling {@link #release(Deflater)}.
+     * @return The deflater.
+     */
+    public Deflater acquire() {
+        Deflater deflater = deflaters.poll();
+        if (deflater == null) {
+            return new Deflater(compressionLevel, true);
+        }
+
+        numberOfPooledDeflaters.decrementAndGet();
+        deflater.setLevel(compressionLevel);
+
+        return deflater;
+    }
+
+    /**
+     * Returns the deflater to the pool, the deflater must not be used after calling this method.
+     * @param deflater The deflater that was acquired from the pool.
+     */
+    public void release(Deflater deflater) {
+        if (deflater == null) {
+            return;
+        }
+
+        if (numberOfPooledDeflaters.incrementAndGet() > maxPooledDeflaters) {
+            numberOfPooledDeflaters.decrementAndGet();
+            deflater.end();
+            return;
+        }
+
+        deflater.reset();
+        deflaters.offer(deflater);
+    }
+
+    /**
+     * Sets the compression level of the deflaters, applied to deflaters that are acquired from now on.
+     * @param compressionLevel A value between {@link Deflater#NO_COMPRESSION} and {@link Deflater#BEST_COMPRESSION}
+     *                         or {@link Deflater#DEFAULT_COMPRESSION}.
+     */
+    public void setCompressionLevel(int compressionLevel) {
+        Preconditions.checkArgument(
+                compressionLevel == Deflater.DEFAULT_COMPRESSION ||
+                (compressionLevel >= Deflater.NO_COMPRESSION && compressionLevel <= Deflater.BEST_COMPRESSION),
+                "compressionLevel must be between 0 and 9, or -1 for the default level");
+
+        this.compressionLevel = compressionLevel;
+    }
+
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    /**
+     * @return The number of deflaters that wait in the pool.
+     */
+    public int getNumberOfPooledDeflaters() {
+        return numberOfPooledDeflaters.get();
+    }
+}
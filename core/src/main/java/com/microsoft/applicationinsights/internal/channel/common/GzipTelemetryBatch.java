@@ -0,0 +1,253 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import java.io.IOException;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.google.common.base.Preconditions;
+import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+
+/**
+ * A batch of serialized telemetries that is compressed while telemetries are added to it.
+ *
+ * Each telemetry is compressed into a live Gzip stream after it is added, in the same format
+ * the {@link GzipTelemetrySerializer} creates, i.e. telemetries separated by newline.
+ * When the batch is sealed, only the telemetries that were not compressed yet, the last compressed block
+ * and the Gzip trailer are written, which means that the batch does not keep the uncompressed telemetries
+ * in memory and that most of the work of compressing it is done before it is sent.
+ *
+ * Adding a telemetry only queues it: the queued telemetries are compressed by the compression executor,
+ * one task at a time per batch, so the threads that add the telemetries, which hold the lock of the buffer,
+ * never wait for the deflater. Without an executor the telemetries are compressed by the thread that adds them.
+ *
+ * The {@link GzipTelemetrySerializer} recognizes these batches, seals them and uses their content as is.
+ *
+ * The telemetries are expected to be added by one thread at a time, i.e. under the lock of the buffer,
+ * and the batch to be sealed once no more telemetries are added to it.
+ */
+public final class GzipTelemetryBatch extends AbstractCollection<byte[]> {
+    private final byte[] newlineString;
+    private final DeflaterPool deflaterPool;
+    private final Executor compressionExecutor;
+
+    /// The telemetries that were added and are not compressed yet
+    private final ConcurrentLinkedQueue<byte[]> pending = new ConcurrentLinkedQueue<byte[]>();
+
+    /// Set while a task that compresses the pending telemetries is queued or running
+    private final AtomicBoolean compressing = new AtomicBoolean();
+
+    private final Runnable compressPendingTask = new Runnable() {
+        @Override
+        public void run() {
+            do {
+                compressPending();
+                compressing.set(false);
+            } while (!pending.isEmpty() && compressing.compareAndSet(false, true));
+        }
+    };
+
+    /// Guards the compressor and the content
+    private final Object compressionLock = new Object();
+    private IncrementalGzipCompressor compressor;
+    private int compressedCount;
+    private volatile byte[] content;
+
+    private volatile int count;
+    private volatile long uncompressedSize;
+
+    /// The time spent compressing the telemetries, on any thread, guarded by the compression lock
+    private long compressionTimeInNanos;
+
+    public GzipTelemetryBatch() {
+        this(null, null);
+    }
+
+    /**
+     * @param deflaterPool The pool of deflaters to compress with, or null to use a new deflater with the default compression level.
+     */
+    public GzipTelemetryBatch(DeflaterPool deflaterPool) {
+        this(deflaterPool, null);
+    }
+
+    /**
+     * @param deflaterPool The pool of deflaters to compress with, or null to use a new deflater with the default compression level.
+     * @param compressionExecutor The executor that compresses the added telemetries, or null to compress them when they are added.
+     */
+    public GzipTelemetryBatch(DeflaterPool deflaterPool, Executor compressionExecutor) {
+        this.newlineString = System.getProperty("line.separator").getBytes();
+        this.deflaterPool = deflaterPool;
+        this.compressionExecutor = compressionExecutor;
+    }
+
+    /**
+     * Adds the telemetry to the batch, it is compressed by the compression executor.
+     * @param telemetry The telemetry, serialized as UTF-8 Json.
+     * @return True if the telemetry was added.
+     * @throws IllegalStateException if the batch is sealed.
+     */
+    @Override
+    public boolean add(byte[] telemetry) {
+        Preconditions.checkNotNull(telemetry, "telemetry must be non-null value");
+        Preconditions.checkState(content == null, "Cannot add telemetries to a sealed batch");
+
+        pending.offer(telemetry);
+        uncompressedSize += count == 0 ? telemetry.length : newlineString.length + telemetry.length;
+        ++count;
+
+        if (compressionExecutor == null) {
+            compressPending();
+        } else if (compressing.compareAndSet(false, true)) {
+            try {
+                compressionExecutor.execute(compressPendingTask);
+            } catch (RejectedExecutionException e) {
+                // The pending telemetries are compressed when the batch is sealed
+                compressing.set(false);
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Removes the telemetries and releases the compressor, the batch can be used again afterwards.
+     */
+    @Override
+    public void clear() {
+        synchronized (compressionLock) {
+            pending.clear();
+            if (compressor != null) {
+                compressor.abort();
+                compressor = null;
+            }
+
+            compressedCount = 0;
+            compressionTimeInNanos = 0;
+            content = null;
+        }
+
+        count = 0;
+        uncompressedSize = 0;
+    }
+    /**
+     * Iterates the telemetries of a sealed batch, by decompressing its content.
+     * This is not needed when sending the batch, the method is kept for the {@link java.util.Collection} contract.
+     */
+    @Override
+    public Iterator<byte[]> iterator() {
+        if (count == 0) {
+            return new ArrayList<byte[]>().iterator();
+        }
+
+        List<byte[]> telemetries;
+        try {
+            telemetries = GzipTelemetrySerializer.deserialize(seal());
+        } catch (IOException e) {
+            InternalLogger.INSTANCE.error("Failed to decompress telemetries batch, exception: %s", e.getMessage());
+            telemetries = new ArrayList<byte[]>();
+        }
+
+        return telemetries.iterator();
+    }
+
+    /**
+     * @return The number of bytes the telemetries take before compression, including the newline separators.
+     */
+    public long getUncompressedSize() {
+        return uncompressedSize;
+    }
+
+    /**
+     * @return The time spent compressing the telemetries of the batch so far, by the compression executor,
+     * the threads that added them and the thread that sealed the batch.
+     */
+    public long getCompressionTimeInNanos() {
+        synchronized (compressionLock) {
+            return compressionTimeInNanos;
+        }
+    }
+
+    /**
+     * @return True if the batch was already sealed.
+     */
+    public boolean isSealed() {
+        return content != null;
+    }
+
+    /**
+     * Seals the batch by completing the Gzip stream, no telemetries can be added after that.
+     * Calling the method more than once returns the same result.
+     * @return The content of the batch compressed in Gzip format.
+     */
+    public byte[] seal() {
+        Preconditions.checkState(count > 0, "Cannot seal an empty batch");
+
+        synchronized (compressionLock) {
+            if (content == null) {
+                compressPending();
+
+                long start = System.nanoTime();
+                content = compressor.finish();
+                compressor = null;
+                compressionTimeInNanos += System.nanoTime() - start;
+            }
+
+            return content;
+        }
+    }
+
+    private void compressPending() {
+        synchronized (compressionLock) {
+            if (content != null) {
+                return;
+            }
+
+            long start = System.nanoTime();
+            byte[] telemetry;
+            while ((telemetry = pending.poll()) != null) {
+                if (compressor == null) {
+                    compressor = new IncrementalGzipCompressor(deflaterPool, null);
+                }
+
+                if (compressedCount != 0) {
+                    compressor.write(newlineString);
+                }
+
+                compressor.write(telemetry);
+                ++compressedCount;
+            }
+            compressionTimeInNanos += System.nanoTime() - start;
+        }
+    }
+}
@@ -21,16 +21,17 @@
 
 package com.microsoft.applicationinsights.internal.channel.common;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.StringWriter;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.zip.GZIPOutputStream;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
 
 import com.microsoft.applicationinsights.internal.channel.TelemetrySerializer;
 import com.microsoft.applicationinsights.internal.logger.InternalLogger;
 import com.microsoft.applicationinsights.telemetry.Telemetry;
-import com.microsoft.applicationinsights.telemetry.JsonTelemetryDataSerializer;
 
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
@@ -39,82 +40,181 @@ import com.google.common.base.Preconditions;
  * The class is an implementation of the {@link TelemetrySerializer}
  * where the {@link Telemetry} instances are compressed by Gzip after converted to Json format
  *
+ * The deflaters are taken from a {@link DeflaterPool} and every thread compresses into its own
+ * reusable output buffer, so the only allocation per batch is the exactly sized content of the {@link Transmission}.
+ *
  * Created by gupele on 12/17/2014.
  */
 public final class GzipTelemetrySerializer implements TelemetrySerializer {
     private final static String GZIP_WEB_CONTENT_TYPE = "application/x-json-stream";
     private final static String GZIP_WEB_ENCODING_TYPE = "gzip";
 
+    // Output buffers that grew beyond that size while compressing a big batch are not kept for reuse
+    private final static int MAX_POOLED_OUTPUT_BUFFER_SIZE = 512 * 1024;
+    private final static int INITIAL_OUTPUT_BUFFER_SIZE = 16 * 1024;
+
+    private final static byte[] NEWLINE_STRING = System.getProperty("line.separator").getBytes();
+
     private final byte[] newlineString;
+    private final DeflaterPool deflaterPool;
+    private final ChannelStatistics statistics;
+
+    private final ThreadLocal<byte[]> outputBuffers = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[INITIAL_OUTPUT_BUFFER_SIZE];
+        }
+    };
 
     public GzipTelemetrySerializer() {
-        this.newlineString = System.getProperty("line.separator").getBytes();
+        this(new DeflaterPool());
+    }
+
+    public GzipTelemetrySerializer(DeflaterPool deflaterPool) {
+        this(deflaterPool, new ChannelStatistics());
+    }
+
+    /**
+     * @param deflaterPool The pool of deflaters to compress with.
+     * @param statistics Collects the sizes of the transmissions and the time it takes to compress them.
+     */
+    public GzipTelemetrySerializer(DeflaterPool deflaterPool, ChannelStatistics statistics) {
+        Preconditions.checkNotNull(deflaterPool, "deflaterPool must be non-null value");
+        Preconditions.checkNotNull(statistics, "statistics must be non-null value");
+
+        this.newlineString = NEWLINE_STRING;
+        this.deflaterPool = deflaterPool;
+        this.statistics = statistics;
+    }
+
+    /**
+     * The reverse of the serialization: decompresses the content and splits it to the serialized telemetries.
+     * @param content The content of a {@link Transmission} created by this class.
+     * @return The telemetries, serialized as UTF-8 Json, in their original order.
+     * @throws IOException If the content is not a valid Gzip stream.
+     */
+    public static List<byte[]> deserialize(byte[] content) throws IOException {
+        List<byte[]> telemetries = new ArrayList<byte[]>();
+
+        GZIPInputStream zipStream = new GZIPInputStream(new ByteArrayInputStream(content));
+        try {
+            ByteArrayOutputStream telemetry = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int matched = 0;
+            int length;
+            while ((length = zipStream.read(buffer)) != -1) {
+                for (int i = 0; i < length; ++i) {
+                    byte b = buffer[i];
+                    if (b != NEWLINE_STRING[matched] && matched != 0) {
+                        // Only a prefix of the separator, it is part of the telemetry
+                        telemetry.write(NEWLINE_STRING, 0, matched);
+                        matched = 0;
+                    }
+
+                    if (b == NEWLINE_STRING[matched]) {
+                        if (++matched == NEWLINE_STRING.length) {
+                            telemetries.add(telemetry.toByteArray());
+                            telemetry.reset();
+                            matched = 0;
+                        }
+                    } else {
+                        telemetry.write(b);
+                    }
+                }
+            }
+            telemetry.write(NEWLINE_STRING, 0, matched);
+            telemetries.add(telemetry.toByteArray());
+        } finally {
+            zipStream.close();
+        }
+
+        return telemetries;
     }
 
     @Override
-    public Optional<Transmission> serialize(Collection<String> telemetries) {
+    public Optional<Transmission> serialize(Collection<byte[]> telemetries) {
         Preconditions.checkNotNull(telemetries, "telemetries must be non-null value");
         Preconditions.checkArgument(!telemetries.isEmpty(), "telemetries: One or more telemetry item is expected");
 
+        if (telemetries instanceof GzipTelemetryBatch) {
+            // The batch was already compressed while the telemetries were added
+            return serializeCompressedBatch((GzipTelemetryBatch) telemetries);
+        }
+
         Transmission result = null;
-        boolean succeeded = false;
+        IncrementalGzipCompressor compressor = null;
         try {
-            ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
-
-            try {
-                GZIPOutputStream zipStream = new GZIPOutputStream(byteStream);
-
-                try {
-                    succeeded = compress(zipStream, telemetries);
-                } catch (Exception e) {
-                    InternalLogger.INSTANCE.error("Failed to serialize , exception: %s", e.getMessage());
-                } catch (Throwable t) {
-                    InternalLogger.INSTANCE.error("Failed to serialize, unknown exception: %s", t.getMessage());
-                } finally {
-                    zipStream.close();
-                }
-            } finally {
-                byteStream.close();
-
-                // The creation of the result must be done after the 'zipStream' is closed
-                if (succeeded) {
-                    result = new Transmission(byteStream.toByteArray(), GZIP_WEB_CONTENT_TYPE, GZIP_WEB_ENCODING_TYPE);
-                }
+            long start = System.nanoTime();
+            compressor = new IncrementalGzipCompressor(deflaterPool, outputBuffers.get());
+            long rawSize = compress(compressor, telemetries);
+            if (rawSize >= 0) {
+                byte[] content = compressor.finish();
+                statistics.onTransmissionCompressed(rawSize, content.length, System.nanoTime() - start);
+                result = new Transmission(content, GZIP_WEB_CONTENT_TYPE, GZIP_WEB_ENCODING_TYPE);
             }
-        } catch(Exception e) {
+        } catch (Exception e) {
             InternalLogger.INSTANCE.error("Failed to serialize , exception: %s", e.getMessage());
+        } catch (Throwable t) {
+            InternalLogger.INSTANCE.error("Failed to serialize, unknown exception: %s", t.getMessage());
+        } finally {
+            if (compressor != null) {
+                compressor.abort();
+                keepOutputBuffer(compressor.getOutputBuffer());
+            }
         }
 
         return Optional.fromNullable(result);
     }
 
-    private boolean compress(GZIPOutputStream zipStream, Collection<String> telemetries) throws IOException {
+    private Optional<Transmission> serializeCompressedBatch(GzipTelemetryBatch batch) {
+        Transmission result = null;
+        try {
+            // Most of the compression was done by the compression thread when the telemetries were added,
+            // the batch times all of it so the statistics, and the adaptive compression, see the whole cost
+            byte[] content = batch.seal();
+            statistics.onTransmissionCompressed(batch.getUncompressedSize(), content.length, batch.getCompressionTimeInNanos());
+            result = new Transmission(content, GZIP_WEB_CONTENT_TYPE, GZIP_WEB_ENCODING_TYPE);
+        } catch (Exception e) {
+            InternalLogger.INSTANCE.error("Failed to serialize , exception: %s", e.getMessage());
+        }
+
+        return Optional.fromNullable(result);
+    }
+
+    /**
+     * @return The number of bytes that were compressed, or -1 if there were no telemetries to compress.
+     */
+    private long compress(IncrementalGzipCompressor compressor, Collection<byte[]> telemetries) {
         int counter = 0;
-        StringWriter writer = new StringWriter();
-        JsonTelemetryDataSerializer jsonWriter = new JsonTelemetryDataSerializer(writer);
+        long rawSize = 0;
 
         // The format is:
         // 1. Separate each Telemetry by newline
         // 2. Compress the entire data by using Gzip
-        for (String telemetry : telemetries) {
-
-            if (counter != 0) {
-                zipStream.write(newlineString);
+        for (byte[] telemetry : telemetries) {
+            if (telemetry == null) {
+                InternalLogger.INSTANCE.error("Failed to serialize , telemetry is null");
+                continue;
             }
 
-            try {
-                zipStream.write(telemetry.getBytes());
-                ++counter;
-            } catch (Exception e) {
-                InternalLogger.INSTANCE.error("Failed to serialize , exception: %s", e.getMessage());
+            if (counter != 0) {
+                compressor.write(newlineString);
+                rawSize += newlineString.length;
             }
 
-            if (counter < telemetries.size()) {
-                writer.getBuffer().setLength(0);
-                jsonWriter.reset(writer);
-            }
+            compressor.write(telemetry);
+            rawSize += telemetry.length;
+            ++counter;
         }
 
-        return counter > 0;
+        return counter > 0 ? rawSize : -1;
+    }
+
+    private void keepOutputBuffer(byte[] outputBuffer) {
+        if (outputBuffer.length > MAX_POOLED_OUTPUT_BUFFER_SIZE) {
+            outputBuffers.remove();
+        } else {
+            outputBuffers.set(outputBuffer);
+        }
     }
 }
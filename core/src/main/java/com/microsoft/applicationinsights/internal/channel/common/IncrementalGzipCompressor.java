@@ -0,0 +1,186 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses data into the Gzip format incrementally: every call to {@link #write(byte[])}
+ * compresses the data right away, so when all the data was written, {@link #finish()} only needs
+ * to flush the last compressed block and the Gzip trailer.
+ *
+ * The class writes the Gzip header and trailer by itself and uses a 'raw' {@link Deflater} for the
+ * compressed data, the result is the same format that {@link java.util.zip.GZIPOutputStream} creates.
+ *
+ * The deflater can be taken from a {@link DeflaterPool}, in which case it is returned to the pool when
+ * the compressor is finished, and the output buffer can be supplied by the caller so it can be reused
+ * for the next compression, see {@link #getOutputBuffer()}.
+ *
+ * The class is not thread safe.
+ */
+public final class IncrementalGzipCompressor {
+    private final static byte[] GZIP_HEADER = new byte[] { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0 };
+    private final static int GZIP_TRAILER_SIZE = 8;
+    private final static int DEFAULT_INITIAL_CAPACITY = 4 * 1024;
+
+    private final DeflaterPool deflaterPool;
+    private final Deflater deflater;
+    private final CRC32 crc = new CRC32();
+
+    private byte[] output;
+    private int size;
+    private byte[] result;
+    private boolean finished;
+
+    public IncrementalGzipCompressor() {
+        this(null, null);
+    }
+
+    /**
+     * @param deflaterPool The pool to take the deflater from, or null to use a new deflater with the default compression level.
+     * @param outputBuffer The buffer to start compressing into, or null to allocate one. The buffer is replaced by
+     *                     a bigger one if needed.
+     */
+    public IncrementalGzipCompressor(DeflaterPool deflaterPool, byte[] outputBuffer) {
+        this.deflaterPool = deflaterPool;
+        deflater = deflaterPool == null ? new Deflater(Deflater.DEFAULT_COMPRESSION, true) : deflaterPool.acquire();
+
+        if (outputBuffer == null || outputBuffer.length < GZIP_HEADER.length + GZIP_TRAILER_SIZE) {
+            outputBuffer = new byte[DEFAULT_INITIAL_CAPACITY];
+        }
+        output = outputBuffer;
+
+        System.arraycopy(GZIP_HEADER, 0, output, 0, GZIP_HEADER.length);
+        size = GZIP_HEADER.length;
+    }
+
+    /**
+     * Compresses the data.
+     * @param data The data to compress.
+     */
+    public void write(byte[] data) {
+        write(data, 0, data.length);
+    }
+
+    /**
+     * Compresses the data.
+     * @param data The data to compress.
+     * @param offset The offset of the data in the array.
+     * @param length The number of bytes to compress.
+     */
+    public void write(byte[] data, int offset, int length) {
+        if (finished) {
+            throw new IllegalStateException("Cannot write after the compressor was finished");
+        }
+
+        if (length == 0) {
+            return;
+        }
+
+        crc.update(data, offset, length);
+        deflater.setInput(data, offset, length);
+        while (!deflater.needsInput()) {
+            deflate();
+        }
+    }
+
+    /**
+     * Flushes the last compressed data, adds the Gzip trailer and releases the deflater.
+     * Calling the method more than once returns the same result.
+     * @return The compressed data in Gzip format, exactly sized.
+     */
+    public byte[] finish() {
+        if (!finished) {
+            finished = true;
+            try {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    deflate();
+                }
+
+                writeTrailerInt((int) crc.getValue());
+                writeTrailerInt(deflater.getTotalIn());
+            } finally {
+                releaseDeflater();
+            }
+
+            result = Arrays.copyOf(output, size);
+        }
+
+        return result;
+    }
+
+    /**
+     * Releases the deflater without creating the compressed data.
+     */
+    public void abort() {
+        if (!finished) {
+            finished = true;
+            releaseDeflater();
+        }
+    }
+
+    /**
+     * The buffer the data is compressed into, which might be a bigger one than the buffer given in the constructor.
+     * Once the compressor is finished the buffer can be handed to a new compressor.
+     * @return The output buffer.
+     */
+    public byte[] getOutputBuffer() {
+        return output;
+    }
+
+    /**
+     * @return The number of compressed bytes created so far.
+     */
+    public int size() {
+        return size;
+    }
+
+    private void deflate() {
+        if (size == output.length) {
+            output = Arrays.copyOf(output, output.length << 1);
+        }
+
+        size += deflater.deflate(output, size, output.length - size);
+    }
+
+    private void releaseDeflater() {
+        if (deflaterPool == null) {
+            deflater.end();
+        } else {
+            deflaterPool.release(deflater);
+        }
+    }
+
+    private void writeTrailerInt(int value) {
+        if (size + 4 > output.length) {
+            output = Arrays.copyOf(output, size + GZIP_TRAILER_SIZE);
+        }
+
+        output[size++] = (byte) value;
+        output[size++] = (byte) (value >> 8);
+        output[size++] = (byte) (value >> 16);
+        output[size++] = (byte) (value >> 24);
+    }
+}
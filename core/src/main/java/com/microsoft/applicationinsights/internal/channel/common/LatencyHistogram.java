@@ -0,0 +1,174 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import java.beans.ConstructorProperties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock free histogram of durations, used to report the latencies of the channel.
+ *
+ * The durations are counted in buckets of powers of two microseconds, i.e. bucket i holds
+ * the durations from 2^(i-1) up to 2^i microseconds, so the percentiles are accurate up to a factor of two
+ * which is enough to tell a healthy channel from a saturated one. Recording a duration is a couple of atomic increments.
+ */
+public final class LatencyHistogram {
+    /**
+     * A snapshot of the histogram, the durations are in milliseconds.
+     */
+    public static final class Snapshot {
+        private final long count;
+        private final double meanInMillis;
+        private final double p50InMillis;
+        private final double p95InMillis;
+        private final double p99InMillis;
+        private final double maxInMillis;
+
+        @ConstructorProperties({"count", "meanInMillis", "p50InMillis", "p95InMillis", "p99InMillis", "maxInMillis"})
+        public Snapshot(long count, double meanInMillis, double p50InMillis, double p95InMillis, double p99InMillis, double maxInMillis) {
+            this.count = count;
+            this.meanInMillis = meanInMillis;
+            this.p50InMillis = p50InMillis;
+            this.p95InMillis = p95InMillis;
+            this.p99InMillis = p99InMillis;
+            this.maxInMillis = maxInMillis;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getMeanInMillis() {
+            return meanInMillis;
+        }
+
+        public double getP50InMillis() {
+            return p50InMillis;
+        }
+
+        public double getP95InMillis() {
+            return p95InMillis;
+        }
+
+        public double getP99InMillis() {
+            return p99InMillis;
+        }
+
+        public double getMaxInMillis() {
+            return maxInMillis;
+        }
+    }
+
+    // 2^39 microseconds are more than 6 days, longer durations are counted in the last bucket
+    private final static int NUMBER_OF_BUCKETS = 40;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(NUMBER_OF_BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalInMicros = new AtomicLong();
+    private final AtomicLong maxInMicros = new AtomicLong();
+
+    /**
+     * Records a duration.
+     * @param durationInNanos The duration in nanoseconds, negative durations are ignored.
+     */
+    public void record(long durationInNanos) {
+        if (durationInNanos < 0) {
+            return;
+        }
+
+        long durationInMicros = TimeUnit.NANOSECONDS.toMicros(durationInNanos);
+        buckets.incrementAndGet(getBucket(durationInMicros));
+        count.incrementAndGet();
+        totalInMicros.addAndGet(durationInMicros);
+
+        long max;
+        while ((max = maxInMicros.get()) < durationInMicros) {
+            if (maxInMicros.compareAndSet(max, durationInMicros)) {
+                break;
+            }
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return The sum of the recorded durations in microseconds.
+     */
+    public long getTotalInMicros() {
+        return totalInMicros.get();
+    }
+
+    /**
+     * The snapshot is not atomic, durations that are recorded while it is taken might be partially counted.
+     * @return A snapshot of the durations recorded so far.
+     */
+    public Snapshot getSnapshot() {
+        long[] counts = new long[NUMBER_OF_BUCKETS];
+        long total = 0;
+        for (int i = 0; i < NUMBER_OF_BUCKETS; ++i) {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+
+        long max = maxInMicros.get();
+        double mean = total == 0 ? 0 : (double) totalInMicros.get() / count.get();
+        return new Snapshot(total,
+                            toMillis(mean),
+                            toMillis(getPercentile(counts, total, 0.5, max)),
+                            toMillis(getPercentile(counts, total, 0.95, max)),
+                            toMillis(getPercentile(counts, total, 0.99, max)),
+                            toMillis(max));
+    }
+
+    /**
+     * @return The upper bound of the bucket that holds the percentile, but not more than the longest duration.
+     */
+    private static long getPercentile(long[] counts, long total, double percentile, long max) {
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = (long) Math.ceil(percentile * total);
+        long accumulated = 0;
+        for (int i = 0; i < counts.length; ++i) {
+            accumulated += counts[i];
+            if (accumulated >= rank) {
+                return Math.min(1L << i, max);
+            }
+        }
+
+        return max;
+    }
+
+    private static int getBucket(long durationInMicros) {
+        int bucket = 64 - Long.numberOfLeadingZeros(durationInMicros);
+        return Math.min(bucket, NUMBER_OF_BUCKETS - 1);
+    }
+
+    private static double toMillis(double micros) {
+        return micros / 1000.0;
+    }
+}
@@ -0,0 +1,313 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.google.common.base.Preconditions;
+import com.microsoft.applicationinsights.internal.channel.TelemetriesBuffer;
+import com.microsoft.applicationinsights.internal.channel.TelemetriesTransmitter;
+import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+import com.microsoft.applicationinsights.internal.util.LimitsEnforcer;
+
+/**
+ * A lock free version of the {@link TelemetryBuffer}, aimed for applications where many threads
+ * send telemetries concurrently.
+ *
+ * Application threads never take a lock: each thread reserves a slot in the current batch by
+ * atomically incrementing the batch counter, writes its telemetry into that slot and publishes it.
+ * The thread that fills the last slot seals the batch, installs a new one and sends the full batch,
+ * while the thread that takes the first slot schedules the timeout 'pick-up', exactly like the {@link TelemetryBuffer}.
+ *
+ * Sealing is done once per batch, either by the thread that filled it or by the scheduled 'pick-up',
+ * and it waits until all the reserved slots are published so no telemetry is lost.
+ */
+public final class LockFreeTelemetryBuffer implements TelemetriesBuffer {
+    /**
+     * A batch of telemetries, the batch is also the fetcher that will be called by the scheduled send.
+     */
+    private final class Batch implements TelemetriesTransmitter.TelemetriesFetcher {
+        private final AtomicReferenceArray<byte[]> telemetries;
+
+        /// The number of telemetries that will trigger a send, it can only be lowered while the batch is used
+        private volatile int limit;
+
+        /// Slots are reserved by incrementing this counter, values beyond the capacity mean the batch is closed
+        private final AtomicInteger reserved = new AtomicInteger(0);
+
+        /// The number of reserved slots that were already written
+        private final AtomicInteger published = new AtomicInteger(0);
+
+        /// The size in bytes of the published telemetries
+        private final AtomicLong sizeInBytes = new AtomicLong(0);
+
+        private final AtomicBoolean sealed = new AtomicBoolean(false);
+
+        private Batch(int capacity) {
+            telemetries = new AtomicReferenceArray<byte[]>(capacity);
+            limit = capacity;
+        }
+
+        @Override
+        public Collection<byte[]> fetch() {
+            List<byte[]> readyToBeSent = seal(this);
+            if (readyToBeSent == null) {
+                return Collections.emptyList();
+            }
+
+            return readyToBeSent;
+        }
+
+        private int capacity() {
+            return telemetries.length();
+        }
+
+        private int size() {
+            return Math.min(reserved.get(), capacity());
+        }
+    }
+
+    /// The sender we use to send Telemetry containers
+    private final TelemetriesTransmitter sender;
+
+    /// The maximum amount of Telemetries in a batch
+    private volatile int maxTelemetriesInBatch;
+    private final LimitsEnforcer maxTelemetriesInBatchEnforcer;
+
+    private volatile int transmitBufferTimeoutInSeconds;
+    private final LimitsEnforcer transmitBufferTimeoutInSecondsEnforcer;
+
+    /// The maximum size in bytes of the serialized telemetries in a batch. The batch is sealed once it is reached,
+    /// concurrent adds might take it a little beyond, the transmitter splits such batches.
+    private volatile int maxBatchSizeInBytes = Integer.MAX_VALUE;
+
+    /// The batch that currently accepts telemetries
+    private final AtomicReference<Batch> current;
+
+    /**
+     * The constructor needs to get the 'sender' we work with
+     * @param sender The sender object for transmitting the telemetries
+     * @param maxTelemetriesInBatchEnforcer For getting the number of maximum number of telemetries in a batch within limits
+     * @param transmitBufferTimeoutInSecondsEnforcer For getting the number of transmit buffer timeout in seconds within limits
+     */
+    public LockFreeTelemetryBuffer(TelemetriesTransmitter sender, LimitsEnforcer maxTelemetriesInBatchEnforcer, LimitsEnforcer transmitBufferTimeoutInSecondsEnforcer) {
+        Preconditions.checkNotNull(sender, "sender must be non-null value");
+        Preconditions.checkNotNull(maxTelemetriesInBatchEnforcer, "maxTelemetriesInBatchEnforcer must be non-null value");
+        Preconditions.checkNotNull(transmitBufferTimeoutInSecondsEnforcer, "transmitBufferTimeoutInSecondsEnforcer must be non-null value");
+        Preconditions.checkArgument(maxTelemetriesInBatchEnforcer.getCurrentValue() > 0, "maxTelemetriesInBatch must be a positive number");
+        Preconditions.checkArgument(transmitBufferTimeoutInSecondsEnforcer.getCurrentValue() > 0, "transmitBufferTimeoutInSeconds must be a positive number");
+
+        this.maxTelemetriesInBatchEnforcer = maxTelemetriesInBatchEnforcer;
+        this.maxTelemetriesInBatch = maxTelemetriesInBatchEnforcer.getCurrentValue();
+
+        this.sender = sender;
+        this.transmitBufferTimeoutInSecondsEnforcer = transmitBufferTimeoutInSecondsEnforcer;
+        this.transmitBufferTimeoutInSeconds = transmitBufferTimeoutInSecondsEnforcer.getCurrentValue();
+
+        current = new AtomicReference<Batch>(new Batch(maxTelemetriesInBatch));
+    }
+
+    /**
+     * Sets the maximum number of telemetries in a batch
+     * A smaller value is applied to the current batch, a bigger value is applied starting with the next batch.
+     * @param value The max amount of Telemetries that are allowed in a batch.
+     */
+    @Override
+    public void setMaxTelemetriesInBatch(int value) {
+        maxTelemetriesInBatch = maxTelemetriesInBatchEnforcer.normalizeValue(value);
+
+        Batch batch = current.get();
+        if (maxTelemetriesInBatch < batch.limit) {
+            batch.limit = maxTelemetriesInBatch;
+            if (batch.size() >= maxTelemetriesInBatch) {
+                // Request for smaller buffers, we flush if our buffer contains more elements
+                flush();
+            }
+        }
+    }
+
+    /**
+     * Gets the maximum number of telemetries in a batch
+     * @return The maximum number of telemetries in a batch
+     */
+    @Override
+    public int getMaxTelemetriesInBatch() {
+        return maxTelemetriesInBatch;
+    }
+
+    /**
+     * Sets the transmit buffer timeout in seconds
+     * @param value The amount of time to wait before sending the buffer.
+     */
+    @Override
+    public void setTransmitBufferTimeoutInSeconds(int value) {
+        int oldValue = transmitBufferTimeoutInSeconds;
+        transmitBufferTimeoutInSeconds = transmitBufferTimeoutInSecondsEnforcer.normalizeValue(value);
+
+        // Request for quicker flushes, we flush if the previous timeout is bigger
+        if (transmitBufferTimeoutInSeconds < oldValue) {
+            flush();
+        }
+    }
+
+    /**
+     * Gets the transmit buffer timeout in seconds
+     * @return The transmit buffer timeout in seconds
+     */
+    @Override
+    public int getTransmitBufferTimeoutInSeconds() {
+        return transmitBufferTimeoutInSeconds;
+    }
+
+    /**
+     * Sets the maximum size in bytes of the serialized telemetries in a batch
+     * @param value The max amount of bytes that are allowed in a batch.
+     */
+    @Override
+    public void setMaxBatchSizeInBytes(int value) {
+        Preconditions.checkArgument(value > 0, "maxBatchSizeInBytes must be a positive number");
+
+        maxBatchSizeInBytes = value;
+        if (current.get().sizeInBytes.get() >= value) {
+            flush();
+        }
+    }
+
+    /**
+     * Gets the maximum size in bytes of the serialized telemetries in a batch
+     * @return The maximum size in bytes of the serialized telemetries in a batch
+     */
+    @Override
+    public int getMaxBatchSizeInBytes() {
+        return maxBatchSizeInBytes;
+    }
+
+    /**
+     * The method will add the incoming telemetry to the current batch without taking any lock.
+     *
+     * If that is the first instance in the batch, we schedule a 'pick-up' in a configurable amount of time
+     * If by adding that item we reached the maximum number of instances or the maximum size in bytes, we trigger a send request now.
+     * @param telemetry The {@link com.microsoft.applicationinsights.telemetry.Telemetry} to add to the buffer, serialized as UTF-8 Json.
+     */
+    @Override
+    public void add(byte[] telemetry) {
+        Preconditions.checkNotNull(telemetry, "Telemetry must be non null value");
+
+        while (true) {
+            Batch batch = current.get();
+
+            int index = batch.reserved.getAndIncrement();
+            if (index >= batch.capacity()) {
+                // The batch is closed, help installing a new one and try again
+                if (current.get() == batch) {
+                    current.compareAndSet(batch, new Batch(maxTelemetriesInBatch));
+                }
+                continue;
+            }
+
+            batch.telemetries.set(index, telemetry);
+            long batchSizeInBytes = batch.sizeInBytes.addAndGet(telemetry.length);
+            batch.published.incrementAndGet();
+
+            if (index + 1 >= batch.limit || batchSizeInBytes >= maxBatchSizeInBytes) {
+                List<byte[]> readyToBeSent = seal(batch);
+                if (readyToBeSent != null && !sender.sendNow(readyToBeSent)) {
+                    // The batch was already replaced by a new one
+                    // so basically we have nothing to do, the old batch is lost
+                    InternalLogger.INSTANCE.error("Failed to send buffer data to network");
+                }
+            } else if (index == 0) {
+                if (!sender.scheduleSend(batch, transmitBufferTimeoutInSeconds, TimeUnit.SECONDS)) {
+                    // We cannot schedule send so we give up the batch
+                    // The reason for this is that in case a new Telemetry arrives it won't trigger the schedule
+                    // and the batch might be lost too
+                    InternalLogger.INSTANCE.error("Failed to schedule send of the buffer to network");
+                    seal(batch);
+                }
+            }
+
+            return;
+        }
+    }
+
+    /**
+     * The method will flush the telemetries currently in the buffer to the {@link com.microsoft.applicationinsights.internal.channel.TelemetriesTransmitter}
+     */
+    @Override
+    public void flush() {
+        Batch batch = current.get();
+        if (batch.size() == 0) {
+            return;
+        }
+
+        List<byte[]> readyToBeSent = seal(batch);
+        if (readyToBeSent != null && !readyToBeSent.isEmpty()) {
+            if (!sender.sendNow(readyToBeSent)) {
+                InternalLogger.INSTANCE.error("Failed to flush buffer data to network");
+            }
+        }
+    }
+
+    /**
+     * Seals the batch so no more telemetries are added to it and installs a new batch.
+     *
+     * Only one caller can seal a batch, that caller gets the telemetries once all the reserved
+     * slots are published, all other callers get null.
+     *
+     * @param batch The batch to seal.
+     * @return The telemetries of the batch, or null if the batch was already sealed.
+     */
+    private List<byte[]> seal(Batch batch) {
+        if (!batch.sealed.compareAndSet(false, true)) {
+            return null;
+        }
+
+        // Close the batch for new reservations, slots that were reserved before are part of the batch
+        int capacity = batch.capacity();
+        int numberOfTelemetries = Math.min(batch.reserved.getAndAdd(capacity), capacity);
+
+        if (current.get() == batch) {
+            current.compareAndSet(batch, new Batch(maxTelemetriesInBatch));
+        }
+
+        // Wait for the threads that reserved a slot to write their telemetry, this is a matter of few instructions
+        while (batch.published.get() < numberOfTelemetries) {
+            Thread.yield();
+        }
+
+        List<byte[]> readyToBeSent = new ArrayList<byte[]>(numberOfTelemetries);
+        for (int i = 0; i < numberOfTelemetries; ++i) {
+            readyToBeSent.add(batch.telemetries.get(i));
+        }
+
+        return readyToBeSent;
+    }
+}
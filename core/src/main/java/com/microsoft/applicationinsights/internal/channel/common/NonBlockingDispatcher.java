@@ -24,6 +24,7 @@ package com.microsoft.applicationinsights.internal.channel.common;
 import java.util.concurrent.TimeUnit;
 
 import com.google.common.base.Preconditions;
+import com.microsoft.applicationinsights.internal.channel.DrainableTransmissionOutput;
 import com.microsoft.applicationinsights.internal.channel.TransmissionDispatcher;
 import com.microsoft.applicationinsights.internal.channel.TransmissionOutput;
 
@@ -35,6 +36,10 @@ import com.microsoft.applicationinsights.internal.channel.TransmissionOutput;
  *
  * It is a non blocking behavior in the sense that if no one can accept it will drop the data
  *
+ * The outputs are stopped in order within the timeout, which is shared by all of them.
+ * The transmissions that a {@link DrainableTransmissionOutput} did not send by the time it was stopped
+ * are handed to the outputs that follow it, e.g. transmissions that were not sent by the network are persisted.
+ *
  * Created by gupele on 12/18/2014.
  */
 public final class NonBlockingDispatcher implements TransmissionDispatcher {
@@ -51,17 +56,30 @@ public final class NonBlockingDispatcher implements TransmissionDispatcher {
     public void dispatch(Transmission transmission) {
         Preconditions.checkNotNull(transmission, "transmission should be non-null value");
 
-        for (TransmissionOutput output : transmissionOutputs) {
-            if (output.send(transmission)) {
-                return;
-            }
-        }
+        dispatch(transmission, 0);
     }
 
     @Override
     public void stop(long timeout, TimeUnit timeUnit) {
-        for (TransmissionOutput output : transmissionOutputs) {
-            output.stop(timeout, timeUnit);
+        long deadline = System.nanoTime() + timeUnit.toNanos(timeout);
+        for (int i = 0; i < transmissionOutputs.length; ++i) {
+            TransmissionOutput output = transmissionOutputs[i];
+            long remaining = Math.max(0L, deadline - System.nanoTime());
+            if (output instanceof DrainableTransmissionOutput) {
+                for (Transmission notSent : ((DrainableTransmissionOutput) output).stopAndDrain(remaining, TimeUnit.NANOSECONDS)) {
+                    dispatch(notSent, i + 1);
+                }
+            } else {
+                output.stop(remaining, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
+    private void dispatch(Transmission transmission, int firstOutput) {
+        for (int i = firstOutput; i < transmissionOutputs.length; ++i) {
+            if (transmissionOutputs[i].send(transmission)) {
+                return;
+            }
         }
     }
 }
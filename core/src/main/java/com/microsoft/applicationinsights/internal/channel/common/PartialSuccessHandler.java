@@ -0,0 +1,173 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Strings;
+
+/**
+ * Handles a 'partial content' response of the server, where only some of the telemetries of the
+ * transmission were accepted.
+ *
+ * The body of such a response describes the rejected telemetries by their index in the transmission:
+ * {"itemsReceived":3,"itemsAccepted":1,"errors":[{"index":1,"statusCode":429,"message":"..."},...]}
+ *
+ * The class creates a new transmission out of the rejected telemetries whose status code means
+ * they can be sent again, telemetries that were rejected for other reasons, like bad data, are dropped.
+ *
+ * The new transmissions are counted by {@link Transmission#getNumberOfPartialResends()}, apart from the failed sends
+ * that the network outputs count by {@link Transmission#getNumberOfSends()}: the telemetries are sent again in up to
+ * {@link #MAX_NUMBER_OF_RESENDS} new transmissions, and each of them can fail to be sent as many times as the output allows.
+ */
+public final class PartialSuccessHandler {
+    /// The maximum number of times telemetries of a transmission are sent again after partial success
+    public final static int MAX_NUMBER_OF_RESENDS = 3;
+
+    private final static Pattern ERRORS_PATTERN = Pattern.compile("\"errors\"\\s*:\\s*\\[(.*)\\]", Pattern.DOTALL);
+    private final static Pattern ERROR_PATTERN = Pattern.compile("\\{[^{}]*\\}");
+    private final static Pattern INDEX_PATTERN = Pattern.compile("\"index\"\\s*:\\s*(\\d+)");
+    private final static Pattern STATUS_CODE_PATTERN = Pattern.compile("\"statusCode\"\\s*:\\s*(\\d+)");
+
+    private final static String GZIP_WEB_ENCODING_TYPE = "gzip";
+
+    private final GzipTelemetrySerializer serializer;
+
+    public PartialSuccessHandler() {
+        this(new GzipTelemetrySerializer());
+    }
+
+    public PartialSuccessHandler(GzipTelemetrySerializer serializer) {
+        this.serializer = serializer;
+    }
+
+    /**
+     * Creates the transmission of the telemetries that should be sent again.
+     * @param transmission The transmission that was partially accepted.
+     * @param responseBody The body of the server response.
+     * @return The transmission to send, absent if there is nothing to send again.
+     */
+    public Optional<Transmission> createRetryTransmission(Transmission transmission, String responseBody) {
+        SortedSet<Integer> retriableIndices = getRetriableItemIndices(responseBody);
+        if (retriableIndices.isEmpty()) {
+            return Optional.absent();
+        }
+
+        if (transmission.getNumberOfPartialResends() >= MAX_NUMBER_OF_RESENDS) {
+            InternalLogger.INSTANCE.error("Partial success: %d telemetries were rejected too many times, dropping them", retriableIndices.size());
+            return Optional.absent();
+        }
+
+        if (!GZIP_WEB_ENCODING_TYPE.equals(transmission.getWebContentEncodingType())) {
+            InternalLogger.INSTANCE.error("Partial success: cannot resend rejected telemetries of '%s' encoded transmission", transmission.getWebContentEncodingType());
+            return Optional.absent();
+        }
+
+        List<byte[]> telemetries;
+        try {
+            telemetries = GzipTelemetrySerializer.deserialize(transmission.getContent());
+        } catch (IOException e) {
+            InternalLogger.INSTANCE.error("Partial success: failed to read the transmission, exception: %s", e.getMessage());
+            return Optional.absent();
+        }
+
+        List<byte[]> telemetriesToResend = new ArrayList<byte[]>(retriableIndices.size());
+        for (Integer index : retriableIndices) {
+            if (index < telemetries.size()) {
+                telemetriesToResend.add(telemetries.get(index));
+            }
+        }
+
+        if (telemetriesToResend.isEmpty()) {
+            return Optional.absent();
+        }
+
+        Optional<Transmission> retryTransmission = serializer.serialize(telemetriesToResend);
+        if (retryTransmission.isPresent()) {
+            retryTransmission.get().setNumberOfPartialResends(transmission.getNumberOfPartialResends() + 1);
+            InternalLogger.INSTANCE.trace("Partial success: resending %d of %d telemetries", telemetriesToResend.size(), telemetries.size());
+        }
+
+        return retryTransmission;
+    }
+
+    /**
+     * Finds the indices of the telemetries that were rejected with a status code that allows sending them again.
+     * @param responseBody The body of the server response.
+     * @return The indices, in ascending order.
+     */
+    static SortedSet<Integer> getRetriableItemIndices(String responseBody) {
+        SortedSet<Integer> indices = new TreeSet<Integer>();
+        if (Strings.isNullOrEmpty(responseBody)) {
+            return indices;
+        }
+
+        Matcher errorsMatcher = ERRORS_PATTERN.matcher(responseBody);
+        if (!errorsMatcher.find()) {
+            return indices;
+        }
+
+        Matcher errorMatcher = ERROR_PATTERN.matcher(errorsMatcher.group(1));
+        while (errorMatcher.find()) {
+            String error = errorMatcher.group();
+
+            Matcher indexMatcher = INDEX_PATTERN.matcher(error);
+            Matcher statusCodeMatcher = STATUS_CODE_PATTERN.matcher(error);
+            if (!indexMatcher.find() || !statusCodeMatcher.find()) {
+                continue;
+            }
+
+            try {
+                if (isRetriable(Integer.parseInt(statusCodeMatcher.group(1)))) {
+                    indices.add(Integer.parseInt(indexMatcher.group(1)));
+                }
+            } catch (NumberFormatException e) {
+                // Numbers that are too big are not valid indices
+            }
+        }
+
+        return indices;
+    }
+
+    private static boolean isRetriable(int statusCode) {
+        switch (statusCode) {
+            case 408: // Request timeout
+            case 429: // Too many requests
+            case 439: // Too many requests over extended time
+            case 500: // Internal server error
+            case 503: // Service unavailable
+                return true;
+
+            default:
+                return false;
+        }
+    }
+}
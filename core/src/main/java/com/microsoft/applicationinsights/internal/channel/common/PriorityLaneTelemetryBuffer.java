@@ -0,0 +1,145 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.microsoft.applicationinsights.internal.channel.TelemetriesBuffer;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A {@link TelemetriesBuffer} that keeps a buffer per {@link TelemetryPriority} lane,
+ * so a flood of low priority telemetries, like traces during a logging storm, does not
+ * fill the batches of the high priority ones, like requests and exceptions.
+ *
+ * The lane of a telemetry is found by its type, i.e. the last part of its envelope name,
+ * telemetries whose type has no configured priority go to the normal lane.
+ * When the class of the telemetry is known its lane is found once per class, since a class
+ * always has the same envelope name, so the serialized telemetries are not parsed on every add.
+ * The settings of the batches apply to all the lanes.
+ */
+public final class PriorityLaneTelemetryBuffer implements TelemetriesBuffer {
+    private final Map<String, TelemetryPriority> priorities;
+
+    /// The buffers of the lanes, by the ordinal of their priority
+    private final TelemetriesBuffer[] buffers;
+
+    /// The lanes of the telemetry classes that were already added
+    private final ConcurrentMap<Class<?>, TelemetryPriority> classPriorities = new ConcurrentHashMap<Class<?>, TelemetryPriority>();
+
+    /**
+     * @param priorities The priorities per telemetry type.
+     * @param buffers The buffers of the lanes, one per priority, each sending through its own lane.
+     */
+    public PriorityLaneTelemetryBuffer(Map<String, TelemetryPriority> priorities, Map<TelemetryPriority, TelemetriesBuffer> buffers) {
+        Preconditions.checkNotNull(priorities, "priorities must be non-null value");
+        Preconditions.checkNotNull(buffers, "buffers must be non-null value");
+
+        this.priorities = new HashMap<String, TelemetryPriority>(priorities);
+        this.buffers = new TelemetriesBuffer[TelemetryPriority.values().length];
+        for (TelemetryPriority priority : TelemetryPriority.values()) {
+            TelemetriesBuffer buffer = buffers.get(priority);
+            Preconditions.checkArgument(buffer != null, "A buffer is expected for each priority, missing '%s'", priority);
+
+            this.buffers[priority.ordinal()] = buffer;
+        }
+    }
+
+    @Override
+    public void add(byte[] telemetry) {
+        buffers[getPriority(telemetry).ordinal()].add(telemetry);
+    }
+
+    /**
+     * Adds a telemetry to the lane of its class.
+     * @param telemetryClass The class of the telemetry that was serialized.
+     * @param telemetry The serialized telemetry.
+     */
+    public void add(Class<?> telemetryClass, byte[] telemetry) {
+        TelemetryPriority priority = classPriorities.get(telemetryClass);
+        if (priority == null) {
+            priority = getPriority(telemetry);
+            classPriorities.putIfAbsent(telemetryClass, priority);
+        }
+
+        buffers[priority.ordinal()].add(telemetry);
+    }
+
+    /**
+     * Flushes the lanes, starting with the highest priority.
+     */
+    @Override
+    public void flush() {
+        for (TelemetriesBuffer buffer : buffers) {
+            buffer.flush();
+        }
+    }
+
+    @Override
+    public void setMaxTelemetriesInBatch(int value) {
+        for (TelemetriesBuffer buffer : buffers) {
+            buffer.setMaxTelemetriesInBatch(value);
+        }
+    }
+
+    @Override
+    public int getMaxTelemetriesInBatch() {
+        return getNormalBuffer().getMaxTelemetriesInBatch();
+    }
+
+    @Override
+    public void setTransmitBufferTimeoutInSeconds(int value) {
+        for (TelemetriesBuffer buffer : buffers) {
+            buffer.setTransmitBufferTimeoutInSeconds(value);
+        }
+    }
+
+    @Override
+    public int getTransmitBufferTimeoutInSeconds() {
+        return getNormalBuffer().getTransmitBufferTimeoutInSeconds();
+    }
+
+    @Override
+    public void setMaxBatchSizeInBytes(int value) {
+        for (TelemetriesBuffer buffer : buffers) {
+            buffer.setMaxBatchSizeInBytes(value);
+        }
+    }
+
+    @Override
+    public int getMaxBatchSizeInBytes() {
+        return getNormalBuffer().getMaxBatchSizeInBytes();
+    }
+
+    private TelemetryPriority getPriority(byte[] telemetry) {
+        TelemetryPriority priority = priorities.get(TelemetryDropCounters.getTelemetryType(telemetry));
+        return priority == null ? TelemetryPriority.NORMAL : priority;
+    }
+
+    private TelemetriesBuffer getNormalBuffer() {
+        return buffers[TelemetryPriority.NORMAL.ordinal()];
+    }
+}
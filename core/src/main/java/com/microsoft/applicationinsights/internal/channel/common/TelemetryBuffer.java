@@ -24,10 +24,13 @@ package com.microsoft.applicationinsights.internal.channel.common;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 import com.google.common.base.Preconditions;
+import com.microsoft.applicationinsights.internal.channel.TelemetriesBuffer;
 import com.microsoft.applicationinsights.internal.channel.TelemetriesTransmitter;
 import com.microsoft.applicationinsights.internal.logger.InternalLogger;
 import com.microsoft.applicationinsights.internal.util.LimitsEnforcer;
@@ -43,9 +46,15 @@ import com.microsoft.applicationinsights.telemetry.Telemetry;
  *
  * The class is responsible for handing the corner cases that might rise
  *
+ * With streaming compression, the telemetries are compressed by a thread of the buffer while the batch fills up,
+ * and the batch is sealed by the transmitter, so the threads that add telemetries never compress under the lock.
+ *
+ * The full batches are handed to the sender once the lock is released, so a sender that serializes, persists
+ * or waits for room, see {@link BackpressurePolicy}, delays only the thread that filled the batch.
+ *
  * Created by gupele on 12/17/2014.
  */
-public final class TelemetryBuffer {
+public final class TelemetryBuffer implements TelemetriesBuffer {
     /**
      * An inner helper class that will let the Sender class to fetch the relevant Telemetries.
      *
@@ -62,17 +71,13 @@ public final class TelemetryBuffer {
         }
 
         @Override
-        public Collection<String> fetch() {
+        public Collection<byte[]> fetch() {
             synchronized (lock) {
                 if (expectedGeneration != generation) {
                     return Collections.emptyList();
                 }
 
-                ++generation;
-                List<String> readyToBeSent = telemetries;
-                telemetries = new ArrayList<String>();
-
-                return readyToBeSent;
+                return prepareTelemetriesForSend();
             }
         }
     }
@@ -88,8 +93,24 @@ public final class TelemetryBuffer {
     private int transmitBufferTimeoutInSeconds;
     private LimitsEnforcer transmitBufferTimeoutInSecondsEnforcer;
 
+    /// The maximum size in bytes of the serialized Telemetries in a batch, the batch is sent when reached
+    private int maxBatchSizeInBytes = Integer.MAX_VALUE;
+
+    /// The size in bytes of the serialized Telemetries in the current container
+    private long batchSizeInBytes;
+
     /// The Telemetry instances are kept here
-    private List<String> telemetries;
+    private Collection<byte[]> telemetries;
+
+    // Idle compression threads are stopped after that time
+    private final static long COMPRESSION_THREAD_KEEP_ALIVE_IN_SECONDS = 60;
+
+    /// When set, telemetries are compressed as they are added, see {@link GzipTelemetryBatch}
+    private final boolean streamingCompression;
+    private final DeflaterPool deflaterPool;
+
+    /// The thread that compresses the telemetries of the batches with streaming compression, null otherwise
+    private final ThreadPoolExecutor compressionThread;
 
     /// A way to help incoming threads make sure they are picking up the right Telemetry container
     private long generation = 0;
@@ -104,6 +125,22 @@ public final class TelemetryBuffer {
      * @param transmitBufferTimeoutInSecondsEnforcer For getting the number of transmit buffer timeout in seconds within limits
      */
     public TelemetryBuffer(TelemetriesTransmitter sender, LimitsEnforcer maxTelemetriesInBatchEnforcer, LimitsEnforcer transmitBufferTimeoutInSecondsEnforcer) {
+        this(sender, maxTelemetriesInBatchEnforcer, transmitBufferTimeoutInSecondsEnforcer, false, null);
+    }
+
+    /**
+     * The constructor needs to get the 'sender' we work with
+     * @param sender The sender object for transmitting the telemetries
+     * @param maxTelemetriesInBatchEnforcer For getting the number of maximum number of telemetries in a batch within limits
+     * @param transmitBufferTimeoutInSecondsEnforcer For getting the number of transmit buffer timeout in seconds within limits
+     * @param streamingCompression True to compress the telemetries as they are added, the batches are then {@link GzipTelemetryBatch} instances
+     * @param deflaterPool The deflaters to use for streaming compression, null to use the default compression level
+     */
+    public TelemetryBuffer(TelemetriesTransmitter sender,
+                           LimitsEnforcer maxTelemetriesInBatchEnforcer,
+                           LimitsEnforcer transmitBufferTimeoutInSecondsEnforcer,
+                           boolean streamingCompression,
+                           DeflaterPool deflaterPool) {
         Preconditions.checkNotNull(sender, "sender must be non-null value");
         Preconditions.checkNotNull(maxTelemetriesInBatchEnforcer, "maxTelemetriesInBatchEnforcer must be non-null value");
         Preconditions.checkNotNull(transmitBufferTimeoutInSecondsEnforcer, "transmitBufferTimeoutInSecondsEnforcer must be non-null value");
@@ -112,7 +149,10 @@ public final class TelemetryBuffer {
 
         this.maxTelemetriesInBatchEnforcer = maxTelemetriesInBatchEnforcer;
         this.maxTelemetriesInBatch = maxTelemetriesInBatchEnforcer.getCurrentValue();
-        telemetries = new ArrayList<String>(this.maxTelemetriesInBatch);
+        this.streamingCompression = streamingCompression;
+        this.deflaterPool = deflaterPool;
+        this.compressionThread = streamingCompression ? createCompressionThread() : null;
+        telemetries = createContainer();
 
         this.sender = sender;
         this.transmitBufferTimeoutInSecondsEnforcer = transmitBufferTimeoutInSecondsEnforcer;
@@ -123,20 +163,25 @@ public final class TelemetryBuffer {
      * Sets the maximum number of telemetries in a batch
      * @param value The max amount of Telemetries that are allowed in a batch.
      */
+    @Override
     public void setMaxTelemetriesInBatch(int value) {
+        Collection<byte[]> readyToBeSent = null;
         synchronized (lock) {
             maxTelemetriesInBatch = maxTelemetriesInBatchEnforcer.normalizeValue(value);
             if (telemetries != null && maxTelemetriesInBatch < telemetries.size()) {
                 // Request for smaller buffers, we flush if our buffer contains more elements
-                flush();
+                readyToBeSent = prepareTelemetriesForSend();
             }
         }
+
+        send(readyToBeSent, "Failed to flush buffer data to network");
     }
 
     /**
      * Gets the maximum number of telemetries in a batch
      * @return The maximum number of telemetries in a batch
      */
+    @Override
     public int getMaxTelemetriesInBatch() {
         return this.maxTelemetriesInBatch;
     }
@@ -145,49 +190,90 @@ public final class TelemetryBuffer {
      * Sets the transmit buffer timeout in seconds
      * @param value The amount of time to wait before sending the buffer.
      */
+    @Override
     public void setTransmitBufferTimeoutInSeconds(int value) {
+        Collection<byte[]> readyToBeSent = null;
         synchronized (lock) {
             int oldValue = transmitBufferTimeoutInSeconds;
             transmitBufferTimeoutInSeconds = this.transmitBufferTimeoutInSecondsEnforcer.normalizeValue(value);
             // Request for quicker flushes, we flush if the previous timeout is bigger
-            if (transmitBufferTimeoutInSeconds < oldValue) {
-                flush();
+            if (transmitBufferTimeoutInSeconds < oldValue && !telemetries.isEmpty()) {
+                readyToBeSent = prepareTelemetriesForSend();
             }
         }
+
+        send(readyToBeSent, "Failed to flush buffer data to network");
     }
 
     /**
      * Gets the transmit buffer timeout in seconds
      * @return The transmit buffer timeout in seconds
      */
+    @Override
     public int getTransmitBufferTimeoutInSeconds() {
         return this.transmitBufferTimeoutInSeconds;
     }
 
+    /**
+     * Sets the maximum size in bytes of the serialized telemetries in a batch
+     * @param value The max amount of bytes that are allowed in a batch.
+     */
+    @Override
+    public void setMaxBatchSizeInBytes(int value) {
+        Preconditions.checkArgument(value > 0, "maxBatchSizeInBytes must be a positive number");
+
+        Collection<byte[]> readyToBeSent = null;
+        synchronized (lock) {
+            maxBatchSizeInBytes = value;
+            if (batchSizeInBytes >= maxBatchSizeInBytes && !telemetries.isEmpty()) {
+                readyToBeSent = prepareTelemetriesForSend();
+            }
+        }
+
+        send(readyToBeSent, "Failed to flush buffer data to network");
+    }
+
+    /**
+     * Gets the maximum size in bytes of the serialized telemetries in a batch
+     * @return The maximum size in bytes of the serialized telemetries in a batch
+     */
+    @Override
+    public int getMaxBatchSizeInBytes() {
+        return maxBatchSizeInBytes;
+    }
+
     /**
      * The method will add the incoming {@link Telemetry} to its internal container of Telemetries
      *
      * If that is the first instance in the container, we schedule a 'pick-up' in a configurable amount of time
      * If by adding that item we exceeded the maximum number of instances, we trigger a send request now.
+     * If the item would make the container bigger than the maximum size in bytes, the container is sent
+     * before adding the item, and if by adding it the size is reached, we trigger a send request now.
      *
      * Note that a lock is used to make sure we avoid race conditions and to make sure that we cleanly
-     * move from a ready to send buffer to a new one
-     * @param telemetry The {@link com.microsoft.applicationinsights.telemetry.Telemetry} to add to the buffer.
+     * move from a ready to send buffer to a new one, the ready buffers are sent after the lock is released
+     * @param telemetry The {@link com.microsoft.applicationinsights.telemetry.Telemetry} to add to the buffer, serialized as UTF-8 Json.
      */
-    public void add(String telemetry) {
+    @Override
+    public void add(byte[] telemetry) {
         Preconditions.checkNotNull(telemetry, "Telemetry must be non null value");
 
+        Collection<byte[]> previousReadyToBeSent = null;
+        Collection<byte[]> readyToBeSent = null;
         synchronized (lock) {
+            if (!telemetries.isEmpty() && batchSizeInBytes + telemetry.length > maxBatchSizeInBytes) {
+                previousReadyToBeSent = prepareTelemetriesForSend();
+            }
+
             telemetries.add(telemetry);
+            batchSizeInBytes += telemetry.length;
 
             int currentSize = telemetries.size();
 
-            if (currentSize >= maxTelemetriesInBatch) {
-                if (!sender.sendNow(prepareTelemetriesForSend())) {
-                    // 'prepareTelemetriesForSend' already created a new container
-                    // so basically we have nothing to do, the old container is lost
-                    InternalLogger.INSTANCE.error("Failed to send buffer data to network");
-                }
+            if (currentSize >= maxTelemetriesInBatch || batchSizeInBytes >= maxBatchSizeInBytes) {
+                // 'prepareTelemetriesForSend' already creates a new container
+                // so if the send fails we have nothing to do, the old container is lost
+                readyToBeSent = prepareTelemetriesForSend();
             } else if (currentSize == 1) {
                 if (!sender.scheduleSend(new TelemetryBufferTelemetriesFetcher(generation), transmitBufferTimeoutInSeconds, TimeUnit.SECONDS)) {
                     // We cannot schedule send so we give up the Telemetry
@@ -195,22 +281,37 @@ public final class TelemetryBuffer {
                     // than in case a new Telemetry arrives it won't trigger the schedule and might be lost too
                     InternalLogger.INSTANCE.error("Failed to schedule send of the buffer to network");
                     telemetries.clear();
+                    batchSizeInBytes = 0;
                 }
             }
         }
+
+        send(previousReadyToBeSent, "Failed to send buffer data to network");
+        send(readyToBeSent, "Failed to send buffer data to network");
     }
 
     /**
      * The method will flush the telemetries currently in the buffer to the {@link com.microsoft.applicationinsights.internal.channel.TelemetriesTransmitter}
      */
+    @Override
     public void flush() {
+        Collection<byte[]> readyToBeSent = null;
         synchronized (lock) {
             if (telemetries.size() != 0) {
-                if (!sender.sendNow(prepareTelemetriesForSend())) {
-                    InternalLogger.INSTANCE.error("Failed to flush buffer data to network");
-                }
+                readyToBeSent = prepareTelemetriesForSend();
             }
         }
+
+        send(readyToBeSent, "Failed to flush buffer data to network");
+    }
+
+    /**
+     * Hands a ready container to the sender, the method must be called without holding the lock.
+     */
+    private void send(Collection<byte[]> readyToBeSent, String errorMessage) {
+        if (readyToBeSent != null && !sender.sendNow(readyToBeSent)) {
+            InternalLogger.INSTANCE.error(errorMessage);
+        }
     }
 
     /**
@@ -220,13 +321,37 @@ public final class TelemetryBuffer {
      *
      * @return The list of {@link Telemetry} instances that are ready to be sent
      */
-    private List<String> prepareTelemetriesForSend() {
+    private Collection<byte[]> prepareTelemetriesForSend() {
         ++generation;
+        batchSizeInBytes = 0;
 
-        final List<String> readyToBeSent = telemetries;
-
-        telemetries = new ArrayList<String>(maxTelemetriesInBatch);
+        // Batches with streaming compression are sealed by the transmitter, outside of the lock
+        final Collection<byte[]> readyToBeSent = telemetries;
+        telemetries = createContainer();
 
         return readyToBeSent;
     }
+
+    private Collection<byte[]> createContainer() {
+        if (streamingCompression) {
+            return new GzipTelemetryBatch(deflaterPool, compressionThread);
+        }
+
+        return new ArrayList<byte[]>(maxTelemetriesInBatch);
+    }
+
+    private static ThreadPoolExecutor createCompressionThread() {
+        ThreadPoolExecutor thread = new ThreadPoolExecutor(1, 1, COMPRESSION_THREAD_KEEP_ALIVE_IN_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        thread.allowCoreThreadTimeOut(true);
+        thread.setThreadFactory(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "ApplicationInsights-StreamingCompression");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        return thread;
+    }
 }
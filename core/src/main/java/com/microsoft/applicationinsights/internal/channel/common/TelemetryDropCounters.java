@@ -0,0 +1,159 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the telemetries that the channel could not send because it was overloaded.
+ *
+ * The dropped telemetries are counted per telemetry type, i.e. the last part of the envelope name
+ * like 'Request', 'Exception' or 'Message'. The telemetries of a {@link GzipTelemetryBatch} are already compressed,
+ * finding their types would mean to seal and decompress the batch on the thread that drops it, so they are counted
+ * under the 'Compressed' type. Telemetries that were persisted to the disk instead of being sent are counted
+ * separately, they are not lost.
+ *
+ * The class is thread safe.
+ */
+public final class TelemetryDropCounters {
+    public final static String UNKNOWN_TELEMETRY_TYPE = "Unknown";
+    public final static String COMPRESSED_TELEMETRY_TYPE = "Compressed";
+
+    private final static byte[] ENVELOPE_NAME_PREFIX = "\"name\":\"".getBytes();
+
+    // The envelope name is one of the first fields, there is no need to look beyond that
+    private final static int MAX_ENVELOPE_NAME_SEARCH_LENGTH = 512;
+
+    private final ConcurrentMap<String, AtomicLong> droppedTelemetriesByType = new ConcurrentHashMap<String, AtomicLong>();
+    private final AtomicLong droppedTelemetries = new AtomicLong();
+    private final AtomicLong droppedBatches = new AtomicLong();
+    private final AtomicLong spilledTelemetries = new AtomicLong();
+
+    /**
+     * Counts the telemetries of a container that was dropped.
+     * @param telemetries The serialized telemetries.
+     */
+    public void onDropped(Collection<byte[]> telemetries) {
+        droppedBatches.incrementAndGet();
+        droppedTelemetries.addAndGet(telemetries.size());
+
+        if (telemetries instanceof GzipTelemetryBatch) {
+            getCounter(COMPRESSED_TELEMETRY_TYPE).addAndGet(telemetries.size());
+            return;
+        }
+
+        for (byte[] telemetry : telemetries) {
+            getCounter(getTelemetryType(telemetry)).incrementAndGet();
+        }
+    }
+
+    /**
+     * Counts the telemetries of a container that was persisted to the disk instead of being sent.
+     * @param numberOfTelemetries The number of telemetries in the container.
+     */
+    public void onSpilled(int numberOfTelemetries) {
+        spilledTelemetries.addAndGet(numberOfTelemetries);
+    }
+
+    public long getNumberOfDroppedTelemetries() {
+        return droppedTelemetries.get();
+    }
+
+    public long getNumberOfDroppedTelemetries(String telemetryType) {
+        AtomicLong counter = droppedTelemetriesByType.get(telemetryType);
+        return counter == null ? 0 : counter.get();
+    }
+
+    public long getNumberOfDroppedBatches() {
+        return droppedBatches.get();
+    }
+
+    public long getNumberOfSpilledTelemetries() {
+        return spilledTelemetries.get();
+    }
+
+    /**
+     * @return A snapshot of the number of dropped telemetries per telemetry type.
+     */
+    public Map<String, Long> getDroppedTelemetriesByType() {
+        Map<String, Long> result = new HashMap<String, Long>();
+        for (Map.Entry<String, AtomicLong> entry : droppedTelemetriesByType.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().get());
+        }
+
+        return result;
+    }
+
+    private AtomicLong getCounter(String telemetryType) {
+        AtomicLong counter = droppedTelemetriesByType.get(telemetryType);
+        if (counter == null) {
+            AtomicLong newCounter = new AtomicLong();
+            counter = droppedTelemetriesByType.putIfAbsent(telemetryType, newCounter);
+            if (counter == null) {
+                counter = newCounter;
+            }
+        }
+
+        return counter;
+    }
+
+    /**
+     * Finds the type of a serialized telemetry from its envelope name, i.e. 'Microsoft.ApplicationInsights.Request'.
+     */
+    static String getTelemetryType(byte[] telemetry) {
+        int searchLength = Math.min(telemetry.length, MAX_ENVELOPE_NAME_SEARCH_LENGTH);
+        for (int i = 0; i + ENVELOPE_NAME_PREFIX.length <= searchLength; ++i) {
+            if (!startsWith(telemetry, i, ENVELOPE_NAME_PREFIX)) {
+                continue;
+            }
+
+            int nameStart = i + ENVELOPE_NAME_PREFIX.length;
+            int typeStart = nameStart;
+            for (int j = nameStart; j < telemetry.length; ++j) {
+                if (telemetry[j] == '"') {
+                    return j > typeStart ? new String(telemetry, typeStart, j - typeStart) : UNKNOWN_TELEMETRY_TYPE;
+                }
+                if (telemetry[j] == '.') {
+                    typeStart = j + 1;
+                }
+            }
+            break;
+        }
+
+        return UNKNOWN_TELEMETRY_TYPE;
+    }
+
+    private static boolean startsWith(byte[] bytes, int offset, byte[] prefix) {
+        for (int i = 0; i < prefix.length; ++i) {
+            if (bytes[offset + i] != prefix[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
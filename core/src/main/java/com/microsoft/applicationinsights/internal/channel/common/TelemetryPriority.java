@@ -0,0 +1,74 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import java.util.Map;
+
+import com.google.common.base.Strings;
+
+/**
+ * The priority lanes of the channel, ordered from the highest priority to the lowest.
+ *
+ * Every lane has its own buffer and its own share of the pending send requests, and
+ * under overload the requests of the lower priority lanes are dropped first.
+ */
+public enum TelemetryPriority {
+    HIGH,
+    NORMAL,
+    LOW;
+
+    private final static String TELEMETRY_SUFFIX = "Telemetry";
+    private final static String TRACE_TELEMETRY_TYPE = "Trace";
+    private final static String MESSAGE_TELEMETRY_TYPE = "Message";
+
+    /**
+     * Adds the telemetry types of a comma separated list to the priorities.
+     *
+     * The types are the last part of the envelope names, i.e. 'Request', 'Exception' or 'Message',
+     * the class names are accepted as well, i.e. 'RequestTelemetry' or 'TraceTelemetry'.
+     * @param telemetryTypes The comma separated telemetry types, might be null or empty.
+     * @param priority The priority of the types.
+     * @param priorities The priorities per telemetry type to add to.
+     */
+    public static void addTelemetryTypes(String telemetryTypes, TelemetryPriority priority, Map<String, TelemetryPriority> priorities) {
+        if (Strings.isNullOrEmpty(telemetryTypes)) {
+            return;
+        }
+
+        for (String telemetryType : telemetryTypes.split(",")) {
+            String normalized = normalizeTelemetryType(telemetryType);
+            if (!normalized.isEmpty()) {
+                priorities.put(normalized, priority);
+            }
+        }
+    }
+
+    static String normalizeTelemetryType(String telemetryType) {
+        String normalized = telemetryType.trim();
+        if (normalized.endsWith(TELEMETRY_SUFFIX)) {
+            normalized = normalized.substring(0, normalized.length() - TELEMETRY_SUFFIX.length());
+        }
+
+        // Traces are sent in 'Message' envelopes
+        return TRACE_TELEMETRY_TYPE.equals(normalized) ? MESSAGE_TELEMETRY_TYPE : normalized;
+    }
+}
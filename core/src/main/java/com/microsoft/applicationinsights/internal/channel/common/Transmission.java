@@ -33,10 +33,15 @@ import com.google.common.base.Strings;
  * Created by gupele on 12/17/2014.
  */
 public final class Transmission implements Serializable {
+    // The value computed for the class before 'numberOfPartialResends' was added, so the persisted transmissions can still be read
+    private static final long serialVersionUID = -7135156212077487555L;
+
     private int version;
 
     private int numberOfSends;
 
+    private int numberOfPartialResends;
+
     private int numberOfPersistence;
 
     private final byte[] content;
@@ -89,6 +94,18 @@ public final class Transmission implements Serializable {
         this.numberOfSends = numberOfSends;
     }
 
+    /**
+     * @return The number of times the rejected telemetries of a partially accepted transmission were sent again
+     * before they made this transmission, unlike the number of sends which counts the failed sends of this transmission.
+     */
+    public int getNumberOfPartialResends() {
+        return numberOfPartialResends;
+    }
+
+    public void setNumberOfPartialResends(int numberOfPartialResends) {
+        this.numberOfPartialResends = numberOfPartialResends;
+    }
+
     public int getNumberOfPersistence() {
         return numberOfPersistence;
     }
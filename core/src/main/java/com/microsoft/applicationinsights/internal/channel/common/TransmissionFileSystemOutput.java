@@ -36,15 +36,16 @@ import java.io.ObjectOutput;
 import java.io.ObjectOutputStream;
 
 import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.List;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
-import com.microsoft.applicationinsights.internal.channel.TransmissionOutput;
+import com.microsoft.applicationinsights.internal.channel.TransmissionStorage;
 import com.microsoft.applicationinsights.internal.logger.InternalLogger;
 
 import com.microsoft.applicationinsights.internal.util.LimitsEnforcer;
@@ -53,7 +54,6 @@ import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
 
 import com.google.common.base.Optional;
-import com.google.common.collect.Lists;
 
 /**
  * The class knows how to manage {@link Transmission} that needs
@@ -64,15 +64,21 @@ import com.google.common.collect.Lists;
  * With that data it knows how to store incoming Transmissions and store them into files that can be later
  * be read back into Transmissions.
  *
+ * The files are named by a sequence number that grows with every stored Transmission, and the class keeps
+ * an index of the files ordered by that sequence, so the oldest file is found without listing the folder.
+ * The folder is scanned once, when the instance is created.
+ *
  * Created by gupele on 12/18/2014.
  */
-public final class TransmissionFileSystemOutput implements TransmissionOutput {
+public final class TransmissionFileSystemOutput implements TransmissionStorage {
     private final static String TRANSMISSION_FILE_PREFIX = "Transmission";
+    private final static String TRANSMISSION_SEQUENCE_SEPARATOR = "-";
     private final static String TRANSMISSION_DEFAULT_FOLDER = "transmissions";
     private final static String TEMP_FILE_EXTENSION = ".tmp";
     private final static String TRANSMISSION_FILE_EXTENSION = ".trn";
     private final static String TRANSMISSION_FILE_EXTENSION_FOR_SEARCH = "trn";
-    private final static int NUMBER_OF_FILES_TO_CACHE = 128;
+
+    private final static int MAX_ATTEMPTS_TO_CREATE_FILE = 16;
 
     private final static int MAX_RETRY_FOR_DELETE = 2;
     private final static int DELETE_TIMEOUT_ON_FAILURE_IN_MILLS = 100;
@@ -94,9 +100,11 @@ public final class TransmissionFileSystemOutput implements TransmissionOutput {
     /// The size of the current files we have on the disk
     private final AtomicLong size;
 
-    /// Cache old files here to re-send to have better performance
-    private final ArrayList<File> cacheOfOldestFiles = new ArrayList<File>();
-    private final HashSet<String> filesThatAreBeingLoaded = new HashSet<String>();
+    /// The transmission files on the disk, ordered by their sequence, oldest first
+    private final TreeMap<Long, File> transmissionFiles = new TreeMap<Long, File>();
+
+    /// The sequence of the next transmission file
+    private final AtomicLong nextSequence = new AtomicLong();
 
     public TransmissionFileSystemOutput(String folderPath, String maxTransmissionStorageCapacity) {
         if (folderPath == null) {
@@ -120,7 +128,7 @@ public final class TransmissionFileSystemOutput implements TransmissionOutput {
             throw new IllegalArgumentException("Folder must exist with read and write permissions");
         }
 
-        long currentSize = getTotalSizeOfTransmissionFiles();
+        long currentSize = indexTransmissionFiles();
         size = new AtomicLong(currentSize);
     }
 
@@ -147,10 +155,15 @@ public final class TransmissionFileSystemOutput implements TransmissionOutput {
             return false;
         }
 
-        if (!renameToPermanentName(tempTransmissionFile.get())) {
+        Optional<File> transmissionFile = renameToPermanentName(tempTransmissionFile.get());
+        if (!transmissionFile.isPresent()) {
             return false;
         }
 
+        synchronized (this) {
+            transmissionFiles.put(getSequence(transmissionFile.get()), transmissionFile.get());
+        }
+
         return true;
     }
 
@@ -158,43 +171,37 @@ public final class TransmissionFileSystemOutput implements TransmissionOutput {
     public void stop(long timeout, TimeUnit timeUnit) {
     }
 
+    @Override
     public Transmission fetchOldestFile() {
         try {
-            Optional<File> oldestFile = fetchOldestFromCache();
+            Optional<File> oldestFile = fetchOldestFromIndex();
             if (!oldestFile.isPresent()) {
                 return null;
             }
 
-            String fileName = oldestFile.get().getName();
-            try {
-                Optional<File> oldestFileAsTemp = renameToTemporaryName(oldestFile.get());
-                if (!oldestFileAsTemp.isPresent()) {
-                    return null;
-                }
+            Optional<File> oldestFileAsTemp = renameToTemporaryName(oldestFile.get());
+            if (!oldestFileAsTemp.isPresent()) {
+                return null;
+            }
+
+            File tempFile = oldestFileAsTemp.get();
+            Optional<Transmission> transmission = loadTransmission(tempFile);
 
-                File tempFile = oldestFileAsTemp.get();
-                Optional<Transmission> transmission = loadTransmission(tempFile);
-
-                // On the vast majority of times this should work
-                // but there might be some timing issues, that's why we try twice
-                for (int deleteCounter = 0; deleteCounter < MAX_RETRY_FOR_DELETE; ++deleteCounter) {
-                    if (tempFile.delete()) {
-                        break;
-                    }
-
-                    try {
-                        Thread.sleep(DELETE_TIMEOUT_ON_FAILURE_IN_MILLS);
-                    } catch (InterruptedException e) {
-                        break;
-                    }
+            // On the vast majority of times this should work
+            // but there might be some timing issues, that's why we try twice
+            for (int deleteCounter = 0; deleteCounter < MAX_RETRY_FOR_DELETE; ++deleteCounter) {
+                if (tempFile.delete()) {
+                    break;
                 }
 
-                return transmission.get();
-            } finally {
-                synchronized (this) {
-                    filesThatAreBeingLoaded.remove(fileName);
+                try {
+                    Thread.sleep(DELETE_TIMEOUT_ON_FAILURE_IN_MILLS);
+                } catch (InterruptedException e) {
+                    break;
                 }
             }
+
+            return transmission.get();
         } catch (Exception e) {
         }
 
@@ -205,34 +212,14 @@ public final class TransmissionFileSystemOutput implements TransmissionOutput {
         this.capacityInKB = capacityEnforcer.normalizeValue(suggestedCapacity) * 1024;
     }
 
-    private List<File> sortOldestLastAndTrim(Collection<File> transmissions, int limit) {
-        List<File> asList;
-        if (!(transmissions instanceof List)) {
-            asList = Lists.newArrayList(transmissions);
-        } else {
-            asList = (List<File>)transmissions;
-        }
-
-        Collections.sort(asList, new Comparator<File>() {
-            @Override
-            public int compare(File file1, File file2) {
-                long file1LastModified = file1.lastModified();
-                long file2LastModified = file2.lastModified();
-                if (file1LastModified < file2LastModified) {
-                    return 1;
-                } else if (file1LastModified > file2LastModified) {
-                    return -1;
-                }
-
-                return 0;
-            }
-        });
-
-        if (asList.size() > limit) {
-            asList = asList.subList(0, limit);
-        }
+    @Override
+    public long getSizeInBytes() {
+        return size.get();
+    }
 
-        return asList;
+    @Override
+    public synchronized int getNumberOfFiles() {
+        return transmissionFiles.size();
     }
 
     private Optional<Transmission> loadTransmission(File file) {
@@ -267,18 +254,18 @@ public final class TransmissionFileSystemOutput implements TransmissionOutput {
         return Optional.fromNullable(transmission);
     }
 
-    private boolean renameToPermanentName(File tempTransmissionFile) {
+    private Optional<File> renameToPermanentName(File tempTransmissionFile) {
         File transmissionFile = new File(folder, FilenameUtils.getBaseName(tempTransmissionFile.getName()) + TRANSMISSION_FILE_EXTENSION);
         try {
             long fileLength = tempTransmissionFile.length();
             FileUtils.moveFile(tempTransmissionFile, transmissionFile);
             size.addAndGet(fileLength);
-            return true;
+            return Optional.of(transmissionFile);
         } catch (Exception e) {
             InternalLogger.INSTANCE.error("Rename To Permanent Name failed, exception: %s", e.getMessage());
         }
 
-        return false;
+        return Optional.absent();
     }
 
     private Optional<File> renameToTemporaryName(File tempTransmissionFile) {
@@ -321,58 +308,91 @@ public final class TransmissionFileSystemOutput implements TransmissionOutput {
     }
 
     private Optional<File> createTemporaryFile() {
-        File file = null;
         try {
-            file = File.createTempFile(TRANSMISSION_FILE_PREFIX, null, folder);
+            // Other processes might use the same folder, so a sequence might already be taken
+            for (int attempt = 0; attempt < MAX_ATTEMPTS_TO_CREATE_FILE; ++attempt) {
+                String name = String.format("%s%s%019d%s", TRANSMISSION_FILE_PREFIX, TRANSMISSION_SEQUENCE_SEPARATOR, nextSequence.getAndIncrement(), TEMP_FILE_EXTENSION);
+                File file = new File(folder, name);
+                if (file.createNewFile()) {
+                    return Optional.of(file);
+                }
+            }
+
+            InternalLogger.INSTANCE.error("Failed to create temporary file, the file names are already taken");
         } catch (IOException e) {
             InternalLogger.INSTANCE.error("Failed to create temporary file, exception: %s", e.getMessage());
         }
 
-        return Optional.fromNullable(file);
+        return Optional.absent();
     }
 
-    private long getTotalSizeOfTransmissionFiles() {
+    /**
+     * Builds the index of the transmission files that are already on the disk.
+     * Files that were stored before their names held a sequence are ordered by their modification time, before all the others.
+     * @return The total size of the transmission files.
+     */
+    private long indexTransmissionFiles() {
         Collection<File> transmissions = FileUtils.listFiles(folder, new String[] {TRANSMISSION_FILE_EXTENSION_FOR_SEARCH}, false);
 
         long totalSize = 0;
+        long maxSequence = -1;
+        List<File> filesWithoutSequence = new ArrayList<File>();
         for (File file : transmissions) {
             totalSize += file.length();
-        }
 
-        return totalSize;
-    }
-
-    private Optional<File> fetchOldestFromCache() {
-        synchronized (this) {
-            if (cacheOfOldestFiles.isEmpty()) {
-
-                // Fill the cache
-                Collection<File> transmissions = FileUtils.listFiles(folder, new String[] {TRANSMISSION_FILE_EXTENSION_FOR_SEARCH}, false);
+            Long sequence = getSequence(file);
+            if (sequence == null) {
+                filesWithoutSequence.add(file);
+            } else {
+                transmissionFiles.put(sequence, file);
+                maxSequence = Math.max(maxSequence, sequence);
+            }
+        }
 
-                if (transmissions.isEmpty()) {
-                    // No files
-                    return Optional.absent();
+        if (!filesWithoutSequence.isEmpty()) {
+            Collections.sort(filesWithoutSequence, new Comparator<File>() {
+                @Override
+                public int compare(File file1, File file2) {
+                    long file1LastModified = file1.lastModified();
+                    long file2LastModified = file2.lastModified();
+                    return file1LastModified < file2LastModified ? -1 : (file1LastModified > file2LastModified ? 1 : 0);
                 }
+            });
+
+            long sequence = Long.MIN_VALUE;
+            for (File file : filesWithoutSequence) {
+                transmissionFiles.put(sequence++, file);
+            }
+        }
 
-                List<File> filesToLoad = sortOldestLastAndTrim(transmissions, NUMBER_OF_FILES_TO_CACHE);
+        nextSequence.set(maxSequence + 1);
 
-                if (filesToLoad == null || filesToLoad.isEmpty()) {
-                    return Optional.absent();
-                }
+        return totalSize;
+    }
 
-                cacheOfOldestFiles.addAll(filesToLoad);
-            }
+    private static Long getSequence(File file) {
+        String baseName = FilenameUtils.getBaseName(file.getName());
+        String sequencePrefix = TRANSMISSION_FILE_PREFIX + TRANSMISSION_SEQUENCE_SEPARATOR;
+        if (!baseName.startsWith(sequencePrefix)) {
+            return null;
+        }
 
-            File fileToLoad = cacheOfOldestFiles.remove(cacheOfOldestFiles.size() - 1);
+        try {
+            return Long.parseLong(baseName.substring(sequencePrefix.length()));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
 
-            String fileName = fileToLoad.getName();
-            if (filesThatAreBeingLoaded.contains(fileName)) {
-                return Optional.absent();
+    private synchronized Optional<File> fetchOldestFromIndex() {
+        Map.Entry<Long, File> oldest;
+        while ((oldest = transmissionFiles.pollFirstEntry()) != null) {
+            // Skip files that were taken by another process that uses the same folder
+            if (oldest.getValue().exists()) {
+                return Optional.of(oldest.getValue());
             }
-
-            filesThatAreBeingLoaded.add(fileName);
-            // Remove oldest which is the last one, this is optimized for not doing a copy
-            return Optional.fromNullable(fileToLoad);
         }
+
+        return Optional.absent();
     }
 }
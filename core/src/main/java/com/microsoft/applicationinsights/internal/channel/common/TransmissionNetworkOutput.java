@@ -21,32 +21,13 @@
 
 package com.microsoft.applicationinsights.internal.channel.common;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.net.ConnectException;
-import java.net.SocketException;
-import java.net.UnknownHostException;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
-import java.util.Calendar;
-import java.util.Date;
-import java.util.TimeZone;
 import java.util.concurrent.TimeUnit;
 
 import com.microsoft.applicationinsights.internal.channel.TransmissionDispatcher;
 import com.microsoft.applicationinsights.internal.channel.TransmissionOutput;
-import com.microsoft.applicationinsights.internal.logger.InternalLogger;
 
-import org.apache.http.Header;
-import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
-import org.apache.http.HttpStatus;
 import org.apache.http.client.methods.HttpPost;
-import org.apache.http.conn.ConnectTimeoutException;
-import org.apache.http.conn.ConnectionPoolTimeoutException;
-import org.apache.http.entity.ByteArrayEntity;
 
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
@@ -59,16 +40,7 @@ import com.google.common.base.Strings;
  * Created by gupele on 12/18/2014.
  */
 public final class TransmissionNetworkOutput implements TransmissionOutput {
-    private final static String CONTENT_TYPE_HEADER = "Content-Type";
-    private final static String CONTENT_ENCODING_HEADER = "Content-Encoding";
-    private final static String RESPONSE_THROTTLING_HEADER = "Retry-After";
-    private final static String RESPONSE_RETRY_AFTER_DATE_FORMAT = "E, dd MMM yyyy HH:mm:ss";
-
-    private final static String DEFAULT_SERVER_URI = "https://dc.services.visualstudio.com/v2/track";
-    private final static int DEFAULT_BACKOFF_TIME_SECONDS = 300;
-
-    // For future use: re-send a failed transmission back to the dispatcher
-    private TransmissionDispatcher transmissionDispatcher;
+    final static String DEFAULT_SERVER_URI = "https://dc.services.visualstudio.com/v2/track";
 
     private final String serverUri;
 
@@ -79,6 +51,10 @@ public final class TransmissionNetworkOutput implements TransmissionOutput {
 
     private TransmissionPolicyManager transmissionPolicyManager;
 
+    private final TransmissionResponseHandler responseHandler;
+
+    private volatile ChannelStatistics statistics = new ChannelStatistics();
+
     public static TransmissionNetworkOutput create(TransmissionPolicyManager transmissionPolicyManager) {
         return create(DEFAULT_SERVER_URI, transmissionPolicyManager);
     }
@@ -97,11 +73,22 @@ public final class TransmissionNetworkOutput implements TransmissionOutput {
 
         httpClient = ApacheSenderFactory.INSTANCE.create();
         this.transmissionPolicyManager = transmissionPolicyManager;
+        responseHandler = new TransmissionResponseHandler(transmissionPolicyManager);
         stopped = false;
     }
 
     public void setTransmissionDispatcher(TransmissionDispatcher transmissionDispatcher) {
-        this.transmissionDispatcher = transmissionDispatcher;
+        responseHandler.setTransmissionDispatcher(transmissionDispatcher);
+    }
+
+    public void setTelemetrySerializer(GzipTelemetrySerializer serializer) {
+        responseHandler.setTelemetrySerializer(serializer);
+    }
+
+    public void setStatistics(ChannelStatistics statistics) {
+        Preconditions.checkNotNull(statistics, "statistics must be non-null value");
+
+        this.statistics = statistics;
     }
 
     /**
@@ -136,50 +123,19 @@ public final class TransmissionNetworkOutput implements TransmissionOutput {
             HttpResponse response = null;
             HttpPost request = null;
             try {
-                request = createTransmissionPostRequest(transmission);
+                request = TransmissionResponseHandler.createTransmissionPostRequest(serverUri, transmission);
                 httpClient.enhanceRequest(request);
 
+                long start = System.nanoTime();
                 response = httpClient.sendPostRequest(request);
+                statistics.onTransmissionPosted(System.nanoTime() - start, TransmissionResponseHandler.isAccepted(response));
 
-                HttpEntity respEntity = response.getEntity();
-                int code = response.getStatusLine().getStatusCode();
-
-                TransmissionSendResult sendResult = translateResponse(code, respEntity);
-                switch (sendResult) {
-                    case PAYMENT_REQUIRED:
-                    case THROTTLED:
-                        suspendTransmissions(TransmissionPolicy.BLOCKED_BUT_CAN_BE_PERSISTED, response);
-                        break;
-
-                    case THROTTLED_OVER_EXTENDED_TIME:
-                        suspendTransmissions(TransmissionPolicy.BLOCKED_AND_CANNOT_BE_PERSISTED, response);
-                        break;
-
-                    default:
-                        return true;
+                if (responseHandler.onResponse(transmission, response)) {
+                    return true;
                 }
-            } catch (ConnectionPoolTimeoutException e) {
-                InternalLogger.INSTANCE.error("Failed to send, connection pool timeout exception");
-            } catch (SocketException e) {
-                InternalLogger.INSTANCE.error("Failed to send, socket timeout exception");
-                // backoff retry if no connection is found
-                if (e instanceof ConnectException) {
-                    transmissionPolicyManager.suspendInSeconds(TransmissionPolicy.BLOCKED_BUT_CAN_BE_PERSISTED, DEFAULT_BACKOFF_TIME_SECONDS);
-                }
-            } catch (UnknownHostException e) {
-                InternalLogger.INSTANCE.error("Failed to send, wrong host address or cannot reach address due to network issues, exception: %s", e.getMessage());
-                // backoff retry if host unknown
-                transmissionPolicyManager.suspendInSeconds(TransmissionPolicy.BLOCKED_BUT_CAN_BE_PERSISTED, DEFAULT_BACKOFF_TIME_SECONDS);
-            } catch (IOException ioe) {
-                InternalLogger.INSTANCE.error("Failed to send, exception: %s", ioe.getMessage());
-                // backoff retry if no connection is found
-                if (ioe instanceof ConnectTimeoutException) {
-                    transmissionPolicyManager.suspendInSeconds(TransmissionPolicy.BLOCKED_BUT_CAN_BE_PERSISTED, DEFAULT_BACKOFF_TIME_SECONDS);
-                }
-            } catch (Exception e) {
-                InternalLogger.INSTANCE.error("Failed to send, unexpected exception: %s", e.getMessage());
             } catch (Throwable t) {
-                InternalLogger.INSTANCE.error("Failed to send, unexpected error: %s", t.getMessage());
+                statistics.onPostFailed();
+                responseHandler.onFailure(t);
             }
             finally {
                 if (request != null) {
@@ -191,138 +147,4 @@ public final class TransmissionNetworkOutput implements TransmissionOutput {
 
         return true;
     }
-
-    private void suspendTransmissions(TransmissionPolicy suspensionPolicy, HttpResponse response) {
-        Header retryAfterHeader = response.getFirstHeader(RESPONSE_THROTTLING_HEADER);
-        if (retryAfterHeader == null) {
-            return;
-        }
-
-        String retryAfterAsString = retryAfterHeader.getValue();
-        if (Strings.isNullOrEmpty(retryAfterAsString)) {
-            return;
-        }
-
-        try {
-            DateFormat formatter = new SimpleDateFormat(RESPONSE_RETRY_AFTER_DATE_FORMAT);
-            Date date = formatter.parse(retryAfterAsString);
-
-            Date now = Calendar.getInstance().getTime();
-            long retryAfterAsSeconds = (date.getTime() - convertToDateToGmt(now).getTime())/1000;
-            transmissionPolicyManager.suspendInSeconds(suspensionPolicy, retryAfterAsSeconds);
-        } catch (Throwable e) {
-            InternalLogger.INSTANCE.logAlways(InternalLogger.LoggingLevel.ERROR, "Throttled but failed to block transmission, exception: %s", e.getMessage());
-        }
-    }
-
-    private  static Date convertToDateToGmt(Date date){
-        TimeZone tz = TimeZone.getDefault();
-        Date ret = new Date(date.getTime() - tz.getRawOffset());
-
-        // If we are now in DST, back off by the delta.  Note that we are checking the GMT date, this is the KEY.
-        if (tz.inDaylightTime(ret)) {
-            Date dstDate = new Date(ret.getTime() - tz.getDSTSavings());
-
-            // Check to make sure we have not crossed back into standard time
-            if (tz.inDaylightTime(dstDate)) {
-                ret = dstDate;
-            }
-        }
-        return ret;
-    }
-
-    private TransmissionSendResult translateResponse(int code, HttpEntity respEntity) {
-        if (code == HttpStatus.SC_OK) {
-            return TransmissionSendResult.SENT_SUCCESSFULLY;
-        }
-
-        TransmissionSendResult result;
-
-        String errorMessage;
-        if (code < HttpStatus.SC_OK ||
-                (code >= HttpStatus.SC_MULTIPLE_CHOICES && code < HttpStatus.SC_BAD_REQUEST) ||
-                code > HttpStatus.SC_INTERNAL_SERVER_ERROR) {
-
-            errorMessage = String.format("Unexpected response code: %d", code);
-            result = TransmissionSendResult.REJECTED_BY_SERVER;
-        } else {
-            switch (code) {
-                case HttpStatus.SC_BAD_REQUEST:
-                    errorMessage = "Bad request ";
-                    result = TransmissionSendResult.BAD_REQUEST;
-                    break;
-
-                case 429:
-                    result = TransmissionSendResult.THROTTLED;
-                    errorMessage = "Throttling (All messages of the transmission were rejected) ";
-                    break;
-
-                case 439:
-                    result = TransmissionSendResult.THROTTLED_OVER_EXTENDED_TIME;
-                    errorMessage = "Throttling extended";
-                    break;
-
-                case 402:
-                    result = TransmissionSendResult.PAYMENT_REQUIRED;
-                    errorMessage = "Throttling: payment required";
-                    break;
-
-                case HttpStatus.SC_PARTIAL_CONTENT:
-                    result = TransmissionSendResult.PARTIALLY_THROTTLED;
-                    errorMessage = "Throttling (Partial messages of the transmission were rejected) ";
-                    break;
-
-                case HttpStatus.SC_INTERNAL_SERVER_ERROR:
-                    errorMessage = "Internal server error ";
-                    result = TransmissionSendResult.INTERNAL_SERVER_ERROR;
-                    break;
-
-                default:
-                    result = TransmissionSendResult.REJECTED_BY_SERVER;
-                    errorMessage = String.format("Error, response code: %d", code);
-                    break;
-            }
-        }
-
-        logError(errorMessage, respEntity);
-        return result;
-    }
-
-    private void logError(String baseErrorMessage, HttpEntity respEntity) {
-        if (respEntity == null || !InternalLogger.INSTANCE.isErrorEnabled()) {
-            InternalLogger.INSTANCE.error(baseErrorMessage);
-            return;
-        }
-
-        InputStream inputStream = null;
-        try {
-            inputStream = respEntity.getContent();
-            InputStreamReader streamReader = new InputStreamReader(inputStream, "UTF-8");
-            BufferedReader reader = new BufferedReader(streamReader);
-            String responseLine = reader.readLine();
-            respEntity.getContent().close();
-
-            InternalLogger.INSTANCE.error("Failed to send, %s : %s", baseErrorMessage, responseLine);
-        } catch (IOException e) {
-            InternalLogger.INSTANCE.error("Failed to send, %s, failed to log the error", baseErrorMessage);
-        } finally {
-            if (inputStream != null) {
-                try {
-                    inputStream.close();
-                } catch (IOException e) {
-                }
-            }
-        }
-    }
-
-    private HttpPost createTransmissionPostRequest(Transmission transmission) {
-        HttpPost request = new HttpPost(serverUri);
-        request.addHeader(CONTENT_TYPE_HEADER, transmission.getWebContentType());
-        request.addHeader(CONTENT_ENCODING_HEADER, transmission.getWebContentEncodingType());
-
-        ByteArrayEntity bae = new ByteArrayEntity(transmission.getContent());
-        request.setEntity(bae);
-
-        return request;
-    }
 }
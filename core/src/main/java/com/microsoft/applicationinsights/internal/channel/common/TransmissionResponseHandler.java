@@ -0,0 +1,320 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.TimeZone;
+
+import com.microsoft.applicationinsights.internal.channel.TransmissionDispatcher;
+import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.util.EntityUtils;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+
+/**
+ * Handles the outcome of posting a {@link Transmission} to the server, for both the blocking and
+ * the asynchronous network outputs: translates the response, suspends the transmissions when the
+ * server throttles or cannot be reached, and re-sends the rejected telemetries of partially accepted transmissions.
+ */
+public final class TransmissionResponseHandler {
+    private final static String CONTENT_TYPE_HEADER = "Content-Type";
+    private final static String CONTENT_ENCODING_HEADER = "Content-Encoding";
+    private final static String RESPONSE_THROTTLING_HEADER = "Retry-After";
+    private final static String RESPONSE_RETRY_AFTER_DATE_FORMAT = "E, dd MMM yyyy HH:mm:ss";
+
+    private final static int DEFAULT_BACKOFF_TIME_SECONDS = 300;
+
+    private final TransmissionPolicyManager transmissionPolicyManager;
+
+    private volatile PartialSuccessHandler partialSuccessHandler = new PartialSuccessHandler();
+
+    // Used to re-send the telemetries that were rejected in a partially accepted transmission
+    private volatile TransmissionDispatcher transmissionDispatcher;
+
+    public TransmissionResponseHandler(TransmissionPolicyManager transmissionPolicyManager) {
+        Preconditions.checkNotNull(transmissionPolicyManager, "transmissionPolicyManager should be a valid non-null value");
+
+        this.transmissionPolicyManager = transmissionPolicyManager;
+    }
+
+    public void setTransmissionDispatcher(TransmissionDispatcher transmissionDispatcher) {
+        this.transmissionDispatcher = transmissionDispatcher;
+    }
+
+    public TransmissionDispatcher getTransmissionDispatcher() {
+        return transmissionDispatcher;
+    }
+
+    /**
+     * Sets the serializer of the channel, used to serialize the rejected telemetries that are sent again,
+     * so they are compressed and counted as the other transmissions of the channel.
+     * @param serializer The serializer.
+     */
+    public void setTelemetrySerializer(GzipTelemetrySerializer serializer) {
+        Preconditions.checkNotNull(serializer, "serializer must be non-null value");
+
+        partialSuccessHandler = new PartialSuccessHandler(serializer);
+    }
+
+    /**
+     * Creates the post request of the transmission.
+     * @param serverUri The endpoint to post to.
+     * @param transmission The data to send.
+     * @return The request.
+     */
+    public static HttpPost createTransmissionPostRequest(String serverUri, Transmission transmission) {
+        HttpPost request = new HttpPost(serverUri);
+        request.addHeader(CONTENT_TYPE_HEADER, transmission.getWebContentType());
+        request.addHeader(CONTENT_ENCODING_HEADER, transmission.getWebContentEncodingType());
+
+        ByteArrayEntity bae = new ByteArrayEntity(transmission.getContent());
+        request.setEntity(bae);
+
+        return request;
+    }
+
+    /**
+     * @param response The response of the server.
+     * @return True if the server accepted the transmission, even if only some of its telemetries.
+     */
+    public static boolean isAccepted(HttpResponse response) {
+        int code = response.getStatusLine().getStatusCode();
+        return code == HttpStatus.SC_OK || code == HttpStatus.SC_PARTIAL_CONTENT;
+    }
+
+    /**
+     * Handles the response of the server.
+     * @param transmission The transmission that was sent.
+     * @param response The response of the server.
+     * @return True if the transmission is done, false if it was rejected and should be sent again,
+     * in which case the transmissions might have been suspended.
+     */
+    public boolean onResponse(Transmission transmission, HttpResponse response) {
+        int code = response.getStatusLine().getStatusCode();
+        String responseBody = code == HttpStatus.SC_OK ? null : readResponseBody(response.getEntity());
+
+        TransmissionSendResult sendResult = translateResponse(code, responseBody);
+        switch (sendResult) {
+            case PAYMENT_REQUIRED:
+            case THROTTLED:
+                suspendTransmissions(TransmissionPolicy.BLOCKED_BUT_CAN_BE_PERSISTED, response);
+                return false;
+
+            case THROTTLED_OVER_EXTENDED_TIME:
+                suspendTransmissions(TransmissionPolicy.BLOCKED_AND_CANNOT_BE_PERSISTED, response);
+                return false;
+
+            case PARTIALLY_THROTTLED:
+                // Respect the server's request to wait before the rejected telemetries are sent again
+                suspendTransmissions(TransmissionPolicy.BLOCKED_BUT_CAN_BE_PERSISTED, response);
+                resendRetriableItems(transmission, responseBody);
+                return true;
+
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Handles a failure to send the transmission, the transmissions are suspended if the server cannot be reached.
+     * @param throwable The reason of the failure.
+     */
+    public void onFailure(Throwable throwable) {
+        if (throwable instanceof ConnectionPoolTimeoutException) {
+            InternalLogger.INSTANCE.error("Failed to send, connection pool timeout exception");
+        } else if (throwable instanceof SocketException) {
+            InternalLogger.INSTANCE.error("Failed to send, socket timeout exception");
+            // backoff retry if no connection is found
+            if (throwable instanceof ConnectException) {
+                transmissionPolicyManager.suspendInSeconds(TransmissionPolicy.BLOCKED_BUT_CAN_BE_PERSISTED, DEFAULT_BACKOFF_TIME_SECONDS);
+            }
+        } else if (throwable instanceof UnknownHostException) {
+            InternalLogger.INSTANCE.error("Failed to send, wrong host address or cannot reach address due to network issues, exception: %s", throwable.getMessage());
+            // backoff retry if host unknown
+            transmissionPolicyManager.suspendInSeconds(TransmissionPolicy.BLOCKED_BUT_CAN_BE_PERSISTED, DEFAULT_BACKOFF_TIME_SECONDS);
+        } else if (throwable instanceof IOException) {
+            InternalLogger.INSTANCE.error("Failed to send, exception: %s", throwable.getMessage());
+            // backoff retry if no connection is found
+            if (throwable instanceof ConnectTimeoutException) {
+                transmissionPolicyManager.suspendInSeconds(TransmissionPolicy.BLOCKED_BUT_CAN_BE_PERSISTED, DEFAULT_BACKOFF_TIME_SECONDS);
+            }
+        } else if (throwable instanceof Exception) {
+            InternalLogger.INSTANCE.error("Failed to send, unexpected exception: %s", throwable.getMessage());
+        } else {
+            InternalLogger.INSTANCE.error("Failed to send, unexpected error: %s", throwable.getMessage());
+        }
+    }
+
+    private void suspendTransmissions(TransmissionPolicy suspensionPolicy, HttpResponse response) {
+        Header retryAfterHeader = response.getFirstHeader(RESPONSE_THROTTLING_HEADER);
+        if (retryAfterHeader == null) {
+            return;
+        }
+
+        String retryAfterAsString = retryAfterHeader.getValue();
+        if (Strings.isNullOrEmpty(retryAfterAsString)) {
+            return;
+        }
+
+        try {
+            DateFormat formatter = new SimpleDateFormat(RESPONSE_RETRY_AFTER_DATE_FORMAT);
+            Date date = formatter.parse(retryAfterAsString);
+
+            Date now = Calendar.getInstance().getTime();
+            long retryAfterAsSeconds = (date.getTime() - convertToDateToGmt(now).getTime())/1000;
+            transmissionPolicyManager.suspendInSeconds(suspensionPolicy, retryAfterAsSeconds);
+        } catch (Throwable e) {
+            InternalLogger.INSTANCE.logAlways(InternalLogger.LoggingLevel.ERROR, "Throttled but failed to block transmission, exception: %s", e.getMessage());
+        }
+    }
+
+    private  static Date convertToDateToGmt(Date date){
+        TimeZone tz = TimeZone.getDefault();
+        Date ret = new Date(date.getTime() - tz.getRawOffset());
+
+        // If we are now in DST, back off by the delta.  Note that we are checking the GMT date, this is the KEY.
+        if (tz.inDaylightTime(ret)) {
+            Date dstDate = new Date(ret.getTime() - tz.getDSTSavings());
+
+            // Check to make sure we have not crossed back into standard time
+            if (tz.inDaylightTime(dstDate)) {
+                ret = dstDate;
+            }
+        }
+        return ret;
+    }
+
+    private TransmissionSendResult translateResponse(int code, String responseBody) {
+        if (code == HttpStatus.SC_OK) {
+            return TransmissionSendResult.SENT_SUCCESSFULLY;
+        }
+
+        TransmissionSendResult result;
+
+        String errorMessage;
+        if (code < HttpStatus.SC_OK ||
+                (code >= HttpStatus.SC_MULTIPLE_CHOICES && code < HttpStatus.SC_BAD_REQUEST) ||
+                code > HttpStatus.SC_INTERNAL_SERVER_ERROR) {
+
+            errorMessage = String.format("Unexpected response code: %d", code);
+            result = TransmissionSendResult.REJECTED_BY_SERVER;
+        } else {
+            switch (code) {
+                case HttpStatus.SC_BAD_REQUEST:
+                    errorMessage = "Bad request ";
+                    result = TransmissionSendResult.BAD_REQUEST;
+                    break;
+
+                case 429:
+                    result = TransmissionSendResult.THROTTLED;
+                    errorMessage = "Throttling (All messages of the transmission were rejected) ";
+                    break;
+
+                case 439:
+                    result = TransmissionSendResult.THROTTLED_OVER_EXTENDED_TIME;
+                    errorMessage = "Throttling extended";
+                    break;
+
+                case 402:
+                    result = TransmissionSendResult.PAYMENT_REQUIRED;
+                    errorMessage = "Throttling: payment required";
+                    break;
+
+                case HttpStatus.SC_PARTIAL_CONTENT:
+                    result = TransmissionSendResult.PARTIALLY_THROTTLED;
+                    errorMessage = "Throttling (Partial messages of the transmission were rejected) ";
+                    break;
+
+                case HttpStatus.SC_INTERNAL_SERVER_ERROR:
+                    errorMessage = "Internal server error ";
+                    result = TransmissionSendResult.INTERNAL_SERVER_ERROR;
+                    break;
+
+                default:
+                    result = TransmissionSendResult.REJECTED_BY_SERVER;
+                    errorMessage = String.format("Error, response code: %d", code);
+                    break;
+            }
+        }
+
+        logError(errorMessage, responseBody);
+        return result;
+    }
+
+    private void logError(String baseErrorMessage, String responseBody) {
+        if (Strings.isNullOrEmpty(responseBody) || !InternalLogger.INSTANCE.isErrorEnabled()) {
+            InternalLogger.INSTANCE.error(baseErrorMessage);
+            return;
+        }
+
+        int endOfFirstLine = responseBody.indexOf('\n');
+        String responseLine = endOfFirstLine == -1 ? responseBody : responseBody.substring(0, endOfFirstLine);
+
+        InternalLogger.INSTANCE.error("Failed to send, %s : %s", baseErrorMessage, responseLine);
+    }
+
+    private String readResponseBody(HttpEntity respEntity) {
+        if (respEntity == null) {
+            return null;
+        }
+
+        try {
+            return EntityUtils.toString(respEntity, "UTF-8");
+        } catch (Exception e) {
+            InternalLogger.INSTANCE.error("Failed to read the response, exception: %s", e.getMessage());
+            return null;
+        }
+    }
+
+    private void resendRetriableItems(Transmission transmission, String responseBody) {
+        Optional<Transmission> retryTransmission = partialSuccessHandler.createRetryTransmission(transmission, responseBody);
+        if (!retryTransmission.isPresent()) {
+            return;
+        }
+
+        if (transmissionDispatcher == null) {
+            InternalLogger.INSTANCE.error("Partial success: no dispatcher to resend the rejected telemetries");
+            return;
+        }
+
+        // The dispatcher sends it with the next transmissions, or persists it to disk while transmissions are suspended
+        transmissionDispatcher.dispatch(retryTransmission.get());
+    }
+}
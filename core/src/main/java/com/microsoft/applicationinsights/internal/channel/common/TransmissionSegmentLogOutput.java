@@ -0,0 +1,541 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import com.microsoft.applicationinsights.internal.channel.TransmissionStorage;
+import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+import com.microsoft.applicationinsights.internal.util.LimitsEnforcer;
+import com.microsoft.applicationinsights.internal.util.LocalFileSystemUtils;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+
+/**
+ * An alternative to the {@link TransmissionFileSystemOutput} that appends the transmissions to a log
+ * of memory mapped segment files, instead of writing every transmission to its own file.
+ *
+ * Each segment file starts with a small header, followed by records of the form:
+ *   [payload length (int)][CRC32 of the payload (int)][state (byte)][payload]
+ * where the payload holds the meta data and the content of the {@link Transmission} in a compact binary form.
+ * A record length of zero marks the end of the written records, the rest of the segment is pre-allocated.
+ *
+ * Transmissions are read back sequentially, oldest segment first, each record that is read is marked as
+ * consumed in place so it is not loaded again after a restart, and a segment file is deleted once all its
+ * records were read. Records whose checksum does not match are skipped.
+ * The segment is unmapped before it is deleted, a segment file that still cannot be deleted keeps taking
+ * its room in the budget, and its deletion is retried whenever a new segment is started.
+ *
+ * The segment files, including their pre-allocated space, are limited by the
+ * same 'MaxTransmissionStorageFilesCapacityInMB' budget as the transmission files.
+ *
+ * The records reach the disk when the operating system flushes the mapped pages, or when the segment is sealed.
+ */
+public final class TransmissionSegmentLogOutput implements TransmissionStorage {
+    private final static String TRANSMISSION_DEFAULT_FOLDER = "transmissions";
+    private final static String SEGMENT_FILE_PREFIX = "Segment-";
+    private final static String SEGMENT_FILE_EXTENSION = ".seg";
+
+    private final static int SEGMENT_MAGIC = 0x41495347;
+    private final static int SEGMENT_FORMAT_VERSION = 1;
+    private final static int SEGMENT_HEADER_SIZE = 8;
+
+    private final static int RECORD_HEADER_SIZE = 9;
+    private final static int RECORD_CRC_OFFSET = 4;
+    private final static int RECORD_STATE_OFFSET = 8;
+    private final static byte RECORD_PENDING = 0;
+    private final static byte RECORD_CONSUMED = 1;
+
+    private final static int SEGMENTS_PER_CAPACITY = 8;
+    private final static int MIN_SEGMENT_SIZE_IN_BYTES = 64 * 1024;
+    private final static int MAX_SEGMENT_SIZE_IN_BYTES = 4 * 1024 * 1024;
+
+    private final static int DEFAULT_CAPACITY_MEGABYTES = 10;
+    private final static int MAX_CAPACITY_MEGABYTES = 100;
+    private final static int MIN_CAPACITY_MEGABYTES = 1;
+    private static final String MAX_TRANSMISSION_STORAGE_CAPACITY_NAME = "Channel.MaxTransmissionStorageCapacityInMB";
+
+    /**
+     * A segment file and its mapped content.
+     */
+    private final static class Segment {
+        final long sequence;
+        final File file;
+        final MappedByteBuffer buffer;
+
+        /// The end of the written records
+        int writePosition;
+
+        /// The next record to read
+        int readPosition = SEGMENT_HEADER_SIZE;
+
+        Segment(long sequence, File file, MappedByteBuffer buffer) {
+            this.sequence = sequence;
+            this.file = file;
+            this.buffer = buffer;
+        }
+    }
+
+    /// The folder in which we save the segment files
+    private final File folder;
+
+    private final long capacityInBytes;
+
+    private final int segmentSizeInBytes;
+
+    /// The segment files on the disk, by their sequence
+    private final TreeMap<Long, File> segments = new TreeMap<Long, File>();
+
+    /// The size of the segment files we have on the disk
+    private long sizeInBytes;
+
+    /// The read segment files that could not be deleted yet, with their size
+    private final Map<File, Long> undeletedSegments = new LinkedHashMap<File, Long>();
+
+    private long nextSequence;
+
+    private Segment writeSegment;
+
+    private Segment readSegment;
+
+    private final CRC32 crc = new CRC32();
+
+    private boolean stopped;
+
+    public TransmissionSegmentLogOutput(String folderPath, String maxTransmissionStorageCapacity) {
+        if (folderPath == null) {
+            folderPath = new File(LocalFileSystemUtils.getTempDir(), TRANSMISSION_DEFAULT_FOLDER).getPath();
+        }
+
+        LimitsEnforcer capacityEnforcer = LimitsEnforcer.createWithClosestLimitOnError(MIN_CAPACITY_MEGABYTES,
+                                                                                       MAX_CAPACITY_MEGABYTES,
+                                                                                       DEFAULT_CAPACITY_MEGABYTES,
+                                                                                       MAX_TRANSMISSION_STORAGE_CAPACITY_NAME,
+                                                                                       maxTransmissionStorageCapacity);
+        capacityInBytes = capacityEnforcer.getCurrentValue() * 1024L * 1024L;
+        segmentSizeInBytes = (int) Math.max(MIN_SEGMENT_SIZE_IN_BYTES, Math.min(MAX_SEGMENT_SIZE_IN_BYTES, capacityInBytes / SEGMENTS_PER_CAPACITY));
+
+        folder = new File(folderPath);
+
+        if (!folder.exists()) {
+            folder.mkdir();
+        }
+
+        if (!folder.exists() || !folder.canRead() || !folder.canWrite()) {
+            throw new IllegalArgumentException("Folder must exist with read and write permissions");
+        }
+
+        loadExistingSegments();
+    }
+
+    public TransmissionSegmentLogOutput(String folderPath) {
+        this(folderPath, null);
+    }
+
+    /**
+     * Appends the transmission to the current segment, a new segment is started if the record does not fit.
+     * @param transmission The transmission to persist.
+     * @return False if there is no room for the transmission, true otherwise.
+     */
+    @Override
+    public synchronized boolean send(Transmission transmission) {
+        if (stopped) {
+            return false;
+        }
+
+        Optional<byte[]> payload = encode(transmission);
+        if (!payload.isPresent()) {
+            return false;
+        }
+
+        int recordSize = RECORD_HEADER_SIZE + payload.get().length;
+        if (writeSegment == null || writeSegment.buffer.capacity() - writeSegment.writePosition < recordSize) {
+            if (!startNewWriteSegment(recordSize)) {
+                return false;
+            }
+        }
+
+        crc.reset();
+        crc.update(payload.get());
+
+        MappedByteBuffer buffer = writeSegment.buffer;
+        int position = writeSegment.writePosition;
+
+        ByteBuffer payloadBuffer = buffer.duplicate();
+        payloadBuffer.position(position + RECORD_HEADER_SIZE);
+        payloadBuffer.put(payload.get());
+        buffer.put(position + RECORD_STATE_OFFSET, RECORD_PENDING);
+        buffer.putInt(position + RECORD_CRC_OFFSET, (int) crc.getValue());
+
+        // The length is written last, a record is visible only when it is complete
+        buffer.putInt(position, payload.get().length);
+
+        writeSegment.writePosition = position + recordSize;
+
+        return true;
+    }
+
+    /**
+     * Reads the oldest transmission that was not read yet, and marks it as consumed.
+     * @return The transmission, or null if there are no persisted transmissions.
+     */
+    @Override
+    public synchronized Transmission fetchOldestFile() {
+        while (!stopped) {
+            if (readSegment == null) {
+                Map.Entry<Long, File> oldest = segments.firstEntry();
+                if (oldest == null) {
+                    return null;
+                }
+
+                if (writeSegment != null && writeSegment.sequence == oldest.getKey()) {
+                    readSegment = writeSegment;
+                } else {
+                    Optional<Segment> segment = openSegment(oldest.getKey(), oldest.getValue());
+                    if (!segment.isPresent()) {
+                        deleteSegment(oldest.getKey(), oldest.getValue(), null);
+                        continue;
+                    }
+                    readSegment = segment.get();
+                }
+            }
+
+            Transmission transmission = readNext(readSegment);
+            if (transmission != null) {
+                return transmission;
+            }
+
+            if (readSegment == writeSegment) {
+                // All the written records were read
+                return null;
+            }
+
+            Segment consumed = readSegment;
+            readSegment = null;
+            deleteSegment(consumed.sequence, consumed.file, consumed.buffer);
+        }
+
+        return null;
+    }
+
+    @Override
+    public synchronized void stop(long timeout, TimeUnit timeUnit) {
+        if (stopped) {
+            return;
+        }
+
+        stopped = true;
+        if (writeSegment != null) {
+            writeSegment.buffer.force();
+        }
+        if (readSegment != null && readSegment != writeSegment) {
+            readSegment.buffer.force();
+        }
+    }
+
+    @Override
+    public synchronized long getSizeInBytes() {
+        return sizeInBytes;
+    }
+
+    @Override
+    public synchronized int getNumberOfFiles() {
+        return segments.size();
+    }
+
+    @VisibleForTesting
+    int getSegmentSizeInBytes() {
+        return segmentSizeInBytes;
+    }
+
+    private Transmission readNext(Segment segment) {
+        MappedByteBuffer buffer = segment.buffer;
+        int limit = segment == writeSegment ? segment.writePosition : buffer.capacity();
+
+        while (segment.readPosition + RECORD_HEADER_SIZE <= limit) {
+            int position = segment.readPosition;
+            int length = buffer.getInt(position);
+            if (length <= 0 || length > limit - position - RECORD_HEADER_SIZE) {
+                // The end of the records, or a record that was not completely written
+                segment.readPosition = limit;
+                break;
+            }
+
+            segment.readPosition = position + RECORD_HEADER_SIZE + length;
+            if (buffer.get(position + RECORD_STATE_OFFSET) == RECORD_CONSUMED) {
+                continue;
+            }
+
+            byte[] payload = new byte[length];
+            ByteBuffer payloadBuffer = buffer.duplicate();
+            payloadBuffer.position(position + RECORD_HEADER_SIZE);
+            payloadBuffer.get(payload);
+
+            buffer.put(position + RECORD_STATE_OFFSET, RECORD_CONSUMED);
+
+            crc.reset();
+            crc.update(payload);
+            if ((int) crc.getValue() != buffer.getInt(position + RECORD_CRC_OFFSET)) {
+                InternalLogger.INSTANCE.error("Failed to load transmission, checksum mismatch in segment '%s'", segment.file.getName());
+                continue;
+            }
+
+            Optional<Transmission> transmission = decode(payload);
+            if (transmission.isPresent()) {
+                return transmission.get();
+            }
+        }
+
+        return null;
+    }
+
+    private boolean startNewWriteSegment(int recordSize) {
+        deleteUndeletedSegments();
+
+        int size = Math.max(segmentSizeInBytes, SEGMENT_HEADER_SIZE + recordSize);
+        if (sizeInBytes + size > capacityInBytes) {
+            return false;
+        }
+
+        if (writeSegment != null) {
+            // Seal the current segment
+            writeSegment.buffer.force();
+            writeSegment = null;
+        }
+
+        long sequence = nextSequence;
+        File file = new File(folder, String.format("%s%019d%s", SEGMENT_FILE_PREFIX, sequence, SEGMENT_FILE_EXTENSION));
+        RandomAccessFile randomAccessFile = null;
+        try {
+            randomAccessFile = new RandomAccessFile(file, "rw");
+            MappedByteBuffer buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.putInt(0, SEGMENT_MAGIC);
+            buffer.putInt(4, SEGMENT_FORMAT_VERSION);
+
+            writeSegment = new Segment(sequence, file, buffer);
+            writeSegment.writePosition = SEGMENT_HEADER_SIZE;
+        } catch (IOException e) {
+            InternalLogger.INSTANCE.error("Failed to create segment file, exception: %s", e.getMessage());
+            if (!file.delete()) {
+                file.deleteOnExit();
+            }
+            return false;
+        } finally {
+            closeQuietly(randomAccessFile);
+        }
+
+        ++nextSequence;
+        segments.put(sequence, file);
+        sizeInBytes += size;
+
+        return true;
+    }
+
+    private Optional<Segment> openSegment(long sequence, File file) {
+        Segment segment = null;
+        RandomAccessFile randomAccessFile = null;
+        try {
+            randomAccessFile = new RandomAccessFile(file, "rw");
+            long length = randomAccessFile.length();
+            if (length < SEGMENT_HEADER_SIZE || length > Integer.MAX_VALUE) {
+                InternalLogger.INSTANCE.error("Failed to load segment file '%s', unexpected size %d", file.getName(), length);
+                return Optional.absent();
+            }
+
+            MappedByteBuffer buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+            if (buffer.getInt(0) != SEGMENT_MAGIC || buffer.getInt(4) != SEGMENT_FORMAT_VERSION) {
+                InternalLogger.INSTANCE.error("Failed to load segment file '%s', unknown format", file.getName());
+                unmap(buffer);
+                return Optional.absent();
+            }
+
+            segment = new Segment(sequence, file, buffer);
+        } catch (IOException e) {
+            InternalLogger.INSTANCE.error("Failed to load segment file '%s', exception: %s", file.getName(), e.getMessage());
+        } finally {
+            closeQuietly(randomAccessFile);
+        }
+
+        return Optional.fromNullable(segment);
+    }
+
+    /**
+     * Deletes the segment file, the buffer must not be used afterwards.
+     * @param buffer The mapped content of the segment, null if it is not mapped.
+     */
+    private void deleteSegment(long sequence, File file, MappedByteBuffer buffer) {
+        segments.remove(sequence);
+
+        // A mapped file cannot be deleted on some platforms until it is unmapped
+        if (buffer != null) {
+            unmap(buffer);
+        }
+
+        long length = file.length();
+        if (file.delete()) {
+            sizeInBytes -= length;
+        } else {
+            // Its records are all marked as consumed, so it is only a matter of disk space
+            undeletedSegments.put(file, length);
+        }
+    }
+
+    private void deleteUndeletedSegments() {
+        Iterator<Map.Entry<File, Long>> iterator = undeletedSegments.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<File, Long> undeleted = iterator.next();
+            File file = undeleted.getKey();
+            if (file.delete() || !file.exists()) {
+                sizeInBytes -= undeleted.getValue();
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Releases the mapping of the buffer without waiting for it to be garbage collected, the buffer must not be used afterwards.
+     */
+    private static void unmap(MappedByteBuffer buffer) {
+        try {
+            try {
+                // Java 9 and above
+                Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+                Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                invokeCleaner.invoke(theUnsafe.get(null), buffer);
+                return;
+            } catch (NoSuchMethodException e) {
+            }
+
+            Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            Object cleaner = cleanerMethod.invoke(buffer);
+            if (cleaner != null) {
+                Method clean = cleaner.getClass().getMethod("clean");
+                clean.setAccessible(true);
+                clean.invoke(cleaner);
+            }
+        } catch (Throwable t) {
+            // The mapping is released once the buffer is garbage collected
+        }
+    }
+
+    private void loadExistingSegments() {
+        File[] files = folder.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.startsWith(SEGMENT_FILE_PREFIX) || !name.endsWith(SEGMENT_FILE_EXTENSION)) {
+                continue;
+            }
+
+            try {
+                long sequence = Long.parseLong(name.substring(SEGMENT_FILE_PREFIX.length(), name.length() - SEGMENT_FILE_EXTENSION.length()));
+                segments.put(sequence, file);
+                sizeInBytes += file.length();
+                nextSequence = Math.max(nextSequence, sequence + 1);
+            } catch (NumberFormatException e) {
+                InternalLogger.INSTANCE.error("Unexpected segment file name '%s'", name);
+            }
+        }
+    }
+
+    private static Optional<byte[]> encode(Transmission transmission) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(transmission.getContent().length + 64);
+            DataOutputStream output = new DataOutputStream(bytes);
+            output.writeInt(transmission.getVersion());
+            output.writeInt(transmission.getNumberOfSends());
+            output.writeInt(transmission.getNumberOfPartialResends());
+            output.writeInt(transmission.getNumberOfPersistence());
+            output.writeUTF(transmission.getWebContentType());
+            output.writeUTF(transmission.getWebContentEncodingType());
+            output.writeInt(transmission.getContent().length);
+            output.write(transmission.getContent());
+            output.flush();
+
+            return Optional.of(bytes.toByteArray());
+        } catch (Exception e) {
+            InternalLogger.INSTANCE.error("Failed to save transmission, exception: %s", e.getMessage());
+        }
+
+        return Optional.absent();
+    }
+
+    private static Optional<Transmission> decode(byte[] payload) {
+        try {
+            DataInputStream input = new DataInputStream(new ByteArrayInputStream(payload));
+            int version = input.readInt();
+            int numberOfSends = input.readInt();
+            int numberOfPartialResends = input.readInt();
+            int numberOfPersistence = input.readInt();
+            String webContentType = input.readUTF();
+            String webContentEncodingType = input.readUTF();
+            byte[] content = new byte[input.readInt()];
+            input.readFully(content);
+
+            Transmission transmission = new Transmission(content, webContentType, webContentEncodingType, version);
+            transmission.setNumberOfSends(numberOfSends);
+            transmission.setNumberOfPartialResends(numberOfPartialResends);
+            transmission.setNumberOfPersistence(numberOfPersistence);
+
+            return Optional.of(transmission);
+        } catch (Exception e) {
+            InternalLogger.INSTANCE.error("Failed to load transmission, exception: %s", e.getMessage());
+        }
+
+        return Optional.absent();
+    }
+
+    private static void closeQuietly(RandomAccessFile randomAccessFile) {
+        if (randomAccessFile == null) {
+            return;
+        }
+
+        try {
+            randomAccessFile.close();
+        } catch (IOException e) {
+        }
+    }
+}
@@ -21,18 +21,27 @@
 
 package com.microsoft.applicationinsights.internal.channel.common;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 
+import com.microsoft.applicationinsights.internal.channel.ChannelSettings;
+import com.microsoft.applicationinsights.internal.channel.PrioritizedTelemetriesTransmitter;
+import com.microsoft.applicationinsights.internal.channel.SerializingTransmissionOutput;
 import com.microsoft.applicationinsights.internal.channel.TelemetriesTransmitter;
 import com.microsoft.applicationinsights.internal.channel.TelemetrySerializer;
 import com.microsoft.applicationinsights.internal.channel.TransmissionDispatcher;
+import com.microsoft.applicationinsights.internal.channel.TransmissionOutput;
 import com.microsoft.applicationinsights.internal.channel.TransmissionsLoader;
+import com.microsoft.applicationinsights.internal.logger.InternalLogger;
 import com.microsoft.applicationinsights.internal.util.ThreadPoolUtils;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 
@@ -45,27 +54,57 @@ import com.google.common.base.Preconditions;
  * The class makes sure that the container of telemetries is sent using internal threads
  * and not the 'application' threads
  *
+ * Containers whose serialized telemetries take more than the maximum batch size in bytes are split
+ * into several transmissions, so no request is bigger than needed.
+ *
+ * The number of pending send requests is bounded, when a container is sent while the bound is reached
+ * the {@link BackpressurePolicy} decides what happens to it, and the telemetries that are lost are
+ * counted by the {@link TelemetryDropCounters}. The policy runs on the thread that sends the container,
+ * which the buffers do after releasing their lock, so a blocked or spilling sender delays only that thread.
+ *
+ * With priority lanes, every {@link TelemetryPriority} lane has its own share of the pending requests,
+ * the pending requests of the higher priority lanes are executed first, and a lane that has no room
+ * drops the pending requests of the lower priority lanes before its own containers.
+ *
+ * Stopping the transmitter is bounded by its timeout: the pending requests are executed until it expires,
+ * and those that are left are persisted by the spill output, so they are sent when the process starts again.
+ *
  * Created by gupele on 12/18/2014.
  */
-public final class TransmitterImpl implements TelemetriesTransmitter {
+public final class TransmitterImpl implements PrioritizedTelemetriesTransmitter {
     private static abstract class SendHandler {
         protected final TransmissionDispatcher transmissionDispatcher;
 
         protected final TelemetrySerializer serializer;
 
-        protected SendHandler(TransmissionDispatcher transmissionDispatcher, TelemetrySerializer serializer) {
+        protected final int maxBatchSizeInBytes;
+
+        protected SendHandler(TransmissionDispatcher transmissionDispatcher, TelemetrySerializer serializer, int maxBatchSizeInBytes) {
             Preconditions.checkNotNull(transmissionDispatcher, "transmissionDispatcher should be a non-null value");
             Preconditions.checkNotNull(serializer, "serializer should be a non-null value");
 
             this.transmissionDispatcher = transmissionDispatcher;
             this.serializer = serializer;
+            this.maxBatchSizeInBytes = maxBatchSizeInBytes;
         }
 
-        protected void dispatch(Collection<String> telemetries) {
+        protected void dispatch(Collection<byte[]> telemetries) {
             if (telemetries.isEmpty()) {
                 return;
             }
 
+            // Batches that were compressed while the telemetries were added are kept within the limit by the buffer
+            if (!(telemetries instanceof GzipTelemetryBatch) && getSizeInBytes(telemetries) > maxBatchSizeInBytes) {
+                for (Collection<byte[]> part : split(telemetries)) {
+                    dispatchBatch(part);
+                }
+                return;
+            }
+
+            dispatchBatch(telemetries);
+        }
+
+        private void dispatchBatch(Collection<byte[]> telemetries) {
             Optional<Transmission> transmission = serializer.serialize(telemetries);
             if (!transmission.isPresent()) {
                 return;
@@ -73,13 +112,43 @@ public final class TransmitterImpl implements TelemetriesTransmitter {
 
             transmissionDispatcher.dispatch(transmission.get());
         }
+
+        private List<Collection<byte[]>> split(Collection<byte[]> telemetries) {
+            List<Collection<byte[]>> parts = new ArrayList<Collection<byte[]>>();
+
+            List<byte[]> part = new ArrayList<byte[]>();
+            long partSizeInBytes = 0;
+            for (byte[] telemetry : telemetries) {
+                // A single telemetry that is bigger than the limit is sent by itself
+                if (!part.isEmpty() && partSizeInBytes + telemetry.length > maxBatchSizeInBytes) {
+                    parts.add(part);
+                    part = new ArrayList<byte[]>();
+                    partSizeInBytes = 0;
+                }
+
+                part.add(telemetry);
+                partSizeInBytes += telemetry.length;
+            }
+            parts.add(part);
+
+            return parts;
+        }
+
+        private static long getSizeInBytes(Collection<byte[]> telemetries) {
+            long sizeInBytes = 0;
+            for (byte[] telemetry : telemetries) {
+                sizeInBytes += telemetry.length;
+            }
+
+            return sizeInBytes;
+        }
     }
 
     private static final class ScheduledSendHandler extends SendHandler implements Runnable {
         private final TelemetriesFetcher telemetriesFetcher;
 
-        public ScheduledSendHandler(TransmissionDispatcher transmissionDispatcher, TelemetriesFetcher telemetriesFetcher, TelemetrySerializer serializer) {
-            super(transmissionDispatcher,  serializer);
+        public ScheduledSendHandler(TransmissionDispatcher transmissionDispatcher, TelemetriesFetcher telemetriesFetcher, TelemetrySerializer serializer, int maxBatchSizeInBytes) {
+            super(transmissionDispatcher, serializer, maxBatchSizeInBytes);
 
             Preconditions.checkNotNull(telemetriesFetcher, "telemetriesFetcher should be a non-null value");
 
@@ -88,16 +157,19 @@ public final class TransmitterImpl implements TelemetriesTransmitter {
 
         @Override
         public void run() {
-            Collection<String> telemetriesToSend = telemetriesFetcher.fetch();
+            Collection<byte[]> telemetriesToSend = telemetriesFetcher.fetch();
             dispatch(telemetriesToSend);
         }
     }
 
     private static final class SendNowHandler extends SendHandler implements Runnable {
-        private final Collection<String> telemetries;
+        final Collection<byte[]> telemetries;
+
+        /// The lane whose permit the request holds until it is executed, guarded by the pending lock
+        Lane permitLane;
 
-        public SendNowHandler(TransmissionDispatcher transmissionDispatcher, TelemetrySerializer serializer, Collection<String> telemetries) {
-            super(transmissionDispatcher,  serializer);
+        public SendNowHandler(TransmissionDispatcher transmissionDispatcher, TelemetrySerializer serializer, Collection<byte[]> telemetries, int maxBatchSizeInBytes) {
+            super(transmissionDispatcher, serializer, maxBatchSizeInBytes);
 
             Preconditions.checkNotNull(telemetries, "telemetries should be non-null value");
 
@@ -110,8 +182,48 @@ public final class TransmitterImpl implements TelemetriesTransmitter {
         }
     }
 
+    /**
+     * A lane of send requests with its own share of the pending requests.
+     */
+    private final class Lane implements TelemetriesTransmitter {
+        private final int maxPendingRequests;
+
+        private final Semaphore semaphore;
+
+        /// The send now requests that were not executed yet, oldest first, guarded by the pending lock
+        private final LinkedList<SendNowHandler> pendingSendNowHandlers = new LinkedList<SendNowHandler>();
+
+        private Lane(int maxPendingRequests) {
+            this.maxPendingRequests = maxPendingRequests;
+            this.semaphore = new Semaphore(maxPendingRequests);
+        }
+
+        @Override
+        public boolean scheduleSend(TelemetriesFetcher telemetriesFetcher, long value, TimeUnit timeUnit) {
+            return TransmitterImpl.this.scheduleSend(this, telemetriesFetcher, value, timeUnit);
+        }
+
+        @Override
+        public boolean sendNow(Collection<byte[]> telemetries) {
+            return TransmitterImpl.this.sendNow(this, telemetries);
+        }
+
+        @Override
+        public void stop(long timeout, TimeUnit timeUnit) {
+        }
+
+        private int getNumberOfPendingRequests() {
+            return maxPendingRequests - semaphore.availablePermits();
+        }
+    }
+
     private final static int MAX_PENDING_SCHEDULE_REQUESTS = 16384;
 
+    // The shares of the pending requests per lane in percents, from the highest priority to the lowest
+    private final static int[] LANE_SHARES_IN_PERCENTS = {50, 30, 20};
+
+    public final static long DEFAULT_BLOCK_TIMEOUT_IN_MILLIS = 1000;
+
     private final TransmissionDispatcher transmissionDispatcher;
 
     private final TelemetrySerializer serializer;
@@ -120,17 +232,141 @@ public final class TransmitterImpl implements TelemetriesTransmitter {
 
     private final TransmissionsLoader transmissionsLoader;
 
-    private final Semaphore semaphore;
+    private final int maxBatchSizeInBytes;
+
+    private final BackpressurePolicy backpressurePolicy;
+
+    private final long blockTimeoutInMillis;
+
+    private final TransmissionOutput spillOutput;
+
+    private final TelemetryDropCounters dropCounters;
+
+    /// The lanes from the highest priority to the lowest, or a single lane if the priority lanes are disabled
+    private final Lane[] lanes;
+
+    /// Guards the pending send now requests of all the lanes
+    private final Object pendingLock = new Object();
+
+    /// Executes the pending send now request with the highest priority, it is submitted once per pending request
+    private final Runnable sendNextPendingRequest = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                SendNowHandler command = pollPendingRequest();
+                if (command != null) {
+                    command.run();
+                }
+            } catch (Exception e) {
+            } catch (Throwable t) {
+            }
+        }
+    };
 
     public TransmitterImpl(TransmissionDispatcher transmissionDispatcher, TelemetrySerializer serializer, TransmissionsLoader transmissionsLoader) {
+        this(transmissionDispatcher, serializer, transmissionsLoader, Integer.MAX_VALUE);
+    }
+
+    public TransmitterImpl(TransmissionDispatcher transmissionDispatcher, TelemetrySerializer serializer, TransmissionsLoader transmissionsLoader, int maxBatchSizeInBytes) {
+        this(transmissionDispatcher, serializer, transmissionsLoader, maxBatchSizeInBytes, BackpressurePolicy.DROP_NEWEST, DEFAULT_BLOCK_TIMEOUT_IN_MILLIS, null, new TelemetryDropCounters());
+    }
+
+    public TransmitterImpl(TransmissionDispatcher transmissionDispatcher,
+                           TelemetrySerializer serializer,
+                           TransmissionsLoader transmissionsLoader,
+                           int maxBatchSizeInBytes,
+                           BackpressurePolicy backpressurePolicy,
+                           long blockTimeoutInMillis,
+                           TransmissionOutput spillOutput,
+                           TelemetryDropCounters dropCounters) {
+        this(transmissionDispatcher, serializer, transmissionsLoader, maxBatchSizeInBytes, backpressurePolicy, blockTimeoutInMillis, spillOutput, dropCounters, false);
+    }
+
+    /**
+     * @param transmissionDispatcher The dispatcher of the serialized transmissions
+     * @param serializer The serializer of the telemetries
+     * @param transmissionsLoader The loader of persisted transmissions
+     * @param maxBatchSizeInBytes Containers with more serialized bytes are split into several transmissions
+     * @param backpressurePolicy What to do with containers that are sent when there are too many pending requests
+     * @param blockTimeoutInMillis The maximum time to wait for room, used by the {@link BackpressurePolicy#BLOCK} policy
+     * @param spillOutput The output that persists transmissions, needed by the {@link BackpressurePolicy#SPILL_TO_DISK} policy
+     * @param dropCounters Counts the telemetries that are dropped
+     * @param priorityLanes True to split the pending requests between the {@link TelemetryPriority} lanes
+     */
+    public TransmitterImpl(TransmissionDispatcher transmissionDispatcher,
+                           TelemetrySerializer serializer,
+                           TransmissionsLoader transmissionsLoader,
+                           int maxBatchSizeInBytes,
+                           BackpressurePolicy backpressurePolicy,
+                           long blockTimeoutInMillis,
+                           TransmissionOutput spillOutput,
+                           TelemetryDropCounters dropCounters,
+                           boolean priorityLanes) {
+        this(transmissionDispatcher, serializer, transmissionsLoader, maxBatchSizeInBytes, backpressurePolicy, blockTimeoutInMillis, spillOutput, dropCounters, priorityLanes, MAX_PENDING_SCHEDULE_REQUESTS);
+    }
+
+    /**
+     * @param transmissionDispatcher The dispatcher of the serialized transmissions
+     * @param serializer The serializer of the telemetries
+     * @param transmissionsLoader The loader of persisted transmissions
+     * @param settings The settings of the channel: the max batch size, the backpressure policy and its timeout, and the priority lanes
+     * @param spillOutput The output that persists transmissions, needed by the {@link BackpressurePolicy#SPILL_TO_DISK} policy
+     * @param dropCounters Counts the telemetries that are dropped
+     */
+    public TransmitterImpl(TransmissionDispatcher transmissionDispatcher,
+                           TelemetrySerializer serializer,
+                           TransmissionsLoader transmissionsLoader,
+                           ChannelSettings settings,
+                           TransmissionOutput spillOutput,
+                           TelemetryDropCounters dropCounters) {
+        this(transmissionDispatcher,
+             serializer,
+             transmissionsLoader,
+             settings.getMaxBatchSizeInBytes(),
+             settings.getBackpressurePolicy(),
+             settings.getBackpressureTimeoutInMillis(),
+             spillOutput,
+             dropCounters,
+             settings.hasPriorityLanes());
+    }
+
+    @VisibleForTesting
+    TransmitterImpl(TransmissionDispatcher transmissionDispatcher,
+                    TelemetrySerializer serializer,
+                    TransmissionsLoader transmissionsLoader,
+                    int maxBatchSizeInBytes,
+                    BackpressurePolicy backpressurePolicy,
+                    long blockTimeoutInMillis,
+                    TransmissionOutput spillOutput,
+                    TelemetryDropCounters dropCounters,
+                    boolean priorityLanes,
+                    int maxPendingRequests) {
         Preconditions.checkNotNull(transmissionDispatcher, "transmissionDispatcher must be non-null value");
         Preconditions.checkNotNull(serializer, "serializer must be non-null value");
         Preconditions.checkNotNull(transmissionsLoader, "transmissionsLoader must be non-null value");
+        Preconditions.checkArgument(maxBatchSizeInBytes > 0, "maxBatchSizeInBytes must be a positive number");
+        Preconditions.checkNotNull(backpressurePolicy, "backpressurePolicy must be non-null value");
+        Preconditions.checkArgument(blockTimeoutInMillis >= 0, "blockTimeoutInMillis must be a non-negative number");
+        Preconditions.checkArgument(backpressurePolicy != BackpressurePolicy.SPILL_TO_DISK || spillOutput != null, "spillOutput must be non-null value when spilling to disk");
+        Preconditions.checkNotNull(dropCounters, "dropCounters must be non-null value");
+        Preconditions.checkArgument(maxPendingRequests > 0, "maxPendingRequests must be a positive number");
 
         this.transmissionDispatcher = transmissionDispatcher;
         this.serializer = serializer;
-
-        semaphore = new Semaphore(MAX_PENDING_SCHEDULE_REQUESTS);
+        this.maxBatchSizeInBytes = maxBatchSizeInBytes;
+        this.backpressurePolicy = backpressurePolicy;
+        this.blockTimeoutInMillis = blockTimeoutInMillis;
+        this.spillOutput = spillOutput;
+        this.dropCounters = dropCounters;
+
+        if (priorityLanes) {
+            lanes = new Lane[TelemetryPriority.values().length];
+            for (int i = 0; i < lanes.length; ++i) {
+                lanes[i] = new Lane(Math.max(1, maxPendingRequests * LANE_SHARES_IN_PERCENTS[i] / 100));
+            }
+        } else {
+            lanes = new Lane[] { new Lane(maxPendingRequests) };
+        }
 
         threadPool = new ScheduledThreadPoolExecutor(2);
         threadPool.setThreadFactory(new ThreadFactory() {
@@ -148,18 +384,58 @@ public final class TransmitterImpl implements TelemetriesTransmitter {
 
     @Override
     public boolean scheduleSend(TelemetriesFetcher telemetriesFetcher, long value, TimeUnit timeUnit) {
+        return scheduleSend(findLane(TelemetryPriority.NORMAL), telemetriesFetcher, value, timeUnit);
+    }
+
+    @Override
+    public boolean sendNow(Collection<byte[]> telemetries) {
+        return sendNow(findLane(TelemetryPriority.NORMAL), telemetries);
+    }
+
+    /**
+     * @param priority The priority of the lane.
+     * @return The lane of the priority, or the single lane if the priority lanes are disabled.
+     */
+    @Override
+    public TelemetriesTransmitter getLane(TelemetryPriority priority) {
+        Preconditions.checkNotNull(priority, "priority should be non-null value");
+
+        return findLane(priority);
+    }
+
+    public TelemetryDropCounters getDropCounters() {
+        return dropCounters;
+    }
+
+    /**
+     * @return The number of batches that were handed to the transmitter and wait to be serialized and dispatched.
+     */
+    public int getNumberOfPendingBatches() {
+        int pending = 0;
+        for (Lane lane : lanes) {
+            pending += lane.getNumberOfPendingRequests();
+        }
+
+        return pending;
+    }
+
+    private Lane findLane(TelemetryPriority priority) {
+        return lanes.length == 1 ? lanes[0] : lanes[priority.ordinal()];
+    }
+
+    private boolean scheduleSend(final Lane lane, TelemetriesFetcher telemetriesFetcher, long value, TimeUnit timeUnit) {
         Preconditions.checkNotNull(telemetriesFetcher, "telemetriesFetcher should be non-null value");
 
-        if (!semaphore.tryAcquire()) {
+        if (!lane.semaphore.tryAcquire()) {
             return false;
         }
 
         try {
-            final Runnable command = new ScheduledSendHandler(transmissionDispatcher, telemetriesFetcher, serializer);
+            final Runnable command = new ScheduledSendHandler(transmissionDispatcher, telemetriesFetcher, serializer, maxBatchSizeInBytes);
             threadPool.schedule(new Runnable() {
                 public void run() {
                     try {
-                        semaphore.release();
+                        lane.semaphore.release();
                         command.run();
                     } catch (Exception e) {
                         e.printStackTrace();
@@ -171,41 +447,160 @@ public final class TransmitterImpl implements TelemetriesTransmitter {
 
             return true;
         } catch (Exception e) {
-            semaphore.release();
+            lane.semaphore.release();
         } catch (Throwable t) {
-            semaphore.release();
+            lane.semaphore.release();
         }
 
         return true;
     }
 
-    @Override
-    public boolean sendNow(Collection<String> telemetries) {
+    private boolean sendNow(Lane lane, Collection<byte[]> telemetries) {
         Preconditions.checkNotNull(telemetries, "telemetries should be non-null value");
 
-        if (!semaphore.tryAcquire()) {
+        SendNowHandler command = new SendNowHandler(transmissionDispatcher, serializer, telemetries, maxBatchSizeInBytes);
+        if (lane.semaphore.tryAcquire()) {
+            if (execute(lane, command)) {
+                return true;
+            }
+
+            dropCounters.onDropped(telemetries);
             return false;
         }
 
-        final Runnable command = new SendNowHandler(transmissionDispatcher, serializer, telemetries);
-        try {
-            threadPool.execute(new Runnable() {
-                public void run() {
-                    try {
-                        semaphore.release();
-                        command.run();
-                    } catch (Exception e) {
-                    } catch (Throwable t) {
-                    } finally {
+        // Under overload the pending requests of the lower priority lanes are dropped first
+        if (replacePendingRequest(lane, command, true)) {
+            return true;
+        }
+
+        switch (backpressurePolicy) {
+            case BLOCK:
+                try {
+                    if (lane.semaphore.tryAcquire(blockTimeoutInMillis, TimeUnit.MILLISECONDS) && execute(lane, command)) {
+                        return true;
                     }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                break;
+
+            case DROP_OLDEST:
+                if (replacePendingRequest(lane, command, false)) {
+                    return true;
+                }
+                break;
+
+            case SPILL_TO_DISK:
+                if (spill(telemetries)) {
+                    return true;
                 }
-            });
+                break;
+
+            default:
+                break;
+        }
+
+        dropCounters.onDropped(telemetries);
+        return false;
+    }
+
+    /**
+     * Queues the request, which already holds a permit of the lane, and submits its execution.
+     */
+    private boolean execute(Lane lane, SendNowHandler command) {
+        synchronized (pendingLock) {
+            command.permitLane = lane;
+            lane.pendingSendNowHandlers.addLast(command);
+        }
+
+        try {
+            threadPool.execute(sendNextPendingRequest);
 
             return true;
         } catch (Exception e) {
-            semaphore.release();
         } catch (Throwable t) {
-            semaphore.release();
+        }
+
+        boolean removed;
+        synchronized (pendingLock) {
+            removed = lane.pendingSendNowHandlers.remove(command);
+        }
+        if (removed) {
+            lane.semaphore.release();
+        }
+
+        return false;
+    }
+
+    /**
+     * Drops the oldest pending request, either of the lane or of the lanes with a lower priority starting with the lowest,
+     * and queues the new request instead. The new request takes over the permit of the dropped one and the submitted execution.
+     * @return True if a request was dropped to make room for the new one.
+     */
+    private boolean replacePendingRequest(Lane lane, SendNowHandler command, boolean lowerPriorityLanes) {
+        SendNowHandler dropped = null;
+        synchronized (pendingLock) {
+            if (lowerPriorityLanes) {
+                for (int i = lanes.length - 1; i >= 0 && lanes[i] != lane && dropped == null; --i) {
+                    dropped = lanes[i].pendingSendNowHandlers.pollFirst();
+                }
+            } else {
+                dropped = lane.pendingSendNowHandlers.pollFirst();
+            }
+
+            if (dropped == null) {
+                return false;
+            }
+
+            command.permitLane = dropped.permitLane;
+            lane.pendingSendNowHandlers.addLast(command);
+        }
+
+        dropCounters.onDropped(dropped.telemetries);
+        return true;
+    }
+
+    /**
+     * Removes the pending request with the highest priority and releases the permit it holds.
+     */
+    private SendNowHandler pollPendingRequest() {
+        SendNowHandler command = null;
+        synchronized (pendingLock) {
+            for (Lane lane : lanes) {
+                command = lane.pendingSendNowHandlers.pollFirst();
+                if (command != null) {
+                    break;
+                }
+            }
+        }
+
+        if (command != null) {
+            command.permitLane.semaphore.release();
+        }
+
+        return command;
+    }
+
+    /**
+     * Persists the telemetries, an output that serializes on its own threads gets them as they are,
+     * so the caller does not compress them.
+     */
+    private boolean spill(Collection<byte[]> telemetries) {
+        try {
+            boolean spilled;
+            if (spillOutput instanceof SerializingTransmissionOutput) {
+                spilled = ((SerializingTransmissionOutput) spillOutput).send(telemetries, serializer);
+            } else {
+                Optional<Transmission> transmission = serializer.serialize(telemetries);
+                spilled = transmission.isPresent() && spillOutput.send(transmission.get());
+            }
+
+            if (spilled) {
+                dropCounters.onSpilled(telemetries.size());
+                return true;
+            }
+        } catch (Throwable t) {
+            InternalLogger.INSTANCE.error("Failed to persist telemetries, exception: %s", t.getMessage());
         }
 
         return false;
@@ -213,8 +608,32 @@ public final class TransmitterImpl implements TelemetriesTransmitter {
 
     @Override
     public void stop(long timeout, TimeUnit timeUnit) {
-        transmissionsLoader.stop(timeout, timeUnit);
-        ThreadPoolUtils.stop(threadPool, timeout, timeUnit);
-        transmissionDispatcher.stop(timeout, timeUnit);
+        long deadline = System.nanoTime() + timeUnit.toNanos(timeout);
+
+        transmissionsLoader.stop(getRemainingNanos(deadline), TimeUnit.NANOSECONDS);
+
+        // The scheduled sends are not waited for, the buffers are expected to be flushed before the transmitter is stopped
+        threadPool.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        ThreadPoolUtils.stopAndDrain(threadPool, getRemainingNanos(deadline), TimeUnit.NANOSECONDS);
+
+        SendNowHandler command;
+        while ((command = pollPendingRequest()) != null) {
+            persist(command.telemetries);
+        }
+
+        transmissionDispatcher.stop(getRemainingNanos(deadline), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Persists the telemetries of a request that was not executed before the transmitter was stopped.
+     */
+    private void persist(Collection<byte[]> telemetries) {
+        if (spillOutput == null || !spill(telemetries)) {
+            dropCounters.onDropped(telemetries);
+        }
+    }
+
+    private static long getRemainingNanos(long deadline) {
+        return Math.max(0L, deadline - System.nanoTime());
     }
 }
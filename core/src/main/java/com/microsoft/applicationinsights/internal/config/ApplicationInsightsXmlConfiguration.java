@@ -34,6 +34,8 @@ public class ApplicationInsightsXmlConfiguration {
 
     private boolean disableTelemetry = false;
 
+    private String shutdownTimeoutInSeconds;
+
     private TelemetryInitializersXmlElement telemetryInitializers;
     private TelemetryProcessorsXmlElement telemetryProcessors;
     private ContextInitializersXmlElement contextInitializers;
@@ -136,6 +138,15 @@ public class ApplicationInsightsXmlConfiguration {
         this.disableTelemetry = disableTelemetry;
     }
 
+    public String getShutdownTimeoutInSeconds() {
+        return shutdownTimeoutInSeconds;
+    }
+
+    @XmlElement(name="ShutdownTimeoutInSeconds")
+    public void setShutdownTimeoutInSeconds(String shutdownTimeoutInSeconds) {
+        this.shutdownTimeoutInSeconds = shutdownTimeoutInSeconds;
+    }
+
     public TelemetryModulesXmlElement getModules() {
         return modules;
     }
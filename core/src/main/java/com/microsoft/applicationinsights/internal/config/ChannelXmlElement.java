@@ -40,6 +40,20 @@ public class ChannelXmlElement {
     private String flushIntervalInSeconds;
     private boolean developerMode;
     private boolean throttling = true;
+    private boolean lockFreeBuffer;
+    private boolean streamingCompression;
+    private String compressionLevel;
+    private String maxBatchSizeInBytes;
+    private boolean asyncNetworkOutput;
+    private String maxInFlightRequests;
+    private boolean segmentedTransmissionStorage;
+    private String backpressurePolicy;
+    private String backpressureTimeoutInMillis;
+    private String highPriorityTelemetryTypes;
+    private String lowPriorityTelemetryTypes;
+    private boolean adaptiveCompression;
+    private String maxCpuPercent;
+    private boolean telemetryPooling;
     private String maxTransmissionStorageFilesCapacityInMB;
     private String type = "com.microsoft.applicationinsights.channel.concrete.inprocess.InProcessTelemetryChannel";
 
@@ -65,6 +79,132 @@ public class ChannelXmlElement {
         return throttling;
     }
 
+    public boolean getLockFreeBuffer() {
+        return lockFreeBuffer;
+    }
+
+    @XmlElement(name="LockFreeBuffer")
+    public void setLockFreeBuffer(boolean lockFreeBuffer) {
+        this.lockFreeBuffer = lockFreeBuffer;
+    }
+
+    public boolean getStreamingCompression() {
+        return streamingCompression;
+    }
+
+    @XmlElement(name="StreamingCompression")
+    public void setStreamingCompression(boolean streamingCompression) {
+        this.streamingCompression = streamingCompression;
+    }
+
+    public String getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    @XmlElement(name="CompressionLevel")
+    public void setCompressionLevel(String compressionLevel) {
+        this.compressionLevel = compressionLevel;
+    }
+
+    public String getMaxBatchSizeInBytes() {
+        return maxBatchSizeInBytes;
+    }
+
+    @XmlElement(name="MaxBatchSizeInBytes")
+    public void setMaxBatchSizeInBytes(String maxBatchSizeInBytes) {
+        this.maxBatchSizeInBytes = maxBatchSizeInBytes;
+    }
+
+    public boolean getAsyncNetworkOutput() {
+        return asyncNetworkOutput;
+    }
+
+    @XmlElement(name="AsyncNetworkOutput")
+    public void setAsyncNetworkOutput(boolean asyncNetworkOutput) {
+        this.asyncNetworkOutput = asyncNetworkOutput;
+    }
+
+    public String getMaxInFlightRequests() {
+        return maxInFlightRequests;
+    }
+
+    @XmlElement(name="MaxInFlightRequests")
+    public void setMaxInFlightRequests(String maxInFlightRequests) {
+        this.maxInFlightRequests = maxInFlightRequests;
+    }
+
+    public boolean getSegmentedTransmissionStorage() {
+        return segmentedTransmissionStorage;
+    }
+
+    @XmlElement(name="SegmentedTransmissionStorage")
+    public void setSegmentedTransmissionStorage(boolean segmentedTransmissionStorage) {
+        this.segmentedTransmissionStorage = segmentedTransmissionStorage;
+    }
+
+    public String getBackpressurePolicy() {
+        return backpressurePolicy;
+    }
+
+    @XmlElement(name="BackpressurePolicy")
+    public void setBackpressurePolicy(String backpressurePolicy) {
+        this.backpressurePolicy = backpressurePolicy;
+    }
+
+    public String getBackpressureTimeoutInMillis() {
+        return backpressureTimeoutInMillis;
+    }
+
+    @XmlElement(name="BackpressureTimeoutInMillis")
+    public void setBackpressureTimeoutInMillis(String backpressureTimeoutInMillis) {
+        this.backpressureTimeoutInMillis = backpressureTimeoutInMillis;
+    }
+
+    public String getHighPriorityTelemetryTypes() {
+        return highPriorityTelemetryTypes;
+    }
+
+    @XmlElement(name="HighPriorityTelemetryTypes")
+    public void setHighPriorityTelemetryTypes(String highPriorityTelemetryTypes) {
+        this.highPriorityTelemetryTypes = highPriorityTelemetryTypes;
+    }
+
+    public String getLowPriorityTelemetryTypes() {
+        return lowPriorityTelemetryTypes;
+    }
+
+    @XmlElement(name="LowPriorityTelemetryTypes")
+    public void setLowPriorityTelemetryTypes(String lowPriorityTelemetryTypes) {
+        this.lowPriorityTelemetryTypes = lowPriorityTelemetryTypes;
+    }
+
+    public boolean getAdaptiveCompression() {
+        return adaptiveCompression;
+    }
+
+    @XmlElement(name="AdaptiveCompression")
+    public void setAdaptiveCompression(boolean adaptiveCompression) {
+        this.adaptiveCompression = adaptiveCompression;
+    }
+
+    public boolean getTelemetryPooling() {
+        return telemetryPooling;
+    }
+
+    @XmlElement(name="TelemetryPooling")
+    public void setTelemetryPooling(boolean telemetryPooling) {
+        this.telemetryPooling = telemetryPooling;
+    }
+
+    public String getMaxCpuPercent() {
+        return maxCpuPercent;
+    }
+
+    @XmlElement(name="MaxCpuPercent")
+    public void setMaxCpuPercent(String maxCpuPercent) {
+        this.maxCpuPercent = maxCpuPercent;
+    }
+
     @XmlElement(name="EndpointAddress")
     public void setEndpointAddress(String endpointAddress) {
         this.endpointAddress = endpointAddress;
@@ -130,6 +270,62 @@ public class ChannelXmlElement {
 
         data.put("Throttling", throttling ? "true" : "false");
 
+        if (lockFreeBuffer) {
+            data.put("LockFreeBuffer", "true");
+        }
+
+        if (streamingCompression) {
+            data.put("StreamingCompression", "true");
+        }
+
+        if (!Strings.isNullOrEmpty(compressionLevel)) {
+            data.put("CompressionLevel", compressionLevel);
+        }
+
+        if (!Strings.isNullOrEmpty(maxBatchSizeInBytes)) {
+            data.put("MaxBatchSizeInBytes", maxBatchSizeInBytes);
+        }
+
+        if (asyncNetworkOutput) {
+            data.put("AsyncNetworkOutput", "true");
+        }
+
+        if (!Strings.isNullOrEmpty(maxInFlightRequests)) {
+            data.put("MaxInFlightRequests", maxInFlightRequests);
+        }
+
+        if (segmentedTransmissionStorage) {
+            data.put("SegmentedTransmissionStorage", "true");
+        }
+
+        if (!Strings.isNullOrEmpty(backpressurePolicy)) {
+            data.put("BackpressurePolicy", backpressurePolicy);
+        }
+
+        if (!Strings.isNullOrEmpty(backpressureTimeoutInMillis)) {
+            data.put("BackpressureTimeoutInMillis", backpressureTimeoutInMillis);
+        }
+
+        if (!Strings.isNullOrEmpty(highPriorityTelemetryTypes)) {
+            data.put("HighPriorityTelemetryTypes", highPriorityTelemetryTypes);
+        }
+
+        if (!Strings.isNullOrEmpty(lowPriorityTelemetryTypes)) {
+            data.put("LowPriorityTelemetryTypes", lowPriorityTelemetryTypes);
+        }
+
+        if (adaptiveCompression) {
+            data.put("AdaptiveCompression", "true");
+        }
+
+        if (!Strings.isNullOrEmpty(maxCpuPercent)) {
+            data.put("MaxCpuPercent", maxCpuPercent);
+        }
+
+        if (telemetryPooling) {
+            data.put("TelemetryPooling", "true");
+        }
+
         return data;
     }
 }
@@ -27,6 +27,8 @@ import java.util.List;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
 
 import com.microsoft.applicationinsights.TelemetryConfiguration;
 import com.microsoft.applicationinsights.extensibility.*;
@@ -41,9 +43,12 @@ import com.microsoft.applicationinsights.internal.logger.InternalLogger;
 import com.microsoft.applicationinsights.internal.perfcounter.JmxMetricPerformanceCounter;
 import com.microsoft.applicationinsights.internal.perfcounter.PerformanceCounterContainer;
 import com.microsoft.applicationinsights.internal.perfcounter.PerformanceCounterConfigurationAware;
+import com.microsoft.applicationinsights.internal.processor.StandardMetricsProcessor;
+import com.microsoft.applicationinsights.internal.shutdown.SDKShutdownActivity;
 
 import com.google.common.base.Strings;
 import com.microsoft.applicationinsights.internal.quickpulse.QuickPulse;
+import com.microsoft.applicationinsights.internal.util.LimitsEnforcer;
 import com.microsoft.applicationinsights.internal.util.LocalStringsUtils;
 
 /**
@@ -57,6 +62,10 @@ public enum TelemetryConfigurationFactory {
     private final static String DEFAULT_PERFORMANCE_MODULES_PACKAGE = "com.microsoft.applicationinsights";
     private final static String BUILT_IN_NAME = "BuiltIn";
 
+    private final static int MIN_SHUTDOWN_TIMEOUT_IN_SECONDS = 1;
+    private final static int MAX_SHUTDOWN_TIMEOUT_IN_SECONDS = 300;
+    private final static String SHUTDOWN_TIMEOUT_IN_SECONDS_NAME = "ShutdownTimeoutInSeconds";
+
     private String performanceCountersSection = DEFAULT_PERFORMANCE_MODULES_PACKAGE;
 
     final static String EXTERNAL_PROPERTY_IKEY_NAME = "APPLICATION_INSIGHTS_IKEY";
@@ -101,6 +110,8 @@ public enum TelemetryConfigurationFactory {
 
             configuration.setTrackingIsDisabled(applicationInsightsConfig.isDisableTelemetry());
 
+            setShutdownTimeout(applicationInsightsConfig.getShutdownTimeoutInSeconds());
+
             setContextInitializers(applicationInsightsConfig.getContextInitializers(), configuration);
             setTelemetryInitializers(applicationInsightsConfig.getTelemetryInitializers(), configuration);
             setTelemetryModules(applicationInsightsConfig, configuration);
@@ -151,6 +162,24 @@ public enum TelemetryConfigurationFactory {
         new ContextInitializersInitializer().initialize(contextInitializers, configuration);
     }
 
+    /**
+     * The shutdown deadline is shared by all the channels and producers of the process, so it is set once from the configuration.
+     * @param shutdownTimeoutInSeconds The configured timeout, the default is kept when it is not set.
+     */
+    private void setShutdownTimeout(String shutdownTimeoutInSeconds) {
+        if (Strings.isNullOrEmpty(shutdownTimeoutInSeconds)) {
+            return;
+        }
+
+        int timeoutInSeconds = LimitsEnforcer.createWithClosestLimitOnError(
+                MIN_SHUTDOWN_TIMEOUT_IN_SECONDS,
+                MAX_SHUTDOWN_TIMEOUT_IN_SECONDS,
+                (int) TimeUnit.MILLISECONDS.toSeconds(SDKShutdownActivity.DEFAULT_SHUTDOWN_TIMEOUT_IN_MILLIS),
+                SHUTDOWN_TIMEOUT_IN_SECONDS_NAME,
+                shutdownTimeoutInSeconds).getCurrentValue();
+        SDKShutdownActivity.INSTANCE.setShutdownTimeout(timeoutInSeconds, TimeUnit.SECONDS);
+    }
+
     private void setQuickPulse(ApplicationInsightsXmlConfiguration appConfiguration) {
         QuickPulseXmlElement quickPulseXmlElement = appConfiguration.getQuickPulse();
         if (quickPulseXmlElement == null || quickPulseXmlElement.isEnabled()) {
@@ -203,6 +232,16 @@ public enum TelemetryConfigurationFactory {
             ArrayList<TelemetryProcessorXmlElement> customs = configurationProcessors.getCustomTelemetryProcessors();
             loadProcessorComponents(processors, customs);
         }
+
+        // Standard metrics roll up the telemetries before any processor runs, so they count what the processors filter out
+        Iterator<TelemetryProcessor> iterator = processors.iterator();
+        while (iterator.hasNext()) {
+            TelemetryProcessor processor = iterator.next();
+            if (processor instanceof StandardMetricsProcessor) {
+                iterator.remove();
+                configuration.setStandardMetricsProcessor((StandardMetricsProcessor) processor);
+            }
+        }
     }
 
 
@@ -400,6 +439,7 @@ public enum TelemetryConfigurationFactory {
             if (channel != null) {
                 channel.setSampler(telemetrySampler);
                 configuration.setChannel(channel);
+                setTelemetryPooling(channel, configuration);
                 return true;
             } else {
                 InternalLogger.INSTANCE.error("Failed to create '%s', will create the default one with default arguments", channelName);
@@ -411,6 +451,7 @@ public enum TelemetryConfigurationFactory {
             TelemetryChannel channel = new InProcessTelemetryChannel(channelXmlElement.getData());
             channel.setSampler(telemetrySampler);
             configuration.setChannel(channel);
+            setTelemetryPooling(channel, configuration);
             return true;
         } catch (Exception e) {
             InternalLogger.INSTANCE.error("Failed to create InProcessTelemetryChannel, exception: %s, will create the default one with default arguments", e.getMessage());
@@ -421,6 +462,14 @@ public enum TelemetryConfigurationFactory {
         }
     }
 
+    /**
+     * Pooling is enabled for the configuration only when its channel returns the pooled telemetries once they are sent.
+     */
+    private static void setTelemetryPooling(TelemetryChannel channel, TelemetryConfiguration configuration) {
+        boolean telemetryPooling = channel instanceof InProcessTelemetryChannel && ((InProcessTelemetryChannel) channel).isTelemetryPooling();
+        configuration.setTelemetryPoolingEnabled(telemetryPooling);
+    }
+
     private void loadProcessorComponents(
             List<TelemetryProcessor> list,
             Collection<TelemetryProcessorXmlElement> classesFromConfigration) {
@@ -0,0 +1,345 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.processor;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.microsoft.applicationinsights.TelemetryClient;
+import com.microsoft.applicationinsights.extensibility.TelemetryProcessor;
+import com.microsoft.applicationinsights.internal.annotation.BuiltInProcessor;
+import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+import com.microsoft.applicationinsights.internal.shutdown.SDKShutdownActivity;
+import com.microsoft.applicationinsights.internal.shutdown.Stoppable;
+import com.microsoft.applicationinsights.internal.util.ThreadPoolUtils;
+import com.microsoft.applicationinsights.internal.util.TimestampFormatter;
+import com.microsoft.applicationinsights.telemetry.ExceptionTelemetry;
+import com.microsoft.applicationinsights.telemetry.Telemetry;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * The class de-duplicates ExceptionTelemetries of exceptions that are thrown again and again, e.g. in a failure loop.
+ *
+ * Exceptions are identified by a fingerprint made of the exception type and the top frames of its stack trace,
+ * the message is not part of the fingerprint since it usually holds values that change between occurrences.
+ * The first occurrence of a fingerprint is sent in full, the following occurrences are filtered out,
+ * and once per summary interval an occurrence is sent as a summary of the occurrences that were filtered out:
+ * its 'OccurrenceCount' metric holds their number, including itself, and its 'FirstSeen' and 'LastSeen'
+ * properties hold the time of the first and the last of them.
+ *
+ * Occurrences that were filtered out and not summarized by a later occurrence, e.g. when the failure loop stopped,
+ * are sent by a timer once per summary interval, and on shutdown, as an ExceptionTelemetry with the type and the message
+ * of the first occurrence of the fingerprint and the same metric and properties.
+ * The timer also removes the fingerprints that were not seen during the interval, to make room for new ones.
+ *
+ * The possible settings are:
+ *  NumberOfFrames              - The number of top frames in the fingerprint, 5 by default
+ *  SummaryIntervalInSeconds    - The minimal time between the items sent for a fingerprint, 60 by default
+ *  MaxFingerprints             - The maximal number of fingerprints that are tracked, 1000 by default,
+ *                                exceptions with new fingerprints are sent as is when there is no room
+ *
+ *  Illegal value will prevent from the filter from being used.
+ */
+@BuiltInProcessor("ExceptionDeduplicationProcessor")
+public final class ExceptionDeduplicationProcessor implements TelemetryProcessor, Stoppable {
+    public final static String OCCURRENCE_COUNT_NAME = "OccurrenceCount";
+    public final static String FIRST_SEEN_NAME = "FirstSeen";
+    public final static String LAST_SEEN_NAME = "LastSeen";
+
+    private final static int DEFAULT_NUMBER_OF_FRAMES = 5;
+    private final static long DEFAULT_SUMMARY_INTERVAL_IN_SECONDS = 60;
+    private final static int DEFAULT_MAX_FINGERPRINTS = 1000;
+
+    /**
+     * The occurrences of one fingerprint, guarded by the instance.
+     */
+    private static final class Occurrences {
+        /// Copied from the first occurrence, the summaries sent by the timer must not hold on to the exception
+        private final String typeName;
+        private final String message;
+
+        private long lastSentInMillis;
+        private long lastSeenInMillis;
+
+        /// The occurrences that were filtered out since the last item was sent
+        private int filteredOut;
+        private long firstFilteredOutInMillis;
+
+        private Occurrences(Throwable throwable, long nowInMillis) {
+            typeName = throwable.getClass().getName();
+            message = throwable.getMessage();
+            lastSentInMillis = nowInMillis;
+            lastSeenInMillis = nowInMillis;
+        }
+    }
+
+    /**
+     * The pending occurrences of one fingerprint, taken out by the timer.
+     */
+    private static final class Summary {
+        private final String typeName;
+        private final String message;
+        private final int occurrenceCount;
+        private final long firstSeenInMillis;
+        private final long lastSeenInMillis;
+
+        private Summary(Occurrences occurrences) {
+            typeName = occurrences.typeName;
+            message = occurrences.message;
+            occurrenceCount = occurrences.filteredOut;
+            firstSeenInMillis = occurrences.firstFilteredOutInMillis;
+            lastSeenInMillis = occurrences.lastSeenInMillis;
+        }
+    }
+
+    private final ConcurrentMap<String, Occurrences> occurrences = new ConcurrentHashMap<String, Occurrences>();
+
+    private volatile int numberOfFrames = DEFAULT_NUMBER_OF_FRAMES;
+    private volatile long summaryIntervalInMillis = TimeUnit.SECONDS.toMillis(DEFAULT_SUMMARY_INTERVAL_IN_SECONDS);
+    private volatile int maxFingerprints = DEFAULT_MAX_FINGERPRINTS;
+
+    // Created on the first exception since the telemetry client cannot be created while the configuration is being built
+    private volatile TelemetryClient telemetryClient;
+    private volatile ScheduledThreadPoolExecutor threads;
+
+    public ExceptionDeduplicationProcessor() {
+    }
+
+    /**
+     * Creates a processor that sends the pending occurrences with the client when {@link #flush(long, boolean)} is called.
+     */
+    @VisibleForTesting
+    ExceptionDeduplicationProcessor(TelemetryClient telemetryClient) {
+        this.telemetryClient = telemetryClient;
+    }
+
+    @Override
+    public boolean process(Telemetry telemetry) {
+        return process(telemetry, System.currentTimeMillis());
+    }
+
+    @VisibleForTesting
+    boolean process(Telemetry telemetry, long nowInMillis) {
+        if (!(telemetry instanceof ExceptionTelemetry)) {
+            return true;
+        }
+
+        ExceptionTelemetry exceptionTelemetry = (ExceptionTelemetry) telemetry;
+        Throwable throwable = exceptionTelemetry.getThrowable();
+        if (throwable == null) {
+            return true;
+        }
+
+        start();
+
+        String fingerprint = getFingerprint(throwable, numberOfFrames);
+        Occurrences current = occurrences.get(fingerprint);
+        if (current == null) {
+            if (occurrences.size() >= maxFingerprints) {
+                return true;
+            }
+
+            current = occurrences.putIfAbsent(fingerprint, new Occurrences(throwable, nowInMillis));
+            if (current == null) {
+                // The first occurrence is sent in full
+                return true;
+            }
+        }
+
+        int occurrenceCount;
+        long firstSeenInMillis;
+        synchronized (current) {
+            current.lastSeenInMillis = nowInMillis;
+            if (current.filteredOut == 0) {
+                current.firstFilteredOutInMillis = nowInMillis;
+            }
+            ++current.filteredOut;
+
+            if (nowInMillis - current.lastSentInMillis < summaryIntervalInMillis) {
+                return false;
+            }
+
+            occurrenceCount = current.filteredOut;
+            firstSeenInMillis = current.firstFilteredOutInMillis;
+            current.filteredOut = 0;
+            current.lastSentInMillis = nowInMillis;
+        }
+
+        exceptionTelemetry.getMetrics().put(OCCURRENCE_COUNT_NAME, (double) occurrenceCount);
+        exceptionTelemetry.getProperties().put(FIRST_SEEN_NAME, TimestampFormatter.INSTANCE.format(new Date(firstSeenInMillis)));
+        exceptionTelemetry.getProperties().put(LAST_SEEN_NAME, TimestampFormatter.INSTANCE.format(new Date(nowInMillis)));
+
+        return true;
+    }
+
+    /**
+     * Sends the summaries of the occurrences that were filtered out and stops the timer.
+     */
+    @Override
+    public void stop(long timeout, TimeUnit timeUnit) {
+        ThreadPoolUtils.stop(threads, timeout, timeUnit);
+        flush(System.currentTimeMillis(), true);
+    }
+
+    public void setNumberOfFrames(String numberOfFrames) throws Throwable {
+        try {
+            this.numberOfFrames = parsePositive(numberOfFrames);
+            InternalLogger.INSTANCE.trace("ExceptionDeduplicationProcessor: successfully set NumberOfFrames " + this.numberOfFrames);
+        } catch (Throwable e) {
+            InternalLogger.INSTANCE.logAlways(InternalLogger.LoggingLevel.ERROR, "ExceptionDeduplicationProcessor: failed to set number of frames " + numberOfFrames);
+            throw e;
+        }
+    }
+
+    public void setSummaryIntervalInSeconds(String summaryIntervalInSeconds) throws Throwable {
+        try {
+            this.summaryIntervalInMillis = TimeUnit.SECONDS.toMillis(parsePositive(summaryIntervalInSeconds));
+            InternalLogger.INSTANCE.trace("ExceptionDeduplicationProcessor: successfully set SummaryIntervalInSeconds " + summaryIntervalInSeconds);
+        } catch (Throwable e) {
+            InternalLogger.INSTANCE.logAlways(InternalLogger.LoggingLevel.ERROR, "ExceptionDeduplicationProcessor: failed to set summary interval " + summaryIntervalInSeconds);
+            throw e;
+        }
+    }
+
+    public void setMaxFingerprints(String maxFingerprints) throws Throwable {
+        try {
+            this.maxFingerprints = parsePositive(maxFingerprints);
+            InternalLogger.INSTANCE.trace("ExceptionDeduplicationProcessor: successfully set MaxFingerprints " + this.maxFingerprints);
+        } catch (Throwable e) {
+            InternalLogger.INSTANCE.logAlways(InternalLogger.LoggingLevel.ERROR, "ExceptionDeduplicationProcessor: failed to set max fingerprints " + maxFingerprints);
+            throw e;
+        }
+    }
+
+    /**
+     * @return The exception type followed by the class, method and line of each of the top frames.
+     */
+    @VisibleForTesting
+    static String getFingerprint(Throwable throwable, int numberOfFrames) {
+        StringBuilder fingerprint = new StringBuilder(throwable.getClass().getName());
+
+        StackTraceElement[] trace = throwable.getStackTrace();
+        int frames = trace == null ? 0 : Math.min(numberOfFrames, trace.length);
+        for (int i = 0; i < frames; ++i) {
+            StackTraceElement frame = trace[i];
+            fingerprint.append('|')
+                       .append(frame.getClassName())
+                       .append('.')
+                       .append(frame.getMethodName())
+                       .append(':')
+                       .append(frame.getLineNumber());
+        }
+
+        return fingerprint.toString();
+    }
+
+    /**
+     * Sends a summary of the occurrences that were filtered out and were not summarized during the last summary interval,
+     * or of all of them, and removes the fingerprints that were not seen during the interval.
+     */
+    @VisibleForTesting
+    synchronized void flush(long nowInMillis, boolean all) {
+        TelemetryClient client = telemetryClient;
+        if (client == null) {
+            return;
+        }
+
+        List<Summary> summaries = new ArrayList<Summary>();
+        Iterator<Occurrences> iterator = occurrences.values().iterator();
+        while (iterator.hasNext()) {
+            Occurrences current = iterator.next();
+            synchronized (current) {
+                boolean stale = nowInMillis - current.lastSeenInMillis >= summaryIntervalInMillis;
+                if (stale) {
+                    iterator.remove();
+                }
+
+                if (current.filteredOut > 0 && (all || stale || nowInMillis - current.lastSentInMillis >= summaryIntervalInMillis)) {
+                    summaries.add(new Summary(current));
+                    current.filteredOut = 0;
+                    current.lastSentInMillis = nowInMillis;
+                }
+            }
+        }
+
+        for (Summary summary : summaries) {
+            ExceptionTelemetry exceptionTelemetry = new ExceptionTelemetry(summary.typeName, summary.message);
+            exceptionTelemetry.getMetrics().put(OCCURRENCE_COUNT_NAME, (double) summary.occurrenceCount);
+            exceptionTelemetry.getProperties().put(FIRST_SEEN_NAME, TimestampFormatter.INSTANCE.format(new Date(summary.firstSeenInMillis)));
+            exceptionTelemetry.getProperties().put(LAST_SEEN_NAME, TimestampFormatter.INSTANCE.format(new Date(summary.lastSeenInMillis)));
+            client.trackException(exceptionTelemetry);
+        }
+    }
+
+    private void start() {
+        if (telemetryClient != null) {
+            return;
+        }
+
+        synchronized (this) {
+            if (telemetryClient != null) {
+                return;
+            }
+
+            long intervalInMillis = summaryIntervalInMillis;
+            threads = new ScheduledThreadPoolExecutor(1);
+            threads.setThreadFactory(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "ApplicationInsights-ExceptionDeduplication");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            threads.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        flush(System.currentTimeMillis(), false);
+                    } catch (Throwable t) {
+                        InternalLogger.INSTANCE.error("Failed to send exception summaries, exception: %s", t.getMessage());
+                    }
+                }
+            }, intervalInMillis, intervalInMillis, TimeUnit.MILLISECONDS);
+
+            telemetryClient = new TelemetryClient();
+            SDKShutdownActivity.INSTANCE.registerProducer(this);
+        }
+    }
+
+    private static int parsePositive(String value) {
+        int result = Integer.valueOf(value.trim());
+        if (result <= 0) {
+            throw new IllegalArgumentException(String.format("Value must be a positive number: %s", value));
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,372 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.processor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.microsoft.applicationinsights.MetricAggregator;
+import com.microsoft.applicationinsights.TelemetryClient;
+import com.microsoft.applicationinsights.extensibility.TelemetryProcessor;
+import com.microsoft.applicationinsights.internal.annotation.BuiltInProcessor;
+import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+import com.microsoft.applicationinsights.internal.shutdown.SDKShutdownActivity;
+import com.microsoft.applicationinsights.internal.shutdown.Stoppable;
+import com.microsoft.applicationinsights.internal.util.ThreadPoolUtils;
+import com.microsoft.applicationinsights.telemetry.Duration;
+import com.microsoft.applicationinsights.telemetry.Histogram;
+import com.microsoft.applicationinsights.telemetry.RemoteDependencyTelemetry;
+import com.microsoft.applicationinsights.telemetry.RequestTelemetry;
+import com.microsoft.applicationinsights.telemetry.Telemetry;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Strings;
+
+/**
+ * The class rolls up RequestTelemetries and RemoteDependencyTelemetries into standard metrics.
+ *
+ * When the configuration is loaded the processor is taken out of the telemetry processors, and the
+ * {@link TelemetryClient} rolls up every tracked item before any processor runs, so the metrics count every
+ * request and dependency whatever the processors and the channel sample or filter out.
+ * A processor that is added to the telemetry processors in code rolls up the items that reach it.
+ *
+ * The durations, in milliseconds, are recorded into a {@link Histogram} per 'Request duration' or 'Dependency duration'
+ * metric, 'Name', 'ResultCode' and 'Success' dimensions. Every interval a metric is sent per series that had items,
+ * holding the number of items, the sum, min and max of their durations, their percentiles and buckets,
+ * and the counts with 'Success' set to 'False' are the failures of the name.
+ *
+ * Looking up an existing series does not allocate. Once the maximal number of series is reached, the items of new series
+ * are recorded into a series per metric whose 'Name' is 'Other', so they are still counted in the totals.
+ * Series that had no items during an interval are removed so their place can be taken by other series.
+ *
+ * The possible settings are:
+ *  IntervalInSeconds   - The interval to send the metrics in, 60 by default
+ *  MaxSeries           - The maximal number of metric series, 1000 by default,
+ *                        items of new series are counted in the 'Other' series once it is reached
+ *
+ *  Illegal value will prevent the processor from being used.
+ */
+@BuiltInProcessor("StandardMetricsProcessor")
+public final class StandardMetricsProcessor implements TelemetryProcessor, Stoppable {
+    public final static String REQUEST_DURATION_METRIC_NAME = "Request duration";
+    public final static String DEPENDENCY_DURATION_METRIC_NAME = "Dependency duration";
+
+    public final static String NAME_DIMENSION = "Name";
+    public final static String RESULT_CODE_DIMENSION = "ResultCode";
+    public final static String SUCCESS_DIMENSION = "Success";
+
+    public final static String OTHER_NAME = "Other";
+
+    private final static int DEFAULT_INTERVAL_IN_SECONDS = MetricAggregator.DEFAULT_AGGREGATION_INTERVAL_IN_SECONDS;
+    private final static int DEFAULT_MAX_SERIES = MetricAggregator.DEFAULT_MAX_SERIES;
+
+    /**
+     * Identifies a series, a key per thread is reused to look up the existing series so the lookup does not allocate.
+     */
+    private final static class SeriesKey {
+        private String metricName;
+        private String name;
+        private String resultCode;
+        private boolean success;
+        private int hashCode;
+
+        private SeriesKey set(String metricName, String name, String resultCode, boolean success) {
+            this.metricName = metricName;
+            this.name = name;
+            this.resultCode = resultCode;
+            this.success = success;
+
+            int result = metricName.hashCode();
+            result = 31 * result + name.hashCode();
+            result = 31 * result + resultCode.hashCode();
+            hashCode = 31 * result + (success ? 1 : 0);
+            return this;
+        }
+
+        private SeriesKey copy() {
+            return new SeriesKey().set(metricName, name, resultCode, success);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof SeriesKey)) {
+                return false;
+            }
+
+            SeriesKey that = (SeriesKey) other;
+            return success == that.success &&
+                    metricName.equals(that.metricName) &&
+                    name.equals(that.name) &&
+                    resultCode.equals(that.resultCode);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    private final static class Series {
+        private final String metricName;
+        private final Map<String, String> properties;
+        private final Histogram histogram = new Histogram();
+
+        private Series(String metricName, Map<String, String> properties) {
+            this.metricName = metricName;
+            this.properties = properties;
+        }
+    }
+
+    private final static ThreadLocal<SeriesKey> LOOKUP_KEY = new ThreadLocal<SeriesKey>() {
+        @Override
+        protected SeriesKey initialValue() {
+            return new SeriesKey();
+        }
+    };
+
+    private int intervalInSeconds = DEFAULT_INTERVAL_IN_SECONDS;
+    private int maxSeries = DEFAULT_MAX_SERIES;
+
+    private final ConcurrentMap<SeriesKey, Series> series = new ConcurrentHashMap<SeriesKey, Series>();
+    private final AtomicInteger numberOfSeries = new AtomicInteger();
+    private volatile boolean maxSeriesReached;
+
+    /// The items of new series once the maximal number of series is reached
+    private final Series requestOverflow = createSeries(REQUEST_DURATION_METRIC_NAME, OTHER_NAME, "", null);
+    private final Series dependencyOverflow = createSeries(DEPENDENCY_DURATION_METRIC_NAME, OTHER_NAME, "", null);
+
+    /// Series removed during the last flush, their late items are sent on the next one
+    private List<Series> retiredSeries = new ArrayList<Series>();
+
+    // Created on the first item since the telemetry client cannot be created while the configuration is being built
+    private volatile TelemetryClient telemetryClient;
+    private volatile ScheduledThreadPoolExecutor threads;
+
+    public StandardMetricsProcessor() {
+    }
+
+    /**
+     * Creates a processor that sends the metrics with the client when {@link #flush()} is called.
+     */
+    @VisibleForTesting
+    StandardMetricsProcessor(TelemetryClient telemetryClient) {
+        this.telemetryClient = telemetryClient;
+    }
+
+    @Override
+    public boolean process(Telemetry telemetry) {
+        rollUp(telemetry);
+        return true;
+    }
+
+    /**
+     * Records the duration of the telemetry if it is a request or a dependency, other telemetries are ignored.
+     * @param telemetry The telemetry.
+     */
+    public void rollUp(Telemetry telemetry) {
+        if (telemetry instanceof RequestTelemetry) {
+            RequestTelemetry request = (RequestTelemetry) telemetry;
+            record(REQUEST_DURATION_METRIC_NAME, requestOverflow, request.getName(), request.getResponseCode(), request.isSuccess(), request.getDuration());
+        } else if (telemetry instanceof RemoteDependencyTelemetry) {
+            RemoteDependencyTelemetry dependency = (RemoteDependencyTelemetry) telemetry;
+            record(DEPENDENCY_DURATION_METRIC_NAME, dependencyOverflow, dependency.getName(), dependency.getResultCode(), dependency.getSuccess(), dependency.getDuration());
+        }
+    }
+
+    public void setIntervalInSeconds(String intervalInSeconds) throws Throwable {
+        try {
+            this.intervalInSeconds = parsePositive(intervalInSeconds);
+            InternalLogger.INSTANCE.trace("StandardMetricsProcessor: successfully set IntervalInSeconds " + this.intervalInSeconds);
+        } catch (Throwable e) {
+            InternalLogger.INSTANCE.logAlways(InternalLogger.LoggingLevel.ERROR, "StandardMetricsProcessor: failed to set interval " + intervalInSeconds);
+            throw e;
+        }
+    }
+
+    public void setMaxSeries(String maxSeries) throws Throwable {
+        try {
+            this.maxSeries = parsePositive(maxSeries);
+            InternalLogger.INSTANCE.trace("StandardMetricsProcessor: successfully set MaxSeries " + this.maxSeries);
+        } catch (Throwable e) {
+            InternalLogger.INSTANCE.logAlways(InternalLogger.LoggingLevel.ERROR, "StandardMetricsProcessor: failed to set max series " + maxSeries);
+            throw e;
+        }
+    }
+
+    /**
+     * @return The number of series that currently record items, not counting the 'Other' series.
+     */
+    public int getNumberOfSeries() {
+        return numberOfSeries.get();
+    }
+
+    /**
+     * Sends the durations recorded since the last call, one metric per series.
+     * Series without items are removed.
+     */
+    @VisibleForTesting
+    synchronized void flush() {
+        TelemetryClient client = telemetryClient;
+        if (client == null) {
+            return;
+        }
+
+        for (Series retired : retiredSeries) {
+            send(client, retired, retired.histogram.getAndReset());
+        }
+        retiredSeries = new ArrayList<Series>();
+
+        for (Map.Entry<SeriesKey, Series> entry : series.entrySet()) {
+            Series current = entry.getValue();
+            Histogram histogram = current.histogram.getAndReset();
+            if (histogram.getCount() != 0) {
+                send(client, current, histogram);
+                continue;
+            }
+
+            if (series.remove(entry.getKey(), current)) {
+                numberOfSeries.decrementAndGet();
+                retiredSeries.add(current);
+            }
+        }
+
+        send(client, requestOverflow, requestOverflow.histogram.getAndReset());
+        send(client, dependencyOverflow, dependencyOverflow.histogram.getAndReset());
+    }
+
+    /**
+     * Sends what was recorded and stops the timer.
+     */
+    @Override
+    public void stop(long timeout, TimeUnit timeUnit) {
+        ThreadPoolUtils.stop(threads, timeout, timeUnit);
+        flush();
+    }
+
+    private void record(String metricName, Series overflow, String name, String resultCode, boolean success, Duration duration) {
+        long durationInMillis = duration == null ? 0 : duration.getTotalMilliseconds();
+        name = Strings.nullToEmpty(name);
+        resultCode = Strings.nullToEmpty(resultCode);
+
+        start();
+
+        SeriesKey key = LOOKUP_KEY.get().set(metricName, name, resultCode, success);
+        Series found = series.get(key);
+        if (found == null) {
+            found = createSeries(key, overflow);
+        }
+
+        found.histogram.record(durationInMillis);
+    }
+
+    private Series createSeries(SeriesKey key, Series overflow) {
+        if (numberOfSeries.incrementAndGet() > maxSeries) {
+            numberOfSeries.decrementAndGet();
+            if (!maxSeriesReached) {
+                maxSeriesReached = true;
+                InternalLogger.INSTANCE.warn("StandardMetricsProcessor reached the maximum of %s series, items of new series are sent with the '%s' name", maxSeries, OTHER_NAME);
+            }
+            return overflow;
+        }
+
+        Series created = createSeries(key.metricName, key.name, key.resultCode, key.success);
+        Series found = series.putIfAbsent(key.copy(), created);
+        if (found != null) {
+            numberOfSeries.decrementAndGet();
+            return found;
+        }
+
+        return created;
+    }
+
+    private static Series createSeries(String metricName, String name, String resultCode, Boolean success) {
+        Map<String, String> properties = new HashMap<String, String>();
+        properties.put(NAME_DIMENSION, name);
+        if (!Strings.isNullOrEmpty(resultCode)) {
+            properties.put(RESULT_CODE_DIMENSION, resultCode);
+        }
+        if (success != null) {
+            properties.put(SUCCESS_DIMENSION, success ? "True" : "False");
+        }
+
+        return new Series(metricName, properties);
+    }
+
+    private void start() {
+        if (telemetryClient != null) {
+            return;
+        }
+
+        synchronized (this) {
+            if (telemetryClient != null) {
+                return;
+            }
+
+            threads = new ScheduledThreadPoolExecutor(1);
+            threads.setThreadFactory(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "ApplicationInsights-StandardMetrics");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            threads.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        flush();
+                    } catch (Throwable t) {
+                        InternalLogger.INSTANCE.error("Failed to send standard metrics, exception: %s", t.getMessage());
+                    }
+                }
+            }, intervalInSeconds, intervalInSeconds, TimeUnit.SECONDS);
+
+            telemetryClient = new TelemetryClient();
+            SDKShutdownActivity.INSTANCE.registerProducer(this);
+        }
+    }
+
+    private static void send(TelemetryClient client, Series sent, Histogram histogram) {
+        client.trackHistogram(sent.metricName, histogram, sent.properties);
+    }
+
+    private static int parsePositive(String value) {
+        int result = Integer.valueOf(value.trim());
+        if (result <= 0) {
+            throw new IllegalArgumentException(String.format("Value must be a positive number: %s", value));
+        }
+
+        return result;
+    }
+}
@@ -26,6 +26,7 @@ import java.io.IOException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ConcurrentHashMap;
 import com.microsoft.applicationinsights.telemetry.JsonSerializable;
@@ -53,6 +54,11 @@ public class Envelope
      * Backing field for property Time.
      */
     private String time;
+
+    /**
+     * The time as a date, formatted while the envelope is serialized instead of by the Time property.
+     */
+    private Date timestamp;
     
     /**
      * Backing field for property SampleRate.
@@ -129,6 +135,21 @@ public class Envelope
         this.time = value;
     }
     
+    /**
+     * Gets the time of the envelope, if it was set as a date.
+     */
+    public Date getTimestamp() {
+        return this.timestamp;
+    }
+
+    /**
+     * Sets the time of the envelope as a date, which takes precedence over the Time property.
+     * The date is formatted straight into the serialized envelope.
+     */
+    public void setTimestamp(Date value) {
+        this.timestamp = value;
+    }
+
     /**
      * Gets the SampleRate property.
      */
@@ -223,6 +244,9 @@ public class Envelope
         writer.write("ver", ver);
         writer.write("name", name);
         
+        if (timestamp != null)
+        writer.write("time", timestamp);
+        else
         writer.write("time", time);
         
         if (this.sampleRate > 0.0d)
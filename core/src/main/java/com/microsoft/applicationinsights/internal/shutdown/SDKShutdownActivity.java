@@ -22,20 +22,31 @@
 package com.microsoft.applicationinsights.internal.shutdown;
 
 import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import com.microsoft.applicationinsights.channel.TelemetryChannel;
 import com.microsoft.applicationinsights.internal.logger.InternalLogger;
 import com.microsoft.applicationinsights.internal.util.ChannelFetcher;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+
 /**
  * The class is responsible for all shutdown activities done in the SDK.
  *
+ * The shutdown is bounded by a global deadline: the producers, which track their last telemetries when they stop,
+ * are stopped in parallel first, then the channels are stopped in parallel, and then the stoppables are stopped
+ * in parallel, each with the time that is left until the deadline.
+ * Channels that cannot send their data before the deadline persist it, so it is sent when the process starts again.
+ *
  * Created by gupele on 2/2/2015.
  */
 public enum SDKShutdownActivity {
     INSTANCE;
 
+    public final static long DEFAULT_SHUTDOWN_TIMEOUT_IN_MILLIS = 5000;
+
     /**
      * An helper class that does the cleanup
      *
@@ -43,12 +54,20 @@ public enum SDKShutdownActivity {
      * 1. The class should not throw an exception
      * 2. The class 'run' method should exit as soon as possible
      */
-    private static class SDKShutdownThread extends Thread {
+    @VisibleForTesting
+    static class SDKShutdownThread extends Thread {
         private boolean stopped = false;
 
+        private volatile long shutdownTimeoutInMillis = DEFAULT_SHUTDOWN_TIMEOUT_IN_MILLIS;
+
+        private final ArrayList<Stoppable> producers = new ArrayList<Stoppable>();
         private final ArrayList<ChannelFetcher> fetchers = new ArrayList<ChannelFetcher>();
         private final ArrayList<Stoppable> stoppables = new ArrayList<Stoppable>();
 
+        public synchronized void registerProducer(Stoppable producer) {
+            producers.add(producer);
+        }
+
         public synchronized void register(ChannelFetcher fetcher) {
             fetchers.add(fetcher);
         }
@@ -57,6 +76,10 @@ public enum SDKShutdownActivity {
             stoppables.add(stoppable);
         }
 
+        public void setShutdownTimeoutInMillis(long shutdownTimeoutInMillis) {
+            this.shutdownTimeoutInMillis = shutdownTimeoutInMillis;
+        }
+
         public SDKShutdownThread() {
         }
 
@@ -68,8 +91,7 @@ public enum SDKShutdownActivity {
             }
 
             try {
-                stopChannels();
-                stopStoppables();
+                stopAll(shutdownTimeoutInMillis, TimeUnit.MILLISECONDS);
             } finally {
                 // As the last step, the SDK gracefully closes the Internal Logger
                 stopInternalLogger();
@@ -78,6 +100,48 @@ public enum SDKShutdownActivity {
             stopped = true;
         }
 
+        /**
+         * Stops the producers, then the channels and then the stoppables, returns when they are stopped or when the timeout expires.
+         * Make sure no exception is thrown!
+         */
+        synchronized void stopAll(long timeout, TimeUnit timeUnit) {
+            final long deadline = System.nanoTime() + timeUnit.toNanos(timeout);
+
+            // The producers track their last telemetries when they stop, so they must be stopped while the channels still send
+            List<Thread> threads = new ArrayList<Thread>();
+            for (final Stoppable producer : producers) {
+                threads.add(startStopThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        stopStoppable(producer, deadline);
+                    }
+                }));
+            }
+            waitForThreads(threads, deadline);
+
+            threads.clear();
+            for (final ChannelFetcher fetcher : fetchers) {
+                threads.add(startStopThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        stopChannel(fetcher, deadline);
+                    }
+                }));
+            }
+            waitForThreads(threads, deadline);
+
+            threads.clear();
+            for (final Stoppable stoppable : stoppables) {
+                threads.add(startStopThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        stopStoppable(stoppable, deadline);
+                    }
+                }));
+            }
+            waitForThreads(threads, deadline);
+        }
+
         /**
          * Make sure no exception is thrown!
          */
@@ -91,30 +155,54 @@ public enum SDKShutdownActivity {
         /**
          * Make sure no exception is thrown!
          */
-        private void stopChannels() {
-            for (ChannelFetcher fetcher : fetchers) {
-                try {
-                    TelemetryChannel channelToStop = fetcher.fetch();
-                    if (channelToStop != null) {
-                        channelToStop.stop(1L, TimeUnit.SECONDS);
-                    }
-                } catch (Throwable t) {
-                    InternalLogger.INSTANCE.error("Failed to stop channel: '%s'", t.getMessage());
+        private static void stopChannel(ChannelFetcher fetcher, long deadline) {
+            try {
+                TelemetryChannel channelToStop = fetcher.fetch();
+                if (channelToStop != null) {
+                    channelToStop.stop(getRemainingNanos(deadline), TimeUnit.NANOSECONDS);
                 }
+            } catch (Throwable t) {
+                InternalLogger.INSTANCE.error("Failed to stop channel: '%s'", t.getMessage());
             }
         }
+
         /**
          * Make sure no exception is thrown!
          */
-        private void stopStoppables() {
-            for (Stoppable stoppable : stoppables) {
+        private static void stopStoppable(Stoppable stoppable, long deadline) {
+            try {
+                stoppable.stop(getRemainingNanos(deadline), TimeUnit.NANOSECONDS);
+            } catch (Throwable t) {
+                InternalLogger.INSTANCE.error("Failed to stop stoppable class '%s': '%s'", stoppable.getClass().getName(), t.getMessage());
+            }
+        }
+
+        private static Thread startStopThread(Runnable stop) {
+            // The threads are daemons, so one that is stuck after the deadline does not keep the JVM alive
+            Thread thread = new Thread(stop, "ApplicationInsights-Shutdown");
+            thread.setDaemon(true);
+            thread.start();
+
+            return thread;
+        }
+
+        private static void waitForThreads(List<Thread> threads, long deadline) {
+            for (Thread thread : threads) {
                 try {
-                    stoppable.stop(1L, TimeUnit.SECONDS);
-                } catch (Throwable t) {
-                    InternalLogger.INSTANCE.error("Failed to stop stoppable class '%s': '%s'", stoppable.getClass().getName(), t.getMessage());
+                    long remaining = getRemainingNanos(deadline);
+                    if (remaining > 0) {
+                        TimeUnit.NANOSECONDS.timedJoin(thread, remaining);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
                 }
             }
         }
+
+        private static long getRemainingNanos(long deadline) {
+            return Math.max(0L, deadline - System.nanoTime());
+        }
     }
 
     private static volatile SDKShutdownThread shutdownThread;
@@ -127,6 +215,27 @@ public enum SDKShutdownActivity {
         getShutdownThread().register(stoppable);
     }
 
+    /**
+     * Registers a class that tracks telemetries when it is stopped, like an aggregator that sends what it aggregated,
+     * it is stopped before the channels, so what it tracks is still sent.
+     * @param producer The class to stop before the channels
+     */
+    public void registerProducer(Stoppable producer) {
+        getShutdownThread().registerProducer(producer);
+    }
+
+    /**
+     * Sets the global deadline of the shutdown, the time all the producers, channels and stoppables together may take to stop.
+     * @param timeout The time the shutdown may take
+     * @param timeUnit The units of the 'timeout' parameter
+     */
+    public void setShutdownTimeout(long timeout, TimeUnit timeUnit) {
+        Preconditions.checkArgument(timeout > 0, "timeout must be a positive number");
+        Preconditions.checkNotNull(timeUnit, "timeUnit must be non-null value");
+
+        getShutdownThread().setShutdownTimeoutInMillis(timeUnit.toMillis(timeout));
+    }
+
     private SDKShutdownThread getShutdownThread() {
         if (shutdownThread == null) {
             synchronized (this) {
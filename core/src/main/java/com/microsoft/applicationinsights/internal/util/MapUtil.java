@@ -81,6 +81,6 @@ public class MapUtil
         if (value == null)
             map.remove(key);
         else
-            map.put(key, LocalStringsUtils.getDateFormatter().format(value));
+            map.put(key, TimestampFormatter.INSTANCE.format(value));
     }
 }
@@ -21,6 +21,8 @@
 
 package com.microsoft.applicationinsights.internal.util;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -60,4 +62,27 @@ public final class ThreadPoolUtils {
             Thread.currentThread().interrupt();
         }
     }
+
+    /**
+     * Stops the thread pool, the queued tasks are executed until the timeout expires.
+     * Unlike {@link #stop(ThreadPoolExecutor, long, TimeUnit)} the method does not wait
+     * for the running tasks once the timeout expired, so it returns within the timeout.
+     * @return The tasks that were still queued when the timeout expired, they will not be executed by the pool.
+     */
+    public static List<Runnable> stopAndDrain(ThreadPoolExecutor threadPool, long timeout, TimeUnit timeUnit) {
+        if (threadPool == null) {
+            return new ArrayList<Runnable>();
+        }
+
+        threadPool.shutdown();
+        try {
+            if (threadPool.awaitTermination(timeout, timeUnit)) {
+                return new ArrayList<Runnable>();
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+
+        return threadPool.shutdownNow();
+    }
 }
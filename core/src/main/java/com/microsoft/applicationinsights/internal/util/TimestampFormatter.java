@@ -0,0 +1,130 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.util;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Date;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * Formats timestamps exactly like {@link LocalStringsUtils#getDateFormatter()} does, i.e. 'yyyy-MM-dd'T'HH:mm:ss.SSSZZ'
+ * in the default time zone, without creating a {@link java.text.SimpleDateFormat} per timestamp.
+ *
+ * Everything but the milliseconds is the same for all the timestamps of a second, so the characters before and after
+ * the milliseconds are formatted once per second and cached, and only the milliseconds are formatted per timestamp.
+ * Writing a timestamp of a cached second into a {@link Writer} does not allocate anything.
+ *
+ * The class is thread safe, the cache is an immutable entry that is replaced when a timestamp of another second is formatted.
+ * A change of the default time zone takes effect from the next second that is formatted.
+ */
+public final class TimestampFormatter {
+    public final static TimestampFormatter INSTANCE = new TimestampFormatter();
+
+    private final static class CachedSecond {
+        private final long second;
+        private final char[] prefix;
+        private final char[] suffix;
+
+        private CachedSecond(long second, char[] prefix, char[] suffix) {
+            this.second = second;
+            this.prefix = prefix;
+            this.suffix = suffix;
+        }
+    }
+
+    private volatile CachedSecond cached;
+
+    @VisibleForTesting
+    TimestampFormatter() {
+    }
+
+    /**
+     * Writes the formatted timestamp, without quotes.
+     * @param out The writer to write to.
+     * @param timeInMillis The timestamp, in milliseconds since the epoch.
+     * @throws IOException If the writer fails.
+     */
+    public void write(Writer out, long timeInMillis) throws IOException {
+        long second = floorDiv(timeInMillis, 1000);
+        int millis = (int) (timeInMillis - second * 1000);
+
+        CachedSecond current = getCachedSecond(second);
+        out.write(current.prefix);
+        out.write('0' + millis / 100);
+        out.write('0' + millis / 10 % 10);
+        out.write('0' + millis % 10);
+        out.write(current.suffix);
+    }
+
+    /**
+     * @param date The timestamp.
+     * @return The formatted timestamp.
+     */
+    public String format(Date date) {
+        long timeInMillis = date.getTime();
+        long second = floorDiv(timeInMillis, 1000);
+        int millis = (int) (timeInMillis - second * 1000);
+
+        CachedSecond current = getCachedSecond(second);
+        char[] formatted = new char[current.prefix.length + 3 + current.suffix.length];
+        System.arraycopy(current.prefix, 0, formatted, 0, current.prefix.length);
+        int index = current.prefix.length;
+        formatted[index++] = (char) ('0' + millis / 100);
+        formatted[index++] = (char) ('0' + millis / 10 % 10);
+        formatted[index++] = (char) ('0' + millis % 10);
+        System.arraycopy(current.suffix, 0, formatted, index, current.suffix.length);
+
+        return new String(formatted);
+    }
+
+    private CachedSecond getCachedSecond(long second) {
+        CachedSecond current = cached;
+        if (current == null || current.second != second) {
+            // Threads that race here format the same second, so it does not matter which of them is cached
+            current = formatSecond(second);
+            cached = current;
+        }
+
+        return current;
+    }
+
+    private static CachedSecond formatSecond(long second) {
+        String formatted = LocalStringsUtils.getDateFormatter().format(new Date(second * 1000));
+
+        // The time zone is made of digits and a sign, so the last dot is the one before the milliseconds
+        int millisIndex = formatted.lastIndexOf('.') + 1;
+        return new CachedSecond(second,
+                                formatted.substring(0, millisIndex).toCharArray(),
+                                formatted.substring(millisIndex + 3).toCharArray());
+    }
+
+    private static long floorDiv(long value, long divisor) {
+        long result = value / divisor;
+        if (value % divisor < 0) {
+            --result;
+        }
+
+        return result;
+    }
+}
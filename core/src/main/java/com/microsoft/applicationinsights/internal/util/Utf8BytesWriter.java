@@ -0,0 +1,203 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * A {@link Writer} that encodes the written characters as UTF-8 directly into a growable byte array.
+ *
+ * The class is meant to be reused: after the content is taken by {@link #toByteArray()} or
+ * {@link #writeTo(OutputStream)} the writer can be {@link #reset()} and its byte array is used again,
+ * which lets callers keep one instance per thread instead of allocating a new buffer per item.
+ *
+ * Unpaired surrogates are encoded as '?', same as {@link String#getBytes(java.nio.charset.Charset)} does.
+ *
+ * The class is not thread safe.
+ */
+public final class Utf8BytesWriter extends Writer {
+    private final static int DEFAULT_INITIAL_CAPACITY = 1024;
+    private final static byte UNMAPPABLE_CHARACTER = '?';
+
+    private byte[] buffer;
+    private int size;
+
+    /// A high surrogate that was written last and is waiting for its low surrogate
+    private char pendingHighSurrogate;
+
+    public Utf8BytesWriter() {
+        this(DEFAULT_INITIAL_CAPACITY);
+    }
+
+    public Utf8BytesWriter(int initialCapacity) {
+        buffer = new byte[initialCapacity > 0 ? initialCapacity : DEFAULT_INITIAL_CAPACITY];
+    }
+
+    @Override
+    public void write(int c) {
+        encode((char) c);
+    }
+
+    @Override
+    public void write(char[] chars, int offset, int length) {
+        ensureCapacity(size + length);
+        for (int i = offset; i < offset + length; ++i) {
+            encode(chars[i]);
+        }
+    }
+
+    @Override
+    public void write(String value, int offset, int length) {
+        ensureCapacity(size + length);
+        for (int i = offset; i < offset + length; ++i) {
+            encode(value.charAt(i));
+        }
+    }
+
+    @Override
+    public void write(String value) {
+        write(value, 0, value.length());
+    }
+
+    /**
+     * Appends bytes that are already encoded as UTF-8, e.g. constants that were encoded once.
+     * @param utf8 The encoded bytes.
+     */
+    public void writeUtf8(byte[] utf8) {
+        flushPendingSurrogate();
+        ensureCapacity(size + utf8.length);
+        System.arraycopy(utf8, 0, buffer, size, utf8.length);
+        size += utf8.length;
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    /**
+     * Closing the writer has no effect, the content is still available and the writer can still be used.
+     */
+    @Override
+    public void close() {
+    }
+
+    /**
+     * @return The number of bytes that were written since the last reset.
+     */
+    public int size() {
+        return pendingHighSurrogate == 0 ? size : size + 1;
+    }
+
+    /**
+     * @return The size of the underlying byte array.
+     */
+    public int capacity() {
+        return buffer.length;
+    }
+
+    /**
+     * Discards the content so the writer can be used again, the underlying byte array is kept.
+     */
+    public void reset() {
+        size = 0;
+        pendingHighSurrogate = 0;
+    }
+
+    /**
+     * @return A copy of the content, exactly sized.
+     */
+    public byte[] toByteArray() {
+        flushPendingSurrogate();
+        return Arrays.copyOf(buffer, size);
+    }
+
+    /**
+     * Writes the content to the output stream without copying it.
+     * @param out The stream to write to.
+     * @throws IOException If the stream fails.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        flushPendingSurrogate();
+        out.write(buffer, 0, size);
+    }
+
+    private void encode(char c) {
+        if (pendingHighSurrogate != 0) {
+            char high = pendingHighSurrogate;
+            pendingHighSurrogate = 0;
+            if (Character.isLowSurrogate(c)) {
+                writeCodePoint(Character.toCodePoint(high, c));
+                return;
+            }
+
+            append(UNMAPPABLE_CHARACTER);
+        }
+
+        if (c < 0x80) {
+            append((byte) c);
+        } else if (c < 0x800) {
+            ensureCapacity(size + 2);
+            buffer[size++] = (byte) (0xC0 | (c >> 6));
+            buffer[size++] = (byte) (0x80 | (c & 0x3F));
+        } else if (Character.isHighSurrogate(c)) {
+            pendingHighSurrogate = c;
+        } else if (Character.isLowSurrogate(c)) {
+            append(UNMAPPABLE_CHARACTER);
+        } else {
+            ensureCapacity(size + 3);
+            buffer[size++] = (byte) (0xE0 | (c >> 12));
+            buffer[size++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            buffer[size++] = (byte) (0x80 | (c & 0x3F));
+        }
+    }
+
+    private void writeCodePoint(int codePoint) {
+        ensureCapacity(size + 4);
+        buffer[size++] = (byte) (0xF0 | (codePoint >> 18));
+        buffer[size++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+        buffer[size++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+        buffer[size++] = (byte) (0x80 | (codePoint & 0x3F));
+    }
+
+    private void flushPendingSurrogate() {
+        if (pendingHighSurrogate != 0) {
+            pendingHighSurrogate = 0;
+            append(UNMAPPABLE_CHARACTER);
+        }
+    }
+
+    private void append(byte b) {
+        if (size == buffer.length) {
+            ensureCapacity(size + 1);
+        }
+        buffer[size++] = b;
+    }
+
+    private void ensureCapacity(int minimumCapacity) {
+        if (minimumCapacity > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length << 1, minimumCapacity));
+        }
+    }
+}
@@ -10,6 +10,7 @@ public abstract class BaseSampleSourceTelemetry<T extends Domain> extends BaseTe
 
     @Override
     public void reset() {
+        super.reset();
         setSamplingPercentage(null);
     }
 
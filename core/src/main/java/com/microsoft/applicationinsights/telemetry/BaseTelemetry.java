@@ -30,7 +30,6 @@ import java.util.concurrent.ConcurrentMap;
 import com.microsoft.applicationinsights.internal.schemav2.Data;
 import com.microsoft.applicationinsights.internal.schemav2.Domain;
 import com.microsoft.applicationinsights.internal.schemav2.Envelope;
-import com.microsoft.applicationinsights.internal.util.LocalStringsUtils;
 import com.microsoft.applicationinsights.internal.util.Sanitizer;
 import sun.reflect.generics.reflectiveObjects.NotImplementedException;
 
@@ -42,6 +41,11 @@ public abstract class BaseTelemetry<T extends Domain> implements Telemetry {
     private Date timestamp;
     private String sequence;
 
+    /// The pool the telemetry is returned to once it was sent, null if it was not taken from a pool, see TelemetryPool
+    TelemetryPool<?> pool;
+    volatile int poolState;
+    Object leakReference;
+
     protected BaseTelemetry() {
     }
 
@@ -149,14 +153,22 @@ public abstract class BaseTelemetry<T extends Domain> implements Telemetry {
         tmp.setBaseData(getData());
         tmp.setBaseType(this.getBaseTypeName());
         envelope.setData(tmp);
-        envelope.setTime(LocalStringsUtils.getDateFormatter().format(getTimestamp()));
+        envelope.setTimestamp(getTimestamp());
         envelope.setTags(context.getTags());
 
+        writer.setTagsSource(context.getTags(), context.getSource());
         envelope.serialize(writer);
     }
 
+    /**
+     * Resets the telemetry to the state of a telemetry created with the default constructor, so it can be reused.
+     * The subclasses reset their own data and call this method.
+     */
     @Override
     public void reset() {
+        timestamp = null;
+        sequence = null;
+        context.reset();
     }
 
     /**
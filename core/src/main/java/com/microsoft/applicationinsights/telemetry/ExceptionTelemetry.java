@@ -78,6 +78,23 @@ public final class ExceptionTelemetry extends BaseSampleSourceTelemetry<Exceptio
         this(exception, Integer.MAX_VALUE);
     }
 
+    /**
+     * Initializes a new instance of an exception known only by its type and message, without a stack trace.
+     * @param typeName The type of the exception.
+     * @param message The message of the exception, the type is used when it is empty.
+     */
+    public ExceptionTelemetry(String typeName, String message) {
+        this();
+        ExceptionDetails details = new ExceptionDetails();
+        details.setTypeName(typeName);
+        details.setMessage(Strings.isNullOrEmpty(message) ? typeName : message);
+        details.setHasFullStack(false);
+
+        ArrayList<ExceptionDetails> exceptions = new ArrayList<ExceptionDetails>();
+        exceptions.add(details);
+        data.setExceptions(exceptions);
+    }
+
     public Exception getException() {
         return throwable instanceof Exception ? (Exception)throwable : null;
     }
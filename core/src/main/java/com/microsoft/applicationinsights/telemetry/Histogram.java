@@ -0,0 +1,238 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.telemetry;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A lock free histogram of non negative values, e.g. durations in milliseconds, with log-linear buckets.
+ *
+ * Every power of two range of values is split into 16 linear buckets, so the percentiles are accurate up to 1/16
+ * of the value while the histogram takes a fixed amount of memory, a few kilobytes, whatever the values are.
+ * Values below 16 have a bucket of their own, values of 2^40 and above are counted in the last bucket.
+ * Recording a value is a few atomic operations, so a histogram can be shared by many threads.
+ *
+ * Histograms are mergeable: the histograms recorded by different threads or during different intervals can be
+ * merged into one, which is the same as if all their values were recorded into it.
+ *
+ * Send a histogram by {@link com.microsoft.applicationinsights.TelemetryClient#trackHistogram(String, Histogram, java.util.Map)},
+ * see {@link MetricTelemetry#MetricTelemetry(String, Histogram)} for how it is sent.
+ */
+public final class Histogram {
+    private final static int SUB_BUCKET_BITS = 4;
+    private final static int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private final static int MAX_VALUE_BITS = 40;
+
+    private final static int NUMBER_OF_BUCKETS = (MAX_VALUE_BITS - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(NUMBER_OF_BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+    /**
+     * Records a value.
+     * @param value The value, negative values are ignored.
+     */
+    public void record(long value) {
+        if (value < 0) {
+            return;
+        }
+
+        buckets.incrementAndGet(getBucket(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        lowerTo(min, value);
+        raiseTo(max, value);
+    }
+
+    /**
+     * Adds the values of another histogram to this one.
+     * The other histogram should not be recorded into meanwhile, otherwise some of its values might be partially merged.
+     * @param other The histogram to merge.
+     */
+    public void merge(Histogram other) {
+        Preconditions.checkNotNull(other, "other must be non-null value");
+
+        for (int i = 0; i < NUMBER_OF_BUCKETS; ++i) {
+            long bucketCount = other.buckets.get(i);
+            if (bucketCount != 0) {
+                buckets.addAndGet(i, bucketCount);
+            }
+        }
+        count.addAndGet(other.count.get());
+        sum.addAndGet(other.sum.get());
+        lowerTo(min, other.min.get());
+        raiseTo(max, other.max.get());
+    }
+
+    /**
+     * Moves the values recorded so far to a new histogram, this histogram is left empty.
+     * Values that are recorded meanwhile might be partially moved, i.e. counted in one of the histograms and summed in the other.
+     * @return A histogram with the values that were recorded, to send at the end of an interval.
+     */
+    public Histogram getAndReset() {
+        Histogram result = new Histogram();
+        for (int i = 0; i < NUMBER_OF_BUCKETS; ++i) {
+            if (buckets.get(i) != 0) {
+                result.buckets.set(i, buckets.getAndSet(i, 0));
+            }
+        }
+        result.count.set(count.getAndSet(0));
+        result.sum.set(sum.getAndSet(0));
+        result.min.set(min.getAndSet(Long.MAX_VALUE));
+        result.max.set(max.getAndSet(Long.MIN_VALUE));
+
+        return result;
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getSum() {
+        return sum.get();
+    }
+
+    /**
+     * @return The smallest value, or zero if there are no values.
+     */
+    public long getMin() {
+        return getCount() == 0 ? 0 : min.get();
+    }
+
+    /**
+     * @return The biggest value, or zero if there are no values.
+     */
+    public long getMax() {
+        return getCount() == 0 ? 0 : max.get();
+    }
+
+    /**
+     * @param percentile The percentile, between 0 and 100.
+     * @return The highest value of the bucket that holds the percentile, but not more than the biggest value
+     *         and not less than the smallest, or zero if there are no values.
+     */
+    public long getValueAtPercentile(double percentile) {
+        Preconditions.checkArgument(percentile >= 0.0 && percentile <= 100.0, "percentile must be between 0 and 100");
+
+        long total = 0;
+        long[] counts = new long[NUMBER_OF_BUCKETS];
+        for (int i = 0; i < NUMBER_OF_BUCKETS; ++i) {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+        long accumulated = 0;
+        for (int i = 0; i < NUMBER_OF_BUCKETS; ++i) {
+            accumulated += counts[i];
+            if (accumulated >= rank) {
+                long value = getBucketUpperBound(i) - 1;
+                return Math.max(getMin(), Math.min(value, getMax()));
+            }
+        }
+
+        return getMax();
+    }
+
+    /**
+     * @param bucket The index of the bucket.
+     * @return The number of values in the bucket.
+     */
+    public long getBucketCount(int bucket) {
+        return buckets.get(bucket);
+    }
+
+    /**
+     * @return The number of buckets, the buckets with values can be found by {@link #getBucketCount(int)}.
+     */
+    public static int getNumberOfBuckets() {
+        return NUMBER_OF_BUCKETS;
+    }
+
+    /**
+     * @param bucket The index of the bucket.
+     * @return The smallest value that is counted in the bucket.
+     */
+    public static long getBucketLowerBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+
+        int shift = bucket / SUB_BUCKETS - 1;
+        long subBucket = bucket % SUB_BUCKETS;
+        return (SUB_BUCKETS + subBucket) << shift;
+    }
+
+    /**
+     * @param bucket The index of the bucket.
+     * @return The smallest value that is counted in the following bucket, except for the last bucket which has no upper bound.
+     */
+    public static long getBucketUpperBound(int bucket) {
+        if (bucket == NUMBER_OF_BUCKETS - 1) {
+            return Long.MAX_VALUE;
+        }
+
+        return getBucketLowerBound(bucket + 1);
+    }
+
+    static int getBucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+
+        int highestBit = 63 - Long.numberOfLeadingZeros(value);
+        if (highestBit >= MAX_VALUE_BITS) {
+            return NUMBER_OF_BUCKETS - 1;
+        }
+
+        int shift = highestBit - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) - SUB_BUCKETS;
+        return (shift + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static void lowerTo(AtomicLong target, long value) {
+        long current;
+        while (value < (current = target.get())) {
+            if (target.compareAndSet(current, value)) {
+                return;
+            }
+        }
+    }
+
+    private static void raiseTo(AtomicLong target, long value) {
+        long current;
+        while (value > (current = target.get())) {
+            if (target.compareAndSet(current, value)) {
+                return;
+            }
+        }
+    }
+}
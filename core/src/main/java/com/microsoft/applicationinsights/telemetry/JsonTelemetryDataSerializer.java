@@ -21,19 +21,26 @@
 
 package com.microsoft.applicationinsights.telemetry;
 
-import java.io.BufferedWriter;
 import java.io.IOException;
-import java.io.StringWriter;
 import java.io.Writer;
 import java.util.*;
-
-import com.google.common.base.Strings;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import com.microsoft.applicationinsights.internal.schemav2.*;
-import com.microsoft.applicationinsights.internal.util.LocalStringsUtils;
+import com.microsoft.applicationinsights.internal.util.TimestampFormatter;
+import com.microsoft.applicationinsights.internal.util.Utf8BytesWriter;
 
 /**
  * This class knows how to transform data that is relevant to {@link Telemetry} instances into JSON.
+ *
+ * The JSON is written in a single pass straight into the writer, nested objects included. Since empty objects
+ * are left out, the beginning of a nested object, i.e. its name and opening brace, is held back until the object
+ * writes its first field, and is dropped if the object turns out to be empty.
+ *
+ * Field names are encoded once, with their quotes and the name value separator, and are written as one constant,
+ * as UTF-8 bytes when the writer is a {@link Utf8BytesWriter}. The context tags that the telemetry copied from the
+ * context of its client are written as one constant too, see {@link SerializedTags}.
  */
 public final class JsonTelemetryDataSerializer {
 
@@ -44,21 +51,72 @@ public final class JsonTelemetryDataSerializer {
     private final static String JSON_CLOSE_ARRAY = "]";
     private final static String JSON_COMMA = "\"";
     private final static String JSON_NAME_VALUE_SEPARATOR = ":";
-    private final static String JSON_EMPTY_OBJECT = "{}";
 
-    private static final Set<Class<?>> WRAPPER_TYPES = getWrapperTypes();
+    /// Long.MIN_VALUE has 19 digits and a sign
+    private final static int MAX_LONG_LENGTH = 20;
+
+    /// The escaped form of the ASCII characters that cannot be written as is in a Json string, null for the others
+    private static final String[] ESCAPES = createEscapes();
+
+    private final static int INITIAL_MAX_DEPTH = 8;
+
+    // Field names are a small set of constants, the limit only protects against serializable classes that make up names
+    private final static int MAX_ENCODED_NAMES = 1024;
+
+    /**
+     * A field name encoded with its quotes and the name value separator, with and without a separator before it.
+     */
+    private final static class EncodedName {
+        private final char[] first;
+        private final char[] next;
+        private final byte[] firstUtf8;
+        private final byte[] nextUtf8;
+
+        private EncodedName(String name) {
+            String encoded = JSON_COMMA + name + JSON_COMMA + JSON_NAME_VALUE_SEPARATOR;
+            first = encoded.toCharArray();
+            next = (JSON_SEPARATOR + encoded).toCharArray();
+            firstUtf8 = encodeUtf8(first);
+            nextUtf8 = encodeUtf8(next);
+        }
+    }
+
+    private final static ConcurrentMap<String, EncodedName> ENCODED_NAMES = new ConcurrentHashMap<String, EncodedName>();
 
     private Writer out;
 
+    /// The writer when it is a UTF-8 writer, so constants can be written as bytes
+    private Utf8BytesWriter utf8Out;
+
+    /// The tags that were copied from the context of the client and that context, see setTagsSource
+    private Map<String, String> tags;
+    private TelemetryContext tagsSource;
+
     private String separator = "";
 
+    /// The separators and names of the nested objects that are being written, a null name is an item of an array
+    private String[] objectSeparators = new String[INITIAL_MAX_DEPTH];
+    private String[] objectNames = new String[INITIAL_MAX_DEPTH];
+    private int depth;
+
+    /// The nested objects from that depth on did not write anything yet, so their beginning was not written either
+    private int pendingDepth;
+
+    /// The digits of the integral numbers are written here, so they are written without creating a string
+    private final char[] digits = new char[MAX_LONG_LENGTH];
+
     public JsonTelemetryDataSerializer(Writer out) throws IOException {
         reset(out);
     }
 
     public void reset(Writer out) throws IOException {
         separator = "";
+        depth = 0;
+        pendingDepth = 0;
+        tags = null;
+        tagsSource = null;
         this.out = out;
+        this.utf8Out = out instanceof Utf8BytesWriter ? (Utf8BytesWriter) out : null;
         this.out.write(JSON_START_OBJECT);
     }
 
@@ -76,14 +134,14 @@ public final class JsonTelemetryDataSerializer {
     public void write(String name, DataPointType value) throws IOException {
         if (value != null) {
             writeName(name);
-            out.write(String.valueOf(value.getValue()));
+            writeNumber(value.getValue());
             separator = JSON_SEPARATOR;
         }
     }
 
     public void write(String name, int value) throws IOException {
         writeName(name);
-        out.write(String.valueOf(value));
+        writeNumber(value);
         separator = JSON_SEPARATOR;
     }
 
@@ -101,7 +159,7 @@ public final class JsonTelemetryDataSerializer {
         }
 
         writeName(name);
-        out.write(String.valueOf(value));
+        writeNumber(value);
         separator = JSON_SEPARATOR;
     }
 
@@ -123,7 +181,7 @@ public final class JsonTelemetryDataSerializer {
 
     public void write(String name, short value) throws IOException {
         writeName(name);
-        out.write(String.valueOf(value));
+        writeNumber(value);
         separator = JSON_SEPARATOR;
     }
 
@@ -133,13 +191,13 @@ public final class JsonTelemetryDataSerializer {
         }
 
         writeName(name);
-        out.write(String.valueOf(value));
+        writeNumber(value);
         separator = JSON_SEPARATOR;
     }
 
     public void write(String name, long value) throws IOException {
         writeName(name);
-        out.write(String.valueOf(value));
+        writeNumber(value);
         separator = JSON_SEPARATOR;
     }
 
@@ -149,7 +207,7 @@ public final class JsonTelemetryDataSerializer {
         }
 
         writeName(name);
-        out.write(String.valueOf(value));
+        writeNumber(value);
         separator = JSON_SEPARATOR;
     }
 
@@ -175,7 +233,9 @@ public final class JsonTelemetryDataSerializer {
         }
 
         writeName(name);
-        write(LocalStringsUtils.getDateFormatter().format(value));
+        out.write(JSON_COMMA);
+        TimestampFormatter.INSTANCE.write(out, value.getTime());
+        out.write(JSON_COMMA);
         separator = JSON_SEPARATOR;
     }
 
@@ -196,15 +256,7 @@ public final class JsonTelemetryDataSerializer {
             return;
         }
 
-        String jsonStringToAppend = createJsonFor(value);
-        if (Strings.isNullOrEmpty(jsonStringToAppend)) {
-            return;
-        }
-
-        writeName(name);
-        out.write(jsonStringToAppend);
-
-        separator = JSON_SEPARATOR;
+        writeObject(name, value);
     }
 
     public <T> void write(String name, Map<String, T> map) throws IOException {
@@ -212,6 +264,10 @@ public final class JsonTelemetryDataSerializer {
             return;
         }
 
+        if (map == tags && writeTags(name)) {
+            return;
+        }
+
         writeName(name);
         try {
             if (map.size() < 1) {
@@ -220,11 +276,7 @@ public final class JsonTelemetryDataSerializer {
                 out.write(JSON_START_OBJECT);
 
                 separator = "";
-                for (Map.Entry<String, T> entry : map.entrySet()) {
-                    writeName(entry.getKey());
-                    write(entry.getValue());
-                    separator = JSON_SEPARATOR;
-                }
+                writeEntries(map);
 
                 out.write(JSON_CLOSE_OBJECT);
             }
@@ -246,8 +298,13 @@ public final class JsonTelemetryDataSerializer {
                 out.write(JSON_START_ARRAY);
                 separator = "";
                 for (T item : list) {
+                    if (item instanceof JsonSerializable) {
+                        writeObject(null, (JsonSerializable) item);
+                        continue;
+                    }
+
                     out.write(separator);
-                    write(item);
+                    writeValue(item);
                     separator = JSON_SEPARATOR;
                 }
 
@@ -258,93 +315,265 @@ public final class JsonTelemetryDataSerializer {
         }
     }
 
-    private <T> void write(T item) throws IOException {
-        if (item instanceof JsonSerializable) {
-            StringWriter stringWriter = new StringWriter();
+    /**
+     * Lets the serializer write the tags that were copied from the context of the client as one constant,
+     * when the map of tags is written.
+     * @param tags The tags of the telemetry.
+     * @param source The context the tags were copied from, or null.
+     */
+    void setTagsSource(Map<String, String> tags, TelemetryContext source) {
+        this.tags = source == null ? null : tags;
+        this.tagsSource = source;
+    }
 
-            String jsonStringToAppend = createJsonFor((JsonSerializable)item);
-            if (Strings.isNullOrEmpty(jsonStringToAppend)) {
-                return;
+    /**
+     * Writes the entries of the map, the separator is expected to be set before the first entry.
+     */
+    <T> void writeEntries(Map<String, T> map) throws IOException {
+        for (Map.Entry<String, T> entry : map.entrySet()) {
+            T value = entry.getValue();
+            if (value instanceof JsonSerializable) {
+                writeObject(entry.getKey(), (JsonSerializable) value);
+                continue;
             }
 
-            out.write(jsonStringToAppend);
-        } else {
-            if (WRAPPER_TYPES.contains(item.getClass()))
-            {
-                out.write(String.valueOf(item));
+            writeKey(entry.getKey());
+            writeValue(value);
+            separator = JSON_SEPARATOR;
+        }
+    }
+
+    /**
+     * Writes the tags, using the serialized form of the tags of the client's context for those that were copied from it.
+     * @return False if the tags do not hold the tags of the client's context as they were serialized, so they should be written as usual.
+     */
+    private boolean writeTags(String name) throws IOException {
+        Map<String, String> currentTags = tags;
+        TelemetryContext source = tagsSource;
+        tags = null;
+        tagsSource = null;
+
+        if (currentTags.isEmpty()) {
+            return false;
+        }
+
+        SerializedTags serialized = source.getSerializedTags();
+        if (serialized == null || !serialized.isContainedIn(currentTags)) {
+            // Either the telemetry changed a tag it copied, or the tags of the client's context changed since they were serialized
+            ConcurrentMap<String, String> sourceTags = source.getTags();
+            if (sourceTags.isEmpty() || (serialized != null && serialized.isSnapshotOf(sourceTags))) {
+                return false;
+            }
+
+            serialized = SerializedTags.create(sourceTags);
+            source.setSerializedTags(serialized);
+            if (!serialized.isContainedIn(currentTags)) {
+                return false;
+            }
+        }
+
+        writeName(name);
+        try {
+            out.write(JSON_START_OBJECT);
+            if (utf8Out != null) {
+                utf8Out.writeUtf8(serialized.getUtf8());
             } else {
+                out.write(serialized.getChars());
+            }
+
+            separator = JSON_SEPARATOR;
+            for (Map.Entry<String, String> entry : currentTags.entrySet()) {
+                if (!serialized.contains(entry.getKey(), entry.getValue())) {
+                    writeKey(entry.getKey());
+                    writeValue(entry.getValue());
+                }
+            }
+
+            out.write(JSON_CLOSE_OBJECT);
+        } finally {
+            separator = JSON_SEPARATOR;
+        }
+
+        return true;
+    }
+
+    /**
+     * Writes a value of a map or a list, by its type.
+     */
+    private void writeValue(Object item) throws IOException {
+        if (item instanceof String) {
+            out.write(JSON_COMMA);
+            writeEscapedString((String) item);
+            out.write(JSON_COMMA);
+        } else if (item instanceof Integer || item instanceof Long || item instanceof Short || item instanceof Byte) {
+            writeNumber(((Number) item).longValue());
+        } else if (item instanceof Double || item instanceof Float || item instanceof Boolean) {
+            out.write(String.valueOf(item));
+        } else {
+            out.write(JSON_COMMA);
+            writeEscapedString(String.valueOf(item));
+            out.write(JSON_COMMA);
+        }
+    }
+
+    /**
+     * Writes the decimal digits of the number.
+     */
+    private void writeNumber(long value) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            // Cannot be negated
+            out.write(String.valueOf(value));
+            return;
+        }
+
+        long remainder = value < 0 ? -value : value;
+        int position = MAX_LONG_LENGTH;
+        do {
+            digits[--position] = (char) ('0' + remainder % 10);
+            remainder /= 10;
+        } while (remainder != 0);
+
+        if (value < 0) {
+            digits[--position] = '-';
+        }
+
+        out.write(digits, position, MAX_LONG_LENGTH - position);
+    }
+
+    /**
+     * Writes a nested object, its beginning is written only when it writes its first field,
+     * so nothing is written for an empty object.
+     * @param name The name of the object, or null for an item of an array.
+     */
+    private void writeObject(String name, JsonSerializable value) throws IOException {
+        if (depth == objectNames.length) {
+            objectSeparators = Arrays.copyOf(objectSeparators, depth * 2);
+            objectNames = Arrays.copyOf(objectNames, depth * 2);
+        }
+        objectSeparators[depth] = separator;
+        objectNames[depth] = name;
+        ++depth;
+
+        separator = "";
+        value.serialize(this);
+
+        --depth;
+        if (pendingDepth > depth) {
+            // The object wrote a field, so its beginning was already written
+            pendingDepth = depth;
+            out.write(JSON_CLOSE_OBJECT);
+            separator = JSON_SEPARATOR;
+        } else {
+            separator = objectSeparators[depth];
+        }
+        objectSeparators[depth] = null;
+        objectNames[depth] = null;
+    }
+
+    /**
+     * Writes the beginning of the nested objects that did not write anything yet.
+     */
+    private void writePendingObjects() throws IOException {
+        for (; pendingDepth < depth; ++pendingDepth) {
+            out.write(objectSeparators[pendingDepth]);
+            String name = objectNames[pendingDepth];
+            if (name != null) {
                 out.write(JSON_COMMA);
-                out.write(String.valueOf(item));
+                writeEscapedString(name);
                 out.write(JSON_COMMA);
+                out.write(JSON_NAME_VALUE_SEPARATOR);
             }
+            out.write(JSON_START_OBJECT);
         }
     }
 
-    private <T extends JsonSerializable> String createJsonFor(T value) throws IOException {
-        StringWriter stringWriter = new StringWriter();
-        JsonTelemetryDataSerializer temp = new JsonTelemetryDataSerializer(new BufferedWriter(stringWriter));
+    /**
+     * Writes the name of a field, encoded once per name.
+     */
+    private void writeName(String name) throws IOException {
+        if (pendingDepth < depth) {
+            writePendingObjects();
+        }
 
-        value.serialize(temp);
-        temp.close();
-        String jsonStringToAppend = stringWriter.toString();
-        if (Strings.isNullOrEmpty(jsonStringToAppend) || JSON_EMPTY_OBJECT.equals(jsonStringToAppend)) {
-            return "";
+        EncodedName encoded = ENCODED_NAMES.get(name);
+        if (encoded == null) {
+            if (ENCODED_NAMES.size() >= MAX_ENCODED_NAMES) {
+                writeKey(name);
+                return;
+            }
+
+            encoded = new EncodedName(name);
+            ENCODED_NAMES.putIfAbsent(name, encoded);
         }
 
-        return jsonStringToAppend;
+        boolean first = separator.length() == 0;
+        if (utf8Out != null) {
+            utf8Out.writeUtf8(first ? encoded.firstUtf8 : encoded.nextUtf8);
+        } else {
+            out.write(first ? encoded.first : encoded.next);
+        }
     }
 
-    private void writeName(String name) throws IOException {
+    /**
+     * Writes the key of a map entry, keys are not encoded in advance since they are not constants, and are escaped.
+     */
+    private void writeKey(String key) throws IOException {
+        if (pendingDepth < depth) {
+            writePendingObjects();
+        }
+
         out.write(separator);
         out.write(JSON_COMMA);
-        out.write(name);
+        writeEscapedString(key);
         out.write(JSON_COMMA);
         out.write(JSON_NAME_VALUE_SEPARATOR);
     }
 
-    private static Set<Class<?>> getWrapperTypes()
-    {
-        Set<Class<?>> ret = new HashSet<Class<?>>();
-        ret.add(Boolean.class);
-        ret.add(Character.class);
-        ret.add(Byte.class);
-        ret.add(Short.class);
-        ret.add(Integer.class);
-        ret.add(Long.class);
-        ret.add(Float.class);
-        ret.add(Double.class);
-        ret.add(Void.class);
-        return ret;
+    private static byte[] encodeUtf8(char[] chars) {
+        Utf8BytesWriter writer = new Utf8BytesWriter(chars.length);
+        writer.write(chars, 0, chars.length);
+        return writer.toByteArray();
     }
 
+    /**
+     * Writes the string escaped as the content of a Json string, the runs of characters that need no escaping are written as is.
+     */
     protected void writeEscapedString(String value) throws IOException {
-        for (char c : value.toCharArray()) {
-            switch (c) {
-                case '\\':
-                    out.write("\\\\");
-                    break;
-                case '"':
-                    out.write("\\\"");
-                    break;
-                case '\n':
-                    out.write("\\n");
-                    break;
-                case '\b':
-                    out.write("\\b");
-                    break;
-                case '\f':
-                    out.write("\\f");
-                    break;
-                case '\r':
-                    out.write("\\r");
-                    break;
-                case '\t':
-                    out.write("\\t");
-                    break;
-                default:
-                    out.write(c);
-                    break;
+        int length = value.length();
+        int start = 0;
+        for (int i = 0; i < length; ++i) {
+            char c = value.charAt(i);
+            if (c < ESCAPES.length) {
+                String escape = ESCAPES[c];
+                if (escape != null) {
+                    if (i > start) {
+                        out.write(value, start, i - start);
+                    }
+                    out.write(escape);
+                    start = i + 1;
+                }
             }
         }
+
+        if (start == 0) {
+            out.write(value);
+        } else if (start < length) {
+            out.write(value, start, length - start);
+        }
+    }
+
+    private static String[] createEscapes() {
+        String[] escapes = new String[128];
+        for (int c = 0; c < 0x20; ++c) {
+            escapes[c] = String.format("\\u%04x", c);
+        }
+        escapes['\\'] = "\\\\";
+        escapes['"'] = "\\\"";
+        escapes['\n'] = "\\n";
+        escapes['\b'] = "\\b";
+        escapes['\f'] = "\\f";
+        escapes['\r'] = "\\r";
+        escapes['\t'] = "\\t";
+        return escapes;
     }
 }
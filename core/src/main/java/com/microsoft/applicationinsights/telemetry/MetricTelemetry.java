@@ -47,6 +47,9 @@ public final class MetricTelemetry extends BaseTelemetry<MetricData> {
      */
     private static final String BASE_TYPE = "MetricData";
 
+    private static final double[] HISTOGRAM_PERCENTILES = { 50, 90, 95, 99 };
+    private static final String HISTOGRAM_BUCKET_PREFIX = "Bucket.";
+
     /**
      * Default constructor
      */
@@ -69,6 +72,35 @@ public final class MetricTelemetry extends BaseTelemetry<MetricData> {
         metric.setValue(value);
     }
 
+    /**
+     * Initializes the instance with the values of a histogram.
+     *
+     * The value of the metric is the sum of the values, with their count, min and max. The percentiles
+     * 50, 90, 95 and 99 are sent as the 'p50', 'p90', 'p95' and 'p99' properties, and every bucket that has values
+     * is sent as a property named 'Bucket.lower-upper' that holds the number of values from lower up to, but not including, upper.
+     * @param name The name of the metric. Length 1-150 characters.
+     * @param histogram The histogram.
+     */
+    public MetricTelemetry(String name, Histogram histogram) {
+        this(name, histogram.getSum());
+
+        setCount((int) Math.min(histogram.getCount(), Integer.MAX_VALUE));
+        setMin((double) histogram.getMin());
+        setMax((double) histogram.getMax());
+
+        for (double percentile : HISTOGRAM_PERCENTILES) {
+            data.getProperties().put("p" + (int) percentile, String.valueOf(histogram.getValueAtPercentile(percentile)));
+        }
+
+        for (int i = 0; i < Histogram.getNumberOfBuckets(); ++i) {
+            long bucketCount = histogram.getBucketCount(i);
+            if (bucketCount != 0) {
+                String upperBound = i == Histogram.getNumberOfBuckets() - 1 ? "" : String.valueOf(Histogram.getBucketUpperBound(i));
+                data.getProperties().put(HISTOGRAM_BUCKET_PREFIX + Histogram.getBucketLowerBound(i) + "-" + upperBound, String.valueOf(bucketCount));
+            }
+        }
+    }
+
     /**
      * indicate that this metric is a custom performance counter and should be sent to the performance counters table
      */
@@ -176,6 +208,19 @@ public final class MetricTelemetry extends BaseTelemetry<MetricData> {
         metric.setStdDev(value); updateKind();
     }
 
+    @Override
+    public void reset() {
+        super.reset();
+
+        metric.setName(null);
+        metric.setKind(DataPointType.Measurement);
+        metric.setValue(0);
+        metric.setCount(null);
+        metric.setMin(null);
+        metric.setMax(null);
+        metric.setStdDev(null);
+    }
+
     @Override
     protected void additionalSanitize() {
         metric.setName(Sanitizer.sanitizeName(metric.getName()));
@@ -49,6 +49,8 @@ public final class RemoteDependencyTelemetry extends BaseSampleSourceTelemetry<R
      */
     private static final String BASE_TYPE = "RemoteDependencyData";
 
+    private static final Duration NO_DURATION = new Duration(0);
+
 
     /**
      * Default Ctor
@@ -228,6 +230,14 @@ public final class RemoteDependencyTelemetry extends BaseSampleSourceTelemetry<R
         data.setType(value);
     }
 
+    /**
+     * Gets the result code of the dependency call.
+     * @return The result code.
+     */
+    public String getResultCode() {
+        return data.getResultCode();
+    }
+
     public void setResultCode(String value) {
         data.setResultCode(value);
     }
@@ -309,6 +319,21 @@ public final class RemoteDependencyTelemetry extends BaseSampleSourceTelemetry<R
         this.samplingPercentage = samplingPercentage;
     }
 
+    @Override
+    public void reset() {
+        super.reset();
+
+        data.setName(null);
+        data.setId(null);
+        data.setResultCode(null);
+        data.setDuration(NO_DURATION);
+        data.setSuccess(true);
+        data.setData(null);
+        data.setType(null);
+        data.setTarget(null);
+        data.getMeasurements().clear();
+    }
+
     @Override
     protected void additionalSanitize() {
         data.setName(Sanitizer.sanitizeName(data.getName()));
@@ -56,6 +56,8 @@ public final class RequestTelemetry extends BaseSampleSourceTelemetry<RequestDat
      */
     private static final String BASE_TYPE = "RequestData";
 
+    private static final Duration NO_DURATION = new Duration(0);
+
 
     /**
      * Initializes a new instance of the HttpRequestTelemetry class.
@@ -63,12 +65,7 @@ public final class RequestTelemetry extends BaseSampleSourceTelemetry<RequestDat
     public RequestTelemetry() {
         this.data = new RequestData();
         initialize(this.data.getProperties());
-        setId(LocalStringsUtils.generateRandomIntegerId());
-
-        // Setting mandatory fields.
-        setTimestamp(new Date());
-        setResponseCode(Integer.toString(HttpStatus.SC_OK));
-        setSuccess(true);
+        setMandatoryFields();
     }
 
     /**
@@ -271,6 +268,19 @@ public final class RequestTelemetry extends BaseSampleSourceTelemetry<RequestDat
         this.samplingPercentage = samplingPercentage;
     }
 
+    @Override
+    public void reset() {
+        super.reset();
+
+        httpMethod = null;
+        data.setName(null);
+        data.setDuration(NO_DURATION);
+        data.setSource(null);
+        data.setUrl(null);
+        data.getMeasurements().clear();
+        setMandatoryFields();
+    }
+
     @Override
     protected void additionalSanitize() {
         data.setName(Sanitizer.sanitizeName(data.getName()));
@@ -284,6 +294,13 @@ public final class RequestTelemetry extends BaseSampleSourceTelemetry<RequestDat
         return data;
     }
 
+    private void setMandatoryFields() {
+        setId(LocalStringsUtils.generateRandomIntegerId());
+        setTimestamp(new Date());
+        setResponseCode(Integer.toString(HttpStatus.SC_OK));
+        setSuccess(true);
+    }
+
     @Override
     public String getEnvelopName() {
         return ENVELOPE_NAME;
@@ -0,0 +1,104 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.telemetry;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.microsoft.applicationinsights.internal.util.Utf8BytesWriter;
+
+/**
+ * The tags of a {@link TelemetryContext} serialized as Json map entries, so the tags that telemetries copy from the
+ * context of their client are serialized once and not once per telemetry.
+ *
+ * The instance is immutable, it keeps the tags it was created from to find whether a telemetry still holds them.
+ */
+final class SerializedTags {
+    private final Map<String, String> tags;
+    private final char[] chars;
+    private final byte[] utf8;
+
+    private SerializedTags(Map<String, String> tags, char[] chars, byte[] utf8) {
+        this.tags = tags;
+        this.chars = chars;
+        this.utf8 = utf8;
+    }
+
+    /**
+     * Serializes the current tags.
+     * @param source The tags to serialize, they might be changed while they are serialized.
+     * @return The serialized tags.
+     * @throws IOException The exception that might be thrown during the serialization.
+     */
+    static SerializedTags create(Map<String, String> source) throws IOException {
+        Map<String, String> tags = new HashMap<String, String>(source);
+
+        StringWriter writer = new StringWriter();
+        JsonTelemetryDataSerializer serializer = new JsonTelemetryDataSerializer(writer);
+        serializer.writeEntries(tags);
+
+        // The serializer starts by opening an object, only the entries are kept
+        String entries = writer.toString().substring(1);
+        Utf8BytesWriter utf8Writer = new Utf8BytesWriter(entries.length());
+        utf8Writer.write(entries);
+
+        return new SerializedTags(tags, entries.toCharArray(), utf8Writer.toByteArray());
+    }
+
+    /**
+     * @return True if every serialized tag has the same value in the tags.
+     */
+    boolean isContainedIn(Map<String, String> tags) {
+        if (tags.size() < this.tags.size()) {
+            return false;
+        }
+
+        for (Map.Entry<String, String> entry : this.tags.entrySet()) {
+            if (!entry.getValue().equals(tags.get(entry.getKey()))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @return True if the tags are exactly the serialized tags.
+     */
+    boolean isSnapshotOf(Map<String, String> tags) {
+        return tags.size() == this.tags.size() && isContainedIn(tags);
+    }
+
+    boolean contains(String key, String value) {
+        return value.equals(tags.get(key));
+    }
+
+    char[] getChars() {
+        return chars;
+    }
+
+    byte[] getUtf8() {
+        return utf8;
+    }
+}
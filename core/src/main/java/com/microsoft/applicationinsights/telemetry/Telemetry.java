@@ -85,5 +85,8 @@ public interface Telemetry extends JsonSerializable
      */
     void serialize(JsonTelemetryDataSerializer writer) throws IOException;
 
+    /**
+     * Resets the telemetry to the state of a new telemetry, so it can be reused, see {@link TelemetryPool}.
+     */
     void reset();
 }
@@ -58,6 +58,10 @@ public final class TelemetryContext {
     private LocationContext location;
     private InternalContext internal;
 
+    /// The context the tags were copied from, so the tags it holds can be serialized once, see SerializedTags
+    private TelemetryContext source;
+    private volatile SerializedTags serializedTags;
+
     /**
      * Default Ctor
      */
@@ -196,6 +200,7 @@ public final class TelemetryContext {
 
         if (source.tags != null && source.tags.size() > 0) {
             MapUtil.copy(source.tags, this.tags);
+            this.source = source;
         }
         if (source.properties != null && source.properties.size() > 0) {
             MapUtil.copy(source.properties, this.properties);
@@ -210,6 +215,29 @@ public final class TelemetryContext {
         return internal;
     }
 
+    /**
+     * Removes the data of the context, so the telemetry that holds it can be reused.
+     */
+    void reset() {
+        properties.clear();
+        tags.clear();
+        instrumentationKey = null;
+        source = null;
+        serializedTags = null;
+    }
+
+    TelemetryContext getSource() {
+        return source;
+    }
+
+    SerializedTags getSerializedTags() {
+        return serializedTags;
+    }
+
+    void setSerializedTags(SerializedTags serializedTags) {
+        this.serializedTags = serializedTags;
+    }
+
     TelemetryContext(ConcurrentMap<String, String> properties, ConcurrentMap<String, String> tags) {
         if (properties == null) {
             throw new IllegalArgumentException("properties cannot be null");
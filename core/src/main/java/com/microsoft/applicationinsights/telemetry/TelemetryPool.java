@@ -0,0 +1,234 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.telemetry;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.microsoft.applicationinsights.TelemetryConfiguration;
+import com.microsoft.applicationinsights.channel.TelemetryChannel;
+import com.microsoft.applicationinsights.internal.logger.InternalLogger;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Throwables;
+
+/**
+ * Pools of telemetries that are reused once they are sent, to cut the allocations of the telemetries
+ * that are tracked for every request and dependency.
+ *
+ * Pooling is opt-in per configuration, see {@link TelemetryConfiguration#setTelemetryPoolingEnabled(boolean)},
+ * the pools create a new telemetry every time for the configurations that do not enable it.
+ * A telemetry taken from a pool is owned by the caller until it is tracked with a client of the same configuration,
+ * from then on it is owned by the SDK, which resets the telemetry and returns it to its pool once it was sent,
+ * sampled out or dropped. Therefore the telemetry must not be used, or referenced by other threads, after it was tracked.
+ *
+ * When the channel of the configuration is in developer mode, the pools keep where every telemetry was taken,
+ * and report the telemetries that were garbage collected without being returned to their pool,
+ * i.e. telemetries that were not tracked or that were sent by a channel that does not return them.
+ *
+ * @param <T> The type of the pooled telemetries.
+ */
+public abstract class TelemetryPool<T extends BaseTelemetry<?>> {
+    public final static int DEFAULT_CAPACITY = 256;
+
+    public final static TelemetryPool<RequestTelemetry> REQUESTS = new TelemetryPool<RequestTelemetry>(DEFAULT_CAPACITY) {
+        @Override
+        protected RequestTelemetry create() {
+            return new RequestTelemetry();
+        }
+    };
+
+    public final static TelemetryPool<RemoteDependencyTelemetry> DEPENDENCIES = new TelemetryPool<RemoteDependencyTelemetry>(DEFAULT_CAPACITY) {
+        @Override
+        protected RemoteDependencyTelemetry create() {
+            return new RemoteDependencyTelemetry();
+        }
+    };
+
+    public final static TelemetryPool<TraceTelemetry> TRACES = new TelemetryPool<TraceTelemetry>(DEFAULT_CAPACITY) {
+        @Override
+        protected TraceTelemetry create() {
+            return new TraceTelemetry();
+        }
+    };
+
+    public final static TelemetryPool<MetricTelemetry> METRICS = new TelemetryPool<MetricTelemetry>(DEFAULT_CAPACITY) {
+        @Override
+        protected MetricTelemetry create() {
+            return new MetricTelemetry();
+        }
+    };
+
+    // The states of a pooled telemetry
+    final static int FREE = 0;
+    final static int IN_USE = 1;
+
+    @SuppressWarnings("rawtypes")
+    private final static AtomicIntegerFieldUpdater<BaseTelemetry> POOL_STATE = AtomicIntegerFieldUpdater.newUpdater(BaseTelemetry.class, "poolState");
+
+    /**
+     * Keeps where a telemetry was taken from its pool, it is enqueued once the telemetry is garbage collected.
+     */
+    private final static class LeakReference extends WeakReference<BaseTelemetry<?>> {
+        private final String type;
+        private final Throwable takenAt;
+
+        private LeakReference(BaseTelemetry<?> telemetry, ReferenceQueue<BaseTelemetry<?>> queue) {
+            super(telemetry, queue);
+            this.type = telemetry.getClass().getSimpleName();
+            this.takenAt = new Throwable("Taken from the pool");
+        }
+    }
+
+    private final BlockingQueue<T> telemetries;
+
+    /// The telemetries that are tracked by leak detection, they are removed when they are returned to the pool
+    private final Set<LeakReference> taken = Collections.newSetFromMap(new ConcurrentHashMap<LeakReference, Boolean>());
+    private final ReferenceQueue<BaseTelemetry<?>> collected = new ReferenceQueue<BaseTelemetry<?>>();
+    private final AtomicLong leaks = new AtomicLong();
+
+    @VisibleForTesting
+    TelemetryPool(int capacity) {
+        telemetries = new ArrayBlockingQueue<T>(capacity);
+    }
+
+    /**
+     * Returns the telemetry to its pool, if it was taken from a pool, the telemetry is reset and must not be used afterwards.
+     * This is called by the SDK once the telemetry was sent or dropped.
+     * @param telemetry The telemetry.
+     */
+    public static void release(Telemetry telemetry) {
+        if (!(telemetry instanceof BaseTelemetry)) {
+            return;
+        }
+
+        BaseTelemetry<?> baseTelemetry = (BaseTelemetry<?>) telemetry;
+        TelemetryPool<?> pool = baseTelemetry.pool;
+        if (pool != null) {
+            pool.giveBack(baseTelemetry);
+        }
+    }
+
+    /**
+     * Takes a telemetry from the pool, or creates a new one when the pool is empty or the configuration does not enable pooling.
+     * The telemetry is in the state of a telemetry created with the default constructor.
+     * @param configuration The configuration of the client that tracks the telemetry.
+     * @return The telemetry.
+     */
+    public T acquire(TelemetryConfiguration configuration) {
+        if (configuration == null || !configuration.isTelemetryPoolingEnabled()) {
+            return create();
+        }
+
+        // Keeping where every telemetry was taken is expensive, leaks are only looked for while debugging
+        TelemetryChannel channel = configuration.getChannel();
+        boolean leakDetection = channel != null && channel.isDeveloperMode();
+        if (leakDetection) {
+            detectLeaks();
+        }
+
+        T telemetry = telemetries.poll();
+        if (telemetry == null) {
+            telemetry = create();
+            telemetry.pool = this;
+        }
+        telemetry.poolState = IN_USE;
+
+        if (leakDetection) {
+            LeakReference reference = new LeakReference(telemetry, collected);
+            taken.add(reference);
+            telemetry.leakReference = reference;
+        }
+
+        return telemetry;
+    }
+
+    /**
+     * @return The number of telemetries in the pool, waiting to be reused.
+     */
+    public int size() {
+        return telemetries.size();
+    }
+
+    /**
+     * @return The number of telemetries that leak detection found were not returned to the pool.
+     */
+    public long getNumberOfLeaks() {
+        return leaks.get();
+    }
+
+    /**
+     * Reports the telemetries that were garbage collected without being returned to the pool.
+     * @return The number of telemetries that were found.
+     */
+    @VisibleForTesting
+    int detectLeaks() {
+        int found = 0;
+        Reference<? extends BaseTelemetry<?>> reference;
+        while ((reference = collected.poll()) != null) {
+            if (taken.remove(reference)) {
+                LeakReference leak = (LeakReference) reference;
+                ++found;
+                leaks.incrementAndGet();
+                InternalLogger.INSTANCE.error("A pooled %s was garbage collected without being returned to its pool, it was %s",
+                        leak.type, Throwables.getStackTraceAsString(leak.takenAt));
+            }
+        }
+
+        return found;
+    }
+
+    protected abstract T create();
+
+    @SuppressWarnings("unchecked")
+    private void giveBack(BaseTelemetry<?> telemetry) {
+        if (!POOL_STATE.compareAndSet(telemetry, IN_USE, FREE)) {
+            InternalLogger.INSTANCE.error("A pooled %s was returned to its pool more than once", telemetry.getClass().getSimpleName());
+            return;
+        }
+
+        Object reference = telemetry.leakReference;
+        if (reference != null) {
+            telemetry.leakReference = null;
+            taken.remove(reference);
+            ((LeakReference) reference).clear();
+        }
+
+        try {
+            telemetry.reset();
+        } catch (Throwable t) {
+            InternalLogger.INSTANCE.error("Failed to reset a pooled %s, it is not reused: %s", telemetry.getClass().getSimpleName(), t.getMessage());
+            return;
+        }
+
+        // The telemetry is dropped when the pool is full
+        telemetries.offer((T) telemetry);
+    }
+}
@@ -85,6 +85,14 @@ public final class TraceTelemetry extends BaseSampleSourceTelemetry<MessageData>
         data.setMessage(message);
     }
 
+    @Override
+    public void reset() {
+        super.reset();
+
+        setMessage("");
+        setSeverityLevel(null);
+    }
+
     @Override
     protected void additionalSanitize() {
         data.setMessage(Sanitizer.sanitizeMessage(data.getMessage()));
@@ -0,0 +1,194 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import com.microsoft.applicationinsights.telemetry.MetricTelemetry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public final class MetricAggregatorTest {
+    private List<MetricTelemetry> sent;
+    private TelemetryClient client;
+
+    @Before
+    public void setUp() {
+        sent = new ArrayList<MetricTelemetry>();
+        client = Mockito.mock(TelemetryClient.class);
+        Mockito.doAnswer(new Answer() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                sent.add((MetricTelemetry) invocation.getArguments()[0]);
+                return null;
+            }
+        }).when(client).trackMetric(Mockito.any(MetricTelemetry.class));
+    }
+
+    @Test
+    public void testValuesAreAggregatedToOneMetric() {
+        MetricAggregator aggregator = new MetricAggregator(client, 0, 10, 4);
+
+        aggregator.trackValue("latency", 2.0);
+        aggregator.trackValue("latency", 4.0);
+        aggregator.trackValue("latency", 6.0);
+        aggregator.flush();
+
+        assertEquals(1, sent.size());
+        MetricTelemetry metric = sent.get(0);
+        assertEquals("latency", metric.getName());
+        assertEquals(12.0, metric.getValue(), 0.0);
+        assertEquals(Integer.valueOf(3), metric.getCount());
+        assertEquals(2.0, metric.getMin(), 0.0);
+        assertEquals(6.0, metric.getMax(), 0.0);
+        assertEquals(Math.sqrt(8.0 / 3.0), metric.getStandardDeviation(), 1e-9);
+    }
+
+    @Test
+    public void testNothingIsSentWithoutValues() {
+        MetricAggregator aggregator = new MetricAggregator(client, 0, 10, 4);
+
+        aggregator.trackValue("latency", 1.0);
+        aggregator.flush();
+        aggregator.flush();
+
+        assertEquals(1, sent.size());
+    }
+
+    @Test
+    public void testSeriesAreKeyedByDimensions() {
+        MetricAggregator aggregator = new MetricAggregator(client, 0, 10, 4);
+
+        Map<String, String> first = new HashMap<String, String>();
+        first.put("region", "east");
+        first.put("tier", "gold");
+        Map<String, String> sameAsFirst = new HashMap<String, String>();
+        sameAsFirst.put("tier", "gold");
+        sameAsFirst.put("region", "east");
+        Map<String, String> second = new HashMap<String, String>();
+        second.put("region", "west");
+
+        assertSame(aggregator.getSeries("latency", first), aggregator.getSeries("latency", sameAsFirst));
+
+        aggregator.trackValue("latency", 1.0, first);
+        aggregator.trackValue("latency", 2.0, sameAsFirst);
+        aggregator.trackValue("latency", 5.0, second);
+        aggregator.flush();
+
+        assertEquals(2, sent.size());
+        for (MetricTelemetry metric : sent) {
+            if ("east".equals(metric.getProperties().get("region"))) {
+                assertEquals("gold", metric.getProperties().get("tier"));
+                assertEquals(3.0, metric.getValue(), 0.0);
+            } else {
+                assertEquals("west", metric.getProperties().get("region"));
+                assertEquals(5.0, metric.getValue(), 0.0);
+            }
+        }
+    }
+
+    @Test
+    public void testValuesOfNewSeriesAreDroppedWhenTheCapIsReached() {
+        MetricAggregator aggregator = new MetricAggregator(client, 0, 2, 4);
+
+        assertTrue(aggregator.trackValue("a", 1.0));
+        assertTrue(aggregator.trackValue("b", 1.0));
+        assertFalse(aggregator.trackValue("c", 1.0));
+        assertTrue(aggregator.trackValue("a", 1.0));
+        assertNull(aggregator.getSeries("c", null));
+
+        assertEquals(2, aggregator.getNumberOfSeries());
+        assertEquals(1, aggregator.getDroppedValues());
+    }
+
+    @Test
+    public void testIdleSeriesAreRemoved() {
+        MetricAggregator aggregator = new MetricAggregator(client, 0, 1, 4);
+
+        aggregator.trackValue("a", 1.0);
+        aggregator.flush();
+        assertFalse(aggregator.trackValue("b", 1.0));
+
+        aggregator.flush();
+        assertEquals(0, aggregator.getNumberOfSeries());
+        assertTrue(aggregator.trackValue("b", 1.0));
+    }
+
+    @Test
+    public void testRetiredSeriesForwardsToTheNewSeries() {
+        MetricAggregator aggregator = new MetricAggregator(client, 0, 1, 4);
+
+        MetricAggregator.Series series = aggregator.getSeries("a", null);
+        aggregator.flush();
+        assertEquals(0, aggregator.getNumberOfSeries());
+
+        series.trackValue(3.0);
+        assertEquals(1, aggregator.getNumberOfSeries());
+        aggregator.flush();
+
+        assertEquals(1, sent.size());
+        assertEquals(3.0, sent.get(0).getValue(), 0.0);
+    }
+
+    @Test
+    public void testConcurrentValuesAreNotLost() throws InterruptedException {
+        final MetricAggregator aggregator = new MetricAggregator(client, 0, 10, 8);
+        final MetricAggregator.Series series = aggregator.getSeries("counter", null);
+        final int numberOfThreads = 8;
+        final int valuesPerThread = 10000;
+        final CountDownLatch done = new CountDownLatch(numberOfThreads);
+
+        for (int i = 0; i < numberOfThreads; ++i) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < valuesPerThread; ++j) {
+                        series.trackValue(1.0);
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        done.await();
+        aggregator.flush();
+
+        assertEquals(1, sent.size());
+        assertNotNull(sent.get(0).getCount());
+        assertEquals(numberOfThreads * valuesPerThread, sent.get(0).getCount().intValue());
+        assertEquals((double) numberOfThreads * valuesPerThread, sent.get(0).getValue(), 0.0);
+    }
+}
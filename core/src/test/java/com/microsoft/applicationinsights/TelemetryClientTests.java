@@ -49,6 +49,7 @@ import org.mockito.stubbing.Answer;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
@@ -318,6 +319,23 @@ public final class TelemetryClientTests {
         verifyAndGetLastEventSent();
     }
 
+    @Test
+    public void testTrackHistogram() {
+        Histogram histogram = new Histogram();
+        histogram.record(10);
+        client.trackHistogram("Metric", histogram, null);
+
+        MetricTelemetry telemetry = (MetricTelemetry) verifyAndGetLastEventSent();
+        assertEquals(Integer.valueOf(1), telemetry.getCount());
+    }
+
+    @Test
+    public void testTrackEmptyHistogramIsNotSent() {
+        client.trackHistogram("Metric", new Histogram(), null);
+
+        verify(channel, times(0)).send(any(Telemetry.class));
+    }
+
     @Test
     public void testTrackExceptionWithPropertiesAndMetrics() {
         Exception exception = new Exception("Exception");
@@ -424,6 +442,23 @@ public final class TelemetryClientTests {
         Mockito.verify(channel, Mockito.never()).send(rt);
     }
 
+    @Test
+    public void testFilteredOutPooledTelemetryIsReturnedToItsPool() throws Throwable {
+        RequestTelemetryFilter filter = new RequestTelemetryFilter();
+        filter.setNotNeededResponseCodes("200-400");
+        configuration.getTelemetryProcessors().add(filter);
+
+        configuration.setTelemetryPoolingEnabled(true);
+        RequestTelemetry rt = TelemetryPool.REQUESTS.acquire(configuration);
+        rt.setName("GET /");
+        int pooled = TelemetryPool.REQUESTS.size();
+        client.trackRequest(rt);
+
+        Mockito.verify(channel, Mockito.never()).send(rt);
+        assertEquals(pooled + 1, TelemetryPool.REQUESTS.size());
+        assertNull(rt.getName());
+    }
+
     @Test
     public void testDontFilterOutTelemetry() throws Throwable {
         RequestTelemetryFilter filter = new RequestTelemetryFilter();
@@ -0,0 +1,86 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+import com.microsoft.applicationinsights.internal.channel.common.BackpressurePolicy;
+import com.microsoft.applicationinsights.internal.channel.common.TelemetryPriority;
+import com.microsoft.applicationinsights.internal.channel.common.TransmitterImpl;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public final class ChannelSettingsTest {
+    @Test
+    public void testDefaults() {
+        ChannelSettings settings = new ChannelSettings();
+
+        assertNull(settings.getEndpointAddress());
+        assertNull(settings.getMaxTransmissionStorageCapacity());
+        assertFalse(settings.isDeveloperMode());
+        assertTrue(settings.isThrottling());
+        assertFalse(settings.isLockFreeBuffer());
+        assertFalse(settings.isStreamingCompression());
+        assertEquals(Deflater.DEFAULT_COMPRESSION, settings.getCompressionLevel());
+        assertEquals(ChannelSettings.DEFAULT_MAX_BATCH_SIZE_IN_BYTES, settings.getMaxBatchSizeInBytes());
+        assertEquals(0, settings.getMaxInFlightRequests());
+        assertFalse(settings.isSegmentedStorage());
+        assertEquals(BackpressurePolicy.DROP_NEWEST, settings.getBackpressurePolicy());
+        assertEquals(TransmitterImpl.DEFAULT_BLOCK_TIMEOUT_IN_MILLIS, settings.getBackpressureTimeoutInMillis());
+        assertFalse(settings.hasPriorityLanes());
+        assertEquals(0, settings.getMaxCpuPercent());
+    }
+
+    @Test
+    public void testSettingsAreChangedByName() {
+        ChannelSettings settings = new ChannelSettings()
+                .withThrottling(false)
+                .withLockFreeBuffer(true)
+                .withMaxInFlightRequests(10)
+                .withBackpressurePolicy(BackpressurePolicy.BLOCK);
+
+        assertFalse(settings.isThrottling());
+        assertTrue(settings.isLockFreeBuffer());
+        assertFalse(settings.isStreamingCompression());
+        assertEquals(10, settings.getMaxInFlightRequests());
+        assertEquals(BackpressurePolicy.BLOCK, settings.getBackpressurePolicy());
+    }
+
+    @Test
+    public void testTelemetryPrioritiesAreCopied() {
+        Map<String, TelemetryPriority> priorities = new HashMap<String, TelemetryPriority>();
+        priorities.put("Request", TelemetryPriority.HIGH);
+
+        ChannelSettings settings = new ChannelSettings().withTelemetryPriorities(priorities);
+        priorities.clear();
+
+        assertTrue(settings.hasPriorityLanes());
+        assertEquals(TelemetryPriority.HIGH, settings.getTelemetryPriorities().get("Request"));
+    }
+}
@@ -25,6 +25,7 @@ import java.io.File;
 import java.io.IOException;
 import java.util.concurrent.TimeUnit;
 
+import com.microsoft.applicationinsights.internal.channel.LoadAwareTransmissionOutput;
 import com.microsoft.applicationinsights.internal.channel.TransmissionDispatcher;
 import org.junit.Test;
 import org.mockito.Mockito;
@@ -83,6 +84,90 @@ public class ActiveTransmissionLoaderTest {
         testFilesOnDiskAreLoaded(2, false);
     }
 
+    @Test
+    public void testLoaderIsWokenUpWhenTransmissionIsPersisted() throws Exception {
+        File folder = createFolderForTest();
+        ActiveTransmissionLoader tested = null;
+        try {
+            TransmissionFileSystemOutput fileSystem = new TransmissionFileSystemOutput(folder.getPath());
+            TransmissionDispatcher mockDispatcher = Mockito.mock(TransmissionDispatcher.class);
+            tested = new ActiveTransmissionLoader(fileSystem, mockDispatcher, mockStateFetcher(), 1);
+            assertTrue("Failed to load", tested.load(true));
+
+            // Let the thread find no files and wait
+            Thread.sleep(200);
+
+            fileSystem.send(new Transmission(new byte[2], "MockContentType", "MockEncodingType"));
+            long persistedTime = System.currentTimeMillis();
+            tested.onTransmissionPersisted();
+
+            waitForDispatches(mockDispatcher, 1);
+            assertTrue("Loader was not woken up", System.currentTimeMillis() - persistedTime < 1000);
+        } finally {
+            stopAndDelete(tested, folder);
+        }
+    }
+
+    @Test
+    public void testFilesAreLoadedOnlyWhenNetworkOutputHasCapacity() throws Exception {
+        File folder = createFolderForTest();
+        ActiveTransmissionLoader tested = null;
+        try {
+            TransmissionFileSystemOutput fileSystem = new TransmissionFileSystemOutput(folder.getPath());
+            for (int i = 0; i < 3; ++i) {
+                fileSystem.send(new Transmission(new byte[2], "MockContentType", "MockEncodingType"));
+            }
+
+            LoadAwareTransmissionOutput mockNetworkOutput = Mockito.mock(LoadAwareTransmissionOutput.class);
+            Mockito.doReturn(false).when(mockNetworkOutput).hasCapacityForLoadedTransmissions();
+            TransmissionDispatcher mockDispatcher = Mockito.mock(TransmissionDispatcher.class);
+            tested = new ActiveTransmissionLoader(fileSystem, mockDispatcher, mockStateFetcher(), 1, mockNetworkOutput);
+            assertTrue("Failed to load", tested.load(true));
+
+            Thread.sleep(300);
+            Mockito.verify(mockDispatcher, Mockito.never()).dispatch((Transmission) anyObject());
+
+            Mockito.doReturn(true).when(mockNetworkOutput).hasCapacityForLoadedTransmissions();
+            waitForDispatches(mockDispatcher, 3);
+        } finally {
+            stopAndDelete(tested, folder);
+        }
+    }
+
+    private File createFolderForTest() throws IOException {
+        File folder = new File(System.getProperty("java.io.tmpdir") + File.separator + TEMP_TEST_FOLDER);
+        if (folder.exists()) {
+            FileUtils.deleteDirectory(folder);
+        }
+        folder.mkdir();
+
+        return folder;
+    }
+
+    private static void waitForDispatches(TransmissionDispatcher mockDispatcher, int amount) throws InterruptedException {
+        for (int i = 0; ; ++i) {
+            try {
+                Mockito.verify(mockDispatcher, Mockito.times(amount)).dispatch((Transmission) anyObject());
+                return;
+            } catch (Error e) {
+                if (i == 100) {
+                    throw e;
+                }
+                Thread.sleep(20);
+            }
+        }
+    }
+
+    private static void stopAndDelete(ActiveTransmissionLoader tested, File folder) throws IOException {
+        if (tested != null) {
+            tested.stop(1L, TimeUnit.SECONDS);
+        }
+
+        if (folder.exists()) {
+            FileUtils.deleteDirectory(folder);
+        }
+    }
+
     private void testFilesOnDiskAreLoaded(int amount, boolean putFilesFirst) throws IOException, InterruptedException {
         File folder = null;
         ActiveTransmissionLoader tested = null;
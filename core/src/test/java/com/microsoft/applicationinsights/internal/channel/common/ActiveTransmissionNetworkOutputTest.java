@@ -21,6 +21,8 @@
 
 package com.microsoft.applicationinsights.internal.channel.common;
 
+import java.util.Collection;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Condition;
@@ -31,6 +33,7 @@ import org.junit.Test;
 
 import org.mockito.Mockito;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.anyObject;
@@ -108,6 +111,44 @@ public class ActiveTransmissionNetworkOutputTest {
         assertTrue("Too many calls to send", isError[0]);
     }
 
+    @Test
+    public void testStopAndDrainReturnsQueuedTransmissions() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        TransmissionOutput blockingOutput = new TransmissionOutput() {
+            @Override
+            public boolean send(Transmission transmission) {
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                }
+                return true;
+            }
+
+            @Override
+            public void stop(long timeout, TimeUnit timeUnit) {
+            }
+        };
+        TransmissionPolicyStateFetcher mockStateFetcher = Mockito.mock(TransmissionPolicyStateFetcher.class);
+        Mockito.doReturn(TransmissionPolicy.UNBLOCKED).when(mockStateFetcher).getCurrentState();
+
+        ActiveTransmissionNetworkOutput tested = new ActiveTransmissionNetworkOutput(blockingOutput, mockStateFetcher, 10);
+        try {
+            // Every thread is busy with one transmission, the rest are queued
+            int amount = tested.getNumberOfMaxThreads() + 3;
+            for (int i = 0; i < amount; ++i) {
+                assertTrue(tested.send(new Transmission(new byte[2], MOCK_CONTENT_TYPE, MOCK_ENCODING_TYPE)));
+            }
+
+            long start = System.currentTimeMillis();
+            Collection<Transmission> notSent = tested.stopAndDrain(100L, TimeUnit.MILLISECONDS);
+
+            assertTrue(System.currentTimeMillis() - start < 1000);
+            assertEquals(3, notSent.size());
+        } finally {
+            release.countDown();
+        }
+    }
+
     private void testSend(int amount) throws InterruptedException {
         testSend(amount, amount, null);
     }
@@ -0,0 +1,224 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import java.util.zip.Deflater;
+
+import com.microsoft.applicationinsights.internal.channel.TelemetriesBuffer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public final class AdaptiveCompressionControllerTest {
+    private final static long ONE_SECOND_IN_MICROS = 1000000;
+
+    private static final class StubTelemetriesBuffer implements TelemetriesBuffer {
+        private int maxTelemetriesInBatch;
+
+        private StubTelemetriesBuffer(int maxTelemetriesInBatch) {
+            this.maxTelemetriesInBatch = maxTelemetriesInBatch;
+        }
+
+        @Override
+        public void add(byte[] telemetry) {
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void setMaxTelemetriesInBatch(int value) {
+            maxTelemetriesInBatch = value;
+        }
+
+        @Override
+        public int getMaxTelemetriesInBatch() {
+            return maxTelemetriesInBatch;
+        }
+
+        @Override
+        public void setTransmitBufferTimeoutInSeconds(int value) {
+        }
+
+        @Override
+        public int getTransmitBufferTimeoutInSeconds() {
+            return 0;
+        }
+
+        @Override
+        public void setMaxBatchSizeInBytes(int value) {
+        }
+
+        @Override
+        public int getMaxBatchSizeInBytes() {
+            return 0;
+        }
+    }
+
+    private final DeflaterPool deflaterPool = new DeflaterPool();
+    private final StubTelemetriesBuffer buffer = new StubTelemetriesBuffer(100);
+    private final AdaptiveCompressionController tested = new AdaptiveCompressionController(deflaterPool, buffer, new ChannelStatistics(), 5, 1000, 2, null);
+
+    @Test
+    public void testDefaultCompressionLevelIsMadeExplicit() {
+        assertEquals(6, deflaterPool.getCompressionLevel());
+    }
+
+    @Test
+    public void testLowerLevelAndGrowBatchesWhenChannelExceedsCeiling() {
+        // 20% of one of the two processors is 10% of the CPU
+        tested.evaluate(20.0, ONE_SECOND_IN_MICROS / 5, ONE_SECOND_IN_MICROS, 0, false);
+
+        assertEquals(5, deflaterPool.getCompressionLevel());
+        assertEquals(200, buffer.getMaxTelemetriesInBatch());
+    }
+
+    @Test
+    public void testLowerLevelWhenProcessSaturatesTheCpu() {
+        tested.evaluate(95.0, 0, ONE_SECOND_IN_MICROS, 5, true);
+
+        assertEquals(5, deflaterPool.getCompressionLevel());
+        assertEquals(200, buffer.getMaxTelemetriesInBatch());
+    }
+
+    @Test
+    public void testRaiseLevelWhenBatchesWaitForTheNetwork() {
+        tested.evaluate(20.0, ONE_SECOND_IN_MICROS / 100, ONE_SECOND_IN_MICROS, 3, false);
+
+        assertEquals(7, deflaterPool.getCompressionLevel());
+        assertEquals(100, buffer.getMaxTelemetriesInBatch());
+    }
+
+    @Test
+    public void testRaiseLevelWhenTheStorageGrows() {
+        tested.evaluate(20.0, ONE_SECOND_IN_MICROS / 100, ONE_SECOND_IN_MICROS, 0, true);
+
+        assertEquals(7, deflaterPool.getCompressionLevel());
+    }
+
+    @Test
+    public void testLevelIsNotRaisedWithoutCpuHeadroom() {
+        // 3% of the CPU is under the ceiling but above half of it
+        tested.evaluate(20.0, ONE_SECOND_IN_MICROS * 6 / 100, ONE_SECOND_IN_MICROS, 3, true);
+
+        assertEquals(6, deflaterPool.getCompressionLevel());
+    }
+
+    @Test
+    public void testLevelAndBatchSizeAreBounded() {
+        for (int i = 0; i < 20; ++i) {
+            tested.evaluate(95.0, ONE_SECOND_IN_MICROS, ONE_SECOND_IN_MICROS, 0, false);
+        }
+        assertEquals(Deflater.BEST_SPEED, deflaterPool.getCompressionLevel());
+        assertEquals(1000, buffer.getMaxTelemetriesInBatch());
+
+        for (int i = 0; i < 20; ++i) {
+            tested.evaluate(20.0, 0, ONE_SECOND_IN_MICROS, 3, false);
+        }
+        assertEquals(Deflater.BEST_COMPRESSION, deflaterPool.getCompressionLevel());
+    }
+
+    @Test
+    public void testBatchesAndLevelRecoverAfterCalmEvaluations() {
+        tested.evaluate(20.0, ONE_SECOND_IN_MICROS, ONE_SECOND_IN_MICROS, 0, false);
+        tested.evaluate(20.0, ONE_SECOND_IN_MICROS, ONE_SECOND_IN_MICROS, 0, false);
+        assertEquals(400, buffer.getMaxTelemetriesInBatch());
+        assertEquals(4, deflaterPool.getCompressionLevel());
+
+        evaluateCalm(AdaptiveCompressionController.CALM_EVALUATIONS_BEFORE_RECOVERY - 1);
+        assertEquals(400, buffer.getMaxTelemetriesInBatch());
+        assertEquals(4, deflaterPool.getCompressionLevel());
+
+        evaluateCalm(1);
+        assertEquals(200, buffer.getMaxTelemetriesInBatch());
+        assertEquals(5, deflaterPool.getCompressionLevel());
+
+        evaluateCalm(AdaptiveCompressionController.CALM_EVALUATIONS_BEFORE_RECOVERY * 5);
+        assertEquals(100, buffer.getMaxTelemetriesInBatch());
+        assertEquals(6, deflaterPool.getCompressionLevel());
+    }
+
+    @Test
+    public void testSteadyLoadUnderTheCeilingKeepsTheBatchSize() {
+        // A spike over the ceiling, then the load settles at 4% of the CPU, under the ceiling but above half of it
+        tested.evaluate(20.0, ONE_SECOND_IN_MICROS / 5, ONE_SECOND_IN_MICROS, 0, false);
+        assertEquals(200, buffer.getMaxTelemetriesInBatch());
+        assertEquals(5, deflaterPool.getCompressionLevel());
+
+        for (int i = 0; i < 20; ++i) {
+            tested.evaluate(20.0, ONE_SECOND_IN_MICROS * 8 / 100, ONE_SECOND_IN_MICROS, 0, false);
+
+            assertEquals(200, buffer.getMaxTelemetriesInBatch());
+            assertEquals(5, deflaterPool.getCompressionLevel());
+        }
+    }
+
+    @Test
+    public void testLoadThatDipsUnderHalfTheCeilingDoesNotShrinkTheBatches() {
+        tested.evaluate(20.0, ONE_SECOND_IN_MICROS / 5, ONE_SECOND_IN_MICROS, 0, false);
+
+        // Every other evaluation is calm, which is never enough evaluations in a row to recover
+        for (int i = 0; i < 20; ++i) {
+            tested.evaluate(20.0, i % 2 == 0 ? 0 : ONE_SECOND_IN_MICROS * 8 / 100, ONE_SECOND_IN_MICROS, 0, false);
+
+            assertEquals(200, buffer.getMaxTelemetriesInBatch());
+        }
+    }
+
+    @Test
+    public void testDeveloperModeBatchSizeIsKept() {
+        // The channel creates the controller once developer mode set the batch size to 1, and suspends it
+        StubTelemetriesBuffer developerModeBuffer = new StubTelemetriesBuffer(1);
+        AdaptiveCompressionController controller = new AdaptiveCompressionController(new DeflaterPool(), developerModeBuffer, new ChannelStatistics(), 5, 1000, 2, null);
+        controller.setSuspended(true);
+
+        for (int i = 0; i < AdaptiveCompressionController.CALM_EVALUATIONS_BEFORE_RECOVERY * 3; ++i) {
+            controller.evaluate(95.0, ONE_SECOND_IN_MICROS, ONE_SECOND_IN_MICROS, 0, false);
+            controller.evaluate(20.0, 0, ONE_SECOND_IN_MICROS, 0, false);
+        }
+
+        assertEquals(1, developerModeBuffer.getMaxTelemetriesInBatch());
+    }
+
+    @Test
+    public void testExplicitBatchSizeIsTheNewMinimum() {
+        buffer.setMaxTelemetriesInBatch(800);
+        tested.setMinTelemetriesInBatch(800);
+
+        evaluateCalm(AdaptiveCompressionController.CALM_EVALUATIONS_BEFORE_RECOVERY * 3);
+        assertEquals(800, buffer.getMaxTelemetriesInBatch());
+
+        tested.evaluate(20.0, ONE_SECOND_IN_MICROS, ONE_SECOND_IN_MICROS, 0, false);
+        assertEquals(1000, buffer.getMaxTelemetriesInBatch());
+
+        evaluateCalm(AdaptiveCompressionController.CALM_EVALUATIONS_BEFORE_RECOVERY * 3);
+        assertEquals(800, buffer.getMaxTelemetriesInBatch());
+    }
+
+    private void evaluateCalm(int evaluations) {
+        for (int i = 0; i < evaluations; ++i) {
+            tested.evaluate(20.0, 0, ONE_SECOND_IN_MICROS, 0, false);
+        }
+    }
+}
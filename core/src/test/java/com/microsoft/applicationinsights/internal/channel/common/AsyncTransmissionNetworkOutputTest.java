@@ -0,0 +1,256 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import com.microsoft.applicationinsights.internal.channel.TransmissionDispatcher;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.message.BasicStatusLine;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyObject;
+
+public final class AsyncTransmissionNetworkOutputTest {
+    private final static String SERVER_URI = "https://dc.services.visualstudio.com/v2/track";
+
+    private TransmissionPolicyManager policyManager = new TransmissionPolicyManager(true);
+    private CloseableHttpAsyncClient mockClient = Mockito.mock(CloseableHttpAsyncClient.class);
+    private TransmissionDispatcher mockDispatcher = Mockito.mock(TransmissionDispatcher.class);
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testZeroInFlightRequests() {
+        new AsyncTransmissionNetworkOutput(SERVER_URI, policyManager, mockClient, 0);
+    }
+
+    @Test
+    public void testClientIsStarted() {
+        new AsyncTransmissionNetworkOutput(SERVER_URI, policyManager, mockClient, 1);
+
+        Mockito.verify(mockClient, Mockito.times(1)).start();
+    }
+
+    @Test
+    public void testSendIsNotBlocking() {
+        AsyncTransmissionNetworkOutput tested = createOutput(2);
+
+        assertTrue(tested.send(createTransmission()));
+
+        Mockito.verify(mockClient, Mockito.times(1)).execute(any(HttpUriRequest.class), (FutureCallback<HttpResponse>) anyObject());
+        assertEquals(1, tested.getNumberOfAvailableRequests());
+    }
+
+    @Test
+    public void testNumberOfInFlightRequestsIsBounded() {
+        AsyncTransmissionNetworkOutput tested = createOutput(2);
+
+        assertTrue(tested.send(createTransmission()));
+        assertTrue(tested.send(createTransmission()));
+        assertFalse(tested.send(createTransmission()));
+
+        Mockito.verify(mockClient, Mockito.times(2)).execute(any(HttpUriRequest.class), (FutureCallback<HttpResponse>) anyObject());
+    }
+
+    @Test
+    public void testHalfOfTheRequestsAreKeptForLiveTransmissions() {
+        AsyncTransmissionNetworkOutput tested = createOutput(4);
+        assertTrue(tested.hasCapacityForLoadedTransmissions());
+
+        tested.send(createTransmission());
+        assertTrue(tested.hasCapacityForLoadedTransmissions());
+
+        tested.send(createTransmission());
+        assertFalse(tested.hasCapacityForLoadedTransmissions());
+    }
+
+    @Test
+    public void testSendWhenTransmissionsAreSuspended() {
+        AsyncTransmissionNetworkOutput tested = createOutput(2);
+        policyManager.suspendInSeconds(TransmissionPolicy.BLOCKED_BUT_CAN_BE_PERSISTED, 10);
+
+        assertFalse(tested.send(createTransmission()));
+
+        Mockito.verify(mockClient, Mockito.never()).execute(any(HttpUriRequest.class), (FutureCallback<HttpResponse>) anyObject());
+    }
+
+    @Test
+    public void testSendAfterStop() throws Exception {
+        AsyncTransmissionNetworkOutput tested = createOutput(2);
+        tested.stop(1L, TimeUnit.SECONDS);
+
+        assertFalse(tested.send(createTransmission()));
+        Mockito.verify(mockClient, Mockito.times(1)).close();
+    }
+
+    @Test
+    public void testCompletedRequestReleasesTheSlot() {
+        AsyncTransmissionNetworkOutput tested = createOutput(1);
+        Transmission transmission = createTransmission();
+
+        assertTrue(tested.send(transmission));
+        assertEquals(0, tested.getNumberOfAvailableRequests());
+
+        captureCallback().completed(new BasicHttpResponse(new BasicStatusLine(HttpVersion.HTTP_1_1, 200, "OK")));
+
+        assertEquals(1, tested.getNumberOfAvailableRequests());
+        Mockito.verify(mockDispatcher, Mockito.never()).dispatch((Transmission) anyObject());
+    }
+
+    @Test
+    public void testThrottledTransmissionIsDispatchedAgain() {
+        AsyncTransmissionNetworkOutput tested = createOutput(1);
+        Transmission transmission = createTransmission();
+
+        tested.send(transmission);
+        captureCallback().completed(new BasicHttpResponse(new BasicStatusLine(HttpVersion.HTTP_1_1, 429, "Too Many Requests")));
+
+        assertEquals(1, tested.getNumberOfAvailableRequests());
+        assertEquals(1, transmission.getNumberOfSends());
+        Mockito.verify(mockDispatcher, Mockito.times(1)).dispatch(transmission);
+    }
+
+    @Test
+    public void testFailedTransmissionIsDispatchedAgainAndTransmissionsAreSuspended() {
+        AsyncTransmissionNetworkOutput tested = createOutput(1);
+        Transmission transmission = createTransmission();
+
+        tested.send(transmission);
+        captureCallback().failed(new ConnectException("Connection refused"));
+
+        assertEquals(1, tested.getNumberOfAvailableRequests());
+        assertEquals(TransmissionPolicy.BLOCKED_BUT_CAN_BE_PERSISTED, policyManager.getTransmissionPolicyState().getCurrentState());
+        Mockito.verify(mockDispatcher, Mockito.times(1)).dispatch(transmission);
+    }
+
+    @Test
+    public void testFailedTransmissionIsSentAgainAfterBackOff() {
+        AsyncTransmissionNetworkOutput tested = createOutput(1);
+        Transmission transmission = createTransmission();
+
+        tested.send(transmission);
+        captureCallback().failed(new IOException("Read timed out"));
+
+        assertEquals(TransmissionPolicy.BLOCKED_BUT_CAN_BE_PERSISTED, policyManager.getTransmissionPolicyState().getCurrentState());
+        assertEquals(1, transmission.getNumberOfSends());
+        Mockito.verify(mockDispatcher, Mockito.times(1)).dispatch(transmission);
+    }
+
+    @Test
+    public void testUnavailableServerTransmissionIsSentAgainAfterBackOff() {
+        AsyncTransmissionNetworkOutput tested = createOutput(1);
+        Transmission transmission = createTransmission();
+
+        tested.send(transmission);
+        captureCallback().completed(new BasicHttpResponse(new BasicStatusLine(HttpVersion.HTTP_1_1, 503, "Service Unavailable")));
+
+        assertEquals(TransmissionPolicy.BLOCKED_BUT_CAN_BE_PERSISTED, policyManager.getTransmissionPolicyState().getCurrentState());
+        Mockito.verify(mockDispatcher, Mockito.times(1)).dispatch(transmission);
+    }
+
+    @Test
+    public void testTransmissionIsDroppedAfterMaxNumberOfSends() {
+        AsyncTransmissionNetworkOutput tested = createOutput(1);
+        Transmission transmission = createTransmission();
+        transmission.setNumberOfSends(AsyncTransmissionNetworkOutput.MAX_NUMBER_OF_SENDS);
+
+        tested.send(transmission);
+        captureCallback().failed(new IOException("Broken pipe"));
+
+        Mockito.verify(mockDispatcher, Mockito.never()).dispatch((Transmission) anyObject());
+    }
+
+    @Test
+    public void testDrainReturnsTheTransmissionsThatAreStillInFlight() throws Exception {
+        AsyncTransmissionNetworkOutput tested = createOutput(2);
+        Transmission transmission = createTransmission();
+        tested.send(transmission);
+
+        Collection<Transmission> notSent = tested.stopAndDrain(50L, TimeUnit.MILLISECONDS);
+
+        assertEquals(1, notSent.size());
+        assertSame(transmission, notSent.iterator().next());
+        Mockito.verify(mockClient, Mockito.times(1)).close();
+    }
+
+    @Test
+    public void testDrainReturnsTheTransmissionsThatFailedWhileDraining() throws Exception {
+        AsyncTransmissionNetworkOutput tested = createOutput(2);
+        Transmission transmission = createTransmission();
+        tested.send(transmission);
+        final FutureCallback<HttpResponse> callback = captureCallback();
+
+        Thread failure = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                callback.failed(new IOException("Broken pipe"));
+            }
+        });
+        failure.start();
+
+        Collection<Transmission> notSent = tested.stopAndDrain(5L, TimeUnit.SECONDS);
+        failure.join();
+
+        assertEquals(1, notSent.size());
+        assertSame(transmission, notSent.iterator().next());
+        Mockito.verify(mockDispatcher, Mockito.never()).dispatch((Transmission) anyObject());
+    }
+
+    private AsyncTransmissionNetworkOutput createOutput(int maxInFlightRequests) {
+        AsyncTransmissionNetworkOutput output = new AsyncTransmissionNetworkOutput(SERVER_URI, policyManager, mockClient, maxInFlightRequests);
+        output.setTransmissionDispatcher(mockDispatcher);
+
+        return output;
+    }
+
+    @SuppressWarnings("unchecked")
+    private FutureCallback<HttpResponse> captureCallback() {
+        ArgumentCaptor<FutureCallback> callback = ArgumentCaptor.forClass(FutureCallback.class);
+        Mockito.verify(mockClient).execute(any(HttpUriRequest.class), callback.capture());
+
+        return (FutureCallback<HttpResponse>) callback.getValue();
+    }
+
+    private static Transmission createTransmission() {
+        return new Transmission(new byte[] {1, 2, 3}, "application/x-json-stream", "gzip");
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import com.microsoft.applicationinsights.internal.channel.TransmissionStorage;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public final class ChannelStatisticsTest {
+    @Test
+    public void testCounters() {
+        TelemetryDropCounters dropCounters = new TelemetryDropCounters();
+        ChannelStatistics tested = new ChannelStatistics(dropCounters);
+
+        tested.onTelemetryAccepted();
+        tested.onTelemetryAccepted();
+        tested.onTelemetrySampledOut();
+        tested.onTransmissionCompressed(1000, 100, TimeUnit.MILLISECONDS.toNanos(1));
+        tested.onTransmissionCompressed(500, 50, TimeUnit.MILLISECONDS.toNanos(1));
+        tested.onTransmissionPosted(TimeUnit.MILLISECONDS.toNanos(10), true);
+        tested.onTransmissionPosted(TimeUnit.MILLISECONDS.toNanos(10), false);
+        tested.onPostFailed();
+
+        List<byte[]> dropped = new ArrayList<byte[]>();
+        dropped.add("{\"name\":\"Microsoft.ApplicationInsights.Request\"}".getBytes());
+        dropCounters.onDropped(dropped);
+        dropCounters.onSpilled(3);
+
+        assertEquals(2, tested.getAcceptedTelemetries());
+        assertEquals(1, tested.getSampledOutTelemetries());
+        assertEquals(1500, tested.getRawBytes());
+        assertEquals(150, tested.getCompressedBytes());
+        assertEquals(2, tested.getCompressLatency().getCount());
+        assertEquals(1, tested.getSentBatches());
+        assertEquals(2, tested.getPostLatency().getCount());
+        assertEquals(1, tested.getFailedPosts());
+        assertEquals(1, tested.getDroppedTelemetries());
+        assertEquals(Long.valueOf(1), tested.getDroppedTelemetriesByType().get("Request"));
+        assertEquals(3, tested.getSpilledTelemetries());
+    }
+
+    @Test
+    public void testProcessingTimeSumsSerializationAndCompression() {
+        ChannelStatistics tested = new ChannelStatistics();
+        tested.onTelemetrySerialized(TimeUnit.MICROSECONDS.toNanos(30));
+        tested.onTransmissionCompressed(1000, 100, TimeUnit.MICROSECONDS.toNanos(200));
+
+        assertEquals(230, tested.getProcessingTimeInMicros());
+    }
+
+    @Test
+    public void testStateIsReadFromTheComponents() {
+        ChannelStatistics tested = new ChannelStatistics();
+        assertEquals(0, tested.getSpoolFiles());
+        assertEquals(0, tested.getPendingBatches());
+        assertEquals("UNBLOCKED", tested.getTransmissionPolicy());
+
+        TransmissionStorage storage = mock(TransmissionStorage.class);
+        when(storage.getSizeInBytes()).thenReturn(2048L);
+        when(storage.getNumberOfFiles()).thenReturn(2);
+        TransmissionPolicyStateFetcher policyState = mock(TransmissionPolicyStateFetcher.class);
+        when(policyState.getCurrentState()).thenReturn(TransmissionPolicy.BLOCKED_BUT_CAN_BE_PERSISTED);
+
+        tested.setTransmissionStorage(storage);
+        tested.setTransmissionPolicyState(policyState);
+
+        assertEquals(2048, tested.getSpoolSizeInBytes());
+        assertEquals(2, tested.getSpoolFiles());
+        assertEquals("BLOCKED_BUT_CAN_BE_PERSISTED", tested.getTransmissionPolicy());
+    }
+
+    @Test
+    public void testStatisticsAreReadableOverJmx() throws Exception {
+        ChannelStatistics tested = new ChannelStatistics();
+        tested.onTelemetryAccepted();
+        tested.onTransmissionPosted(TimeUnit.MILLISECONDS.toNanos(5), true);
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("JSDKTests:type=ChannelStatistics");
+        server.registerMBean(tested, name);
+        try {
+            assertEquals(1L, server.getAttribute(name, "AcceptedTelemetries"));
+            assertEquals("UNBLOCKED", server.getAttribute(name, "TransmissionPolicy"));
+
+            CompositeData postLatency = (CompositeData) server.getAttribute(name, "PostLatency");
+            assertEquals(1L, postLatency.get("count"));
+            assertEquals(5.0, (Double) postLatency.get("maxInMillis"), 0.001);
+        } finally {
+            server.unregisterMBean(name);
+        }
+    }
+}
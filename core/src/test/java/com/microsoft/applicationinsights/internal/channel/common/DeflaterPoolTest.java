@@ -0,0 +1,96 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import java.util.zip.Deflater;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public final class DeflaterPoolTest {
+    @Test
+    public void testReleasedDeflaterIsReused() {
+        DeflaterPool tested = new DeflaterPool(Deflater.BEST_SPEED, 2);
+
+        Deflater deflater = tested.acquire();
+        tested.release(deflater);
+
+        assertEquals(1, tested.getNumberOfPooledDeflaters());
+        assertSame(deflater, tested.acquire());
+        assertEquals(0, tested.getNumberOfPooledDeflaters());
+    }
+
+    @Test
+    public void testPoolIsBounded() {
+        DeflaterPool tested = new DeflaterPool(Deflater.BEST_SPEED, 1);
+
+        Deflater first = tested.acquire();
+        Deflater second = tested.acquire();
+        assertNotSame(first, second);
+
+        tested.release(first);
+        tested.release(second);
+
+        assertEquals(1, tested.getNumberOfPooledDeflaters());
+        assertSame(first, tested.acquire());
+    }
+
+    @Test
+    public void testReusedDeflaterIsReset() {
+        DeflaterPool tested = new DeflaterPool(Deflater.DEFAULT_COMPRESSION, 1);
+
+        IncrementalGzipCompressor compressor = new IncrementalGzipCompressor(tested, null);
+        compressor.write("first".getBytes());
+        byte[] first = compressor.finish();
+
+        compressor = new IncrementalGzipCompressor(tested, null);
+        compressor.write("first".getBytes());
+
+        assertArrayEquals(first, compressor.finish());
+    }
+
+    @Test
+    public void testCompressionLevelIsAppliedToPooledDeflaters() {
+        DeflaterPool tested = new DeflaterPool(Deflater.BEST_COMPRESSION, 1);
+        byte[] data = new byte[64 * 1024];
+
+        IncrementalGzipCompressor compressor = new IncrementalGzipCompressor(tested, null);
+        compressor.write(data);
+        int compressedSize = compressor.finish().length;
+
+        tested.setCompressionLevel(Deflater.NO_COMPRESSION);
+        compressor = new IncrementalGzipCompressor(tested, null);
+        compressor.write(data);
+
+        assertTrue(compressor.finish().length > compressedSize * 10);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIllegalCompressionLevel() {
+        new DeflaterPool(10, 1);
+    }
+}
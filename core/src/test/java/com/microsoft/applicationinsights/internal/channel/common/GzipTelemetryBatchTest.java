@@ -0,0 +1,220 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public final class GzipTelemetryBatchTest {
+    private final static String NEWLINE = System.getProperty("line.separator");
+
+    @Test
+    public void testSealedBatchIsValidGzip() throws IOException {
+        GzipTelemetryBatch batch = new GzipTelemetryBatch();
+        batch.add("{\"name\":\"first\"}".getBytes("UTF-8"));
+        batch.add("{\"name\":\"second\"}".getBytes("UTF-8"));
+
+        assertFalse(batch.isSealed());
+        byte[] content = batch.seal();
+        assertTrue(batch.isSealed());
+
+        assertEquals("{\"name\":\"first\"}" + NEWLINE + "{\"name\":\"second\"}", new String(decompress(content), "UTF-8"));
+    }
+
+    @Test
+    public void testSealTwiceReturnsSameContent() {
+        GzipTelemetryBatch batch = new GzipTelemetryBatch();
+        batch.add("mockTelemetry".getBytes());
+
+        assertSame(batch.seal(), batch.seal());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testAddAfterSealThrows() {
+        GzipTelemetryBatch batch = new GzipTelemetryBatch();
+        batch.add("mockTelemetry".getBytes());
+        batch.seal();
+
+        batch.add("mockTelemetry".getBytes());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testSealEmptyBatchThrows() {
+        new GzipTelemetryBatch().seal();
+    }
+
+    @Test
+    public void testSizeAndUncompressedSize() {
+        GzipTelemetryBatch batch = new GzipTelemetryBatch();
+        batch.add(new byte[10]);
+        batch.add(new byte[20]);
+
+        assertEquals(2, batch.size());
+        assertEquals(30 + NEWLINE.getBytes().length, batch.getUncompressedSize());
+    }
+
+    @Test
+    public void testClearAllowsReuse() throws IOException {
+        GzipTelemetryBatch batch = new GzipTelemetryBatch();
+        batch.add("first".getBytes());
+        batch.clear();
+
+        assertEquals(0, batch.size());
+        assertTrue(batch.isEmpty());
+
+        batch.add("second".getBytes());
+        assertEquals("second", new String(decompress(batch.seal())));
+    }
+
+    @Test
+    public void testIteratorReturnsTheTelemetries() {
+        List<byte[]> expected = new ArrayList<byte[]>();
+        Random random = new Random(17);
+        GzipTelemetryBatch batch = new GzipTelemetryBatch();
+        for (int i = 0; i < 500; ++i) {
+            byte[] telemetry = new byte[1 + random.nextInt(2000)];
+            for (int j = 0; j < telemetry.length; ++j) {
+                telemetry[j] = (byte) ('a' + random.nextInt(26));
+            }
+            expected.add(telemetry);
+            batch.add(telemetry);
+        }
+
+        List<byte[]> actual = new ArrayList<byte[]>(batch);
+
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); ++i) {
+            assertArrayEquals(expected.get(i), actual.get(i));
+        }
+    }
+
+    @Test
+    public void testSerializerUsesTheCompressedBatch() {
+        GzipTelemetryBatch batch = new GzipTelemetryBatch();
+        batch.add("mockTelemetry".getBytes());
+
+        Transmission transmission = new GzipTelemetrySerializer().serialize(batch).get();
+
+        assertSame(batch.seal(), transmission.getContent());
+        assertEquals("application/x-json-stream", transmission.getWebContentType());
+        assertEquals("gzip", transmission.getWebContentEncodingType());
+    }
+
+    @Test
+    public void testTelemetriesAreCompressedByTheExecutor() throws IOException {
+        QueueExecutor executor = new QueueExecutor();
+        GzipTelemetryBatch batch = new GzipTelemetryBatch(null, executor);
+        batch.add("first".getBytes());
+        batch.add("second".getBytes());
+
+        // One task compresses the telemetries that are pending when it runs
+        assertEquals(1, executor.tasks.size());
+        executor.runAll();
+        batch.add("third".getBytes());
+        assertEquals(1, executor.tasks.size());
+        executor.runAll();
+
+        assertEquals("first" + NEWLINE + "second" + NEWLINE + "third", new String(decompress(batch.seal())));
+    }
+
+    @Test
+    public void testSealCompressesTheTelemetriesTheExecutorDidNotCompress() throws IOException {
+        QueueExecutor executor = new QueueExecutor();
+        GzipTelemetryBatch batch = new GzipTelemetryBatch(null, executor);
+        batch.add("first".getBytes());
+        batch.add("second".getBytes());
+
+        byte[] content = batch.seal();
+        executor.runAll();
+
+        assertSame(content, batch.seal());
+        assertEquals("first" + NEWLINE + "second", new String(decompress(content)));
+    }
+
+    @Test
+    public void testCompressionByTheExecutorIsCountedInTheStatistics() {
+        QueueExecutor executor = new QueueExecutor();
+        GzipTelemetryBatch batch = new GzipTelemetryBatch(null, executor);
+        Random random = new Random(0);
+        for (int i = 0; i < 100; ++i) {
+            byte[] telemetry = new byte[1024];
+            random.nextBytes(telemetry);
+            batch.add(telemetry);
+        }
+        executor.runAll();
+
+        long compressedByTheExecutorInNanos = batch.getCompressionTimeInNanos();
+        assertTrue(compressedByTheExecutorInNanos > 0);
+
+        ChannelStatistics statistics = new ChannelStatistics();
+        assertTrue(new GzipTelemetrySerializer(new DeflaterPool(), statistics).serialize(batch).isPresent());
+
+        assertTrue(batch.getCompressionTimeInNanos() >= compressedByTheExecutorInNanos);
+        assertEquals(batch.getCompressionTimeInNanos() / 1000, statistics.getProcessingTimeInMicros(), 1);
+    }
+
+    private final static class QueueExecutor implements Executor {
+        private final List<Runnable> tasks = new ArrayList<Runnable>();
+
+        @Override
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+
+        private void runAll() {
+            List<Runnable> toRun = new ArrayList<Runnable>(tasks);
+            tasks.clear();
+            for (Runnable task : toRun) {
+                task.run();
+            }
+        }
+    }
+
+    private static byte[] decompress(byte[] content) throws IOException {
+        GZIPInputStream zipStream = new GZIPInputStream(new ByteArrayInputStream(content));
+        try {
+            ByteArrayOutputStream result = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int read;
+            while ((read = zipStream.read(buffer)) != -1) {
+                result.write(buffer, 0, read);
+            }
+            return result.toByteArray();
+        } finally {
+            zipStream.close();
+        }
+    }
+}
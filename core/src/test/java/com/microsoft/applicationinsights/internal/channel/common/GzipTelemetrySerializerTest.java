@@ -24,14 +24,15 @@ package com.microsoft.applicationinsights.internal.channel.common;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.StringWriter;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.zip.Deflater;
 import java.util.zip.GZIPInputStream;
 
+import com.microsoft.applicationinsights.internal.util.Utf8BytesWriter;
 import com.microsoft.applicationinsights.telemetry.JsonTelemetryDataSerializer;
 import com.microsoft.applicationinsights.telemetry.Telemetry;
 import org.junit.Test;
@@ -132,7 +133,7 @@ public final class GzipTelemetrySerializerTest {
     @Test(expected = IllegalArgumentException.class)
     public void testNoData() throws Exception {
         GzipTelemetrySerializer tested = new GzipTelemetrySerializer();
-        tested.serialize(new ArrayList<String>());
+        tested.serialize(new ArrayList<byte[]>());
     }
 
     @Test
@@ -150,15 +151,39 @@ public final class GzipTelemetrySerializerTest {
         testSerialization(10);
     }
 
+    @Test
+    public void testSerializeReturnsDeflaterToPool() throws Exception {
+        DeflaterPool pool = new DeflaterPool(Deflater.BEST_SPEED, 2);
+        GzipTelemetrySerializer tested = new GzipTelemetrySerializer(pool);
+
+        List<byte[]> telemetries = new ArrayList<byte[]>();
+        telemetries.add("mockTelemetry".getBytes());
+
+        for (int i = 0; i < 3; ++i) {
+            Transmission transmission = tested.serialize(telemetries).get();
+
+            GZIPInputStream gis = new GZIPInputStream(new ByteArrayInputStream(transmission.getContent()));
+            try {
+                byte[] buf = new byte[64];
+                int len = gis.read(buf);
+                assertEquals("mockTelemetry", new String(buf, 0, len));
+            } finally {
+                gis.close();
+            }
+
+            assertEquals(1, pool.getNumberOfPooledDeflaters());
+        }
+    }
+
     private void testSerialization(int amount) throws Exception {
         GzipTelemetrySerializer tested = new GzipTelemetrySerializer();
 
         List<Telemetry> telemetries = new ArrayList<Telemetry>(amount);
-        List<String> telemetriesSerialized = new ArrayList<String>(amount);
+        List<byte[]> telemetriesSerialized = new ArrayList<byte[]>(amount);
 
         HashMap<String, StubTelemetry> expected = new HashMap<String, StubTelemetry>();
 
-        StringWriter writer = new StringWriter();
+        Utf8BytesWriter writer = new Utf8BytesWriter();
         JsonTelemetryDataSerializer jsonWriter = new JsonTelemetryDataSerializer(writer);
         for (int i = 0; i < amount; ++i) {
             StubTelemetry stubTelemetry = createStubTelemetry(String.valueOf(i));
@@ -166,10 +191,10 @@ public final class GzipTelemetrySerializerTest {
 
             stubTelemetry.serialize(jsonWriter);
             jsonWriter.close();
-            String asJson = writer.toString();
+            byte[] asJson = writer.toByteArray();
 
             telemetriesSerialized.add(asJson);
-            writer.getBuffer().setLength(0);
+            writer.reset();
             jsonWriter.reset(writer);
 
             expected.put(stubTelemetry.getTelemetryName(), stubTelemetry);
@@ -0,0 +1,89 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public final class LatencyHistogramTest {
+    @Test
+    public void testEmptyHistogram() {
+        LatencyHistogram.Snapshot snapshot = new LatencyHistogram().getSnapshot();
+
+        assertEquals(0, snapshot.getCount());
+        assertEquals(0.0, snapshot.getMeanInMillis(), 0.0);
+        assertEquals(0.0, snapshot.getP99InMillis(), 0.0);
+        assertEquals(0.0, snapshot.getMaxInMillis(), 0.0);
+    }
+
+    @Test
+    public void testNegativeDurationsAreIgnored() {
+        LatencyHistogram tested = new LatencyHistogram();
+        tested.record(-1);
+
+        assertEquals(0, tested.getCount());
+    }
+
+    @Test
+    public void testPercentilesAreWithinFactorOfTwo() {
+        LatencyHistogram tested = new LatencyHistogram();
+        for (int i = 1; i <= 100; ++i) {
+            tested.record(TimeUnit.MILLISECONDS.toNanos(i));
+        }
+
+        LatencyHistogram.Snapshot snapshot = tested.getSnapshot();
+        assertEquals(100, snapshot.getCount());
+        assertEquals(50.5, snapshot.getMeanInMillis(), 0.001);
+        assertEquals(100.0, snapshot.getMaxInMillis(), 0.001);
+        assertWithinFactorOfTwo(50, snapshot.getP50InMillis());
+        assertWithinFactorOfTwo(95, snapshot.getP95InMillis());
+        assertWithinFactorOfTwo(99, snapshot.getP99InMillis());
+    }
+
+    @Test
+    public void testPercentilesDoNotExceedMax() {
+        LatencyHistogram tested = new LatencyHistogram();
+        tested.record(TimeUnit.MILLISECONDS.toNanos(3));
+
+        LatencyHistogram.Snapshot snapshot = tested.getSnapshot();
+        assertEquals(3.0, snapshot.getP50InMillis(), 0.001);
+        assertEquals(3.0, snapshot.getP99InMillis(), 0.001);
+    }
+
+    @Test
+    public void testVeryLongDurationsAreCounted() {
+        LatencyHistogram tested = new LatencyHistogram();
+        tested.record(TimeUnit.DAYS.toNanos(30));
+
+        LatencyHistogram.Snapshot snapshot = tested.getSnapshot();
+        assertEquals(1, snapshot.getCount());
+        assertEquals(TimeUnit.DAYS.toMillis(30), snapshot.getMaxInMillis(), 0.001);
+    }
+
+    private static void assertWithinFactorOfTwo(double expected, double actual) {
+        assertTrue("Expected about " + expected + " but was " + actual, actual >= expected / 2 && actual <= expected * 2);
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.microsoft.applicationinsights.internal.channel.TelemetriesTransmitter;
+import com.microsoft.applicationinsights.internal.util.LimitsEnforcer;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollection;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyObject;
+
+public final class LockFreeTelemetryBufferTest {
+    private final static String MOCK_PROPERTY_NAME = "MockProperty";
+    private final static byte[] MOCK_TELEMETRY = "mockTelemetry".getBytes();
+
+    private static class CollectingSender implements TelemetriesTransmitter {
+        private final ConcurrentLinkedQueue<Collection<byte[]>> sent = new ConcurrentLinkedQueue<Collection<byte[]>>();
+        private final ConcurrentLinkedQueue<TelemetriesFetcher> fetchers = new ConcurrentLinkedQueue<TelemetriesFetcher>();
+        private final AtomicInteger numberOfSentTelemetries = new AtomicInteger(0);
+
+        @Override
+        public boolean scheduleSend(TelemetriesFetcher telemetriesFetcher, long value, TimeUnit timeUnit) {
+            fetchers.add(telemetriesFetcher);
+            return true;
+        }
+
+        @Override
+        public boolean sendNow(Collection<byte[]> telemetries) {
+            sent.add(telemetries);
+            numberOfSentTelemetries.addAndGet(telemetries.size());
+            return true;
+        }
+
+        @Override
+        public void stop(long timeout, TimeUnit timeUnit) {
+        }
+
+        public void runScheduledSends() {
+            TelemetriesFetcher fetcher;
+            while ((fetcher = fetchers.poll()) != null) {
+                Collection<byte[]> telemetries = fetcher.fetch();
+                if (!telemetries.isEmpty()) {
+                    sendNow(telemetries);
+                }
+            }
+        }
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNoSenderIsSet() throws Exception {
+        new LockFreeTelemetryBuffer(null, createEnforcerWithCurrentValue(10), createEnforcerWithCurrentValue(3));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testZeroBufferSizeSenderIsSet() throws Exception {
+        TelemetriesTransmitter mockSender = Mockito.mock(TelemetriesTransmitter.class);
+
+        new LockFreeTelemetryBuffer(mockSender, createEnforcerWithCurrentValue(0), createEnforcerWithCurrentValue(3));
+    }
+
+    @Test
+    public void testAddOneTelemetry() throws Exception {
+        TelemetriesTransmitter mockSender = Mockito.mock(TelemetriesTransmitter.class);
+
+        LockFreeTelemetryBuffer testedBuffer = new LockFreeTelemetryBuffer(mockSender, createEnforcerWithCurrentValue(128), createEnforcerWithCurrentValue(2));
+
+        testedBuffer.add(MOCK_TELEMETRY);
+
+        Mockito.verify(mockSender, Mockito.times(1)).scheduleSend((TelemetriesTransmitter.TelemetriesFetcher) any(), anyLong(), (TimeUnit) anyObject());
+        Mockito.verify(mockSender, Mockito.never()).sendNow(anyCollectionOf(byte[].class));
+    }
+
+    // Ignore warning from mock
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testSendWhenBufferIsFull() throws Exception {
+        TelemetriesTransmitter mockSender = Mockito.mock(TelemetriesTransmitter.class);
+        Mockito.doReturn(true).when(mockSender).sendNow(anyCollection());
+        Mockito.doReturn(true).when(mockSender).scheduleSend(any(TelemetriesTransmitter.TelemetriesFetcher.class), anyLong(), any(TimeUnit.class));
+
+        LockFreeTelemetryBuffer testedBuffer = new LockFreeTelemetryBuffer(mockSender, createEnforcerWithCurrentValue(2), createEnforcerWithCurrentValue(3));
+
+        for (int i = 0; i < 5; ++i) {
+            testedBuffer.add(MOCK_TELEMETRY);
+        }
+
+        Mockito.verify(mockSender, Mockito.times(3)).scheduleSend((TelemetriesTransmitter.TelemetriesFetcher) any(), anyLong(), (TimeUnit) anyObject());
+        Mockito.verify(mockSender, Mockito.times(2)).sendNow(anyCollectionOf(byte[].class));
+    }
+
+    @Test
+    public void testSendWhenMaxBatchSizeInBytesIsReached() throws Exception {
+        CollectingSender sender = new CollectingSender();
+
+        LockFreeTelemetryBuffer testedBuffer = new LockFreeTelemetryBuffer(sender, createEnforcerWithCurrentValue(128), createEnforcerWithCurrentValue(3));
+        testedBuffer.setMaxBatchSizeInBytes(100);
+
+        testedBuffer.add(new byte[40]);
+        testedBuffer.add(new byte[40]);
+        assertEquals(0, sender.sent.size());
+
+        testedBuffer.add(new byte[40]);
+        assertEquals(1, sender.sent.size());
+        assertEquals(3, sender.sent.peek().size());
+
+        testedBuffer.add(new byte[40]);
+        sender.runScheduledSends();
+        assertEquals(2, sender.sent.size());
+        assertEquals(4, sender.numberOfSentTelemetries.get());
+    }
+
+    @Test
+    public void testScheduledSendAfterBufferWasAlreadySent() throws Exception {
+        CollectingSender sender = new CollectingSender();
+        LockFreeTelemetryBuffer testedBuffer = new LockFreeTelemetryBuffer(sender, createEnforcerWithCurrentValue(10), createEnforcerWithCurrentValue(3));
+
+        for (int i = 0; i < 10; ++i) {
+            testedBuffer.add(("mockTelemetry" + i).getBytes());
+        }
+
+        TelemetriesTransmitter.TelemetriesFetcher fetcher = sender.fetchers.poll();
+        assertTrue(fetcher.fetch().isEmpty());
+
+        assertEquals(1, sender.sent.size());
+        Collection<byte[]> sent = sender.sent.poll();
+        assertEquals(10, sent.size());
+        int i = 0;
+        for (byte[] telemetry : sent) {
+            assertArrayEquals(("mockTelemetry" + i).getBytes(), telemetry);
+            ++i;
+        }
+    }
+
+    @Test
+    public void testScheduledSendFetchesPartialBuffer() throws Exception {
+        CollectingSender sender = new CollectingSender();
+        LockFreeTelemetryBuffer testedBuffer = new LockFreeTelemetryBuffer(sender, createEnforcerWithCurrentValue(10), createEnforcerWithCurrentValue(3));
+
+        for (int i = 0; i < 3; ++i) {
+            testedBuffer.add(MOCK_TELEMETRY);
+        }
+        sender.runScheduledSends();
+
+        assertEquals(1, sender.sent.size());
+        assertEquals(3, sender.sent.poll().size());
+
+        testedBuffer.add(MOCK_TELEMETRY);
+        assertEquals(1, sender.fetchers.size());
+    }
+
+    @Test
+    public void testFlush() throws Exception {
+        CollectingSender sender = new CollectingSender();
+        LockFreeTelemetryBuffer testedBuffer = new LockFreeTelemetryBuffer(sender, createEnforcerWithCurrentValue(10), createEnforcerWithCurrentValue(3));
+
+        testedBuffer.flush();
+        assertEquals(0, sender.sent.size());
+
+        for (int i = 0; i < 7; ++i) {
+            testedBuffer.add(MOCK_TELEMETRY);
+        }
+        testedBuffer.flush();
+
+        assertEquals(1, sender.sent.size());
+        assertEquals(7, sender.sent.poll().size());
+    }
+
+    @Test
+    public void testSetMaxTelemetriesInBatchWithSmallerSize() throws Exception {
+        CollectingSender sender = new CollectingSender();
+        LockFreeTelemetryBuffer testedBuffer = new LockFreeTelemetryBuffer(sender, createEnforcerWithCurrentValue(1, 10), createEnforcerWithCurrentValue(30));
+
+        for (int i = 0; i < 2; ++i) {
+            testedBuffer.add(MOCK_TELEMETRY);
+        }
+        testedBuffer.setMaxTelemetriesInBatch(3);
+        assertEquals(0, sender.sent.size());
+
+        testedBuffer.add(MOCK_TELEMETRY);
+        assertEquals(1, sender.sent.size());
+        assertEquals(3, sender.sent.poll().size());
+
+        testedBuffer.setMaxTelemetriesInBatch(1);
+        testedBuffer.add(MOCK_TELEMETRY);
+        assertEquals(1, sender.sent.size());
+    }
+
+    @Test
+    public void testConcurrentAddsAreNotLost() throws Exception {
+        final int numberOfThreads = 8;
+        final int telemetriesPerThread = 10000;
+
+        final CollectingSender sender = new CollectingSender();
+        final LockFreeTelemetryBuffer testedBuffer = new LockFreeTelemetryBuffer(sender, createEnforcerWithCurrentValue(1, 100), createEnforcerWithCurrentValue(30));
+
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[numberOfThreads];
+        for (int i = 0; i < numberOfThreads; ++i) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int j = 0; j < telemetriesPerThread; ++j) {
+                        testedBuffer.add(MOCK_TELEMETRY);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        testedBuffer.flush();
+        sender.runScheduledSends();
+
+        assertEquals(numberOfThreads * telemetriesPerThread, sender.numberOfSentTelemetries.get());
+        for (Collection<byte[]> batch : sender.sent) {
+            assertTrue(batch.size() <= 100);
+            for (byte[] telemetry : batch) {
+                assertArrayEquals(MOCK_TELEMETRY, telemetry);
+            }
+        }
+    }
+
+    private LimitsEnforcer createEnforcerWithCurrentValue(int minimum) {
+        return createEnforcerWithCurrentValue(minimum, minimum);
+    }
+
+    private LimitsEnforcer createEnforcerWithCurrentValue(int minimum, int defaultValue) {
+        return LimitsEnforcer.createWithClosestLimitOnError(MOCK_PROPERTY_NAME, minimum, 10000, defaultValue, null);
+    }
+}
@@ -21,6 +21,10 @@
 
 package com.microsoft.applicationinsights.internal.channel.common;
 
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import com.microsoft.applicationinsights.internal.channel.DrainableTransmissionOutput;
 import com.microsoft.applicationinsights.internal.channel.TransmissionOutput;
 import org.junit.Test;
 
@@ -78,6 +82,24 @@ public class NonBlockingDispatcherTest {
         Mockito.verify(mockOutput2, Mockito.times(1)).send((Transmission) anyObject());
     }
 
+    @Test
+    public void testStopHandsNotSentTransmissionsToTheNextOutput() {
+        Transmission transmission = new Transmission(new byte[2], "mockType", "mockEncoding");
+
+        DrainableTransmissionOutput mockOutput1 = Mockito.mock(DrainableTransmissionOutput.class);
+        Mockito.doReturn(Arrays.asList(transmission)).when(mockOutput1).stopAndDrain(Mockito.anyLong(), (TimeUnit) anyObject());
+
+        TransmissionOutput mockOutput2 = Mockito.mock(TransmissionOutput.class);
+        Mockito.doReturn(true).when(mockOutput2).send((Transmission) anyObject());
+
+        NonBlockingDispatcher tested = new NonBlockingDispatcher(new TransmissionOutput[] {mockOutput1, mockOutput2});
+        tested.stop(1L, TimeUnit.SECONDS);
+
+        Mockito.verify(mockOutput1, Mockito.never()).stop(Mockito.anyLong(), (TimeUnit) anyObject());
+        Mockito.verify(mockOutput2, Mockito.times(1)).send(transmission);
+        Mockito.verify(mockOutput2, Mockito.times(1)).stop(Mockito.anyLong(), (TimeUnit) anyObject());
+    }
+
     private NonBlockingDispatcher createDispatcher() {
         TransmissionOutput mockOutput1 = Mockito.mock(TransmissionOutput.class);
         TransmissionOutput mockOutput2 = Mockito.mock(TransmissionOutput.class);
@@ -0,0 +1,129 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public final class PartialSuccessHandlerTest {
+    private final static String RESPONSE_BODY =
+            "{\"itemsReceived\":5,\"itemsAccepted\":2,\"errors\":[" +
+            "{\"index\":1,\"statusCode\":429,\"message\":\"Too many requests\"}," +
+            "{\"index\":2,\"statusCode\":400,\"message\":\"Bad data {field}\"}," +
+            "{\"statusCode\":500,\"index\":4,\"message\":\"Internal error\"}]}";
+
+    @Test
+    public void testRetriableIndicesAreParsed() {
+        assertEquals(Arrays.asList(1, 4), new ArrayList<Integer>(PartialSuccessHandler.getRetriableItemIndices(RESPONSE_BODY)));
+    }
+
+    @Test
+    public void testNoErrorsInResponse() {
+        assertTrue(PartialSuccessHandler.getRetriableItemIndices(null).isEmpty());
+        assertTrue(PartialSuccessHandler.getRetriableItemIndices("").isEmpty());
+        assertTrue(PartialSuccessHandler.getRetriableItemIndices("{\"itemsReceived\":1,\"itemsAccepted\":1,\"errors\":[]}").isEmpty());
+        assertTrue(PartialSuccessHandler.getRetriableItemIndices("not json").isEmpty());
+    }
+
+    @Test
+    public void testOnlyRetriableTelemetriesAreResent() throws Exception {
+        Transmission transmission = createTransmission(5);
+
+        Optional<Transmission> retry = new PartialSuccessHandler().createRetryTransmission(transmission, RESPONSE_BODY);
+
+        assertTrue(retry.isPresent());
+        assertEquals(1, retry.get().getNumberOfPartialResends());
+        assertEquals(0, retry.get().getNumberOfSends());
+
+        List<byte[]> resent = GzipTelemetrySerializer.deserialize(retry.get().getContent());
+        assertEquals(2, resent.size());
+        assertArrayEquals("telemetry1".getBytes(), resent.get(0));
+        assertArrayEquals("telemetry4".getBytes(), resent.get(1));
+    }
+
+    @Test
+    public void testIndicesBeyondTheTransmissionAreIgnored() throws Exception {
+        Transmission transmission = createTransmission(2);
+
+        Optional<Transmission> retry = new PartialSuccessHandler().createRetryTransmission(transmission, RESPONSE_BODY);
+
+        assertTrue(retry.isPresent());
+        assertEquals(1, GzipTelemetrySerializer.deserialize(retry.get().getContent()).size());
+    }
+
+    @Test
+    public void testNothingIsResentWhenNoErrorIsRetriable() {
+        Transmission transmission = createTransmission(3);
+
+        Optional<Transmission> retry = new PartialSuccessHandler().createRetryTransmission(transmission,
+                "{\"itemsReceived\":3,\"itemsAccepted\":2,\"errors\":[{\"index\":0,\"statusCode\":400,\"message\":\"Bad data\"}]}");
+
+        assertFalse(retry.isPresent());
+    }
+
+    @Test
+    public void testNothingIsResentAfterMaxNumberOfResends() {
+        Transmission transmission = createTransmission(5);
+        transmission.setNumberOfPartialResends(PartialSuccessHandler.MAX_NUMBER_OF_RESENDS);
+
+        assertFalse(new PartialSuccessHandler().createRetryTransmission(transmission, RESPONSE_BODY).isPresent());
+    }
+
+    @Test
+    public void testFailedSendsDoNotCountAsResends() {
+        Transmission transmission = createTransmission(5);
+        transmission.setNumberOfSends(PartialSuccessHandler.MAX_NUMBER_OF_RESENDS);
+
+        assertTrue(new PartialSuccessHandler().createRetryTransmission(transmission, RESPONSE_BODY).isPresent());
+    }
+
+    @Test
+    public void testRetryIsSerializedByTheGivenSerializer() {
+        ChannelStatistics statistics = new ChannelStatistics();
+        Transmission transmission = createTransmission(5);
+
+        Optional<Transmission> retry = new PartialSuccessHandler(new GzipTelemetrySerializer(new DeflaterPool(), statistics))
+                .createRetryTransmission(transmission, RESPONSE_BODY);
+
+        assertTrue(retry.isPresent());
+        assertEquals(retry.get().getContent().length, statistics.getCompressedBytes());
+    }
+
+    private static Transmission createTransmission(int numberOfTelemetries) {
+        List<byte[]> telemetries = new ArrayList<byte[]>();
+        for (int i = 0; i < numberOfTelemetries; ++i) {
+            telemetries.add(("telemetry" + i).getBytes());
+        }
+
+        return new GzipTelemetrySerializer().serialize(telemetries).get();
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.microsoft.applicationinsights.internal.channel.TelemetriesBuffer;
+import com.microsoft.applicationinsights.telemetry.RequestTelemetry;
+import com.microsoft.applicationinsights.telemetry.TraceTelemetry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.any;
+
+public final class PriorityLaneTelemetryBufferTest {
+    private final static byte[] REQUEST = "{\"ver\":1,\"name\":\"Microsoft.ApplicationInsights.Request\"}".getBytes();
+    private final static byte[] TRACE = "{\"ver\":1,\"name\":\"Microsoft.ApplicationInsights.Message\"}".getBytes();
+    private final static byte[] EVENT = "{\"ver\":1,\"name\":\"Microsoft.ApplicationInsights.Event\"}".getBytes();
+
+    private Map<TelemetryPriority, TelemetriesBuffer> buffers;
+
+    @Before
+    public void setUp() {
+        buffers = new EnumMap<TelemetryPriority, TelemetriesBuffer>(TelemetryPriority.class);
+        for (TelemetryPriority priority : TelemetryPriority.values()) {
+            buffers.put(priority, Mockito.mock(TelemetriesBuffer.class));
+        }
+    }
+
+    @Test
+    public void testTelemetryTypesAreNormalized() {
+        Map<String, TelemetryPriority> priorities = new HashMap<String, TelemetryPriority>();
+        TelemetryPriority.addTelemetryTypes(" Request, ExceptionTelemetry,,", TelemetryPriority.HIGH, priorities);
+        TelemetryPriority.addTelemetryTypes("TraceTelemetry", TelemetryPriority.LOW, priorities);
+        TelemetryPriority.addTelemetryTypes(null, TelemetryPriority.LOW, priorities);
+
+        assertEquals(3, priorities.size());
+        assertEquals(TelemetryPriority.HIGH, priorities.get("Request"));
+        assertEquals(TelemetryPriority.HIGH, priorities.get("Exception"));
+        assertEquals(TelemetryPriority.LOW, priorities.get("Message"));
+        assertNull(priorities.get("Trace"));
+    }
+
+    @Test
+    public void testTelemetriesAreAddedToTheBufferOfTheirLane() {
+        Map<String, TelemetryPriority> priorities = new HashMap<String, TelemetryPriority>();
+        TelemetryPriority.addTelemetryTypes("Request", TelemetryPriority.HIGH, priorities);
+        TelemetryPriority.addTelemetryTypes("Trace", TelemetryPriority.LOW, priorities);
+        PriorityLaneTelemetryBuffer tested = new PriorityLaneTelemetryBuffer(priorities, buffers);
+
+        tested.add(REQUEST);
+        tested.add(TRACE);
+        tested.add(TRACE);
+        tested.add(EVENT);
+        tested.add("{}".getBytes());
+
+        Mockito.verify(buffers.get(TelemetryPriority.HIGH), Mockito.times(1)).add(REQUEST);
+        Mockito.verify(buffers.get(TelemetryPriority.LOW), Mockito.times(2)).add(TRACE);
+        Mockito.verify(buffers.get(TelemetryPriority.NORMAL), Mockito.times(2)).add(any(byte[].class));
+    }
+
+    @Test
+    public void testLaneIsFoundOncePerTelemetryClass() {
+        Map<String, TelemetryPriority> priorities = new HashMap<String, TelemetryPriority>();
+        TelemetryPriority.addTelemetryTypes("Request", TelemetryPriority.HIGH, priorities);
+        PriorityLaneTelemetryBuffer tested = new PriorityLaneTelemetryBuffer(priorities, buffers);
+
+        tested.add(RequestTelemetry.class, REQUEST);
+        // The telemetry is not parsed once the lane of its class is known
+        tested.add(RequestTelemetry.class, "{}".getBytes());
+        tested.add(TraceTelemetry.class, TRACE);
+
+        Mockito.verify(buffers.get(TelemetryPriority.HIGH), Mockito.times(2)).add(any(byte[].class));
+        Mockito.verify(buffers.get(TelemetryPriority.NORMAL), Mockito.times(1)).add(TRACE);
+    }
+
+    @Test
+    public void testSettingsApplyToAllLanes() {
+        PriorityLaneTelemetryBuffer tested = new PriorityLaneTelemetryBuffer(new HashMap<String, TelemetryPriority>(), buffers);
+
+        tested.setMaxTelemetriesInBatch(10);
+        tested.setTransmitBufferTimeoutInSeconds(20);
+        tested.setMaxBatchSizeInBytes(30);
+        tested.flush();
+
+        for (TelemetriesBuffer buffer : buffers.values()) {
+            Mockito.verify(buffer).setMaxTelemetriesInBatch(10);
+            Mockito.verify(buffer).setTransmitBufferTimeoutInSeconds(20);
+            Mockito.verify(buffer).setMaxBatchSizeInBytes(30);
+            Mockito.verify(buffer).flush();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBufferIsExpectedForEachLane() {
+        buffers.remove(TelemetryPriority.LOW);
+
+        new PriorityLaneTelemetryBuffer(new HashMap<String, TelemetryPriority>(), buffers);
+    }
+}
@@ -35,7 +35,9 @@ import com.microsoft.applicationinsights.internal.util.LimitsEnforcer;
 import org.junit.Test;
 import org.mockito.Mockito;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertNull;
@@ -47,6 +49,7 @@ import static org.mockito.Matchers.anyObject;
 
 public final class TelemetryBufferTest {
     private final static String MOCK_PROPERTY_NAME = "MockProperty";
+    private final static byte[] MOCK_TELEMETRY = "mockTelemetry".getBytes();
 
     private static class MockSender implements TelemetriesTransmitter {
         private static class ScheduledSendResult {
@@ -114,7 +117,7 @@ public final class TelemetryBufferTest {
                 public void run() {
                     scheduleSendActualCallCounter.incrementAndGet();
 
-                    Collection<String> telemetries = telemetriesFetcher.fetch();
+                    Collection<byte[]> telemetries = telemetriesFetcher.fetch();
                     if (telemetries == null) {
                         queue.offer(new ScheduledSendResult(false, "Telemetries is null"));
                         return;
@@ -133,7 +136,7 @@ public final class TelemetryBufferTest {
         }
 
         @Override
-        public boolean sendNow(Collection<String> telemetries) {
+        public boolean sendNow(Collection<byte[]> telemetries) {
             int called = sendNowCallCounter.incrementAndGet();
             assertEquals("Wrong number of scheduled sends by the TransmissionBuffer", called, expectedNumberOfSendNowCalls);
 
@@ -246,11 +249,133 @@ public final class TelemetryBufferTest {
 
         TelemetryBuffer testedBuffer = new TelemetryBuffer(mockSender, maxEnforcer, sendEnforcer);
 
-        testedBuffer.add("mockTelemetry");
+        testedBuffer.add(MOCK_TELEMETRY);
 
         Mockito.verify(mockSender, Mockito.times(1)).scheduleSend((TelemetriesTransmitter.TelemetriesFetcher) any(), anyLong(), (TimeUnit) anyObject());
     }
 
+    @Test
+    public void testSendWhenMaxBatchSizeInBytesIsReached() throws Exception {
+        final List<Collection<byte[]>> sent = new ArrayList<Collection<byte[]>>();
+        TelemetriesTransmitter sender = new TelemetriesTransmitter() {
+            @Override
+            public boolean scheduleSend(TelemetriesFetcher telemetriesFetcher, long value, TimeUnit timeUnit) {
+                return true;
+            }
+
+            @Override
+            public boolean sendNow(Collection<byte[]> telemetries) {
+                sent.add(telemetries);
+                return true;
+            }
+
+            @Override
+            public void stop(long timeout, TimeUnit timeUnit) {
+            }
+        };
+
+        TelemetryBuffer testedBuffer = new TelemetryBuffer(sender, createEnforcerWithCurrentValue(128), createDefaultSenderTimeoutEnforcer());
+        testedBuffer.setMaxBatchSizeInBytes(100);
+
+        // The third telemetry does not fit, the batch is sent without it
+        testedBuffer.add(new byte[40]);
+        testedBuffer.add(new byte[40]);
+        testedBuffer.add(new byte[40]);
+        assertEquals(1, sent.size());
+        assertEquals(2, sent.get(0).size());
+
+        // Reaching the size exactly sends the batch
+        testedBuffer.add(new byte[60]);
+        assertEquals(2, sent.size());
+        assertEquals(2, sent.get(1).size());
+
+        // A telemetry bigger than the limit is sent by itself
+        testedBuffer.add(new byte[150]);
+        assertEquals(3, sent.size());
+        assertEquals(1, sent.get(2).size());
+    }
+
+    @Test
+    public void testFullBatchIsSentWithoutHoldingTheBuffer() throws Exception {
+        final TelemetryBuffer[] testedBuffer = new TelemetryBuffer[1];
+        final List<Boolean> addedWhileSending = new ArrayList<Boolean>();
+        TelemetriesTransmitter sender = new TelemetriesTransmitter() {
+            @Override
+            public boolean scheduleSend(TelemetriesFetcher telemetriesFetcher, long value, TimeUnit timeUnit) {
+                return true;
+            }
+
+            @Override
+            public boolean sendNow(Collection<byte[]> telemetries) {
+                // A sender that waits for room must not keep other threads from adding telemetries
+                Thread other = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        testedBuffer[0].add(MOCK_TELEMETRY);
+                    }
+                });
+                other.start();
+                try {
+                    other.join(2000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                addedWhileSending.add(!other.isAlive());
+                return true;
+            }
+
+            @Override
+            public void stop(long timeout, TimeUnit timeUnit) {
+            }
+        };
+
+        testedBuffer[0] = new TelemetryBuffer(sender, createEnforcerWithCurrentValue(2), createDefaultSenderTimeoutEnforcer());
+        testedBuffer[0].add(MOCK_TELEMETRY);
+        testedBuffer[0].add(MOCK_TELEMETRY);
+
+        assertEquals(1, addedWhileSending.size());
+        assertTrue(addedWhileSending.get(0));
+    }
+
+    @Test
+    public void testStreamingCompressionSendsSealedBatchWhenBufferIsFull() throws Exception {
+        final List<Collection<byte[]>> sent = new ArrayList<Collection<byte[]>>();
+        TelemetriesTransmitter sender = new TelemetriesTransmitter() {
+            @Override
+            public boolean scheduleSend(TelemetriesFetcher telemetriesFetcher, long value, TimeUnit timeUnit) {
+                return true;
+            }
+
+            @Override
+            public boolean sendNow(Collection<byte[]> telemetries) {
+                sent.add(telemetries);
+                return true;
+            }
+
+            @Override
+            public void stop(long timeout, TimeUnit timeUnit) {
+            }
+        };
+
+        LimitsEnforcer maxEnforcer = createEnforcerWithCurrentValue(2);
+        LimitsEnforcer sendEnforcer = createDefaultSenderTimeoutEnforcer();
+
+        TelemetryBuffer testedBuffer = new TelemetryBuffer(sender, maxEnforcer, sendEnforcer, true, null);
+        testedBuffer.add(MOCK_TELEMETRY);
+        testedBuffer.add(MOCK_TELEMETRY);
+
+        assertEquals(1, sent.size());
+        assertTrue(sent.get(0) instanceof GzipTelemetryBatch);
+
+        // The batch is sealed by the transmitter, not under the lock of the buffer
+        GzipTelemetryBatch batch = (GzipTelemetryBatch) sent.get(0);
+        assertFalse(batch.isSealed());
+        assertEquals(2, batch.size());
+        for (byte[] telemetry : batch) {
+            assertArrayEquals(MOCK_TELEMETRY, telemetry);
+        }
+    }
+
     // Ignore warning from mock
     @SuppressWarnings("unchecked")
     @Test
@@ -265,11 +390,11 @@ public final class TelemetryBufferTest {
         TelemetryBuffer testedBuffer = new TelemetryBuffer(mockSender, maxEnforcer, sendEnforcer);
 
         for (int i = 0; i < 2; ++i) {
-            testedBuffer.add("mockTelemetry");
+            testedBuffer.add(MOCK_TELEMETRY);
         }
 
         Mockito.verify(mockSender, Mockito.times(1)).scheduleSend((TelemetriesTransmitter.TelemetriesFetcher) any(), anyLong(), (TimeUnit) anyObject());
-        Mockito.verify(mockSender, Mockito.times(1)).sendNow(anyCollectionOf(String.class));
+        Mockito.verify(mockSender, Mockito.times(1)).sendNow(anyCollectionOf(byte[].class));
     }
 
 
@@ -277,7 +402,7 @@ public final class TelemetryBufferTest {
     public void testSendReturnsFalseOnScheduleSend() throws Exception {
         class StubTelemetriesTransmitter implements TelemetriesTransmitter {
             private int scheduleSendCounter = 2;
-            private Collection<String> sendNowCollection;
+            private Collection<byte[]> sendNowCollection;
 
             @Override
             public boolean scheduleSend(TelemetriesFetcher telemetriesFetcher, long value, TimeUnit timeUnit) {
@@ -290,7 +415,7 @@ public final class TelemetryBufferTest {
             }
 
             @Override
-            public boolean sendNow(Collection<String> telemetries) {
+            public boolean sendNow(Collection<byte[]> telemetries) {
                 sendNowCollection = telemetries;
                 return true;
             }
@@ -300,15 +425,15 @@ public final class TelemetryBufferTest {
 
             }
 
-            public Collection<String> getSendNowCollection() {
+            public Collection<byte[]> getSendNowCollection() {
                 return sendNowCollection;
             }
         };
 
-        List<String> all = new ArrayList<String>();
-        List<String> expected = new ArrayList<String>();
+        List<byte[]> all = new ArrayList<byte[]>();
+        List<byte[]> expected = new ArrayList<byte[]>();
         for (int i = 0; i < 4; ++i) {
-            String mockSerializedTelemetry = "mockTelemtry" + String.valueOf(i);
+            byte[] mockSerializedTelemetry = ("mockTelemtry" + String.valueOf(i)).getBytes();
             all.add(mockSerializedTelemetry);
 
             if (i != 0) {
@@ -322,16 +447,16 @@ public final class TelemetryBufferTest {
 
         TelemetryBuffer testedBuffer = new TelemetryBuffer(mockSender, maxEnforcer, sendEnforcer);
 
-        for (String telemetry : all) {
+        for (byte[] telemetry : all) {
             testedBuffer.add(telemetry);
         }
 
-        Collection<String> sendNowCollection = mockSender.getSendNowCollection();
+        Collection<byte[]> sendNowCollection = mockSender.getSendNowCollection();
         assertEquals(sendNowCollection.size(), expected.size());
 
         int i = 0;
-        for (String telemetry : sendNowCollection) {
-            assertEquals(telemetry, expected.get(i));
+        for (byte[] telemetry : sendNowCollection) {
+            assertArrayEquals(telemetry, expected.get(i));
             ++i;
         }
     }
@@ -346,11 +471,11 @@ public final class TelemetryBufferTest {
         TelemetryBuffer testedBuffer = new TelemetryBuffer(mockSender, maxEnforcer, sendEnforcer);
 
         for (int i = 0; i < 2; ++i) {
-            testedBuffer.add("mockTelemetry");
+            testedBuffer.add(MOCK_TELEMETRY);
         }
 
         Mockito.verify(mockSender, Mockito.never()).scheduleSend((TelemetriesTransmitter.TelemetriesFetcher)any(), anyLong(), (TimeUnit)anyObject());
-        Mockito.verify(mockSender, Mockito.times(2)).sendNow(anyCollectionOf(String.class));
+        Mockito.verify(mockSender, Mockito.times(2)).sendNow(anyCollectionOf(byte[].class));
     }
 
     @Test
@@ -369,7 +494,7 @@ public final class TelemetryBufferTest {
         TelemetryBuffer testedBuffer = new TelemetryBuffer(mockSender, maxEnforcer, sendEnforcer);
 
         for (int i = 0; i < 1; ++i) {
-            testedBuffer.add("mockTelemetry");
+            testedBuffer.add(MOCK_TELEMETRY);
         }
 
         mockSender.waitForFinish(6L);
@@ -390,7 +515,7 @@ public final class TelemetryBufferTest {
         TelemetryBuffer testedBuffer = new TelemetryBuffer(mockSender, maxEnforcer, sendEnforcer);
 
         for (int i = 0; i < 10; ++i) {
-            testedBuffer.add("mockTelemetry");
+            testedBuffer.add(MOCK_TELEMETRY);
         }
 
         mockSender.waitForFinish(6L);
@@ -407,7 +532,7 @@ public final class TelemetryBufferTest {
         TelemetryBuffer testedBuffer = new TelemetryBuffer(mockSender, maxEnforcer, sendEnforcer);
         testedBuffer.flush();
 
-        Mockito.verify(mockSender, Mockito.never()).sendNow(anyCollectionOf(String.class));
+        Mockito.verify(mockSender, Mockito.never()).sendNow(anyCollectionOf(byte[].class));
     }
 
     @Test
@@ -435,7 +560,7 @@ public final class TelemetryBufferTest {
         TelemetryBuffer testedBuffer = new TelemetryBuffer(mockSender, maxEnforcer, sendEnforcer);
 
         for (int i = 0; i < 2; ++i) {
-            testedBuffer.add("mockTelemetry");
+            testedBuffer.add(MOCK_TELEMETRY);
         }
         testedBuffer.setTransmitBufferTimeoutInSeconds(1);
 
@@ -457,7 +582,7 @@ public final class TelemetryBufferTest {
         TelemetryBuffer testedBuffer = new TelemetryBuffer(mockSender, maxEnforcer, sendEnforcer);
 
         for (int i = 0; i < 2; ++i) {
-            testedBuffer.add("mockTelemetry");
+            testedBuffer.add(MOCK_TELEMETRY);
         }
         testedBuffer.setMaxTelemetriesInBatch(1);
 
@@ -480,11 +605,11 @@ public final class TelemetryBufferTest {
         TelemetryBuffer testedBuffer = new TelemetryBuffer(mockSender, maxEnforcer, sendEnforcer);
 
         for (int i = 0; i < 2; ++i) {
-            testedBuffer.add("mockTelemetry");
+            testedBuffer.add(MOCK_TELEMETRY);
         }
         testedBuffer.setMaxTelemetriesInBatch(3);
         for (int i = 0; i < 2; ++i) {
-            testedBuffer.add("mockTelemetry");
+            testedBuffer.add(MOCK_TELEMETRY);
         }
 
         mockSender.waitForFinish(1L);
@@ -505,11 +630,11 @@ public final class TelemetryBufferTest {
         TelemetryBuffer testedBuffer = new TelemetryBuffer(mockSender, maxEnforcer, sendEnforcer);
 
         for (int i = 0; i < 1; ++i) {
-            testedBuffer.add("mockTelemetry");
+            testedBuffer.add(MOCK_TELEMETRY);
         }
         testedBuffer.setMaxTelemetriesInBatch(11);
         for (int i = 0; i < 10; ++i) {
-            testedBuffer.add("mockTelemetry");
+            testedBuffer.add(MOCK_TELEMETRY);
         }
 
         mockSender.waitForFinish(1L);
@@ -529,7 +654,7 @@ public final class TelemetryBufferTest {
         TelemetryBuffer testedBuffer = new TelemetryBuffer(mockSender, maxEnforcer, sendEnforcer);
 
         for (int i = 0; i < expectedTelemetriesNumberInSendNow; ++i) {
-            testedBuffer.add("mockTelemetry");
+            testedBuffer.add(MOCK_TELEMETRY);
         }
 
         testedBuffer.flush();
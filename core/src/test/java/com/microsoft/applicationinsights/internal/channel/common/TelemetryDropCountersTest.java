@@ -0,0 +1,81 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public final class TelemetryDropCountersTest {
+    @Test
+    public void testTelemetryTypeIsTheLastPartOfTheEnvelopeName() {
+        assertEquals("Request", TelemetryDropCounters.getTelemetryType("{\"ver\":1,\"name\":\"Microsoft.ApplicationInsights.Request\",\"time\":\"\"}".getBytes()));
+        assertEquals("Message", TelemetryDropCounters.getTelemetryType("{\"ver\":1,\"name\":\"Microsoft.ApplicationInsights.abcdef.Message\"}".getBytes()));
+    }
+
+    @Test
+    public void testUnknownTelemetryType() {
+        assertEquals(TelemetryDropCounters.UNKNOWN_TELEMETRY_TYPE, TelemetryDropCounters.getTelemetryType(new byte[0]));
+        assertEquals(TelemetryDropCounters.UNKNOWN_TELEMETRY_TYPE, TelemetryDropCounters.getTelemetryType("{\"ver\":1}".getBytes()));
+        assertEquals(TelemetryDropCounters.UNKNOWN_TELEMETRY_TYPE, TelemetryDropCounters.getTelemetryType("{\"ver\":1,\"name\":\"Microsoft.".getBytes()));
+    }
+
+    @Test
+    public void testDroppedTelemetriesAreCountedPerType() {
+        TelemetryDropCounters tested = new TelemetryDropCounters();
+
+        List<byte[]> batch = new ArrayList<byte[]>();
+        batch.add("{\"name\":\"Microsoft.ApplicationInsights.Request\"}".getBytes());
+        batch.add("{\"name\":\"Microsoft.ApplicationInsights.Message\"}".getBytes());
+        batch.add("{\"name\":\"Microsoft.ApplicationInsights.Message\"}".getBytes());
+        tested.onDropped(batch);
+        tested.onSpilled(5);
+
+        assertEquals(1, tested.getNumberOfDroppedBatches());
+        assertEquals(3, tested.getNumberOfDroppedTelemetries());
+        assertEquals(1, tested.getNumberOfDroppedTelemetries("Request"));
+        assertEquals(2, tested.getNumberOfDroppedTelemetries("Message"));
+        assertEquals(0, tested.getNumberOfDroppedTelemetries("Exception"));
+        assertEquals(Long.valueOf(2), tested.getDroppedTelemetriesByType().get("Message"));
+        assertEquals(5, tested.getNumberOfSpilledTelemetries());
+    }
+
+    @Test
+    public void testDroppedStreamingBatchIsNotSealed() {
+        TelemetryDropCounters tested = new TelemetryDropCounters();
+
+        GzipTelemetryBatch batch = new GzipTelemetryBatch();
+        batch.add("{\"name\":\"Microsoft.ApplicationInsights.Request\"}".getBytes());
+        batch.add("{\"name\":\"Microsoft.ApplicationInsights.Message\"}".getBytes());
+        tested.onDropped(batch);
+
+        assertFalse(batch.isSealed());
+        assertEquals(1, tested.getNumberOfDroppedBatches());
+        assertEquals(2, tested.getNumberOfDroppedTelemetries());
+        assertEquals(2, tested.getNumberOfDroppedTelemetries(TelemetryDropCounters.COMPRESSED_TELEMETRY_TYPE));
+        assertEquals(0, tested.getNumberOfDroppedTelemetries("Request"));
+    }
+}
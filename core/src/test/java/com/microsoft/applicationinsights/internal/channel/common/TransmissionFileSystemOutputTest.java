@@ -26,7 +26,6 @@ import java.io.IOException;
 import java.util.Collection;
 
 import com.microsoft.applicationinsights.internal.util.LocalFileSystemUtils;
-import org.junit.Ignore;
 import org.junit.Test;
 
 import org.apache.commons.io.FileUtils;
@@ -71,13 +70,12 @@ public final class TransmissionFileSystemOutputTest {
     }
 
     @Test
-    @Ignore("The test needs further debugging on the build machine")
     public void testFetchOldestFiles() throws Exception {
         File folder = createFolderForTest();
         try {
             TransmissionFileSystemOutput tested = new TransmissionFileSystemOutput(workingFolder);
 
-            for (int i = 10; i != 0; --i) {
+            for (int i = 1; i <= 10; ++i) {
                 String iAsString = String.valueOf(i);
                 String content = MOCK_CONTENT + iAsString;
                 tested.send(new Transmission(content.getBytes(), MOCK_CONTENT_TYPE_BASE + iAsString, MOCK_ENCODING_TYPE_BASE + iAsString));
@@ -103,6 +101,37 @@ public final class TransmissionFileSystemOutputTest {
         }
     }
 
+    @Test
+    public void testFilesAreIndexedOnStartup() throws Exception {
+        File folder = createFolderForTest();
+        try {
+            // A file that was stored before the files were named by sequence
+            TransmissionFileSystemOutput tested = new TransmissionFileSystemOutput(workingFolder);
+            tested.send(new Transmission((MOCK_CONTENT + "0").getBytes(), MOCK_CONTENT_TYPE_BASE, MOCK_ENCODING_TYPE_BASE));
+            File[] files = folder.listFiles();
+            assertEquals(1, files.length);
+            FileUtils.moveFile(files[0], new File(folder, "Transmission1234567890.trn"));
+
+            for (int i = 1; i <= 3; ++i) {
+                tested.send(new Transmission((MOCK_CONTENT + i).getBytes(), MOCK_CONTENT_TYPE_BASE, MOCK_ENCODING_TYPE_BASE));
+            }
+
+            TransmissionFileSystemOutput restarted = new TransmissionFileSystemOutput(workingFolder);
+            restarted.send(new Transmission((MOCK_CONTENT + "4").getBytes(), MOCK_CONTENT_TYPE_BASE, MOCK_ENCODING_TYPE_BASE));
+
+            for (int i = 0; i <= 4; ++i) {
+                Transmission transmission = restarted.fetchOldestFile();
+                assertNotNull(transmission);
+                assertEquals(MOCK_CONTENT + i, new String(transmission.getContent()));
+            }
+            assertNull(restarted.fetchOldestFile());
+        } finally {
+            if (folder.exists()) {
+                FileUtils.deleteDirectory(folder);
+            }
+        }
+    }
+
     private TransmissionFileSystemOutput testSuccessfulSends(int amount) throws Exception {
         return testSuccessfulSends(amount, amount, null, null);
     }
@@ -0,0 +1,249 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.TimeUnit;
+
+import com.microsoft.applicationinsights.internal.util.LocalFileSystemUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.commons.io.FileUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public final class TransmissionSegmentLogOutputTest {
+    private final static String TEMP_TEST_FOLDER = "TransmissionSegmentLogTests";
+    private final static String MOCK_CONTENT = "MockContent";
+    private final static String MOCK_CONTENT_TYPE_BASE = "MockContent";
+    private final static String MOCK_ENCODING_TYPE_BASE = "MockEncodingType";
+
+    private File folder;
+
+    @Before
+    public void setUp() throws IOException {
+        folder = new File(LocalFileSystemUtils.getTempDir(), TEMP_TEST_FOLDER);
+        if (folder.exists()) {
+            FileUtils.deleteDirectory(folder);
+        }
+        folder.mkdir();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (folder.exists()) {
+            FileUtils.deleteDirectory(folder);
+        }
+    }
+
+    @Test
+    public void testFetchFromEmptyStorage() {
+        TransmissionSegmentLogOutput tested = new TransmissionSegmentLogOutput(folder.getPath());
+
+        assertNull(tested.fetchOldestFile());
+    }
+
+    @Test
+    public void testTransmissionsAreFetchedInOrder() {
+        TransmissionSegmentLogOutput tested = new TransmissionSegmentLogOutput(folder.getPath());
+
+        for (int i = 1; i <= 10; ++i) {
+            assertTrue(tested.send(createTransmission(i)));
+        }
+
+        for (int i = 1; i <= 10; ++i) {
+            verifyTransmission(tested.fetchOldestFile(), i);
+        }
+        assertNull(tested.fetchOldestFile());
+    }
+
+    @Test
+    public void testMetaDataIsKept() {
+        TransmissionSegmentLogOutput tested = new TransmissionSegmentLogOutput(folder.getPath());
+        Transmission transmission = new Transmission(new byte[] {1, 2, 3}, "MockContentType", "MockEncodingType", 3);
+        transmission.setNumberOfSends(2);
+        transmission.setNumberOfPartialResends(1);
+        transmission.setNumberOfPersistence(4);
+
+        tested.send(transmission);
+        Transmission fetched = tested.fetchOldestFile();
+
+        assertNotNull(fetched);
+        assertEquals(3, fetched.getVersion());
+        assertEquals(2, fetched.getNumberOfSends());
+        assertEquals(1, fetched.getNumberOfPartialResends());
+        assertEquals(4, fetched.getNumberOfPersistence());
+    }
+
+    @Test
+    public void testReadSegmentsAreDeleted() {
+        TransmissionSegmentLogOutput tested = new TransmissionSegmentLogOutput(folder.getPath(), "1");
+        int transmissionSize = tested.getSegmentSizeInBytes() / 2;
+
+        // Every segment has room for one transmission only
+        for (int i = 0; i < 3; ++i) {
+            assertTrue(tested.send(new Transmission(new byte[transmissionSize], "MockContentType", "MockEncodingType")));
+        }
+        assertEquals(3, countSegmentFiles());
+
+        for (int i = 0; i < 3; ++i) {
+            assertNotNull(tested.fetchOldestFile());
+        }
+        assertNull(tested.fetchOldestFile());
+
+        // The segment that is still written to is kept
+        assertEquals(1, countSegmentFiles());
+        assertEquals(tested.getSegmentSizeInBytes(), tested.getSizeInBytes());
+    }
+
+    @Test
+    public void testSegmentThatCannotBeDeletedIsDeletedOnTheNextSegment() throws IOException {
+        TransmissionSegmentLogOutput tested = new TransmissionSegmentLogOutput(folder.getPath(), "1");
+        int transmissionSize = tested.getSegmentSizeInBytes() / 2;
+        for (int i = 0; i < 2; ++i) {
+            assertTrue(tested.send(new Transmission(new byte[transmissionSize], "MockContentType", "MockEncodingType")));
+        }
+        tested.stop(1L, TimeUnit.SECONDS);
+
+        // A non empty folder in place of the oldest segment, which cannot be read nor deleted
+        File oldest = new File(folder, "Segment-0000000000000000000.seg");
+        assertTrue(oldest.delete());
+        assertTrue(oldest.mkdir());
+        File blocker = new File(oldest, "blocker");
+        assertTrue(blocker.createNewFile());
+        long oldestSizeInBytes = oldest.length();
+
+        TransmissionSegmentLogOutput restarted = new TransmissionSegmentLogOutput(folder.getPath(), "1");
+        long sizeInBytes = restarted.getSizeInBytes();
+        assertNotNull(restarted.fetchOldestFile());
+        assertTrue(oldest.exists());
+        assertEquals(sizeInBytes, restarted.getSizeInBytes());
+
+        // The deletion is retried when the next segment is started
+        assertTrue(blocker.delete());
+        assertTrue(restarted.send(new Transmission(new byte[transmissionSize], "MockContentType", "MockEncodingType")));
+        assertFalse(oldest.exists());
+        assertEquals(sizeInBytes - oldestSizeInBytes + restarted.getSegmentSizeInBytes(), restarted.getSizeInBytes());
+    }
+
+    @Test
+    public void testCapacityIsRespected() {
+        TransmissionSegmentLogOutput tested = new TransmissionSegmentLogOutput(folder.getPath(), "1");
+        int transmissionSize = tested.getSegmentSizeInBytes() / 2;
+
+        int sent = 0;
+        while (tested.send(new Transmission(new byte[transmissionSize], "MockContentType", "MockEncodingType"))) {
+            ++sent;
+        }
+
+        assertEquals(1024 * 1024 / tested.getSegmentSizeInBytes(), sent);
+        assertTrue(tested.getSizeInBytes() <= 1024 * 1024);
+
+        // Room is made once the transmissions are read
+        assertNotNull(tested.fetchOldestFile());
+        assertNotNull(tested.fetchOldestFile());
+        assertTrue(tested.send(new Transmission(new byte[transmissionSize], "MockContentType", "MockEncodingType")));
+    }
+
+    @Test
+    public void testUnreadTransmissionsAreLoadedAfterRestart() {
+        TransmissionSegmentLogOutput tested = new TransmissionSegmentLogOutput(folder.getPath());
+        for (int i = 1; i <= 5; ++i) {
+            tested.send(createTransmission(i));
+        }
+        verifyTransmission(tested.fetchOldestFile(), 1);
+        verifyTransmission(tested.fetchOldestFile(), 2);
+        tested.stop(1L, TimeUnit.SECONDS);
+
+        TransmissionSegmentLogOutput restarted = new TransmissionSegmentLogOutput(folder.getPath());
+        restarted.send(createTransmission(6));
+
+        for (int i = 3; i <= 6; ++i) {
+            verifyTransmission(restarted.fetchOldestFile(), i);
+        }
+        assertNull(restarted.fetchOldestFile());
+    }
+
+    @Test
+    public void testCorruptedRecordIsSkipped() throws IOException {
+        TransmissionSegmentLogOutput tested = new TransmissionSegmentLogOutput(folder.getPath());
+        for (int i = 1; i <= 3; ++i) {
+            tested.send(createTransmission(i));
+        }
+        tested.stop(1L, TimeUnit.SECONDS);
+
+        // Flip the last byte of the content of the first record
+        File[] segments = folder.listFiles();
+        assertEquals(1, segments.length);
+        RandomAccessFile segment = new RandomAccessFile(segments[0], "rw");
+        try {
+            segment.seek(8);
+            int length = segment.readInt();
+            long lastByte = 8 + 9 + length - 1;
+            segment.seek(lastByte);
+            int value = segment.read();
+            segment.seek(lastByte);
+            segment.write(value ^ 0xFF);
+        } finally {
+            segment.close();
+        }
+
+        TransmissionSegmentLogOutput restarted = new TransmissionSegmentLogOutput(folder.getPath());
+        verifyTransmission(restarted.fetchOldestFile(), 2);
+        verifyTransmission(restarted.fetchOldestFile(), 3);
+        assertNull(restarted.fetchOldestFile());
+    }
+
+    @Test
+    public void testSendAfterStop() {
+        TransmissionSegmentLogOutput tested = new TransmissionSegmentLogOutput(folder.getPath());
+        tested.stop(1L, TimeUnit.SECONDS);
+
+        assertFalse(tested.send(createTransmission(1)));
+    }
+
+    private int countSegmentFiles() {
+        return FileUtils.listFiles(folder, new String[] {"seg"}, false).size();
+    }
+
+    private static Transmission createTransmission(int index) {
+        String indexAsString = String.valueOf(index);
+        return new Transmission((MOCK_CONTENT + indexAsString).getBytes(), MOCK_CONTENT_TYPE_BASE + indexAsString, MOCK_ENCODING_TYPE_BASE + indexAsString);
+    }
+
+    private static void verifyTransmission(Transmission transmission, int index) {
+        assertNotNull(transmission);
+
+        String indexAsString = String.valueOf(index);
+        assertEquals(MOCK_CONTENT_TYPE_BASE + indexAsString, transmission.getWebContentType());
+        assertEquals(MOCK_ENCODING_TYPE_BASE + indexAsString, transmission.getWebContentEncodingType());
+        assertEquals(MOCK_CONTENT + indexAsString, new String(transmission.getContent()));
+    }
+}
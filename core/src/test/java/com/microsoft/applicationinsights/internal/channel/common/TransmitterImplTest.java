@@ -22,14 +22,18 @@
 package com.microsoft.applicationinsights.internal.channel.common;
 
 import java.io.IOException;
-import java.io.StringWriter;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
+import com.microsoft.applicationinsights.internal.channel.SerializingTransmissionOutput;
 import com.microsoft.applicationinsights.internal.channel.TelemetriesTransmitter;
 import com.microsoft.applicationinsights.internal.channel.TelemetrySerializer;
 import com.microsoft.applicationinsights.internal.channel.TransmissionDispatcher;
+import com.microsoft.applicationinsights.internal.channel.TransmissionOutput;
 import com.microsoft.applicationinsights.internal.channel.TransmissionsLoader;
+import com.microsoft.applicationinsights.internal.util.Utf8BytesWriter;
 import com.microsoft.applicationinsights.telemetry.JsonTelemetryDataSerializer;
 import com.microsoft.applicationinsights.telemetry.Telemetry;
 import com.microsoft.applicationinsights.telemetry.TelemetryContext;
@@ -38,8 +42,13 @@ import org.mockito.Mockito;
 
 import com.google.common.base.Optional;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.anyBoolean;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollectionOf;
 
 public final class TransmitterImplTest {
     private final static String MOCK_WEB_CONTENT_TYPE = "MWCT";
@@ -119,6 +128,389 @@ public final class TransmitterImplTest {
         testSendNow(100, false);
     }
 
+    @Test
+    public void testSendNowSplitsBatchBiggerThanMaxSizeInBytes() throws Exception {
+        TransmitterImpl transmitter = null;
+        try {
+            TransmissionDispatcher mockDispatcher = Mockito.mock(TransmissionDispatcher.class);
+            TransmissionsLoader mockLoader = Mockito.mock(TransmissionsLoader.class);
+
+            final List<Integer> serializedBatchSizes = Collections.synchronizedList(new ArrayList<Integer>());
+            TelemetrySerializer serializer = new TelemetrySerializer() {
+                @Override
+                public Optional<Transmission> serialize(Collection<byte[]> telemetries) {
+                    serializedBatchSizes.add(telemetries.size());
+                    return Optional.of(new Transmission(new byte[1], MOCK_WEB_CONTENT_TYPE, MOCK_CONTENT_ENCODING_TYPE));
+                }
+            };
+
+            transmitter = new TransmitterImpl(mockDispatcher, serializer, mockLoader, 100);
+
+            // 40 + 40 fit in one batch, the next 40 starts a new one, the 150 bytes telemetry is sent by itself
+            List<byte[]> telemetries = new ArrayList<byte[]>();
+            telemetries.add(new byte[40]);
+            telemetries.add(new byte[40]);
+            telemetries.add(new byte[40]);
+            telemetries.add(new byte[150]);
+            telemetries.add(new byte[10]);
+
+            transmitter.sendNow(telemetries);
+            Thread.sleep(100);
+
+            assertEquals(Arrays.asList(2, 1, 1, 1), serializedBatchSizes);
+            Mockito.verify(mockDispatcher, Mockito.times(4)).dispatch(any(Transmission.class));
+        } finally {
+            if (transmitter != null) {
+                transmitter.stop(1L, TimeUnit.SECONDS);
+            }
+        }
+    }
+
+    @Test
+    public void testDropNewestWhenTooManyPendingRequests() throws Exception {
+        BlockingDispatcher dispatcher = new BlockingDispatcher();
+        TelemetryDropCounters dropCounters = new TelemetryDropCounters();
+        TransmitterImpl transmitter = createStalledTransmitter(dispatcher, BackpressurePolicy.DROP_NEWEST, null, dropCounters);
+        try {
+            assertFalse(transmitter.sendNow(createBatch("D", "Request", "Message")));
+
+            assertEquals(1, dropCounters.getNumberOfDroppedBatches());
+            assertEquals(2, dropCounters.getNumberOfDroppedTelemetries());
+            assertEquals(1, dropCounters.getNumberOfDroppedTelemetries("Request"));
+            assertEquals(1, dropCounters.getNumberOfDroppedTelemetries("Message"));
+
+            dispatcher.release.countDown();
+            Thread.sleep(100);
+            assertEquals(Arrays.asList("A", "B", "C"), dispatcher.getSortedDispatched());
+        } finally {
+            dispatcher.release.countDown();
+            transmitter.stop(1L, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testDropOldestWhenTooManyPendingRequests() throws Exception {
+        BlockingDispatcher dispatcher = new BlockingDispatcher();
+        TelemetryDropCounters dropCounters = new TelemetryDropCounters();
+        TransmitterImpl transmitter = createStalledTransmitter(dispatcher, BackpressurePolicy.DROP_OLDEST, null, dropCounters);
+        try {
+            assertTrue(transmitter.sendNow(createBatch("D", "Request")));
+
+            assertEquals(1, dropCounters.getNumberOfDroppedBatches());
+            assertEquals(1, dropCounters.getNumberOfDroppedTelemetries("Event"));
+
+            dispatcher.release.countDown();
+            Thread.sleep(100);
+            assertEquals(Arrays.asList("A", "B", "D"), dispatcher.getSortedDispatched());
+        } finally {
+            dispatcher.release.countDown();
+            transmitter.stop(1L, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testSpillToDiskWhenTooManyPendingRequests() throws Exception {
+        BlockingDispatcher dispatcher = new BlockingDispatcher();
+        TelemetryDropCounters dropCounters = new TelemetryDropCounters();
+        TransmissionOutput mockSpillOutput = Mockito.mock(TransmissionOutput.class);
+        Mockito.doReturn(true).when(mockSpillOutput).send(any(Transmission.class));
+        TransmitterImpl transmitter = createStalledTransmitter(dispatcher, BackpressurePolicy.SPILL_TO_DISK, mockSpillOutput, dropCounters);
+        try {
+            assertTrue(transmitter.sendNow(createBatch("D", "Request", "Request")));
+
+            Mockito.verify(mockSpillOutput, Mockito.times(1)).send(any(Transmission.class));
+            assertEquals(2, dropCounters.getNumberOfSpilledTelemetries());
+            assertEquals(0, dropCounters.getNumberOfDroppedTelemetries());
+
+            // Nothing is lost when the disk cannot take it either
+            Mockito.doReturn(false).when(mockSpillOutput).send(any(Transmission.class));
+            assertFalse(transmitter.sendNow(createBatch("E", "Request")));
+            assertEquals(1, dropCounters.getNumberOfDroppedTelemetries("Request"));
+        } finally {
+            dispatcher.release.countDown();
+            transmitter.stop(1L, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testSpillToDiskIsSerializedByTheOutput() throws Exception {
+        BlockingDispatcher dispatcher = new BlockingDispatcher();
+        TelemetryDropCounters dropCounters = new TelemetryDropCounters();
+        SerializingTransmissionOutput mockSpillOutput = Mockito.mock(SerializingTransmissionOutput.class);
+        Mockito.doReturn(true).when(mockSpillOutput).send(anyCollectionOf(byte[].class), any(TelemetrySerializer.class));
+        TransmitterImpl transmitter = createStalledTransmitter(dispatcher, BackpressurePolicy.SPILL_TO_DISK, mockSpillOutput, dropCounters);
+        try {
+            List<byte[]> batch = createBatch("D", "Request", "Request");
+            assertTrue(transmitter.sendNow(batch));
+
+            Mockito.verify(mockSpillOutput, Mockito.times(1)).send(Mockito.eq(batch), any(TelemetrySerializer.class));
+            Mockito.verify(mockSpillOutput, Mockito.never()).send(any(Transmission.class));
+            assertEquals(2, dropCounters.getNumberOfSpilledTelemetries());
+        } finally {
+            dispatcher.release.countDown();
+            transmitter.stop(1L, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testBlockUntilTimeoutWhenTooManyPendingRequests() throws Exception {
+        BlockingDispatcher dispatcher = new BlockingDispatcher();
+        TelemetryDropCounters dropCounters = new TelemetryDropCounters();
+        TransmitterImpl transmitter = createStalledTransmitter(dispatcher, BackpressurePolicy.BLOCK, null, dropCounters);
+        try {
+            long start = System.currentTimeMillis();
+            assertFalse(transmitter.sendNow(createBatch("D", "Request")));
+
+            assertTrue(System.currentTimeMillis() - start >= 100);
+            assertEquals(1, dropCounters.getNumberOfDroppedTelemetries("Request"));
+        } finally {
+            dispatcher.release.countDown();
+            transmitter.stop(1L, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testBlockUntilThereIsRoom() throws Exception {
+        final BlockingDispatcher dispatcher = new BlockingDispatcher();
+        TelemetryDropCounters dropCounters = new TelemetryDropCounters();
+        TransmitterImpl transmitter = createStalledTransmitter(dispatcher, BackpressurePolicy.BLOCK, null, dropCounters);
+        try {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Thread.sleep(20);
+                    } catch (InterruptedException e) {
+                    }
+                    dispatcher.release.countDown();
+                }
+            }).start();
+
+            assertTrue(transmitter.sendNow(createBatch("D", "Request")));
+            assertEquals(0, dropCounters.getNumberOfDroppedTelemetries());
+        } finally {
+            dispatcher.release.countDown();
+            transmitter.stop(1L, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testStopPersistsPendingRequestsWhenTimeoutExpires() throws Exception {
+        BlockingDispatcher dispatcher = new BlockingDispatcher();
+        TelemetryDropCounters dropCounters = new TelemetryDropCounters();
+        TransmissionOutput mockSpillOutput = Mockito.mock(TransmissionOutput.class);
+        Mockito.doReturn(true).when(mockSpillOutput).send(any(Transmission.class));
+        TransmitterImpl transmitter = createStalledTransmitter(dispatcher, BackpressurePolicy.DROP_NEWEST, mockSpillOutput, dropCounters);
+        try {
+            long start = System.currentTimeMillis();
+            transmitter.stop(100L, TimeUnit.MILLISECONDS);
+
+            assertTrue(System.currentTimeMillis() - start < 1000);
+            Mockito.verify(mockSpillOutput, Mockito.times(1)).send(any(Transmission.class));
+            assertEquals(1, dropCounters.getNumberOfSpilledTelemetries());
+            assertEquals(0, dropCounters.getNumberOfDroppedTelemetries());
+            assertEquals(Arrays.asList("A", "B"), dispatcher.getSortedDispatched());
+        } finally {
+            dispatcher.release.countDown();
+        }
+    }
+
+    @Test
+    public void testSingleLaneWhenPriorityLanesAreDisabled() throws Exception {
+        TransmitterImpl transmitter = new TransmitterImpl(new BlockingDispatcher(), mockSerializer(), Mockito.mock(TransmissionsLoader.class), 100);
+        try {
+            assertSame(transmitter.getLane(TelemetryPriority.HIGH), transmitter.getLane(TelemetryPriority.LOW));
+        } finally {
+            transmitter.stop(1L, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testPendingRequestsOfHigherPriorityLanesAreExecutedFirst() throws Exception {
+        LaneDispatcher dispatcher = new LaneDispatcher("A", "B");
+        TransmitterImpl transmitter = createLaneTransmitter(dispatcher, 30);
+        try {
+            stallThreads(transmitter, dispatcher);
+
+            assertTrue(transmitter.getLane(TelemetryPriority.LOW).sendNow(createBatch("C", "Message")));
+            assertTrue(transmitter.getLane(TelemetryPriority.NORMAL).sendNow(createBatch("D", "Event")));
+            assertTrue(transmitter.getLane(TelemetryPriority.HIGH).sendNow(createBatch("E", "Request")));
+            assertEquals(3, transmitter.getNumberOfPendingBatches());
+
+            // One thread is released and executes the pending requests by their priority
+            dispatcher.release("A");
+            dispatcher.waitForDispatches(5);
+            assertEquals(Arrays.asList("A", "B", "E", "D", "C"), dispatcher.dispatched);
+        } finally {
+            dispatcher.releaseAll();
+            transmitter.stop(1L, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testLowerPriorityPendingRequestsAreDroppedFirst() throws Exception {
+        LaneDispatcher dispatcher = new LaneDispatcher("A", "B");
+        // Room for one pending request per lane
+        TransmitterImpl transmitter = createLaneTransmitter(dispatcher, 3);
+        TelemetryDropCounters dropCounters = transmitter.getDropCounters();
+        try {
+            stallThreads(transmitter, dispatcher);
+
+            assertTrue(transmitter.getLane(TelemetryPriority.LOW).sendNow(createBatch("C", "Message", "Message")));
+            assertTrue(transmitter.getLane(TelemetryPriority.HIGH).sendNow(createBatch("D", "Request")));
+
+            // The high priority lane has no room, the pending trace batch is dropped for it
+            assertTrue(transmitter.getLane(TelemetryPriority.HIGH).sendNow(createBatch("E", "Exception")));
+            assertEquals(2, dropCounters.getNumberOfDroppedTelemetries("Message"));
+
+            // A low priority lane never drops the requests of higher priority lanes
+            assertFalse(transmitter.getLane(TelemetryPriority.LOW).sendNow(createBatch("F", "Message")));
+            assertFalse(transmitter.getLane(TelemetryPriority.LOW).sendNow(createBatch("G", "Message")));
+            assertEquals(0, dropCounters.getNumberOfDroppedTelemetries("Request"));
+            assertEquals(0, dropCounters.getNumberOfDroppedTelemetries("Exception"));
+
+            dispatcher.release("A");
+            dispatcher.waitForDispatches(4);
+            assertEquals(Arrays.asList("A", "B", "D", "E"), dispatcher.dispatched);
+        } finally {
+            dispatcher.releaseAll();
+            transmitter.stop(1L, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Records the transmissions in the order they are dispatched, and blocks the sending threads
+     * that dispatch the given transmissions until they are released.
+     */
+    private static final class LaneDispatcher implements TransmissionDispatcher {
+        final Map<String, CountDownLatch> blocked = new ConcurrentHashMap<String, CountDownLatch>();
+        final List<String> dispatched = Collections.synchronizedList(new ArrayList<String>());
+
+        LaneDispatcher(String... blockedTags) {
+            for (String tag : blockedTags) {
+                blocked.put(tag, new CountDownLatch(1));
+            }
+        }
+
+        @Override
+        public void dispatch(Transmission transmission) {
+            String tag = new String(transmission.getContent());
+            dispatched.add(tag);
+            CountDownLatch latch = blocked.get(tag);
+            if (latch != null) {
+                try {
+                    latch.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                }
+            }
+        }
+
+        @Override
+        public void stop(long timeout, TimeUnit timeUnit) {
+        }
+
+        void release(String tag) {
+            blocked.get(tag).countDown();
+        }
+
+        void releaseAll() {
+            for (CountDownLatch latch : blocked.values()) {
+                latch.countDown();
+            }
+        }
+
+        void waitForDispatches(int amount) throws InterruptedException {
+            for (int i = 0; i < 250 && dispatched.size() < amount; ++i) {
+                Thread.sleep(20);
+            }
+            assertEquals(amount, dispatched.size());
+        }
+    }
+
+    private static TransmitterImpl createLaneTransmitter(TransmissionDispatcher dispatcher, int maxPendingRequests) {
+        return new TransmitterImpl(dispatcher, mockSerializer(), Mockito.mock(TransmissionsLoader.class), Integer.MAX_VALUE, BackpressurePolicy.DROP_NEWEST, 100, null, new TelemetryDropCounters(), true, maxPendingRequests);
+    }
+
+    /**
+     * Keeps the two threads of the transmitter busy with the transmissions 'A' and 'B'.
+     */
+    private static void stallThreads(TransmitterImpl transmitter, LaneDispatcher dispatcher) throws InterruptedException {
+        assertTrue(transmitter.getLane(TelemetryPriority.LOW).sendNow(createBatch("A", "Message")));
+        dispatcher.waitForDispatches(1);
+        assertTrue(transmitter.getLane(TelemetryPriority.LOW).sendNow(createBatch("B", "Message")));
+        dispatcher.waitForDispatches(2);
+    }
+
+    /**
+     * Records the first telemetry of every transmission and blocks the sending threads until released.
+     */
+    private static final class BlockingDispatcher implements TransmissionDispatcher {
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> dispatched = Collections.synchronizedList(new ArrayList<String>());
+
+        @Override
+        public void dispatch(Transmission transmission) {
+            dispatched.add(new String(transmission.getContent()));
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+            }
+        }
+
+        @Override
+        public void stop(long timeout, TimeUnit timeUnit) {
+        }
+
+        void waitForDispatches(int amount) throws InterruptedException {
+            for (int i = 0; i < 250 && dispatched.size() < amount; ++i) {
+                Thread.sleep(20);
+            }
+            assertEquals(amount, dispatched.size());
+        }
+
+        List<String> getSortedDispatched() {
+            List<String> result = new ArrayList<String>(dispatched);
+            Collections.sort(result);
+            return result;
+        }
+    }
+
+    /**
+     * Creates a transmitter with room for one pending request, whose two threads are busy and that has one pending request.
+     */
+    private static TransmitterImpl createStalledTransmitter(BlockingDispatcher dispatcher, BackpressurePolicy policy, TransmissionOutput spillOutput, TelemetryDropCounters dropCounters) throws InterruptedException {
+        TransmitterImpl transmitter = new TransmitterImpl(dispatcher, mockSerializer(), Mockito.mock(TransmissionsLoader.class), Integer.MAX_VALUE, policy, 100, spillOutput, dropCounters, false, 1);
+        assertTrue(transmitter.sendNow(createBatch("A", "Event")));
+        dispatcher.waitForDispatches(1);
+        assertTrue(transmitter.sendNow(createBatch("B", "Event")));
+        dispatcher.waitForDispatches(2);
+        assertTrue(transmitter.sendNow(createBatch("C", "Event")));
+
+        return transmitter;
+    }
+
+    /**
+     * Creates a serializer whose transmissions hold the tag of their first telemetry.
+     */
+    private static TelemetrySerializer mockSerializer() {
+        return new TelemetrySerializer() {
+            @Override
+            public Optional<Transmission> serialize(Collection<byte[]> telemetries) {
+                String tag = new String(telemetries.iterator().next()).replaceAll(".*\"tag\":\"(\\w+)\".*", "$1");
+                return Optional.of(new Transmission(tag.getBytes(), MOCK_WEB_CONTENT_TYPE, MOCK_CONTENT_ENCODING_TYPE));
+            }
+        };
+    }
+
+    private static List<byte[]> createBatch(String tag, String... types) {
+        List<byte[]> batch = new ArrayList<byte[]>();
+        for (String type : types) {
+            batch.add(String.format("{\"ver\":1,\"name\":\"Microsoft.ApplicationInsights.%s\",\"tag\":\"%s\"}", type, tag).getBytes());
+        }
+
+        return batch;
+    }
+
     private void testSendNow(int numberOfTransmissions, boolean serializeOk) throws IOException {
         TransmitterImpl transmitter = null;
         try {
@@ -172,7 +564,7 @@ public final class TransmitterImplTest {
                     }
                 });
             }
-            ArrayList<String> asJsons = toJson(telemetries);
+            ArrayList<byte[]> asJsons = toJson(telemetries);
 
             Transmission mockTransmission = new Transmission(new byte[1], MOCK_WEB_CONTENT_TYPE, MOCK_CONTENT_ENCODING_TYPE);
             Optional<Transmission> mockSerialize = Optional.absent();
@@ -259,7 +651,7 @@ public final class TransmitterImplTest {
                     }
                 });
             }
-            Collection<String> asJsons = toJson(telemetries);
+            Collection<byte[]> asJsons = toJson(telemetries);
 
             Transmission mockTransmission = new Transmission(new byte[1], MOCK_WEB_CONTENT_TYPE, MOCK_CONTENT_ENCODING_TYPE);
             Optional<Transmission> mockSerialize = Optional.absent();
@@ -299,16 +691,16 @@ public final class TransmitterImplTest {
         }
     }
 
-    private static ArrayList<String> toJson(List<Telemetry> telemetries) throws IOException {
-        StringWriter writer = new StringWriter();
+    private static ArrayList<byte[]> toJson(List<Telemetry> telemetries) throws IOException {
+        Utf8BytesWriter writer = new Utf8BytesWriter();
         JsonTelemetryDataSerializer jsonWriter = new JsonTelemetryDataSerializer(writer);
-        ArrayList<String> asJsons = new ArrayList<String>();
+        ArrayList<byte[]> asJsons = new ArrayList<byte[]>();
         for (Telemetry telemetry : telemetries) {
             telemetry.serialize(jsonWriter);
             jsonWriter.close();
-            String asJson = writer.toString();
+            byte[] asJson = writer.toByteArray();
             asJsons.add(asJson);
-            writer.getBuffer().setLength(0);
+            writer.reset();
             jsonWriter.reset(writer);
         }
 
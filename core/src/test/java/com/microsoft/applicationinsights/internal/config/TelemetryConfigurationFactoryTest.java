@@ -47,6 +47,7 @@ import static org.mockito.Matchers.anyString;
 import org.junit.Test;
 import org.junit.Assert;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 public final class TelemetryConfigurationFactoryTest {
@@ -139,6 +140,33 @@ public final class TelemetryConfigurationFactoryTest {
         assertTrue(mockConfiguration.getChannel() instanceof InProcessTelemetryChannel);
     }
 
+    @Test
+    public void testStandardMetricsProcessorIsTakenOutOfTheProcessors() {
+        AppInsightsConfigurationBuilder mockParser = createMockParser(true, true, false);
+        ApplicationInsightsXmlConfiguration appConf = mockParser.build( null );
+        appConf.setInstrumentationKey(MOCK_IKEY);
+
+        TelemetryProcessorsXmlElement telemetryProcessorsXmlElement = new TelemetryProcessorsXmlElement();
+
+        TelemetryProcessorXmlElement builtIn = new TelemetryProcessorXmlElement();
+        builtIn.setType("SyntheticSourceFilter");
+        telemetryProcessorsXmlElement.getBuiltInTelemetryProcessors().add(builtIn);
+
+        builtIn = new TelemetryProcessorXmlElement();
+        builtIn.setType("StandardMetricsProcessor");
+        telemetryProcessorsXmlElement.getBuiltInTelemetryProcessors().add(builtIn);
+
+        appConf.setTelemetryProcessors(telemetryProcessorsXmlElement);
+
+        TelemetryConfiguration mockConfiguration = new TelemetryConfiguration();
+
+        initializeWithFactory(mockParser, mockConfiguration);
+
+        assertEquals(1, mockConfiguration.getTelemetryProcessors().size());
+        assertTrue(mockConfiguration.getTelemetryProcessors().get(0) instanceof SyntheticSourceFilter);
+        Assert.assertNotNull(mockConfiguration.getStandardMetricsProcessor());
+    }
+
     @Test
     public void testTelemetryProcessors() {
         AppInsightsConfigurationBuilder mockParser = createMockParser(true, true, false);
@@ -384,6 +412,33 @@ public final class TelemetryConfigurationFactoryTest {
         assertEquals(mockConfiguration.getChannel().isDeveloperMode(), false);
     }
 
+    @Test
+    public void testTelemetryPoolingIsEnabledByTheDefaultChannel() {
+        AppInsightsConfigurationBuilder mockParser = createMockParserWithDefaultChannel(true);
+        ApplicationInsightsXmlConfiguration appConf = mockParser.build(null);
+        appConf.setInstrumentationKey(MOCK_IKEY);
+        appConf.getChannel().setTelemetryPooling(true);
+
+        TelemetryConfiguration mockConfiguration = new TelemetryConfiguration();
+
+        initializeWithFactory(mockParser, mockConfiguration);
+
+        assertTrue(mockConfiguration.isTelemetryPoolingEnabled());
+    }
+
+    @Test
+    public void testTelemetryPoolingIsDisabledByDefault() {
+        AppInsightsConfigurationBuilder mockParser = createMockParserWithDefaultChannel(true);
+        ApplicationInsightsXmlConfiguration appConf = mockParser.build(null);
+        appConf.setInstrumentationKey(MOCK_IKEY);
+
+        TelemetryConfiguration mockConfiguration = new TelemetryConfiguration();
+
+        initializeWithFactory(mockParser, mockConfiguration);
+
+        assertFalse(mockConfiguration.isTelemetryPoolingEnabled());
+    }
+
     private MockTelemetryModule generateTelemetryModules(boolean addParameter) {
         AppInsightsConfigurationBuilder mockParser = createMockParser(true, true, false);
         ApplicationInsightsXmlConfiguration appConf = mockParser.build(null);
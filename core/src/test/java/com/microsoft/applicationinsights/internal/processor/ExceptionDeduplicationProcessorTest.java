@@ -0,0 +1,189 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.processor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.microsoft.applicationinsights.TelemetryClient;
+import com.microsoft.applicationinsights.telemetry.ExceptionTelemetry;
+import com.microsoft.applicationinsights.telemetry.TraceTelemetry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public final class ExceptionDeduplicationProcessorTest {
+    private final static long START = 1000000L;
+
+    private List<ExceptionTelemetry> sent;
+    private ExceptionDeduplicationProcessor tested;
+
+    @Before
+    public void setUp() {
+        sent = new ArrayList<ExceptionTelemetry>();
+        TelemetryClient client = Mockito.mock(TelemetryClient.class);
+        Mockito.doAnswer(new Answer() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                sent.add((ExceptionTelemetry) invocation.getArguments()[0]);
+                return null;
+            }
+        }).when(client).trackException(Mockito.any(ExceptionTelemetry.class));
+
+        tested = new ExceptionDeduplicationProcessor(client);
+    }
+
+    @Test
+    public void testNonExceptionTelemetriesAreNotFiltered() {
+
+        assertTrue(tested.process(new TraceTelemetry("message"), START));
+        assertTrue(tested.process(new TraceTelemetry("message"), START));
+    }
+
+    @Test
+    public void testFirstOccurrenceIsSentInFull() {
+        ExceptionTelemetry telemetry = new ExceptionTelemetry(createException("first"));
+
+        assertTrue(tested.process(telemetry, START));
+        assertNull(telemetry.getMetrics().get(ExceptionDeduplicationProcessor.OCCURRENCE_COUNT_NAME));
+    }
+
+    @Test
+    public void testRepeatedOccurrencesAreSummarizedPerInterval() throws Throwable {
+        tested.setSummaryIntervalInSeconds("10");
+        // Only the frame of the helper that creates the exceptions, the callers differ
+        tested.setNumberOfFrames("1");
+
+        assertTrue(tested.process(new ExceptionTelemetry(createException("1")), START));
+        for (int i = 1; i < 10; ++i) {
+            assertFalse(tested.process(new ExceptionTelemetry(createException(String.valueOf(i))), START + i * 1000));
+        }
+
+        ExceptionTelemetry summary = new ExceptionTelemetry(createException("summary"));
+        assertTrue(tested.process(summary, START + 10000));
+        assertEquals(10.0, summary.getMetrics().get(ExceptionDeduplicationProcessor.OCCURRENCE_COUNT_NAME), 0.0);
+        assertTrue(summary.getProperties().containsKey(ExceptionDeduplicationProcessor.FIRST_SEEN_NAME));
+        assertTrue(summary.getProperties().containsKey(ExceptionDeduplicationProcessor.LAST_SEEN_NAME));
+
+        // A new interval starts with the summary
+        assertFalse(tested.process(new ExceptionTelemetry(createException("next")), START + 11000));
+    }
+
+    @Test
+    public void testDifferentFingerprintsAreNotDeduplicated() {
+
+        assertTrue(tested.process(new ExceptionTelemetry(createException("a")), START));
+        assertTrue(tested.process(new ExceptionTelemetry(new IllegalStateException("b")), START));
+        assertTrue(tested.process(new ExceptionTelemetry(createOtherException()), START));
+    }
+
+    @Test
+    public void testFingerprintIgnoresMessage() {
+        assertEquals(ExceptionDeduplicationProcessor.getFingerprint(createException("a"), 1),
+                     ExceptionDeduplicationProcessor.getFingerprint(createException("b"), 1));
+        assertNotEquals(ExceptionDeduplicationProcessor.getFingerprint(createException("a"), 1),
+                        ExceptionDeduplicationProcessor.getFingerprint(createOtherException(), 1));
+    }
+
+    @Test
+    public void testNewFingerprintsPassWhenFull() throws Throwable {
+        tested.setMaxFingerprints("1");
+        tested.setSummaryIntervalInSeconds("10");
+        // Only the frame of the helper that creates the exceptions, the callers differ
+        tested.setNumberOfFrames("1");
+
+        assertTrue(tested.process(new ExceptionTelemetry(createException("a")), START));
+        assertTrue(tested.process(new ExceptionTelemetry(createOtherException()), START));
+        assertTrue(tested.process(new ExceptionTelemetry(createOtherException()), START));
+
+        // Once the tracked fingerprint is stale the timer makes room for the new one
+        tested.flush(START + 10000, false);
+        assertTrue(tested.process(new ExceptionTelemetry(createOtherException()), START + 10000));
+        assertFalse(tested.process(new ExceptionTelemetry(createOtherException()), START + 10001));
+    }
+
+    @Test
+    public void testPendingOccurrencesAreSentByTheTimer() throws Throwable {
+        tested.setSummaryIntervalInSeconds("10");
+        // Only the frame of the helper that creates the exceptions, the callers differ
+        tested.setNumberOfFrames("1");
+
+        assertTrue(tested.process(new ExceptionTelemetry(createException("a")), START));
+        assertFalse(tested.process(new ExceptionTelemetry(createException("b")), START + 1000));
+        assertFalse(tested.process(new ExceptionTelemetry(createException("c")), START + 2000));
+
+        // Nothing is sent before the end of the interval
+        tested.flush(START + 5000, false);
+        assertTrue(sent.isEmpty());
+
+        tested.flush(START + 12000, false);
+        assertEquals(1, sent.size());
+        ExceptionTelemetry summary = sent.get(0);
+        assertNull(summary.getThrowable());
+        assertEquals(2.0, summary.getMetrics().get(ExceptionDeduplicationProcessor.OCCURRENCE_COUNT_NAME), 0.0);
+        assertTrue(summary.getProperties().containsKey(ExceptionDeduplicationProcessor.FIRST_SEEN_NAME));
+        assertTrue(summary.getProperties().containsKey(ExceptionDeduplicationProcessor.LAST_SEEN_NAME));
+
+        // The summary passes through the processor
+        assertTrue(tested.process(summary, START + 12000));
+
+        // The stale fingerprint was removed and starts over
+        assertTrue(tested.process(new ExceptionTelemetry(createException("a")), START + 12001));
+    }
+
+    @Test
+    public void testStopSendsAllPendingOccurrences() throws Throwable {
+        tested.setNumberOfFrames("1");
+
+        assertTrue(tested.process(new ExceptionTelemetry(createException("a")), START));
+        assertFalse(tested.process(new ExceptionTelemetry(createException("a")), START + 1));
+        assertTrue(tested.process(new ExceptionTelemetry(new IllegalStateException("b")), START));
+
+        tested.stop(1, TimeUnit.SECONDS);
+
+        assertEquals(1, sent.size());
+        assertEquals(1.0, sent.get(0).getMetrics().get(ExceptionDeduplicationProcessor.OCCURRENCE_COUNT_NAME), 0.0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIllegalNumberOfFrames() throws Throwable {
+        tested.setNumberOfFrames("0");
+    }
+
+    private static Exception createException(String message) {
+        return new IllegalArgumentException(message);
+    }
+
+    private static Exception createOtherException() {
+        return new IllegalArgumentException("other");
+    }
+}
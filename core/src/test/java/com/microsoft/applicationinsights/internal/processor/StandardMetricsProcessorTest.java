@@ -0,0 +1,185 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.processor;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import com.microsoft.applicationinsights.TelemetryClient;
+import com.microsoft.applicationinsights.TelemetryConfiguration;
+import com.microsoft.applicationinsights.channel.TelemetryChannel;
+import com.microsoft.applicationinsights.extensibility.TelemetryProcessor;
+import com.microsoft.applicationinsights.telemetry.Duration;
+import com.microsoft.applicationinsights.telemetry.Histogram;
+import com.microsoft.applicationinsights.telemetry.MetricTelemetry;
+import com.microsoft.applicationinsights.telemetry.RemoteDependencyTelemetry;
+import com.microsoft.applicationinsights.telemetry.RequestTelemetry;
+import com.microsoft.applicationinsights.telemetry.Telemetry;
+import com.microsoft.applicationinsights.telemetry.TraceTelemetry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public final class StandardMetricsProcessorTest {
+    private List<MetricTelemetry> sent;
+    private StandardMetricsProcessor processor;
+
+    @Before
+    public void setUp() {
+        sent = new ArrayList<MetricTelemetry>();
+        TelemetryClient client = Mockito.mock(TelemetryClient.class);
+        Mockito.doAnswer(new Answer() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                Object[] args = invocation.getArguments();
+                Histogram histogram = (Histogram) args[1];
+                if (histogram.getCount() != 0) {
+                    MetricTelemetry metric = new MetricTelemetry((String) args[0], histogram);
+                    metric.getProperties().putAll((Map<String, String>) args[2]);
+                    sent.add(metric);
+                }
+                return null;
+            }
+        }).when(client).trackHistogram(Mockito.anyString(), Mockito.any(Histogram.class), (Map<String, String>) Mockito.anyObject());
+
+        processor = new StandardMetricsProcessor(client);
+    }
+
+    @Test
+    public void testRequestsAreRolledUp() {
+        assertTrue(processor.process(new RequestTelemetry("GET /", new Date(), 100, "200", true)));
+        assertTrue(processor.process(new RequestTelemetry("GET /", new Date(), 2000, "200", true)));
+        assertTrue(processor.process(new RequestTelemetry("GET /", new Date(), 100, "500", false)));
+        processor.flush();
+
+        assertEquals(2, sent.size());
+        for (MetricTelemetry metric : sent) {
+            assertEquals(StandardMetricsProcessor.REQUEST_DURATION_METRIC_NAME, metric.getName());
+            assertEquals("GET /", metric.getProperties().get(StandardMetricsProcessor.NAME_DIMENSION));
+            if ("200".equals(metric.getProperties().get(StandardMetricsProcessor.RESULT_CODE_DIMENSION))) {
+                assertEquals("True", metric.getProperties().get(StandardMetricsProcessor.SUCCESS_DIMENSION));
+                assertEquals(Integer.valueOf(2), metric.getCount());
+                assertEquals(2100.0, metric.getValue(), 0.0);
+                assertEquals(100.0, metric.getMin(), 0.0);
+                assertEquals(2000.0, metric.getMax(), 0.0);
+            } else {
+                assertEquals("False", metric.getProperties().get(StandardMetricsProcessor.SUCCESS_DIMENSION));
+                assertEquals(Integer.valueOf(1), metric.getCount());
+            }
+        }
+    }
+
+    @Test
+    public void testDependenciesAreRolledUp() {
+        RemoteDependencyTelemetry dependency = new RemoteDependencyTelemetry("SQL", "SELECT 1", new Duration(700), true);
+        dependency.setResultCode("0");
+        assertTrue(processor.process(dependency));
+        processor.flush();
+
+        assertEquals(1, sent.size());
+        MetricTelemetry metric = sent.get(0);
+        assertEquals(StandardMetricsProcessor.DEPENDENCY_DURATION_METRIC_NAME, metric.getName());
+        assertEquals("SQL", metric.getProperties().get(StandardMetricsProcessor.NAME_DIMENSION));
+        assertEquals("0", metric.getProperties().get(StandardMetricsProcessor.RESULT_CODE_DIMENSION));
+        assertEquals(700.0, metric.getValue(), 0.0);
+    }
+
+    @Test
+    public void testOtherTelemetriesAreIgnored() {
+        assertTrue(processor.process(new TraceTelemetry("message")));
+        processor.flush();
+
+        assertTrue(sent.isEmpty());
+    }
+
+    @Test
+    public void testItemsOfNewSeriesAreCountedOnceTheMaxIsReached() throws Throwable {
+        processor.setMaxSeries("1");
+        processor.process(new RequestTelemetry("GET /a", new Date(), 100, "200", true));
+        processor.process(new RequestTelemetry("GET /b", new Date(), 100, "200", true));
+        processor.process(new RequestTelemetry("GET /c", new Date(), 100, "404", false));
+        processor.flush();
+
+        assertEquals(1, processor.getNumberOfSeries());
+        assertEquals(2, sent.size());
+        assertEquals("GET /a", sent.get(0).getProperties().get(StandardMetricsProcessor.NAME_DIMENSION));
+        assertEquals(Integer.valueOf(1), sent.get(0).getCount());
+
+        MetricTelemetry other = sent.get(1);
+        assertEquals(StandardMetricsProcessor.OTHER_NAME, other.getProperties().get(StandardMetricsProcessor.NAME_DIMENSION));
+        assertNull(other.getProperties().get(StandardMetricsProcessor.RESULT_CODE_DIMENSION));
+        assertEquals(Integer.valueOf(2), other.getCount());
+    }
+
+    @Test
+    public void testIdleSeriesAreRemoved() throws Throwable {
+        processor.setMaxSeries("1");
+        processor.process(new RequestTelemetry("GET /a", new Date(), 100, "200", true));
+        processor.flush();
+        processor.flush();
+        assertEquals(0, processor.getNumberOfSeries());
+
+        sent.clear();
+        processor.process(new RequestTelemetry("GET /b", new Date(), 100, "200", true));
+        processor.flush();
+
+        assertEquals(1, sent.size());
+        assertEquals("GET /b", sent.get(0).getProperties().get(StandardMetricsProcessor.NAME_DIMENSION));
+    }
+
+    @Test
+    public void testItemsAreRolledUpBeforeTheProcessors() {
+        TelemetryConfiguration configuration = new TelemetryConfiguration();
+        configuration.setInstrumentationKey("00000000-0000-0000-0000-000000000000");
+        TelemetryChannel channel = Mockito.mock(TelemetryChannel.class);
+        configuration.setChannel(channel);
+        configuration.getTelemetryProcessors().add(new TelemetryProcessor() {
+            @Override
+            public boolean process(Telemetry telemetry) {
+                return false;
+            }
+        });
+        configuration.setStandardMetricsProcessor(processor);
+
+        new TelemetryClient(configuration).track(new RequestTelemetry("GET /", new Date(), 100, "200", true));
+        processor.flush();
+
+        Mockito.verify(channel, Mockito.never()).send(Mockito.any(Telemetry.class));
+        assertEquals(1, sent.size());
+        assertEquals(Integer.valueOf(1), sent.get(0).getCount());
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void testIllegalInterval() throws Throwable {
+        new StandardMetricsProcessor().setIntervalInSeconds("a");
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.shutdown;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.microsoft.applicationinsights.MetricAggregator;
+import com.microsoft.applicationinsights.TelemetryClient;
+import com.microsoft.applicationinsights.channel.TelemetryChannel;
+import com.microsoft.applicationinsights.internal.util.ChannelFetcher;
+import com.microsoft.applicationinsights.telemetry.MetricTelemetry;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public final class SDKShutdownActivityTest {
+    @Test
+    public void testChannelsAreStoppedInParallel() throws Exception {
+        AtomicInteger stoppedChannels = new AtomicInteger();
+        SDKShutdownActivity.SDKShutdownThread tested = new SDKShutdownActivity.SDKShutdownThread();
+        tested.register(createChannelFetcher(300, stoppedChannels));
+        tested.register(createChannelFetcher(300, stoppedChannels));
+        tested.register(createChannelFetcher(300, stoppedChannels));
+
+        long start = System.currentTimeMillis();
+        tested.stopAll(5L, TimeUnit.SECONDS);
+
+        assertTrue(System.currentTimeMillis() - start < 800);
+        assertEquals(3, stoppedChannels.get());
+    }
+
+    @Test
+    public void testShutdownIsBoundedByTheDeadline() throws Exception {
+        AtomicInteger stoppedChannels = new AtomicInteger();
+        SDKShutdownActivity.SDKShutdownThread tested = new SDKShutdownActivity.SDKShutdownThread();
+        tested.register(createChannelFetcher(10000, stoppedChannels));
+        tested.register(createChannelFetcher(0, stoppedChannels));
+
+        final AtomicLong stoppableTimeoutInNanos = new AtomicLong(-1);
+        tested.register(new Stoppable() {
+            @Override
+            public void stop(long timeout, TimeUnit timeUnit) {
+                stoppableTimeoutInNanos.set(timeUnit.toNanos(timeout));
+            }
+        });
+
+        long start = System.currentTimeMillis();
+        tested.stopAll(200L, TimeUnit.MILLISECONDS);
+
+        assertTrue(System.currentTimeMillis() - start < 1000);
+        assertEquals(1, stoppedChannels.get());
+
+        // The stoppables get the time that is left, which is none after the stuck channel used it all
+        for (int i = 0; i < 50 && stoppableTimeoutInNanos.get() == -1; ++i) {
+            Thread.sleep(10);
+        }
+        assertEquals(0L, stoppableTimeoutInNanos.get());
+    }
+
+    @Test
+    public void testChannelsGetTheRemainingTime() throws Exception {
+        final AtomicLong channelTimeoutInNanos = new AtomicLong();
+        TelemetryChannel mockChannel = Mockito.mock(TelemetryChannel.class);
+        Mockito.doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                Object[] args = invocation.getArguments();
+                channelTimeoutInNanos.set(((TimeUnit) args[1]).toNanos((Long) args[0]));
+                return null;
+            }
+        }).when(mockChannel).stop(Mockito.anyLong(), (TimeUnit) Mockito.anyObject());
+
+        SDKShutdownActivity.SDKShutdownThread tested = new SDKShutdownActivity.SDKShutdownThread();
+        tested.register(createChannelFetcher(mockChannel));
+        tested.stopAll(2L, TimeUnit.SECONDS);
+
+        assertTrue(channelTimeoutInNanos.get() > 0);
+        assertTrue(channelTimeoutInNanos.get() <= TimeUnit.SECONDS.toNanos(2));
+    }
+
+    @Test
+    public void testAggregatedMetricsAreTrackedBeforeTheChannelsStop() throws Exception {
+        final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+        TelemetryClient client = Mockito.mock(TelemetryClient.class);
+        Mockito.doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                events.add("tracked " + ((MetricTelemetry) invocation.getArguments()[0]).getName());
+                return null;
+            }
+        }).when(client).trackMetric(Mockito.any(MetricTelemetry.class));
+
+        TelemetryChannel mockChannel = Mockito.mock(TelemetryChannel.class);
+        Mockito.doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                events.add("stopped");
+                return null;
+            }
+        }).when(mockChannel).stop(Mockito.anyLong(), (TimeUnit) Mockito.anyObject());
+
+        MetricAggregator aggregator = new MetricAggregator(client, 3600, 10);
+        aggregator.trackValue("latency", 1.0);
+
+        SDKShutdownActivity.SDKShutdownThread tested = new SDKShutdownActivity.SDKShutdownThread();
+        tested.register(createChannelFetcher(mockChannel));
+        tested.registerProducer(aggregator);
+        tested.stopAll(2L, TimeUnit.SECONDS);
+
+        assertEquals(2, events.size());
+        assertEquals("tracked latency", events.get(0));
+        assertEquals("stopped", events.get(1));
+    }
+
+    private static ChannelFetcher createChannelFetcher(final long stopTimeInMillis, final AtomicInteger stoppedChannels) {
+        TelemetryChannel mockChannel = Mockito.mock(TelemetryChannel.class);
+        Mockito.doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                Thread.sleep(stopTimeInMillis);
+                stoppedChannels.incrementAndGet();
+                return null;
+            }
+        }).when(mockChannel).stop(Mockito.anyLong(), (TimeUnit) Mockito.anyObject());
+
+        return createChannelFetcher(mockChannel);
+    }
+
+    private static ChannelFetcher createChannelFetcher(final TelemetryChannel channel) {
+        return new ChannelFetcher() {
+            @Override
+            public TelemetryChannel fetch() {
+                return channel;
+            }
+        };
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.util;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Date;
+import java.util.Random;
+import java.util.TimeZone;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public final class TimestampFormatterTest {
+    private TimeZone defaultTimeZone;
+
+    @Before
+    public void setUp() {
+        defaultTimeZone = TimeZone.getDefault();
+    }
+
+    @After
+    public void tearDown() {
+        TimeZone.setDefault(defaultTimeZone);
+    }
+
+    @Test
+    public void testSameAsTheDateFormatter() throws IOException {
+        TimestampFormatter formatter = new TimestampFormatter();
+        Random random = new Random(0);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 1000; ++i) {
+            // Consecutive timestamps within a second, and timestamps of other seconds
+            long timeInMillis = i % 10 == 0 ? now + random.nextInt(1000000000) : now + random.nextInt(1000);
+            assertSameAsTheDateFormatter(formatter, timeInMillis);
+        }
+    }
+
+    @Test
+    public void testMillisecondsArePadded() throws IOException {
+        TimestampFormatter formatter = new TimestampFormatter();
+        long second = 1500000000000L;
+
+        assertSameAsTheDateFormatter(formatter, second);
+        assertSameAsTheDateFormatter(formatter, second + 7);
+        assertSameAsTheDateFormatter(formatter, second + 42);
+        assertSameAsTheDateFormatter(formatter, second + 999);
+    }
+
+    @Test
+    public void testTimestampsBeforeTheEpoch() throws IOException {
+        TimestampFormatter formatter = new TimestampFormatter();
+
+        assertSameAsTheDateFormatter(formatter, -1);
+        assertSameAsTheDateFormatter(formatter, -999);
+        assertSameAsTheDateFormatter(formatter, -1000);
+        assertSameAsTheDateFormatter(formatter, -1001);
+    }
+
+    @Test
+    public void testTimeZones() throws IOException {
+        long timeInMillis = 1500000000123L;
+        for (String id : new String[] { "UTC", "America/Los_Angeles", "Asia/Kolkata", "Australia/Adelaide" }) {
+            TimeZone.setDefault(TimeZone.getTimeZone(id));
+            assertSameAsTheDateFormatter(new TimestampFormatter(), timeInMillis);
+        }
+    }
+
+    @Test
+    public void testDaylightSavingTransition() throws IOException {
+        TimeZone.setDefault(TimeZone.getTimeZone("America/Los_Angeles"));
+        TimestampFormatter formatter = new TimestampFormatter();
+
+        // 2017-03-12 02:00 PST, clocks moved forward to 03:00 PDT
+        long transition = 1489312800000L;
+        assertSameAsTheDateFormatter(formatter, transition - 1);
+        assertSameAsTheDateFormatter(formatter, transition);
+        assertSameAsTheDateFormatter(formatter, transition + 1);
+    }
+
+    private static void assertSameAsTheDateFormatter(TimestampFormatter formatter, long timeInMillis) throws IOException {
+        String expected = LocalStringsUtils.getDateFormatter().format(new Date(timeInMillis));
+
+        StringWriter writer = new StringWriter();
+        formatter.write(writer, timeInMillis);
+        assertEquals(expected, writer.toString());
+        assertEquals(expected, formatter.format(new Date(timeInMillis)));
+    }
+}
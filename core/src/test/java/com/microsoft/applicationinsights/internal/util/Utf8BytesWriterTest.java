@@ -0,0 +1,103 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.util;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public final class Utf8BytesWriterTest {
+    private final static Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Test
+    public void testAscii() {
+        verifyEncoding("{\"name\":\"value\"}");
+    }
+
+    @Test
+    public void testTwoAndThreeBytesCharacters() {
+        verifyEncoding("café שלום €中文");
+    }
+
+    @Test
+    public void testSurrogatePairs() {
+        verifyEncoding("smile 😀 and 𝄞");
+    }
+
+    @Test
+    public void testUnpairedSurrogates() {
+        verifyEncoding("high \ud83d alone");
+        verifyEncoding("low \ude00 alone");
+        verifyEncoding("ends with high \ud83d");
+    }
+
+    @Test
+    public void testSurrogatePairSplitBetweenWrites() {
+        Utf8BytesWriter tested = new Utf8BytesWriter(4);
+        tested.write('a');
+        tested.write('\ud83d');
+        tested.write("\ude00b");
+
+        assertArrayEquals("a😀b".getBytes(UTF_8), tested.toByteArray());
+    }
+
+    @Test
+    public void testWriteUtf8AppendsTheBytes() {
+        Utf8BytesWriter tested = new Utf8BytesWriter(2);
+        tested.write("a");
+        tested.writeUtf8("\"café\":".getBytes(UTF_8));
+        tested.write('\ud83d');
+        tested.writeUtf8("b".getBytes(UTF_8));
+
+        assertArrayEquals("a\"café\":?b".getBytes(UTF_8), tested.toByteArray());
+    }
+
+    @Test
+    public void testResetReusesTheBuffer() throws Exception {
+        Utf8BytesWriter tested = new Utf8BytesWriter(2);
+        tested.write("a long value that makes the buffer grow");
+        int capacity = tested.capacity();
+
+        tested.reset();
+        assertEquals(0, tested.size());
+
+        tested.write("short");
+        assertEquals(capacity, tested.capacity());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        tested.writeTo(out);
+        assertArrayEquals("short".getBytes(UTF_8), out.toByteArray());
+    }
+
+    private static void verifyEncoding(String value) {
+        Utf8BytesWriter tested = new Utf8BytesWriter(1);
+        tested.write(value);
+
+        byte[] expected = value.getBytes(UTF_8);
+        assertEquals(expected.length, tested.size());
+        assertArrayEquals(expected, tested.toByteArray());
+    }
+}
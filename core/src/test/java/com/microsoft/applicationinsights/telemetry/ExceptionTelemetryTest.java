@@ -54,6 +54,16 @@ public final class ExceptionTelemetryTest {
         assertEquals(exceptionTelemetry.getExceptions().size(), 1);
     }
 
+    @Test
+    public void testCtorWithTypeAndMessage() {
+        ExceptionTelemetry exceptionTelemetry = new ExceptionTelemetry("java.lang.NullPointerException", null);
+
+        assertNull(exceptionTelemetry.getThrowable());
+        assertEquals(exceptionTelemetry.getExceptions().size(), 1);
+        assertEquals("java.lang.NullPointerException", exceptionTelemetry.getExceptions().get(0).getTypeName());
+        assertEquals("java.lang.NullPointerException", exceptionTelemetry.getExceptions().get(0).getMessage());
+    }
+
     @Test
     public void getAndSetExceptionHandledAtNotThrows() {
         NullPointerException exception = new NullPointerException("mock");
@@ -0,0 +1,170 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.telemetry;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public final class HistogramTest {
+    @Test
+    public void testEmptyHistogram() {
+        Histogram histogram = new Histogram();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMin());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getValueAtPercentile(99));
+    }
+
+    @Test
+    public void testSmallValuesHaveTheirOwnBucket() {
+        for (int value = 0; value < 16; ++value) {
+            assertEquals(value, Histogram.getBucket(value));
+            assertEquals(value, Histogram.getBucketLowerBound(value));
+        }
+    }
+
+    @Test
+    public void testBucketsAreContiguous() {
+        for (int bucket = 0; bucket < Histogram.getNumberOfBuckets() - 1; ++bucket) {
+            long lower = Histogram.getBucketLowerBound(bucket);
+            long upper = Histogram.getBucketUpperBound(bucket);
+            assertTrue(lower < upper);
+            assertEquals(bucket, Histogram.getBucket(lower));
+            assertEquals(bucket, Histogram.getBucket(upper - 1));
+            assertEquals(bucket + 1, Histogram.getBucket(upper));
+        }
+    }
+
+    @Test
+    public void testRelativeErrorIsBounded() {
+        for (long value = 16; value < 1L << 39; value = value * 3 / 2 + 1) {
+            int bucket = Histogram.getBucket(value);
+            long width = Histogram.getBucketUpperBound(bucket) - Histogram.getBucketLowerBound(bucket);
+            assertTrue(width <= value / 16 + 1);
+        }
+    }
+
+    @Test
+    public void testHugeValuesAreCountedInTheLastBucket() {
+        Histogram histogram = new Histogram();
+        histogram.record(Long.MAX_VALUE);
+
+        assertEquals(1, histogram.getBucketCount(Histogram.getNumberOfBuckets() - 1));
+        assertEquals(Long.MAX_VALUE, histogram.getMax());
+        assertEquals(Long.MAX_VALUE, histogram.getValueAtPercentile(50));
+    }
+
+    @Test
+    public void testNegativeValuesAreIgnored() {
+        Histogram histogram = new Histogram();
+        histogram.record(-1);
+
+        assertEquals(0, histogram.getCount());
+    }
+
+    @Test
+    public void testPercentiles() {
+        Histogram histogram = new Histogram();
+        for (int value = 1; value <= 1000; ++value) {
+            histogram.record(value);
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500500, histogram.getSum());
+        assertEquals(1, histogram.getMin());
+        assertEquals(1000, histogram.getMax());
+        assertEquals(500, histogram.getValueAtPercentile(50), 500 / 16);
+        assertEquals(990, histogram.getValueAtPercentile(99), 990 / 16);
+        assertEquals(1000, histogram.getValueAtPercentile(100));
+        assertEquals(1, histogram.getValueAtPercentile(0));
+    }
+
+    @Test
+    public void testMerge() {
+        Histogram first = new Histogram();
+        first.record(5);
+        first.record(100);
+        Histogram second = new Histogram();
+        second.record(1);
+        second.record(1000);
+
+        first.merge(second);
+
+        assertEquals(4, first.getCount());
+        assertEquals(1106, first.getSum());
+        assertEquals(1, first.getMin());
+        assertEquals(1000, first.getMax());
+        assertEquals(2, second.getCount());
+    }
+
+    @Test
+    public void testGetAndReset() {
+        Histogram histogram = new Histogram();
+        histogram.record(7);
+        histogram.record(9);
+
+        Histogram interval = histogram.getAndReset();
+
+        assertEquals(2, interval.getCount());
+        assertEquals(7, interval.getMin());
+        assertEquals(9, interval.getMax());
+        assertEquals(1, interval.getBucketCount(7));
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getBucketCount(7));
+
+        histogram.record(3);
+        assertEquals(3, histogram.getMin());
+    }
+
+    @Test
+    public void testConcurrentRecording() throws InterruptedException {
+        final Histogram histogram = new Histogram();
+        final int numberOfThreads = 8;
+        final int valuesPerThread = 10000;
+        final CountDownLatch done = new CountDownLatch(numberOfThreads);
+
+        for (int i = 0; i < numberOfThreads; ++i) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < valuesPerThread; ++j) {
+                        histogram.record(j);
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        done.await();
+
+        assertEquals(numberOfThreads * valuesPerThread, histogram.getCount());
+        long total = 0;
+        for (int bucket = 0; bucket < Histogram.getNumberOfBuckets(); ++bucket) {
+            total += histogram.getBucketCount(bucket);
+        }
+        assertEquals(numberOfThreads * valuesPerThread, total);
+    }
+}
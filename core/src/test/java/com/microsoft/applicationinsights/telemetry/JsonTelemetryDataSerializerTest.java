@@ -27,13 +27,22 @@ import java.io.Serializable;
 import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
+import com.microsoft.applicationinsights.internal.util.Utf8BytesWriter;
+
 import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 
 public class JsonTelemetryDataSerializerTest {
     private final static class TestClassWithStrings implements JsonSerializable, Serializable {
@@ -182,6 +191,30 @@ public class JsonTelemetryDataSerializerTest {
         }
     }
 
+    private final static class NestedClass implements JsonSerializable {
+        private String s1;
+        private JsonSerializable inner;
+        private List<JsonSerializable> list = new ArrayList<JsonSerializable>();
+        private Map<String, JsonSerializable> map = new HashMap<String, JsonSerializable>();
+
+        @Override
+        public void serialize(JsonTelemetryDataSerializer serializer) throws IOException {
+            serializer.write("s1", s1);
+            serializer.write("inner", inner);
+            serializer.write("list", list);
+            serializer.write("map", map);
+        }
+    }
+
+    private final static class WrapperClass implements JsonSerializable {
+        private JsonSerializable inner;
+
+        @Override
+        public void serialize(JsonTelemetryDataSerializer serializer) throws IOException {
+            serializer.write("inner", inner);
+        }
+    }
+
     @Test
     public void testStrings() throws IOException {
         TestClassWithStrings testClassWithStrings = new TestClassWithStrings();
@@ -221,4 +254,228 @@ public class JsonTelemetryDataSerializerTest {
 //        System.out.println(str);
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testNestedObjects() throws IOException {
+        TestClassWithStrings inner = new TestClassWithStrings();
+        inner.setS1("a");
+        NestedClass nested = new NestedClass();
+        nested.s1 = "b";
+        nested.inner = inner;
+        nested.list.add(inner);
+        nested.list.add(inner);
+        nested.map.put("m", inner);
+
+        assertEquals("{\"s1\":\"b\",\"inner\":{\"s1\":\"a\"},\"list\":[{\"s1\":\"a\"},{\"s1\":\"a\"}],\"map\":{\"m\":{\"s1\":\"a\"}}}", serialize(nested));
+    }
+
+    @Test
+    public void testEmptyNestedObjectsAreLeftOut() throws IOException {
+        WrapperClass emptyInner = new WrapperClass();
+        emptyInner.inner = new TestClassWithStrings();
+        NestedClass nested = new NestedClass();
+        nested.inner = emptyInner;
+        nested.list.add(new TestClassWithStrings());
+        nested.list.add(emptyInner);
+        nested.map.put("m", new TestClassWithStrings());
+
+        assertEquals("{\"list\":[],\"map\":{}}", serialize(nested));
+    }
+
+    @Test
+    public void testEmptyNestedObjectKeepsTheSeparator() throws IOException {
+        TestClassWithStrings inner = new TestClassWithStrings();
+        inner.setS2("a");
+        WrapperClass emptyInner = new WrapperClass();
+        emptyInner.inner = new TestClassWithStrings();
+        NestedClass nested = new NestedClass();
+        nested.s1 = "b";
+        nested.inner = emptyInner;
+        nested.list.add(new TestClassWithStrings());
+        nested.list.add(inner);
+        nested.list.add(new TestClassWithStrings());
+        nested.list.add(inner);
+
+        assertEquals("{\"s1\":\"b\",\"list\":[{\"s2\":\"a\"},{\"s2\":\"a\"}],\"map\":null}", serialize(nested));
+    }
+
+    @Test
+    public void testDeeplyNestedObjects() throws IOException {
+        TestClassWithStrings leaf = new TestClassWithStrings();
+        leaf.setS1("leaf");
+        NestedClass root = new NestedClass();
+        NestedClass current = root;
+        StringBuilder expected = new StringBuilder("{");
+        for (int i = 0; i < 20; ++i) {
+            NestedClass next = new NestedClass();
+            current.inner = next;
+            current = next;
+            expected.append("\"inner\":{");
+        }
+        current.inner = leaf;
+        expected.append("\"inner\":{\"s1\":\"leaf\"}");
+        for (int i = 0; i < 20; ++i) {
+            expected.append(",\"list\":null,\"map\":null}");
+        }
+        expected.append(",\"list\":null,\"map\":null}");
+
+        assertEquals(expected.toString(), serialize(root));
+    }
+
+    @Test
+    public void testEscapedStrings() throws IOException {
+        TestClassWithStrings value = new TestClassWithStrings();
+        value.setS1("a \"quoted\" \\ value\r\n\twith\b\f");
+        value.setS2("\u0000\u0001\u001f\u0020 é 漢 😀");
+
+        assertEquals("{\"s1\":\"a \\\"quoted\\\" \\\\ value\\r\\n\\twith\\b\\f\",\"s2\":\"\\u0000\\u0001\\u001f  é 漢 😀\"}", serialize(value));
+        assertEquals(value, new Gson().fromJson(serializeUtf8(value), TestClassWithStrings.class));
+    }
+
+    @Test
+    public void testLongStringsWithoutEscapes() throws IOException {
+        StringBuilder longValue = new StringBuilder();
+        for (int i = 0; i < 1000; ++i) {
+            longValue.append("SELECT * FROM items WHERE id = ").append(i).append(';');
+        }
+        TestClassWithStrings value = new TestClassWithStrings();
+        value.setS1(longValue.toString());
+        value.setS2(longValue + "\n");
+
+        assertEquals("{\"s1\":\"" + longValue + "\",\"s2\":\"" + longValue + "\\n\"}", serialize(value));
+    }
+
+    @Test
+    public void testMapKeysAndValuesAreEscaped() throws IOException {
+        TraceTelemetry telemetry = new TraceTelemetry("message");
+        telemetry.setSamplingPercentage(100.0);
+        telemetry.getProperties().put("the \"key\"", "C:\\temp\u0007");
+
+        JsonObject properties = new JsonParser().parse(serializeUtf8(telemetry)).getAsJsonObject()
+                .getAsJsonObject("data").getAsJsonObject("baseData").getAsJsonObject("properties");
+        assertEquals("C:\\temp\u0007", properties.get("the \"key\"").getAsString());
+    }
+
+    @Test
+    public void testIntegralNumbers() throws IOException {
+        JsonSerializable numbers = new JsonSerializable() {
+            @Override
+            public void serialize(JsonTelemetryDataSerializer serializer) throws IOException {
+                serializer.write("i0", 0);
+                serializer.write("i1", -7);
+                serializer.write("i2", Integer.MIN_VALUE);
+                serializer.write("i3", Integer.valueOf(Integer.MAX_VALUE));
+                serializer.write("s1", (short) -12);
+                serializer.write("l1", Long.MIN_VALUE);
+                serializer.write("l2", Long.valueOf(Long.MAX_VALUE));
+                serializer.write("l3", 1234567890123L);
+            }
+        };
+
+        assertEquals("{\"i0\":0,\"i1\":-7,\"i2\":-2147483648,\"i3\":2147483647,\"s1\":-12," +
+                "\"l1\":-9223372036854775808,\"l2\":9223372036854775807,\"l3\":1234567890123}", serialize(numbers));
+    }
+
+    @Test
+    public void testValuesOfMapsAndListsByType() throws IOException {
+        final Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put("i", -3);
+        map.put("l", 5L);
+        map.put("d", 1.5);
+        map.put("b", true);
+        map.put("c", 'x');
+        map.put("s", "\"s\"");
+        final List<Object> list = new ArrayList<Object>();
+        list.add(Long.MIN_VALUE);
+        list.add(2.0f);
+        list.add("a");
+        JsonSerializable value = new JsonSerializable() {
+            @Override
+            public void serialize(JsonTelemetryDataSerializer serializer) throws IOException {
+                serializer.write("map", map);
+                serializer.write("list", list);
+            }
+        };
+
+        assertEquals("{\"map\":{\"i\":-3,\"l\":5,\"d\":1.5,\"b\":true,\"c\":\"x\",\"s\":\"\\\"s\\\"\"}," +
+                "\"list\":[-9223372036854775808,2.0,\"a\"]}", serializeUtf8(value));
+    }
+
+    @Test
+    public void testTagsCopiedFromTheContextAreSerializedOnce() throws IOException {
+        TelemetryContext source = new TelemetryContext();
+        source.getTags().put("ai.device.id", "device");
+        source.getTags().put("ai.internal.sdkVersion", "java:1.0.10");
+
+        TraceTelemetry first = createTrace(source);
+        assertEquals(source.getTags(), getTags(serializeUtf8(first)));
+        SerializedTags serializedTags = source.getSerializedTags();
+        assertNotNull(serializedTags);
+
+        TraceTelemetry second = createTrace(source);
+        second.getContext().getTags().put("ai.operation.id", "operation");
+        Map<String, String> expected = new HashMap<String, String>(second.getContext().getTags());
+        assertEquals(expected, getTags(serializeUtf8(second)));
+        assertEquals(expected, getTags(serialize(second)));
+        assertSame(serializedTags, source.getSerializedTags());
+    }
+
+    @Test
+    public void testTagsChangedByTheTelemetryAreSerialized() throws IOException {
+        TelemetryContext source = new TelemetryContext();
+        source.getTags().put("ai.device.id", "device");
+        source.getTags().put("ai.user.id", "user");
+        serialize(createTrace(source));
+
+        TraceTelemetry telemetry = createTrace(source);
+        telemetry.getContext().getTags().put("ai.user.id", "other user");
+        telemetry.getContext().getTags().remove("ai.device.id");
+
+        assertEquals(telemetry.getContext().getTags(), getTags(serializeUtf8(telemetry)));
+    }
+
+    @Test
+    public void testTagsChangedInTheContextAreSerializedAgain() throws IOException {
+        TelemetryContext source = new TelemetryContext();
+        source.getTags().put("ai.device.id", "device");
+        serialize(createTrace(source));
+        SerializedTags serializedTags = source.getSerializedTags();
+
+        source.getTags().put("ai.device.id", "other device");
+        TraceTelemetry telemetry = createTrace(source);
+
+        assertEquals(telemetry.getContext().getTags(), getTags(serialize(telemetry)));
+        assertNotSame(serializedTags, source.getSerializedTags());
+    }
+
+    private static TraceTelemetry createTrace(TelemetryContext source) {
+        TraceTelemetry telemetry = new TraceTelemetry("message");
+        telemetry.setSamplingPercentage(100.0);
+        telemetry.getContext().initialize(source);
+        return telemetry;
+    }
+
+    private static Map<String, String> getTags(String json) {
+        Map<String, String> tags = new HashMap<String, String>();
+        JsonObject tagsObject = new JsonParser().parse(json).getAsJsonObject().getAsJsonObject("tags");
+        for (Map.Entry<String, JsonElement> entry : tagsObject.entrySet()) {
+            tags.put(entry.getKey(), entry.getValue().getAsString());
+        }
+        return tags;
+    }
+
+    private static String serializeUtf8(JsonSerializable value) throws IOException {
+        Utf8BytesWriter writer = new Utf8BytesWriter();
+        JsonTelemetryDataSerializer tested = new JsonTelemetryDataSerializer(writer);
+        value.serialize(tested);
+        tested.close();
+        return new String(writer.toByteArray(), "UTF-8");
+    }
+
+    private static String serialize(JsonSerializable value) throws IOException {
+        StringWriter stringWriter = new StringWriter();
+        JsonTelemetryDataSerializer tested = new JsonTelemetryDataSerializer(stringWriter);
+        value.serialize(tested);
+        tested.close();
+        return stringWriter.toString();
+    }
+}
@@ -110,4 +110,24 @@ public final class MetricTelemetryTest {
         telemetry.sanitize();
         assertEquals(telemetry.getName().length(), Sanitizer.MAX_NAME_LENGTH);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testHistogram() {
+        Histogram histogram = new Histogram();
+        histogram.record(1);
+        histogram.record(3);
+        histogram.record(40);
+
+        MetricTelemetry telemetry = new MetricTelemetry("MockName", histogram);
+
+        assertEquals(44.0, telemetry.getValue(), 0.0);
+        assertEquals(telemetry.getCount(), new Integer(3));
+        assertEquals(telemetry.getMin(), new Double(1));
+        assertEquals(telemetry.getMax(), new Double(40));
+        assertEquals("3", telemetry.getProperties().get("p50"));
+        assertEquals("40", telemetry.getProperties().get("p99"));
+        assertEquals("1", telemetry.getProperties().get("Bucket.1-2"));
+        assertEquals("1", telemetry.getProperties().get("Bucket.3-4"));
+        assertEquals("1", telemetry.getProperties().get("Bucket.40-42"));
+    }
+}
@@ -0,0 +1,292 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.telemetry;
+
+import java.util.Date;
+
+import com.microsoft.applicationinsights.TelemetryConfiguration;
+import com.microsoft.applicationinsights.channel.TelemetryChannel;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public final class TelemetryPoolTest {
+    private final static class TracePool extends TelemetryPool<TraceTelemetry> {
+        private TracePool() {
+            super(2);
+        }
+
+        @Override
+        protected TraceTelemetry create() {
+            return new TraceTelemetry();
+        }
+    }
+
+    private TelemetryConfiguration configuration;
+
+    @Before
+    public void setUp() {
+        configuration = new TelemetryConfiguration();
+        configuration.setTelemetryPoolingEnabled(true);
+    }
+
+    @Test
+    public void testDisabledPoolCreatesTelemetries() {
+        configuration.setTelemetryPoolingEnabled(false);
+        TracePool pool = new TracePool();
+        TraceTelemetry telemetry = pool.acquire(configuration);
+        telemetry.setMessage("message");
+
+        TelemetryPool.release(telemetry);
+
+        assertEquals(0, pool.size());
+        assertEquals("message", telemetry.getMessage());
+        assertNotSame(telemetry, pool.acquire(configuration));
+    }
+
+    @Test
+    public void testReleasedTelemetryIsReused() {
+        TracePool pool = new TracePool();
+        TraceTelemetry telemetry = pool.acquire(configuration);
+
+        TelemetryPool.release(telemetry);
+
+        assertEquals(1, pool.size());
+        assertSame(telemetry, pool.acquire(configuration));
+        assertEquals(0, pool.size());
+    }
+
+    @Test
+    public void testPoolIsBounded() {
+        TracePool pool = new TracePool();
+        TraceTelemetry telemetry1 = pool.acquire(configuration);
+        TraceTelemetry telemetry2 = pool.acquire(configuration);
+        TraceTelemetry telemetry3 = pool.acquire(configuration);
+
+        TelemetryPool.release(telemetry1);
+        TelemetryPool.release(telemetry2);
+        TelemetryPool.release(telemetry3);
+
+        assertEquals(2, pool.size());
+    }
+
+    @Test
+    public void testTelemetryReleasedTwiceIsPooledOnce() {
+        TracePool pool = new TracePool();
+        TraceTelemetry telemetry = pool.acquire(configuration);
+
+        TelemetryPool.release(telemetry);
+        TelemetryPool.release(telemetry);
+
+        assertEquals(1, pool.size());
+    }
+
+    @Test
+    public void testPoolingIsEnabledPerConfiguration() {
+        TracePool pool = new TracePool();
+        TraceTelemetry telemetry = pool.acquire(new TelemetryConfiguration());
+
+        TelemetryPool.release(telemetry);
+
+        assertEquals(0, pool.size());
+        assertNotSame(telemetry, pool.acquire(configuration));
+    }
+
+    @Test
+    public void testTelemetryNotTakenFromPoolIsNotReset() {
+        TraceTelemetry telemetry = new TraceTelemetry("message");
+
+        TelemetryPool.release(telemetry);
+
+        assertEquals("message", telemetry.getMessage());
+    }
+
+    @Test
+    public void testTraceIsReset() {
+        TracePool pool = new TracePool();
+        TraceTelemetry telemetry = pool.acquire(configuration);
+        telemetry.setMessage("message");
+        telemetry.setSeverityLevel(SeverityLevel.Error);
+        telemetry.setSamplingPercentage(50.0);
+        setCommonFields(telemetry);
+
+        TelemetryPool.release(telemetry);
+
+        assertEquals("", telemetry.getMessage());
+        assertNull(telemetry.getSeverityLevel());
+        assertNull(telemetry.getSamplingPercentage());
+        verifyCommonFieldsAreReset(telemetry);
+    }
+
+    @Test
+    public void testRequestIsReset() throws Exception {
+        RequestTelemetry telemetry = TelemetryPool.REQUESTS.acquire(configuration);
+        String id = telemetry.getId();
+        telemetry.setName("GET /items");
+        telemetry.setResponseCode("500");
+        telemetry.setSuccess(false);
+        telemetry.setDuration(new Duration(100));
+        telemetry.setHttpMethod("GET");
+        telemetry.setUrl("http://localhost/items");
+        telemetry.setSamplingPercentage(50.0);
+        telemetry.getMetrics().put("metric", 1.0);
+        setCommonFields(telemetry);
+
+        TelemetryPool.release(telemetry);
+        RequestTelemetry expected = new RequestTelemetry();
+
+        assertNull(telemetry.getName());
+        assertNull(telemetry.getHttpMethod());
+        assertNull(telemetry.getSamplingPercentage());
+        assertEquals(expected.getResponseCode(), telemetry.getResponseCode());
+        assertEquals(expected.isSuccess(), telemetry.isSuccess());
+        assertEquals(expected.getDuration(), telemetry.getDuration());
+        assertTrue(telemetry.getMetrics().isEmpty());
+        assertNotNull(telemetry.getId());
+        assertFalse(id.equals(telemetry.getId()));
+        assertNotNull(telemetry.getTimestamp());
+        assertTrue(telemetry.getProperties().isEmpty());
+        assertTrue(telemetry.getContext().getTags().isEmpty());
+        assertNull(telemetry.getContext().getInstrumentationKey());
+        assertNull(telemetry.getSequence());
+    }
+
+    @Test
+    public void testDependencyIsReset() {
+        RemoteDependencyTelemetry telemetry = TelemetryPool.DEPENDENCIES.acquire(configuration);
+        telemetry.setName("SQL");
+        telemetry.setCommandName("SELECT 1");
+        telemetry.setResultCode("1");
+        telemetry.setType("SQL");
+        telemetry.setSuccess(false);
+        telemetry.setDuration(new Duration(100));
+        telemetry.setSamplingPercentage(50.0);
+        setCommonFields(telemetry);
+
+        TelemetryPool.release(telemetry);
+        RemoteDependencyTelemetry expected = new RemoteDependencyTelemetry();
+
+        assertNull(telemetry.getName());
+        assertNull(telemetry.getCommandName());
+        assertNull(telemetry.getResultCode());
+        assertNull(telemetry.getType());
+        assertNull(telemetry.getSamplingPercentage());
+        assertEquals(expected.getSuccess(), telemetry.getSuccess());
+        assertEquals(expected.getDuration(), telemetry.getDuration());
+        verifyCommonFieldsAreReset(telemetry);
+    }
+
+    @Test
+    public void testMetricIsReset() {
+        MetricTelemetry telemetry = TelemetryPool.METRICS.acquire(configuration);
+        telemetry.setName("metric");
+        telemetry.setValue(10);
+        telemetry.setCount(2);
+        telemetry.setMin(1.0);
+        telemetry.setMax(9.0);
+        telemetry.setStandardDeviation(4.0);
+        setCommonFields(telemetry);
+
+        TelemetryPool.release(telemetry);
+
+        assertNull(telemetry.getName());
+        assertEquals(0.0, telemetry.getValue(), 0.0);
+        assertNull(telemetry.getCount());
+        assertNull(telemetry.getMin());
+        assertNull(telemetry.getMax());
+        assertNull(telemetry.getStandardDeviation());
+        assertEquals(1, telemetry.getData().getMetrics().size());
+        assertEquals(com.microsoft.applicationinsights.internal.schemav2.DataPointType.Measurement, telemetry.getData().getMetrics().get(0).getKind());
+        verifyCommonFieldsAreReset(telemetry);
+    }
+
+    @Test
+    public void testTelemetryThatIsNotReleasedIsReportedByLeakDetection() throws InterruptedException {
+        setDeveloperMode();
+        TracePool pool = new TracePool();
+        TelemetryPool.release(pool.acquire(configuration));
+        pool.acquire(configuration);
+
+        int leaks = 0;
+        for (int i = 0; i < 50 && leaks == 0; ++i) {
+            System.gc();
+            Thread.sleep(10);
+            leaks = pool.detectLeaks();
+        }
+
+        assertEquals(1, leaks);
+        assertEquals(1, pool.getNumberOfLeaks());
+    }
+
+    @Test
+    public void testReleasedTelemetryIsNotReportedByLeakDetection() throws InterruptedException {
+        setDeveloperMode();
+        TracePool pool = new TracePool();
+        TraceTelemetry released = pool.acquire(configuration);
+        pool.acquire(configuration);
+        TelemetryPool.release(released);
+        released = null;
+
+        for (int i = 0; i < 50 && pool.getNumberOfLeaks() == 0; ++i) {
+            System.gc();
+            Thread.sleep(10);
+            pool.detectLeaks();
+        }
+        System.gc();
+        Thread.sleep(10);
+        pool.detectLeaks();
+
+        assertEquals(1, pool.getNumberOfLeaks());
+        assertEquals(1, pool.size());
+    }
+
+    private void setDeveloperMode() {
+        TelemetryChannel channel = Mockito.mock(TelemetryChannel.class);
+        Mockito.doReturn(true).when(channel).isDeveloperMode();
+        configuration.setChannel(channel);
+    }
+
+    private static void setCommonFields(BaseTelemetry<?> telemetry) {
+        telemetry.setTimestamp(new Date());
+        telemetry.setSequence("1");
+        telemetry.getProperties().put("property", "value");
+        telemetry.getContext().getTags().put("tag", "value");
+        telemetry.getContext().setInstrumentationKey("ikey");
+    }
+
+    private static void verifyCommonFieldsAreReset(BaseTelemetry<?> telemetry) {
+        assertNull(telemetry.getTimestamp());
+        assertNull(telemetry.getSequence());
+        assertTrue(telemetry.getProperties().isEmpty());
+        assertTrue(telemetry.getContext().getTags().isEmpty());
+        assertNull(telemetry.getContext().getInstrumentationKey());
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.core.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import com.microsoft.applicationinsights.internal.channel.common.DeflaterPool;
+import com.microsoft.applicationinsights.internal.channel.common.GzipTelemetrySerializer;
+import com.microsoft.applicationinsights.internal.channel.common.Transmission;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the number of batches per second the {@link GzipTelemetrySerializer} compresses, comparing it
+ * with compressing each batch by a new {@link GZIPOutputStream} over a new {@link ByteArrayOutputStream}.
+ *
+ * Run with the GC profiler to get the bytes allocated per batch ('gc.alloc.rate.norm'):
+ * gradle :test:performance:benchmark -PbenchmarkPattern=GzipTelemetrySerializerBenchmark -PbenchmarkArgs="-prof gc"
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GzipTelemetrySerializerBenchmark {
+    private final static byte[] NEWLINE = System.getProperty("line.separator").getBytes();
+
+    @Param({"100", "500"})
+    public int telemetriesInBatch;
+
+    @Param({"-1", "1"})
+    public int compressionLevel;
+
+    private List<byte[]> batch;
+    private GzipTelemetrySerializer serializer;
+
+    @Setup
+    public void setup() {
+        batch = new ArrayList<byte[]>(telemetriesInBatch);
+        for (int i = 0; i < telemetriesInBatch; ++i) {
+            String telemetry =
+                    "{\"ver\":1,\"name\":\"Microsoft.ApplicationInsights.Request\",\"time\":\"2017-06-01T10:00:00.000-0700\"," +
+                    "\"iKey\":\"00000000-0000-0000-0000-000000000000\",\"tags\":{\"ai.operation.id\":\"op" + i + "\"}," +
+                    "\"data\":{\"baseType\":\"RequestData\",\"baseData\":{\"ver\":2,\"id\":\"" + i + "\",\"name\":\"GET /api/items\"," +
+                    "\"duration\":\"00:00:00.0120000\",\"responseCode\":\"200\",\"success\":true}}}";
+            batch.add(telemetry.getBytes());
+        }
+
+        serializer = new GzipTelemetrySerializer(new DeflaterPool(compressionLevel, DeflaterPool.DEFAULT_MAX_POOLED_DEFLATERS));
+    }
+
+    @Benchmark
+    public Transmission pooledSerializer() {
+        return serializer.serialize(batch).get();
+    }
+
+    @Benchmark
+    public byte[] newGzipStreamPerBatch() throws IOException {
+        ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+        GZIPOutputStream zipStream = new GZIPOutputStream(byteStream) {
+            {
+                def.setLevel(compressionLevel);
+            }
+        };
+        try {
+            int counter = 0;
+            for (byte[] telemetry : batch) {
+                if (counter++ != 0) {
+                    zipStream.write(NEWLINE);
+                }
+                zipStream.write(telemetry);
+            }
+        } finally {
+            zipStream.close();
+        }
+
+        return byteStream.toByteArray();
+    }
+}
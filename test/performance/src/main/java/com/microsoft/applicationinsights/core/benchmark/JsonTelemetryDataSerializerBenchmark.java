@@ -0,0 +1,163 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.core.benchmark;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import com.microsoft.applicationinsights.internal.util.Utf8BytesWriter;
+import com.microsoft.applicationinsights.telemetry.Duration;
+import com.microsoft.applicationinsights.telemetry.ExceptionTelemetry;
+import com.microsoft.applicationinsights.telemetry.JsonTelemetryDataSerializer;
+import com.microsoft.applicationinsights.telemetry.RemoteDependencyTelemetry;
+import com.microsoft.applicationinsights.telemetry.RequestTelemetry;
+import com.microsoft.applicationinsights.telemetry.Telemetry;
+import com.microsoft.applicationinsights.telemetry.TelemetryContext;
+import com.microsoft.applicationinsights.telemetry.TraceTelemetry;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the number of telemetries per second the {@link JsonTelemetryDataSerializer} serializes into a reused
+ * {@link Utf8BytesWriter}, the way the in process channel does, for a request, for an exception with a deep stack,
+ * and for a long trace message and a dependency with SQL text, where most of the work is escaping the strings.
+ *
+ * Run with the GC profiler to get the bytes allocated per telemetry ('gc.alloc.rate.norm'):
+ * gradle :test:performance:benchmark -PbenchmarkPattern=JsonTelemetryDataSerializerBenchmark -PbenchmarkArgs="-prof gc"
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class JsonTelemetryDataSerializerBenchmark {
+    private final static int STACK_DEPTH = 40;
+    private final static int TRACE_LINES = 50;
+
+    private RequestTelemetry request;
+    private ExceptionTelemetry exception;
+    private TraceTelemetry trace;
+    private RemoteDependencyTelemetry sqlDependency;
+    private Utf8BytesWriter writer;
+    private JsonTelemetryDataSerializer serializer;
+
+    @Setup
+    public void setup() throws IOException {
+        // The tags a client's context usually holds, the telemetries copy them when they are tracked
+        TelemetryContext clientContext = new TelemetryContext();
+        clientContext.setInstrumentationKey("00000000-0000-0000-0000-000000000000");
+        clientContext.getDevice().setId("benchmark-host");
+        clientContext.getDevice().setOperatingSystem("Linux");
+        clientContext.getDevice().setRoleInstance("benchmark-host");
+        clientContext.getInternal().setSdkVersion("java:1.0.10");
+
+        request = new RequestTelemetry("GET /api/items", new Date(), 12, "200", true);
+        request.getContext().initialize(clientContext);
+        request.getContext().getOperation().setId("operation");
+        request.getProperties().put("tenant", "contoso");
+        request.setSamplingPercentage(100.0);
+
+        exception = new ExceptionTelemetry(createDeepException(STACK_DEPTH));
+        exception.setTimestamp(new Date());
+        exception.getContext().initialize(clientContext);
+        exception.setSamplingPercentage(100.0);
+
+        trace = new TraceTelemetry(createLongMessage(TRACE_LINES));
+        trace.setTimestamp(new Date());
+        trace.getContext().initialize(clientContext);
+        trace.setSamplingPercentage(100.0);
+
+        sqlDependency = new RemoteDependencyTelemetry("SQL: inventory");
+        sqlDependency.setCommandName(
+                "SELECT i.id, i.name, i.price, c.name AS category\n" +
+                "FROM items i\n" +
+                "\tJOIN categories c ON c.id = i.category_id\n" +
+                "WHERE i.name LIKE 'chair%' AND c.name <> 'garden' AND i.description NOT LIKE '%\"outdoor\"%'\n" +
+                "ORDER BY i.price DESC, i.name\n" +
+                "OFFSET 0 ROWS FETCH NEXT 50 ROWS ONLY;");
+        sqlDependency.setDuration(new Duration(25));
+        sqlDependency.setSuccess(true);
+        sqlDependency.setTimestamp(new Date());
+        sqlDependency.getContext().initialize(clientContext);
+        sqlDependency.setSamplingPercentage(100.0);
+
+        writer = new Utf8BytesWriter();
+        serializer = new JsonTelemetryDataSerializer(writer);
+    }
+
+    @Benchmark
+    public int serializeRequest() throws IOException {
+        return serialize(request);
+    }
+
+    @Benchmark
+    public int serializeException() throws IOException {
+        return serialize(exception);
+    }
+
+    @Benchmark
+    public int serializeLongTrace() throws IOException {
+        return serialize(trace);
+    }
+
+    @Benchmark
+    public int serializeSqlDependency() throws IOException {
+        return serialize(sqlDependency);
+    }
+
+    private int serialize(Telemetry telemetry) throws IOException {
+        writer.reset();
+        serializer.reset(writer);
+        telemetry.serialize(serializer);
+        serializer.close();
+        return writer.size();
+    }
+
+    private static String createLongMessage(int lines) {
+        StringBuilder message = new StringBuilder();
+        for (int i = 0; i < lines; ++i) {
+            message.append("2017-07-14 02:40:00,123 INFO  [http-nio-8080-exec-").append(i % 8)
+                    .append("] c.c.i.ItemsController - Handled request for items of category 'chairs' in ")
+                    .append(i * 7 % 100).append(" ms, user=\"alice\"\n");
+        }
+        return message.toString();
+    }
+
+    private static Exception createDeepException(int depth) {
+        if (depth == 0) {
+            return new IllegalStateException("Failed to process the request", new RuntimeException("The connection was reset"));
+        }
+
+        return createDeepException(depth - 1);
+    }
+}
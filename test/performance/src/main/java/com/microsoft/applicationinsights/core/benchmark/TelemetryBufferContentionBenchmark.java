@@ -0,0 +1,115 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.core.benchmark;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import com.microsoft.applicationinsights.internal.channel.TelemetriesBuffer;
+import com.microsoft.applicationinsights.internal.channel.TelemetriesTransmitter;
+import com.microsoft.applicationinsights.internal.channel.common.LockFreeTelemetryBuffer;
+import com.microsoft.applicationinsights.internal.channel.common.TelemetryBuffer;
+import com.microsoft.applicationinsights.internal.util.LimitsEnforcer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the throughput of adding telemetries to the channel's buffer when many application
+ * threads add concurrently, comparing the synchronized {@link TelemetryBuffer} with the {@link LockFreeTelemetryBuffer}.
+ *
+ * The transmitter used here drops the batches, so only the cost of the buffer itself is measured.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TelemetryBufferContentionBenchmark {
+    private final static byte[] MOCK_TELEMETRY = "{\"ver\":1,\"name\":\"Microsoft.ApplicationInsights.Event\",\"data\":{\"baseType\":\"EventData\"}}".getBytes();
+
+    private static final class DroppingTransmitter implements TelemetriesTransmitter {
+        @Override
+        public boolean scheduleSend(TelemetriesFetcher telemetriesFetcher, long value, TimeUnit timeUnit) {
+            return true;
+        }
+
+        @Override
+        public boolean sendNow(Collection<byte[]> telemetries) {
+            return true;
+        }
+
+        @Override
+        public void stop(long timeout, TimeUnit timeUnit) {
+        }
+    }
+
+    @Param({"Synchronized", "LockFree"})
+    public String bufferType;
+
+    @Param({"500"})
+    public int maxTelemetriesInBatch;
+
+    private TelemetriesBuffer buffer;
+
+    @Setup
+    public void setup() {
+        LimitsEnforcer maxTelemetriesInBatchEnforcer = LimitsEnforcer.createWithClosestLimitOnError("MaxTelemetryBufferCapacity", 1, 1000, maxTelemetriesInBatch, maxTelemetriesInBatch);
+        LimitsEnforcer sendIntervalEnforcer = LimitsEnforcer.createWithClosestLimitOnError("FlushIntervalInSeconds", 1, 300, 5, 5);
+
+        TelemetriesTransmitter transmitter = new DroppingTransmitter();
+        if ("LockFree".equals(bufferType)) {
+            buffer = new LockFreeTelemetryBuffer(transmitter, maxTelemetriesInBatchEnforcer, sendIntervalEnforcer);
+        } else {
+            buffer = new TelemetryBuffer(transmitter, maxTelemetriesInBatchEnforcer, sendIntervalEnforcer);
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void addSingleThread() {
+        buffer.add(MOCK_TELEMETRY);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void add8Threads() {
+        buffer.add(MOCK_TELEMETRY);
+    }
+
+    @Benchmark
+    @Threads(32)
+    public void add32Threads() {
+        buffer.add(MOCK_TELEMETRY);
+    }
+}
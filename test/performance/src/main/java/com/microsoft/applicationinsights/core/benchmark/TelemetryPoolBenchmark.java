@@ -0,0 +1,110 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.core.benchmark;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import com.microsoft.applicationinsights.TelemetryConfiguration;
+import com.microsoft.applicationinsights.internal.util.Utf8BytesWriter;
+import com.microsoft.applicationinsights.telemetry.Duration;
+import com.microsoft.applicationinsights.telemetry.JsonTelemetryDataSerializer;
+import com.microsoft.applicationinsights.telemetry.RemoteDependencyTelemetry;
+import com.microsoft.applicationinsights.telemetry.TelemetryContext;
+import com.microsoft.applicationinsights.telemetry.TelemetryPool;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures creating, serializing and releasing a dependency the way the agent does for every dependency call,
+ * with a new telemetry every time and with telemetries taken from the {@link TelemetryPool}.
+ *
+ * Run with the GC profiler to get the bytes allocated per telemetry ('gc.alloc.rate.norm'):
+ * gradle :test:performance:benchmark -PbenchmarkPattern=TelemetryPoolBenchmark -PbenchmarkArgs="-prof gc"
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TelemetryPoolBenchmark {
+    private final static Duration DURATION = new Duration(25);
+
+    private TelemetryConfiguration configuration;
+    private TelemetryContext clientContext;
+    private Utf8BytesWriter writer;
+    private JsonTelemetryDataSerializer serializer;
+
+    @Setup
+    public void setup() throws IOException {
+        clientContext = new TelemetryContext();
+        clientContext.setInstrumentationKey("00000000-0000-0000-0000-000000000000");
+        clientContext.getDevice().setId("benchmark-host");
+        clientContext.getInternal().setSdkVersion("java:1.0.10");
+
+        writer = new Utf8BytesWriter();
+        serializer = new JsonTelemetryDataSerializer(writer);
+
+        configuration = new TelemetryConfiguration();
+        configuration.setTelemetryPoolingEnabled(true);
+    }
+
+    @Benchmark
+    public int newDependency() throws IOException {
+        return send(new RemoteDependencyTelemetry());
+    }
+
+    @Benchmark
+    public int pooledDependency() throws IOException {
+        return send(TelemetryPool.DEPENDENCIES.acquire(configuration));
+    }
+
+    private int send(RemoteDependencyTelemetry telemetry) throws IOException {
+        telemetry.setName("SQL: inventory");
+        telemetry.setCommandName("SELECT * FROM items WHERE id = ?");
+        telemetry.setDuration(DURATION);
+        telemetry.setSuccess(true);
+        telemetry.setType("SQL");
+        telemetry.setTimestamp(new Date());
+        telemetry.getContext().initialize(clientContext);
+        telemetry.setSamplingPercentage(100.0);
+
+        writer.reset();
+        serializer.reset(writer);
+        telemetry.serialize(serializer);
+        serializer.close();
+
+        TelemetryPool.release(telemetry);
+        return writer.size();
+    }
+}
@@ -21,11 +21,11 @@
 
 package com.microsoft.applicationinsights.core.volume;
 
+import com.microsoft.applicationinsights.internal.channel.ChannelSettings;
 import com.microsoft.applicationinsights.internal.channel.TransmitterFactory;
 import com.microsoft.applicationinsights.internal.channel.TelemetriesTransmitter;
 import com.microsoft.applicationinsights.internal.channel.TransmissionOutput;
 import com.microsoft.applicationinsights.internal.channel.TransmissionDispatcher;
-import com.microsoft.applicationinsights.internal.channel.TransmissionsLoader;
 import com.microsoft.applicationinsights.internal.channel.common.*;
 
 /**
@@ -33,25 +33,31 @@ import com.microsoft.applicationinsights.internal.channel.common.*;
  */
 final class ThroughputTestTransmitterFactory implements TransmitterFactory {
     @Override
-    public TelemetriesTransmitter create(String endpoint, String maxTransmissionStorageCapacity, boolean throttlingIsEnabled) {
+    public TelemetriesTransmitter create(ChannelSettings settings, DeflaterPool deflaterPool, ChannelStatistics statistics) {
         // An active object with the network sender
         TransmissionOutput actualNetworkSender = TestThreadLocalData.getTransmissionOutput();
-        final TransmissionPolicyManager transmissionPolicyManager = new TransmissionPolicyManager(throttlingIsEnabled);
+        final TransmissionPolicyManager transmissionPolicyManager = new TransmissionPolicyManager(settings.isThrottling());
         TransmissionPolicyStateFetcher stateFetcher = transmissionPolicyManager.getTransmissionPolicyState();
-        TransmissionOutput networkSender = new ActiveTransmissionNetworkOutput(actualNetworkSender, stateFetcher);
+        ActiveTransmissionNetworkOutput networkSender = new ActiveTransmissionNetworkOutput(actualNetworkSender, stateFetcher);
 
         // An active object with the file system sender
         TransmissionFileSystemOutput fileSystemSender = new TransmissionFileSystemOutput();
-        TransmissionOutput activeFileSystemOutput = new ActiveTransmissionFileSystemOutput(fileSystemSender, stateFetcher);
+        ActiveTransmissionFileSystemOutput activeFileSystemOutput = new ActiveTransmissionFileSystemOutput(fileSystemSender, stateFetcher);
 
         // The dispatcher works with the two active senders
         TransmissionDispatcher dispatcher = new NonBlockingDispatcher(new TransmissionOutput[] {networkSender, activeFileSystemOutput});
 
         // The loader works with the file system loader as the active one does
-        TransmissionsLoader transmissionsLoader = new ActiveTransmissionLoader(fileSystemSender, stateFetcher, dispatcher);
+        ActiveTransmissionLoader transmissionsLoader = new ActiveTransmissionLoader(fileSystemSender, stateFetcher, dispatcher, networkSender);
+        activeFileSystemOutput.setTransmissionsLoader(transmissionsLoader);
 
         // The Transmitter manage all
-        TelemetriesTransmitter telemetriesTransmitter = new TransmitterImpl(dispatcher, new GzipTelemetrySerializer(), transmissionsLoader);
+        TransmitterImpl telemetriesTransmitter = new TransmitterImpl(dispatcher, new GzipTelemetrySerializer(deflaterPool, statistics), transmissionsLoader, settings, activeFileSystemOutput, statistics.getDropCounters());
+
+        // The statistics read the state of the components when asked
+        statistics.setTransmitter(telemetriesTransmitter);
+        statistics.setTransmissionStorage(fileSystemSender);
+        statistics.setTransmissionPolicyState(stateFetcher);
 
         return telemetriesTransmitter;
     }